@@ -0,0 +1,133 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.genomeview.gui.components.CollisionMap;
+import net.sf.genomeview.gui.components.LineLayout;
+import net.sf.jannot.Feature;
+import net.sf.jannot.Location;
+
+/**
+ * Measures the layout of 50000 visible features on lines and hit tests of the
+ * mouse pointer. Features are put on lines with a {@link LineLayout} and hit
+ * tested with the indexed {@link CollisionMap}, and compared to moving them
+ * down until they no longer collide and to a scan of all rectangles like the
+ * map used to do.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class BenchmarkCollisionMap {
+
+	private static final int FEATURES = 50000;
+	private static final int WIDTH = 2000;
+	private static final int LINE = 15;
+	private static final int HITS = 100000;
+
+	/* The map as it was, every query looks at every rectangle */
+	private static class Scan {
+		private List<Rectangle> rects = new ArrayList<Rectangle>();
+
+		void addLocation(Rectangle r) {
+			rects.add(r);
+		}
+
+		boolean collision(Rectangle rectangle) {
+			for (Rectangle r : rects)
+				if (rectangle.intersects(r))
+					return true;
+			return false;
+		}
+
+		int hits(int x, int y) {
+			int count = 0;
+			for (Rectangle r : rects)
+				if (r.contains(x, y))
+					count++;
+			return count;
+		}
+	}
+
+	public static void main(String[] args) {
+		Random rg = new Random(3);
+		int[] x1 = new int[FEATURES];
+		int[] x2 = new int[FEATURES];
+		for (int i = 0; i < FEATURES; i++) {
+			x1[i] = rg.nextInt(WIDTH);
+			x2[i] = x1[i] + 1 + rg.nextInt(3);
+		}
+		Arrays.sort(x1);
+		List<Location> locations = new ArrayList<Location>();
+		for (int i = 0; i < FEATURES; i++) {
+			Feature f = new Feature();
+			Location l = new Location(i + 1, i + 100);
+			f.setLocation(l);
+			locations.add(l);
+		}
+
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			CollisionMap map = new CollisionMap(null);
+			LineLayout layout = new LineLayout();
+			for (int i = 0; i < FEATURES; i++) {
+				Rectangle r = new Rectangle(x1[i], 0, x2[i] - x1[i], LINE);
+				r.y = layout.add(x1[i], x2[i]) * LINE;
+				map.addLocation(r, locations.get(i));
+			}
+			long time = System.nanoTime() - start;
+			int lines = layout.lines();
+
+			start = System.nanoTime();
+			long count = 0;
+			for (int i = 0; i < HITS; i++)
+				count += map.locationHits(rg.nextInt(WIDTH), rg.nextInt(lines * LINE)).size();
+			long hits = System.nanoTime() - start;
+			System.out.println("Indexed\tlayout: " + time / 1000000 + " ms\tlines: " + lines + "\thit test: " + hits
+					/ HITS + " ns\t(" + count + " hits)");
+		}
+
+		/*
+		 * Moving every rectangle down until it no longer collides looks at all
+		 * lines, only a fraction of the features is laid out that way
+		 */
+		int sample = FEATURES / 10;
+		long start = System.nanoTime();
+		CollisionMap map = new CollisionMap(null);
+		int lines = 0;
+		for (int i = 0; i < sample; i++) {
+			Rectangle r = new Rectangle(x1[i * 10], 0, x2[i * 10] - x1[i * 10], LINE);
+			while (map.collision(r))
+				r.y += LINE;
+			lines = Math.max(lines, r.y / LINE + 1);
+			map.addLocation(r, locations.get(i));
+		}
+		long time = System.nanoTime() - start;
+		System.out.println("Indexed collisions of " + sample + "\tlayout: " + time / 1000000 + " ms\tlines: " + lines);
+
+		start = System.nanoTime();
+		Scan scan = new Scan();
+		lines = 0;
+		for (int i = 0; i < sample; i++) {
+			Rectangle r = new Rectangle(x1[i * 10], 0, x2[i * 10] - x1[i * 10], LINE);
+			while (scan.collision(r))
+				r.y += LINE;
+			lines = Math.max(lines, r.y / LINE + 1);
+			scan.addLocation(r);
+		}
+		time = System.nanoTime() - start;
+		start = System.nanoTime();
+		long count = 0;
+		for (int i = 0; i < HITS / 100; i++)
+			count += scan.hits(rg.nextInt(WIDTH), rg.nextInt(lines * LINE));
+		long hits = System.nanoTime() - start;
+		System.out.println("Scan of " + sample + "\tlayout: " + time / 1000000 + " ms\tlines: " + lines
+				+ "\thit test: " + hits / (HITS / 100) + " ns\t(" + count + " hits)");
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import net.sf.jannot.refseq.FaidxData;
+import net.sf.jannot.refseq.FaidxIndex;
+import net.sf.jannot.refseq.FastaContent;
+import net.sf.samtools.seekablestream.SeekableFileStream;
+
+/**
+ * Measures random window reads from an indexed FASTA file, comparing the
+ * memory mapped backend with the block cache on top of a file stream.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class BenchmarkFaidx {
+
+	private static final int LENGTH = 100000000;
+	private static final int LINE = 60;
+	private static final int QUERIES = 2000;
+	private static final int WINDOW = 100000;
+
+	public static void main(String[] args) throws IOException {
+		File fasta = File.createTempFile("benchmark", ".fasta");
+		fasta.deleteOnExit();
+		Random rg = new Random(7);
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(fasta), 1 << 20);
+		os.write(">chr1\n".getBytes());
+		byte[] line = new byte[LINE + 1];
+		line[LINE] = '\n';
+		for (int i = 0; i < LENGTH; i += LINE) {
+			for (int j = 0; j < LINE; j++)
+				line[j] = (byte) "ACGT".charAt(rg.nextInt(4));
+			os.write(line);
+		}
+		os.close();
+		String fai = "chr1\t" + LENGTH + "\t6\t" + LINE + "\t" + (LINE + 1) + "\n";
+		FaidxIndex index = new FaidxIndex(new ByteArrayInputStream(fai.getBytes()));
+
+		FaidxData mapped = new FaidxData(index, FastaContent.map(fasta), "chr1");
+		/* Goes through the block cache, as used for remote files */
+		FaidxData stream = new FaidxData(index, new SeekableFileStream(fasta), "chr1");
+		int[] queries = new int[QUERIES];
+		for (int i = 0; i < QUERIES; i++)
+			queries[i] = 1 + rg.nextInt(LENGTH - WINDOW);
+
+		long sink = run(mapped, queries) + run(stream, queries);
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			sink += run(mapped, queries);
+			long m = System.nanoTime() - start;
+			start = System.nanoTime();
+			sink += run(stream, queries);
+			long s = System.nanoTime() - start;
+			System.out.println("Round " + round + "\tmapped: " + m / QUERIES / 1000 + " us/query\tstream: " + s
+					/ QUERIES / 1000 + " us/query");
+		}
+		System.out.println(sink);
+	}
+
+	private static long run(FaidxData seq, int[] queries) {
+		byte[] out = new byte[WINDOW];
+		long sink = 0;
+		for (int q : queries) {
+			seq.get(q, q + WINDOW, out, 0);
+			sink += out[WINDOW / 2];
+		}
+		return sink;
+	}
+}
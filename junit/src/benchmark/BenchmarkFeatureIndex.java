@@ -0,0 +1,85 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import net.sf.jannot.Feature;
+import net.sf.jannot.LocatedListIterable;
+import net.sf.jannot.Location;
+import net.sf.jannot.MemoryFeatureAnnotation;
+import net.sf.jannot.Type;
+
+/**
+ * Measures viewport queries on one million features, comparing the interval
+ * index of {@link MemoryFeatureAnnotation} with a scan of the feature list.
+ * 
+ * @author Thomas Abeel
+ * 
+ */
+public class BenchmarkFeatureIndex {
+
+	private static final int FEATURES = 1000000;
+	private static final int GENOME = 250000000;
+	private static final int QUERIES = 1000;
+	private static final int WINDOW = 50000;
+
+	public static void main(String[] args) {
+		Random rg = new Random(7);
+		Type type = Type.valueOf("gene");
+		ArrayList<Feature> list = new ArrayList<Feature>(FEATURES);
+		int pos = 1;
+		for (int i = 0; i < FEATURES; i++) {
+			pos += rg.nextInt(2 * GENOME / FEATURES);
+			Feature f = new Feature();
+			f.setType(type);
+			f.setLocation(new Location(pos, pos + 100 + rg.nextInt(5000)));
+			list.add(f);
+		}
+
+		long start = System.nanoTime();
+		MemoryFeatureAnnotation mfa = new MemoryFeatureAnnotation();
+		for (Feature f : list)
+			mfa.add(f);
+		System.out.println("Building annotation with index:\t" + (System.nanoTime() - start) / 1000000 + " ms");
+
+		int[] queries = new int[QUERIES];
+		for (int i = 0; i < QUERIES; i++)
+			queries[i] = rg.nextInt(GENOME - WINDOW);
+
+		/* Warm up both paths */
+		long sink = run(mfa, list, queries, true) + run(mfa, list, queries, false);
+		for (int round = 0; round < 3; round++) {
+			start = System.nanoTime();
+			sink += run(mfa, list, queries, true);
+			long indexed = System.nanoTime() - start;
+			start = System.nanoTime();
+			sink += run(mfa, list, queries, false);
+			long scanned = System.nanoTime() - start;
+			System.out.println("Per query:\tindex " + indexed / QUERIES / 1000 + " us\tscan " + scanned / QUERIES / 1000
+					+ " us");
+		}
+
+		/* Edits keep the index up to date */
+		start = System.nanoTime();
+		for (int i = 0; i < 10000; i++) {
+			Feature f = list.get(rg.nextInt(FEATURES));
+			f.location()[0].setStart(f.start() + 1);
+		}
+		System.out.println("Per coordinate edit:\t" + (System.nanoTime() - start) / 10000 / 1000 + " us");
+		System.out.println(sink);
+	}
+
+	private static long run(MemoryFeatureAnnotation mfa, ArrayList<Feature> list, int[] queries, boolean index) {
+		long count = 0;
+		for (int q : queries) {
+			Iterable<Feature> it = index ? mfa.get(q, q + WINDOW) : new LocatedListIterable<Feature>(list, new Location(q,
+					q + WINDOW));
+			for (Feature f : it)
+				count += f.start() & 1;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.jannot.pileup.PileBlock;
+import net.sf.jannot.source.Locator;
+import net.sf.jannot.tabix.IndexedFeatureFile;
+import net.sf.jannot.tabix.TabixLine;
+import net.sf.jannot.tabix.TabixWriter;
+import net.sf.jannot.tabix.TabixWriter.Conf;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+/**
+ * Measures how the summary chunks of a tabix pileup file scale with the number
+ * of workers. Each task reads one chunk like a pileup summary task does, all
+ * tasks of a round share one file so they also share its tile cache.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class BenchmarkPileupChunks {
+
+	private static final int POSITIONS = 2000000;
+
+	/* Size of a chunk of the pileup summary */
+	private static final int CHUNK = 32000;
+
+	public static void main(String[] args) throws Exception {
+		File gz = File.createTempFile("benchmark", ".pileup.gz");
+		gz.deleteOnExit();
+		File tbi = new File(gz + ".tbi");
+		tbi.deleteOnExit();
+		Random rg = new Random(7);
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(gz);
+		StringBuilder reads = new StringBuilder();
+		for (int pos = 1; pos <= POSITIONS; pos++) {
+			reads.setLength(0);
+			int depth = 10 + rg.nextInt(30);
+			for (int i = 0; i < depth; i++)
+				reads.append(rg.nextBoolean() ? '.' : ',');
+			out.write(("chr1\t" + pos + "\tA\t" + depth + "\t" + reads + "\t" + reads + "\n").getBytes());
+		}
+		out.close();
+		/* Sequence in column 1, position in column 2 */
+		new TabixWriter(new Locator(gz), new Conf(0, 1, 2, 0, '#', 0)).createIndex(new Locator(tbi));
+		System.out.println("Positions: " + POSITIONS + ", compressed size: " + gz.length() / 1024 + " KB, cores: "
+				+ Runtime.getRuntime().availableProcessors());
+
+		for (int round = 0; round < 3; round++) {
+			long single = 0;
+			for (int workers = 1; workers <= 8; workers *= 2) {
+				long time = run(gz, tbi, workers);
+				if (workers == 1)
+					single = time;
+				System.out.println("Round " + round + "\tworkers: " + workers + "\t" + time / 1000000 + " ms\t"
+						+ String.format("%.1f", single / (double) time) + "x");
+			}
+		}
+	}
+
+	private static long run(File gz, File tbi, int workers) throws Exception {
+		final IndexedFeatureFile iff = new IndexedFeatureFile(new Locator(gz), new Locator(tbi));
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		long start = System.nanoTime();
+		List<Future<Integer>> chunks = new ArrayList<Future<Integer>>();
+		for (int from = 0; from < POSITIONS; from += CHUNK) {
+			final int chunkStart = from;
+			chunks.add(pool.submit(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception {
+					PileBlock block = new PileBlock(2, 1024);
+					for (TabixLine line : iff.query("chr1", chunkStart, chunkStart + CHUNK))
+						block.addReads(line.getInt(1), line.getBytes(4));
+					return block.size();
+				}
+			}));
+		}
+		int piles = 0;
+		for (Future<Integer> f : chunks)
+			piles += f.get();
+		long time = System.nanoTime() - start;
+		pool.shutdown();
+		if (piles < POSITIONS)
+			throw new IllegalStateException("Missing piles: " + piles);
+		return time;
+	}
+}
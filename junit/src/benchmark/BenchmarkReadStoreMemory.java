@@ -0,0 +1,110 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import net.sf.jannot.shortread.ReadStore;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+/**
+ * Compares the retained heap of one million paired 100 bp reads when kept as
+ * SAMRecord objects with mate maps, like BAMreads used to do, and when kept in
+ * a {@link ReadStore}.
+ * 
+ * Run with a large heap, for example -Xmx4g.
+ * 
+ * @author Thomas Abeel
+ * 
+ */
+public class BenchmarkReadStoreMemory {
+
+	private static final int READS = 1000000;
+	private static final int LENGTH = 100;
+
+	private static long used() {
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static SAMRecord[] generate(SAMFileHeader h) {
+		Random rg = new Random(42);
+		byte[] nt = "ACGT".getBytes();
+		byte[] bases = new byte[LENGTH];
+		byte[] quals = new byte[LENGTH];
+		SAMRecord[] out = new SAMRecord[READS];
+		int pos = 1;
+		for (int i = 0; i < READS; i += 2) {
+			pos += rg.nextInt(2);
+			int insert = 300 + rg.nextInt(100);
+			for (int k = 0; k < 2; k++) {
+				SAMRecord r = new SAMRecord(h);
+				r.setReadName("HWI-ST1234:8:1101:" + (i / 2) + ":" + rg.nextInt(20000));
+				r.setReferenceIndex(0);
+				r.setAlignmentStart(k == 0 ? pos : pos + insert);
+				r.setCigarString(LENGTH + "M");
+				for (int j = 0; j < LENGTH; j++) {
+					bases[j] = nt[rg.nextInt(4)];
+					quals[j] = (byte) rg.nextInt(40);
+				}
+				r.setReadBases(bases.clone());
+				r.setBaseQualities(quals.clone());
+				r.setFlags(0x1 | (k == 0 ? 0x40 : 0x80 | 0x10));
+				r.setMateReferenceIndex(0);
+				r.setMateAlignmentStart(k == 0 ? pos + insert : pos);
+				r.setMappingQuality(rg.nextInt(60));
+				out[i + k] = r;
+			}
+		}
+		return out;
+	}
+
+	public static void main(String[] args) {
+		SAMFileHeader h = new SAMFileHeader();
+		h.addSequence(new SAMSequenceRecord("chr1", 250000000));
+
+		long base = used();
+		SAMRecord[] records = generate(h);
+		ArrayList<SAMRecord> list = new ArrayList<SAMRecord>();
+		HashMap<String, SAMRecord> first = new HashMap<String, SAMRecord>();
+		HashMap<String, SAMRecord> second = new HashMap<String, SAMRecord>();
+		for (SAMRecord r : records) {
+			list.add(r);
+			if (r.getFirstOfPairFlag())
+				first.put(r.getReadName(), r);
+			else
+				second.put(r.getReadName(), r);
+		}
+		records = null;
+		long samBytes = used() - base;
+		System.out.println("SAMRecord + mate maps:\t" + samBytes / (1024 * 1024) + " MB\t" + samBytes / READS + " bytes/read");
+
+		long start = System.currentTimeMillis();
+		ReadStore rs = new ReadStore(READS, null);
+		for (SAMRecord r : list)
+			rs.add(r);
+		rs.linkMates();
+		rs.trim();
+		long time = System.currentTimeMillis() - start;
+		list = null;
+		first = null;
+		second = null;
+		long storeBytes = used() - base;
+		System.out.println("ReadStore:\t\t" + storeBytes / (1024 * 1024) + " MB\t" + storeBytes / READS + " bytes/read");
+		System.out.println("ReadStore estimate:\t" + rs.bytes() / (1024 * 1024) + " MB");
+		System.out.println("Conversion and mate linking:\t" + time + " ms");
+	}
+}
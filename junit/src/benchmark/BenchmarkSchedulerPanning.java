@@ -0,0 +1,87 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+
+import net.sf.genomeview.data.GenomeViewScheduler;
+import net.sf.genomeview.data.Task;
+import net.sf.jannot.Location;
+
+/**
+ * Queues 10k pile-up sized tasks and measures the CPU time that is spent on
+ * reprioritizing the queue while panning.
+ * 
+ * @author Thomas Abeel
+ * 
+ */
+public class BenchmarkSchedulerPanning {
+
+	private static final int CHUNK = 32000;
+	private static final int TASKS = 10000;
+	private static final int WINDOW = 1000000;
+
+	/* Mimics PileupTask: cancelling removes the task */
+	private static class ChunkTask extends Task {
+		private boolean cancelled = false;
+
+		ChunkTask(int idx, Object source) {
+			super(new Location(idx * CHUNK, (idx + 1) * CHUNK), source);
+		}
+
+		@Override
+		public void cancel() {
+			super.cancel();
+			cancelled = true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public void run() {
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		GenomeViewScheduler.configure(1, 1);
+		Object source = new Object();
+		final CountDownLatch block = new CountDownLatch(1);
+		/* Keep the single worker busy so everything stays queued */
+		GenomeViewScheduler.submit(new Task(null, source) {
+			@Override
+			public void run() {
+				try {
+					block.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		});
+		Thread.sleep(100);
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < TASKS; i++)
+				GenomeViewScheduler.submit(new ChunkTask(i, source));
+			System.out.println("Queued: " + GenomeViewScheduler.queueLength());
+			int start = round * 10 * WINDOW;
+			long cpu = bean.getCurrentThreadCpuTime();
+			for (int step = 0; step < 1000; step++) {
+				int s = start + step * WINDOW / 10;
+				GenomeViewScheduler.setVisible(new Location(s, s + WINDOW));
+				if (step % 250 == 249) {
+					long now = bean.getCurrentThreadCpuTime();
+					System.out.printf("\tpans %4d: %.3f ms CPU per 250 pans, queued %d%n", step + 1,
+							(now - cpu) / 1e6, GenomeViewScheduler.queueLength());
+					cpu = now;
+				}
+			}
+		}
+		block.countDown();
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.samtools.seekablestream.SeekableFileStream;
+
+import org.broad.igv.tdf.TDFDataset;
+import org.broad.igv.tdf.TDFFixedTile;
+import org.broad.igv.tdf.TDFReader;
+import org.broad.igv.tdf.TDFTile;
+import org.broad.igv.tdf.TDFTileCache;
+import org.broad.igv.tdf.TDFWriter;
+import org.broad.igv.track.WindowFunction;
+
+/**
+ * Measures the tile throughput of a TDF file read from several threads, like
+ * a number of coverage tracks that are scrolled at the same time.
+ *
+ * Every configuration is run with all threads taking one lock around each
+ * tile read, which is how the reader used to work, and with concurrent
+ * reads. The tile cache is first disabled to measure reading and decoding,
+ * then enabled with room for half the tiles.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class BenchmarkTDFReader {
+
+	private static final int TILES = 2000;
+	private static final int BINS = 700;
+	private static final int READS = 20000;
+
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("benchmark", ".tdf");
+		file.deleteOnExit();
+		TDFWriter writer = new TDFWriter(file, "benchmark", "COVERAGE", null, new String[] { "forward", "reverse" },
+				Arrays.asList(WindowFunction.mean), true);
+		writer.createDataset("/chr1/z0/mean", TDFDataset.DataType.FLOAT, BINS * 10, TILES);
+		Random rg = new Random(1);
+		for (int t = 0; t < TILES; t++) {
+			float[][] data = new float[2][BINS];
+			for (int i = 0; i < BINS; i++) {
+				data[0][i] = rg.nextInt(60);
+				data[1][i] = rg.nextInt(60);
+			}
+			writer.submitTile("/chr1/z0/mean", t, new TDFFixedTile(t * BINS * 10, t * BINS * 10, 10, data));
+		}
+		writer.closeFile();
+		System.out.println("TDF size: " + file.length() / 1024 + " KB");
+
+		TDFReader reader = TDFReader.getReader(new SeekableFileStream(file));
+		TDFDataset ds = reader.getDataset("/chr1/z0/mean");
+		for (long cache : new long[] { 0, TILES / 2 * BINS * 8L }) {
+			TDFTileCache.setMaxBytes(cache);
+			for (int threads : new int[] { 1, 2, 4, 8 }) {
+				double locked = run(ds, threads, true);
+				double concurrent = run(ds, threads, false);
+				System.out.printf("cache %d KB\tthreads %d\tlocked: %.0f tiles/s\tconcurrent: %.0f tiles/s%n",
+						cache / 1024, threads, locked, concurrent);
+			}
+		}
+		reader.close();
+	}
+
+	private static double run(final TDFDataset ds, int threads, final boolean locked) throws Exception {
+		final Object lock = new Object();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Float>> results = new ArrayList<Future<Float>>();
+		long start = System.nanoTime();
+		for (int i = 0; i < threads; i++) {
+			final int seed = i;
+			results.add(pool.submit(new Callable<Float>() {
+
+				@Override
+				public Float call() throws Exception {
+					Random rg = new Random(seed);
+					float sum = 0;
+					for (int j = 0; j < READS; j++) {
+						/* Panning tracks look at neighbouring tiles */
+						int t = (int) Math.abs((rg.nextGaussian() * TILES / 4 + TILES / 2)) % TILES;
+						TDFTile tile;
+						if (locked) {
+							synchronized (lock) {
+								tile = ds.getTile(t);
+							}
+						} else {
+							tile = ds.getTile(t);
+						}
+						sum += tile.getValue(0, j % BINS);
+					}
+					return sum;
+				}
+			}));
+		}
+		for (Future<Float> f : results)
+			f.get();
+		pool.shutdown();
+		return threads * (double) READS / ((System.nanoTime() - start) / 1e9);
+	}
+}
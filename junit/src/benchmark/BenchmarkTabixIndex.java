@@ -0,0 +1,170 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import net.sf.jannot.source.Locator;
+import net.sf.jannot.tabix.IndexedFeatureFile;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+/**
+ * Measures load time and heap use of a large tabix index, comparing the
+ * packed index of {@link IndexedFeatureFile} with the boxed structure of
+ * hash maps and lists of chunk objects it replaced.
+ *
+ * The index is synthetic and sized like the one of a large variant file: 25
+ * sequences of 250 Mb with records in every 16 kb bin.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class BenchmarkTabixIndex {
+
+	private static final int SEQUENCES = 25;
+	private static final int LENGTH = 250000000;
+
+	/* The structure used before */
+	private static class Pair {
+		long start, end;
+
+		Pair(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private static class BoxedIndex {
+		HashMap<Integer, ArrayList<Pair>>[] index;
+		ArrayList<Long>[] linIndex;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File gz = File.createTempFile("benchmark", ".vcf.gz");
+		gz.deleteOnExit();
+		new FileOutputStream(gz).close();
+		File tbi = new File(gz + ".tbi");
+		tbi.deleteOnExit();
+		write(tbi);
+		System.out.println("Index size: " + tbi.length() / 1024 + " KB");
+
+		Object keep = null;
+		for (int round = 0; round < 3; round++) {
+			keep = null;
+			long before = used();
+			long start = System.nanoTime();
+			keep = new IndexedFeatureFile(new Locator(gz), new Locator(tbi));
+			long time = System.nanoTime() - start;
+			long packed = used() - before;
+
+			keep = null;
+			before = used();
+			start = System.nanoTime();
+			keep = boxed(tbi);
+			long boxedTime = System.nanoTime() - start;
+			long boxed = used() - before;
+			System.out.println("Round " + round + "\tpacked: " + time / 1000000 + " ms, " + packed / 1024
+					+ " KB\tboxed: " + boxedTime / 1000000 + " ms, " + boxed / 1024 + " KB");
+		}
+		System.out.println(keep != null);
+	}
+
+	private static long used() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	private static void write(File tbi) throws IOException {
+		Random rg = new Random(7);
+		ByteBuffer bb = ByteBuffer.allocate(1 << 28).order(ByteOrder.LITTLE_ENDIAN);
+		bb.put("TBI\1".getBytes());
+		bb.putInt(SEQUENCES);
+		bb.putInt(2).putInt(1).putInt(2).putInt(0).putInt('#').putInt(0);
+		ByteArrayOutputStream names = new ByteArrayOutputStream();
+		for (int i = 0; i < SEQUENCES; i++) {
+			names.write(("chr" + (i + 1)).getBytes());
+			names.write(0);
+		}
+		bb.putInt(names.size());
+		bb.put(names.toByteArray());
+		int leaves = LENGTH >>> 14;
+		long offset = 0;
+		for (int i = 0; i < SEQUENCES; i++) {
+			/* Every leaf bin and some of the bins on the higher levels */
+			int nBins = leaves + leaves / 8;
+			bb.putInt(nBins);
+			for (int b = 0; b < leaves; b++) {
+				bb.putInt(4681 + b);
+				int chunks = 1 + rg.nextInt(3);
+				bb.putInt(chunks);
+				for (int c = 0; c < chunks; c++) {
+					long size = 1 + rg.nextInt(60000);
+					bb.putLong(offset << 16).putLong((offset + size) << 16);
+					offset += size;
+				}
+			}
+			for (int b = 0; b < leaves / 8; b++) {
+				bb.putInt(585 + b);
+				bb.putInt(1);
+				bb.putLong(rg.nextInt(1 << 30)).putLong(rg.nextInt(1 << 30));
+			}
+			bb.putInt(leaves);
+			for (int b = 0; b < leaves; b++)
+				bb.putLong((long) b << 20);
+		}
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(tbi);
+		out.write(bb.array(), 0, bb.position());
+		out.close();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static BoxedIndex boxed(File tbi) throws IOException {
+		InputStream in = new BlockCompressedInputStream(tbi);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1 << 16];
+		int r;
+		while ((r = in.read(buffer)) >= 0)
+			bos.write(buffer, 0, r);
+		in.close();
+		ByteBuffer bb = ByteBuffer.wrap(bos.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		bb.position(4);
+		int n = bb.getInt();
+		bb.position(bb.position() + 24);
+		int namesLength = bb.getInt();
+		bb.position(bb.position() + namesLength);
+		BoxedIndex idx = new BoxedIndex();
+		idx.index = new HashMap[n];
+		idx.linIndex = new ArrayList[n];
+		for (int i = 0; i < n; i++) {
+			idx.index[i] = new HashMap<Integer, ArrayList<Pair>>();
+			idx.linIndex[i] = new ArrayList<Long>();
+			int nBins = bb.getInt();
+			for (int j = 0; j < nBins; j++) {
+				int key = bb.getInt();
+				ArrayList<Pair> p = new ArrayList<Pair>();
+				idx.index[i].put(key, p);
+				int pairs = bb.getInt();
+				p.ensureCapacity(pairs);
+				for (int k = 0; k < pairs; k++)
+					p.add(new Pair(bb.getLong(), bb.getLong()));
+			}
+			int offsets = bb.getInt();
+			idx.linIndex[i].ensureCapacity(offsets);
+			for (int j = 0; j < offsets; j++)
+				idx.linIndex[i].add(bb.getLong());
+		}
+		return idx;
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.jannot.picard.BGZFLineReader;
+import net.sf.jannot.source.Locator;
+import net.sf.jannot.tabix.IndexedFeatureFile;
+import net.sf.jannot.tabix.TabixLine;
+import net.sf.jannot.tabix.TabixWriter;
+import net.sf.samtools.seekablestream.SeekableFileStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+/**
+ * Measures the parsing throughput of the lines of a tabix indexed VCF file.
+ * The tokenizer of {@link TabixLine} is compared with splitting every line in
+ * Strings, as was done before. Both read the decompressed lines from a
+ * {@link BGZFLineReader}, and the time to only inflate the file is reported
+ * as well.
+ *
+ * The first argument is the uncompressed size of the file in megabytes, 1024
+ * by default. Writing and indexing the file takes a few minutes.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class BenchmarkTabixLine {
+
+	private static final String[] BASES = { "A", "C", "G", "T" };
+
+	public static void main(String[] args) throws Exception {
+		long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 1024;
+		File gz = File.createTempFile("benchmark", ".vcf.gz");
+		gz.deleteOnExit();
+		File tbi = new File(gz + ".tbi");
+		tbi.deleteOnExit();
+		long bytes = write(gz, megabytes * 1024 * 1024);
+		new TabixWriter(new Locator(gz), TabixWriter.VCF_CONF).createIndex(new Locator(tbi));
+		System.out.println("Uncompressed: " + bytes / 1024 / 1024 + " MB, compressed: " + gz.length() / 1024 / 1024
+				+ " MB");
+
+		IndexedFeatureFile iff = new IndexedFeatureFile(new Locator(gz), new Locator(tbi));
+		List<String> names = new ArrayList<String>();
+		for (int i = 1; i <= 22; i++)
+			names.add("chr" + i);
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			int inflated = read(gz, null, null);
+			long inflate = System.nanoTime() - start;
+			start = System.nanoTime();
+			int strings = read(gz, null, names);
+			long s = System.nanoTime() - start;
+			start = System.nanoTime();
+			int tokens = read(gz, iff, null);
+			long t = System.nanoTime() - start;
+			System.out.println("Round " + round + "\tinflate only: " + rate(bytes, inflate) + " (" + inflated
+					+ " lines)\tStrings: " + rate(bytes, s) + " (" + strings + " lines)\tTabixLine: " + rate(bytes, t)
+					+ " (" + tokens + " lines)");
+		}
+	}
+
+	private static String rate(long bytes, long nanos) {
+		return nanos / 1000000 + " ms, " + (bytes * 1000 / nanos) + " MB/s";
+	}
+
+	/* Sorted SNPs on 22 chromosomes with a few INFO fields and genotypes */
+	private static long write(File gz, long size) throws IOException {
+		Random rg = new Random(5);
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(gz);
+		byte[] header = "##fileformat=VCFv4.1\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\n"
+				.getBytes();
+		out.write(header);
+		long bytes = header.length;
+		long perChromosome = size / 22;
+		StringBuilder sb = new StringBuilder();
+		for (int chr = 1; chr <= 22; chr++) {
+			long written = 0;
+			int pos = 1;
+			while (written < perChromosome) {
+				pos += 1 + rg.nextInt(200);
+				sb.setLength(0);
+				sb.append("chr").append(chr).append('\t').append(pos).append("\trs").append(rg.nextInt(100000000))
+						.append('\t').append(BASES[rg.nextInt(4)]).append('\t').append(BASES[rg.nextInt(4)])
+						.append('\t').append(rg.nextInt(100)).append("\tPASS\tDP=").append(rg.nextInt(500))
+						.append(";AF=0.").append(rg.nextInt(100)).append("\tGT:GQ\t0/1:").append(rg.nextInt(99))
+						.append("\t1/1:").append(rg.nextInt(99)).append('\n');
+				byte[] line = sb.toString().getBytes();
+				out.write(line);
+				written += line.length;
+			}
+			bytes += written;
+		}
+		out.close();
+		return bytes;
+	}
+
+	/*
+	 * Reads all lines and parses them with the file, splits them in Strings
+	 * when names are given, or only counts them.
+	 */
+	private static int read(File gz, final IndexedFeatureFile iff, final List<String> names) throws IOException {
+		final int[] count = new int[1];
+		final long[] sum = new long[1];
+		BGZFLineReader in = new BGZFLineReader(new SeekableFileStream(gz));
+		in.read(new long[] { 0 }, new long[] { Long.MAX_VALUE }, 1, new BGZFLineReader.LineHandler() {
+			@Override
+			public boolean line(byte[] buffer, int offset, int length) {
+				if (length > 0 && buffer[offset] == '#')
+					return true;
+				if (iff != null) {
+					TabixLine tl = iff.parse(buffer, offset, length);
+					sum[0] += tl.beg;
+				} else if (names != null) {
+					sum[0] += split(new String(buffer, offset, length), names);
+				}
+				count[0]++;
+				return true;
+			}
+		});
+		in.close();
+		if (sum[0] == 42)
+			System.out.println();
+		return count[0];
+	}
+
+	/* The parsing that TabixLine replaced */
+	private static int split(String line, List<String> names) {
+		ArrayList<String> fields = new ArrayList<String>();
+		StringBuffer tmp = new StringBuffer();
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '\t') {
+				fields.add(tmp.toString());
+				tmp = new StringBuffer();
+			} else {
+				tmp.append(c);
+			}
+		}
+		fields.add(tmp.toString());
+		return names.indexOf(fields.get(0)) + Integer.parseInt(fields.get(1));
+	}
+}
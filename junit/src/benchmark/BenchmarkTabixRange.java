@@ -0,0 +1,101 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import net.sf.jannot.picard.BGZFLineReader;
+import net.sf.jannot.picard.LineBlockCompressedInputStream;
+import net.sf.jannot.source.Locator;
+import net.sf.jannot.tabix.IndexedFeatureFile;
+import net.sf.jannot.tabix.TabixLine;
+import net.sf.jannot.tabix.TabixWriter;
+import net.sf.samtools.seekablestream.SeekableFileStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+/**
+ * Measures reading a large range of a tabix file, comparing the parallel
+ * {@link BGZFLineReader} used by {@link IndexedFeatureFile} with reading the
+ * same lines from a single BGZF stream. Both parse the coordinates of each
+ * line. The speedup depends on the number of cores.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class BenchmarkTabixRange {
+
+	private static final int LINES = 2000000;
+
+	public static void main(String[] args) throws Exception {
+		File gz = File.createTempFile("benchmark", ".gff.gz");
+		gz.deleteOnExit();
+		File tbi = new File(gz + ".tbi");
+		tbi.deleteOnExit();
+		Random rg = new Random(7);
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(gz);
+		int pos = 1;
+		for (int i = 0; i < LINES; i++) {
+			pos += rg.nextInt(100);
+			out.write(("chr1\tbenchmark\tgene\t" + pos + "\t" + (pos + rg.nextInt(1000)) + "\t.\t+\t.\tID=gene" + i
+					+ ";Name=gene" + i + "\n").getBytes());
+		}
+		out.close();
+		new TabixWriter(new Locator(gz), TabixWriter.GFF_CONF).createIndex(new Locator(tbi));
+		System.out.println("Lines: " + LINES + ", compressed size: " + gz.length() / 1024 + " KB, cores: "
+				+ Runtime.getRuntime().availableProcessors());
+
+		IndexedFeatureFile iff = new IndexedFeatureFile(new Locator(gz), new Locator(tbi));
+		int count = 0;
+		for (TabixLine tl : iff.query("chr1", 1, 1000000))
+			count++;
+		System.out.println("Lines in first megabase through IndexedFeatureFile: " + count);
+
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			int parallel = parallel(gz);
+			long p = System.nanoTime() - start;
+			start = System.nanoTime();
+			int sequential = sequential(gz);
+			long s = System.nanoTime() - start;
+			System.out.println("Round " + round + "\tparallel: " + p / 1000000 + " ms (" + parallel
+					+ " lines)\tsingle stream: " + s / 1000000 + " ms (" + sequential + " lines)");
+		}
+	}
+
+	private static void parse(String line) {
+		String[] arr = line.split("\t");
+		Integer.parseInt(arr[3]);
+		Integer.parseInt(arr[4]);
+	}
+
+	/* The whole file as a single chunk */
+	private static int parallel(File gz) throws IOException {
+		final int[] count = new int[1];
+		BGZFLineReader in = new BGZFLineReader(new SeekableFileStream(gz));
+		in.read(new long[] { 0 }, new long[] { Long.MAX_VALUE }, 1, new BGZFLineReader.LineHandler() {
+			@Override
+			public boolean line(byte[] buffer, int offset, int length) {
+				parse(new String(buffer, offset, length));
+				count[0]++;
+				return true;
+			}
+		});
+		in.close();
+		return count[0];
+	}
+
+	private static int sequential(File gz) throws IOException {
+		LineBlockCompressedInputStream in = new LineBlockCompressedInputStream(new SeekableFileStream(gz));
+		int count = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			parse(line);
+			count++;
+		}
+		in.close();
+		return count;
+	}
+}
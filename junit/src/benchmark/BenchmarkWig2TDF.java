@@ -0,0 +1,70 @@
+/**
+ * %HEADER%
+ */
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+import net.sf.genomeview.data.ConvertWig2TDF;
+import net.sf.jannot.source.Locator;
+
+/**
+ * Measures the conversion of a wiggle file to TDF with the zoom levels
+ * accumulated sequentially and with the pipelined converter.
+ *
+ * The wiggle file is synthetic, fixed step coverage in windows of 50 bp
+ * on chromosomes of at most 250 Mb. The first argument is the genome size in
+ * Mb, 3000 gives a human sized genome of 3 Gb. The default is 300 Mb.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class BenchmarkWig2TDF {
+
+	private static final int CHROMOSOME = 250000000;
+	private static final int STEP = 50;
+
+	public static void main(String[] args) throws Exception {
+		long genome = (args.length > 0 ? Long.parseLong(args[0]) : 300) * 1000000L;
+		File wig = File.createTempFile("benchmark", ".wig");
+		wig.deleteOnExit();
+		write(wig, genome);
+		System.out.println("Wiggle size: " + wig.length() / 1024 / 1024 + " MB");
+
+		File out = File.createTempFile("benchmark", ".tdf");
+		out.deleteOnExit();
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			ConvertWig2TDF.convertWig2TDF(new Locator(wig), out, false);
+			long sequential = System.nanoTime() - start;
+			start = System.nanoTime();
+			ConvertWig2TDF.convertWig2TDF(new Locator(wig), out, true);
+			long parallel = System.nanoTime() - start;
+			System.out.println("Round " + round + "\tsequential: " + sequential / 1000000 + " ms\tparallel: "
+					+ parallel / 1000000 + " ms\tTDF size: " + out.length() / 1024 + " KB");
+		}
+	}
+
+	private static void write(File wig, long genome) throws IOException {
+		Random rg = new Random(11);
+		BufferedWriter out = new BufferedWriter(new FileWriter(wig), 1 << 20);
+		out.write("track type=wiggle_0 name=benchmark\n");
+		int chr = 1;
+		for (long done = 0; done < genome; done += CHROMOSOME, chr++) {
+			long length = Math.min(CHROMOSOME, genome - done);
+			out.write("fixedStep chrom=chr" + chr + " start=1 step=" + STEP + " span=" + STEP + "\n");
+			/* Coverage that drifts, like real sequencing data */
+			int value = 30;
+			for (long pos = 0; pos < length; pos += STEP) {
+				value = Math.max(0, value + rg.nextInt(7) - 3);
+				out.write(Integer.toString(value));
+				out.write('\n');
+			}
+		}
+		out.close();
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+
+import net.sf.jannot.Feature;
+import net.sf.jannot.Location;
+import net.sf.jannot.MemoryFeatureAnnotation;
+import net.sf.jannot.Strand;
+import net.sf.jannot.Type;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestAnnotationModel {
+
+	private static class Recorder implements Observer {
+		List<String> updates = new ArrayList<String>();
+
+		@Override
+		public void update(Observable o, Object arg) {
+			updates.add(arg.toString());
+		}
+	}
+
+	private static Feature feature(Type type, int start, int end) {
+		Feature f = new Feature();
+		f.setType(type);
+		f.setLocation(new Location(start, end));
+		return f;
+	}
+
+	@Test
+	public void testEdits() {
+		Type type = Type.get("CDS");
+		AnnotationModel am = new AnnotationModel();
+		Recorder r = new Recorder();
+		am.addObserver(r);
+
+		MemoryFeatureAnnotation annot = new MemoryFeatureAnnotation();
+		Feature f = feature(type, 100, 200);
+		annot.add(f);
+		am.watch(type, annot);
+		/* Watching twice does not send the edits twice */
+		am.watch(type, annot);
+		Assert.assertTrue(r.updates.isEmpty());
+
+		annot.add(feature(type, 1000, 1100));
+		Assert.assertEquals("CDS:1000-1100", r.updates.get(0));
+
+		/* The region covers where the feature was and where it is now */
+		f.location()[0].setEnd(300);
+		Assert.assertEquals("CDS:100-300", r.updates.get(1));
+		f.location()[0].setStart(150);
+		Assert.assertEquals("CDS:100-300", r.updates.get(2));
+
+		f.setStrand(Strand.REVERSE);
+		Assert.assertEquals("CDS:150-300", r.updates.get(3));
+
+		annot.remove(f);
+		Assert.assertEquals("CDS:150-300", r.updates.get(4));
+		Assert.assertEquals(5, r.updates.size());
+
+		/* Edits of features that were removed are not passed on */
+		f.location()[0].setEnd(400);
+		Assert.assertEquals(5, r.updates.size());
+
+		am.typeUpdated(type);
+		Assert.assertEquals("CDS", r.updates.get(5));
+	}
+}
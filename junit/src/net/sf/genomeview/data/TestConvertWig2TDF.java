@@ -0,0 +1,90 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import net.sf.jannot.source.Locator;
+import net.sf.samtools.seekablestream.SeekableFileStream;
+
+import org.broad.igv.tdf.TDFDataset;
+import org.broad.igv.tdf.TDFReader;
+import org.broad.igv.tdf.TDFTile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestConvertWig2TDF {
+
+	private File wig;
+	private File sequential;
+	private File parallel;
+
+	@Before
+	public void setUp() throws Exception {
+		wig = File.createTempFile("convert", ".wig");
+		sequential = File.createTempFile("sequential", ".tdf");
+		parallel = File.createTempFile("parallel", ".tdf");
+		Random rg = new Random(3);
+		PrintWriter out = new PrintWriter(new FileWriter(wig));
+		out.println("track type=wiggle_0 name=test");
+		out.println("fixedStep chrom=chr1 start=1 step=10 span=10");
+		for (int i = 0; i < 40000; i++)
+			out.println(rg.nextInt(100));
+		out.println("variableStep chrom=chr2 span=5");
+		for (int i = 0; i < 30000; i++)
+			out.println((i * 17 + 1) + "\t" + rg.nextFloat());
+		out.close();
+	}
+
+	@After
+	public void tearDown() {
+		wig.delete();
+		sequential.delete();
+		parallel.delete();
+	}
+
+	@Test
+	public void testParallel() throws Exception {
+		ConvertWig2TDF.convertWig2TDF(new Locator(wig), sequential, false);
+		ConvertWig2TDF.convertWig2TDF(new Locator(wig), parallel, true);
+
+		TDFReader a = TDFReader.getReader(new SeekableFileStream(sequential));
+		TDFReader b = TDFReader.getReader(new SeekableFileStream(parallel));
+		Assert.assertEquals(a.getDatasetNames(), b.getDatasetNames());
+		Assert.assertTrue(a.getDatasetNames().contains("/chr2/raw"));
+		int tiles = 0;
+		for (String name : a.getDatasetNames()) {
+			TDFDataset da = a.getDataset(name);
+			TDFDataset db = b.getDataset(name);
+			Assert.assertEquals(da.getNumberOfTiles(), db.getNumberOfTiles());
+			for (int i = 0; i < da.getNumberOfTiles(); i++) {
+				TDFTile ta = a.readTile(da, i);
+				TDFTile tb = b.readTile(db, i);
+				if (ta == null) {
+					Assert.assertNull(tb);
+					continue;
+				}
+				tiles++;
+				Assert.assertEquals(name + "[" + i + "]", ta.getSize(), tb.getSize());
+				for (int j = 0; j < ta.getSize(); j++) {
+					Assert.assertEquals(ta.getStartPosition(j), tb.getStartPosition(j));
+					Assert.assertEquals(ta.getEndPosition(j), tb.getEndPosition(j));
+					Assert.assertEquals(ta.getValue(0, j), tb.getValue(0, j), 0);
+				}
+			}
+		}
+		Assert.assertTrue(tiles > 10);
+		a.close();
+		b.close();
+	}
+}
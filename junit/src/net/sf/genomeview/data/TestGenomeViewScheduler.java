@@ -0,0 +1,211 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.jannot.Location;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class TestGenomeViewScheduler {
+
+	/**
+	 * A source that blocks its worker should not prevent tasks from another
+	 * source to run.
+	 */
+	@Test
+	public void testSourceIsolation() throws InterruptedException {
+		GenomeViewScheduler.configure(2, 1);
+		final Object slow = new Object();
+		final Object fast = new Object();
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		for (int i = 0; i < 3; i++) {
+			GenomeViewScheduler.submit(new Task(null, slow) {
+				@Override
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			});
+		}
+		GenomeViewScheduler.submit(new Task(null, fast) {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		release.countDown();
+		GenomeViewScheduler.cancel(slow);
+		GenomeViewScheduler.cancel(fast);
+	}
+
+	/**
+	 * A source with a raised limit runs several tasks at the same time.
+	 */
+	@Test
+	public void testSourceLimit() throws InterruptedException {
+		GenomeViewScheduler.configure(3, 1);
+		final Object source = new Object();
+		GenomeViewScheduler.setSourceLimit(source, 0);
+		final CountDownLatch all = new CountDownLatch(3);
+		final CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < 3; i++) {
+			GenomeViewScheduler.submit(new Task(null, source) {
+				@Override
+				public void run() {
+					all.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			});
+		}
+		/* Only possible when the three tasks run concurrently */
+		Assert.assertTrue(all.await(5, TimeUnit.SECONDS));
+		release.countDown();
+		GenomeViewScheduler.cancel(source);
+	}
+
+	/**
+	 * Cancelling a source forgets its raised limit.
+	 */
+	@Test
+	public void testSourceLimitReset() throws InterruptedException {
+		GenomeViewScheduler.configure(2, 1);
+		final Object source = new Object();
+		GenomeViewScheduler.setSourceLimit(source, 0);
+		GenomeViewScheduler.cancel(source);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger most = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(4);
+		for (int i = 0; i < 4; i++) {
+			GenomeViewScheduler.submit(new Task(null, source) {
+				@Override
+				public void run() {
+					int r = running.incrementAndGet();
+					most.set(Math.max(most.get(), r));
+					try {
+						Thread.sleep(50);
+					} catch (InterruptedException e) {
+						return;
+					} finally {
+						running.decrementAndGet();
+						done.countDown();
+					}
+				}
+			});
+		}
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, most.get());
+		GenomeViewScheduler.cancel(source);
+	}
+
+	/**
+	 * Cancelling a source interrupts its running task and drops the queued
+	 * ones.
+	 */
+	@Test
+	public void testCancel() throws InterruptedException {
+		GenomeViewScheduler.configure(2, 1);
+		final Object source = new Object();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final boolean[] ranSecond = new boolean[1];
+		GenomeViewScheduler.submit(new Task(null, source) {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+			}
+		});
+		GenomeViewScheduler.submit(new Task(null, source) {
+			@Override
+			public void run() {
+				ranSecond[0] = true;
+			}
+		});
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		GenomeViewScheduler.cancel(source);
+		Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		Assert.assertFalse(ranSecond[0]);
+	}
+
+	/**
+	 * Tasks overlapping the visible region run first, tasks far away are
+	 * dropped when the visible region changes.
+	 */
+	@Test
+	public void testVisiblePriority() throws InterruptedException {
+		GenomeViewScheduler.configure(2, 1);
+		final Object source = new Object();
+		final CountDownLatch block = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(3);
+		final ArrayList<Integer> order = new ArrayList<Integer>();
+		GenomeViewScheduler.submit(new Task(null, source) {
+			@Override
+			public void run() {
+				try {
+					block.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		});
+		Thread.sleep(100);
+		for (int i = 0; i < 100; i++) {
+			final int idx = i;
+			GenomeViewScheduler.submit(new Task(new Location(idx * 1000 + 1, (idx + 1) * 1000), source) {
+				private boolean cancelled = false;
+
+				@Override
+				public void cancel() {
+					cancelled = true;
+				}
+
+				@Override
+				public boolean isCancelled() {
+					return cancelled;
+				}
+
+				@Override
+				public void run() {
+					synchronized (order) {
+						order.add(idx);
+					}
+					done.countDown();
+				}
+			});
+		}
+		GenomeViewScheduler.setVisible(new Location(50001, 51000));
+		Assert.assertEquals(3, GenomeViewScheduler.queueLength());
+		block.countDown();
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(50, (int) order.get(0));
+		GenomeViewScheduler.setVisible(new Location(0, 0));
+		GenomeViewScheduler.cancel(source);
+	}
+
+}
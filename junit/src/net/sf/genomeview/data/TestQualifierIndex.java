@@ -0,0 +1,234 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.genomeview.data.QualifierIndex.Hit;
+import net.sf.jannot.Entry;
+import net.sf.jannot.EntrySet;
+import net.sf.jannot.Feature;
+import net.sf.jannot.FeatureAnnotation;
+import net.sf.jannot.Location;
+import net.sf.jannot.MemoryFeatureAnnotation;
+import net.sf.jannot.Type;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestQualifierIndex {
+
+	private static final String[] WORDS = { "kinase", "Transport", "ABC", "hypothetical", "protein", "dnaA", "ab",
+			"membrane", "x" };
+
+	private static class Collector implements QualifierIndex.Results {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final List<Feature> found = new ArrayList<Feature>();
+
+		@Override
+		public void found(List<Hit> hits) {
+			for (Hit h : hits)
+				found.add(h.feature);
+		}
+
+		@Override
+		public void done() {
+			done.countDown();
+		}
+
+		List<Feature> await() throws InterruptedException {
+			Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+			return found;
+		}
+	}
+
+	private static Feature feature(Random rg, Type type, int start) {
+		Feature f = new Feature();
+		f.setType(type);
+		f.setLocation(new Location(start, start + 100));
+		f.addQualifier("note", WORDS[rg.nextInt(WORDS.length)] + " " + WORDS[rg.nextInt(WORDS.length)]);
+		if (rg.nextBoolean())
+			f.addQualifier(WORDS[rg.nextInt(WORDS.length)], "id" + rg.nextInt(1000));
+		return f;
+	}
+
+	/* The features that the search used to find by looking at all of them */
+	private static Set<Feature> scan(MemoryFeatureAnnotation annot, String text) {
+		return scan(annot.get(), text);
+	}
+
+	private static Set<Feature> scan(Iterable<Feature> features, String text) {
+		Set<Feature> out = new HashSet<Feature>();
+		text = text.toLowerCase();
+		for (Feature f : features)
+			for (String key : f.getQualifiersKeys())
+				if (key.toLowerCase().contains(text) || f.qualifier(key).toLowerCase().contains(text))
+					out.add(f);
+		return out;
+	}
+
+	private static Set<Feature> search(QualifierIndex index, String text) throws InterruptedException {
+		Collector c = new Collector();
+		index.search(text, c);
+		List<Feature> found = c.await();
+		Set<Feature> out = new HashSet<Feature>(found);
+		Assert.assertEquals("Features are reported once", found.size(), out.size());
+		return out;
+	}
+
+	@Test
+	public void testSearch() throws InterruptedException {
+		Random rg = new Random(11);
+		Type type = Type.get("gene");
+		EntrySet set = new EntrySet();
+		Entry e = set.getOrCreateEntry("chr1");
+		MemoryFeatureAnnotation annot = e.getMemoryAnnotation(type);
+		for (int i = 0; i < 2000; i++)
+			annot.add(feature(rg, type, i * 50));
+
+		AnnotationModel am = new AnnotationModel();
+		QualifierIndex index = new QualifierIndex(set, am);
+		index.sync();
+		String[] queries = { "kinase", "KIN", "ab", "a", "", "transport abc", "port", "id12", "note", "zzz",
+				"protein d" };
+		for (String q : queries)
+			Assert.assertEquals(q, scan(annot, q), search(index, q));
+
+		/* Edits are reported by the annotation */
+		Feature added = feature(rg, type, 500);
+		added.setQualifier("product", "Unique kinase");
+		annot.add(added);
+		Feature removed = annot.get().iterator().next();
+		annot.remove(removed);
+		Assert.assertTrue(search(index, "unique").contains(added));
+		for (String q : queries)
+			Assert.assertEquals(q, scan(annot, q), search(index, q));
+
+		/* Qualifiers are edited without the annotation knowing */
+		added.setQualifier("product", "Different");
+		am.typeUpdated(type);
+		Assert.assertTrue(search(index, "unique").isEmpty());
+		Assert.assertTrue(search(index, "different").contains(added));
+	}
+
+	@Test
+	public void testClear() throws InterruptedException {
+		Type type = Type.get("gene");
+		EntrySet set = new EntrySet();
+		MemoryFeatureAnnotation annot = set.getOrCreateEntry("chr1").getMemoryAnnotation(type);
+		annot.add(feature(new Random(1), type, 10));
+		QualifierIndex index = new QualifierIndex(set, new AnnotationModel());
+		index.sync();
+		Assert.assertEquals(1, search(index, "note").size());
+		set.clear();
+		index.update(null, NotificationTypes.GENERAL);
+		Assert.assertTrue(search(index, "note").isEmpty());
+	}
+
+	/* Texts of features that are gone are removed from the dictionary */
+	@Test
+	public void testShrink() throws Exception {
+		Type type = Type.get("gene");
+		EntrySet set = new EntrySet();
+		MemoryFeatureAnnotation annot = set.getOrCreateEntry("chr1").getMemoryAnnotation(type);
+		List<Feature> features = new ArrayList<Feature>();
+		for (int i = 0; i < 5000; i++) {
+			Feature f = feature(new Random(i), type, i * 10);
+			f.addQualifier("locus_tag", "tag" + i);
+			features.add(f);
+			annot.add(f);
+		}
+		QualifierIndex index = new QualifierIndex(set, new AnnotationModel());
+		index.sync();
+		Assert.assertTrue(index.dictionarySize() > 5000);
+		for (Feature f : features.subList(1, features.size()))
+			annot.remove(f);
+		Assert.assertEquals(1, search(index, "tag").size());
+		/* Edits can be indexed in parts, a part may leave up to 1024 unused texts */
+		Assert.assertTrue(index.dictionarySize() < 1100);
+		Assert.assertEquals(1, search(index, "tag0").size());
+	}
+
+	/* Annotation that is read on demand, like an indexed file */
+	private static class FileAnnotation implements FeatureAnnotation {
+		private final List<Feature> features;
+
+		FileAnnotation(List<Feature> features) {
+			this.features = features;
+		}
+
+		@Override
+		public Iterable<Feature> get(int start, int end) {
+			return features;
+		}
+
+		@Override
+		public Iterable<Feature> get() {
+			return features;
+		}
+
+		@Override
+		public boolean canSave() {
+			return false;
+		}
+
+		@Override
+		public String label() {
+			return "file";
+		}
+
+		@Override
+		public int getEstimateCount(Location l) {
+			return features.size();
+		}
+
+		@Override
+		public int getMaximumCoordinate() {
+			return 0;
+		}
+
+		@Override
+		public float[] getDensity(Location l, int parts) {
+			return new float[parts];
+		}
+	}
+
+	/* Annotation that is not in memory is not indexed but still searched */
+	@Test
+	public void testNotInMemory() throws InterruptedException {
+		Random rg = new Random(5);
+		Type type = Type.get("gene");
+		Type fileType = Type.get("file.gff.gz");
+		EntrySet set = new EntrySet();
+		Entry e = set.getOrCreateEntry("chr1");
+		MemoryFeatureAnnotation annot = e.getMemoryAnnotation(type);
+		for (int i = 0; i < 300; i++)
+			annot.add(feature(rg, type, i * 50));
+		List<Feature> inFile = new ArrayList<Feature>();
+		for (int i = 0; i < 1000; i++)
+			inFile.add(feature(rg, fileType, i * 50));
+		FileAnnotation file = new FileAnnotation(inFile);
+		e.add(fileType, file);
+
+		QualifierIndex index = new QualifierIndex(set, new AnnotationModel());
+		index.sync();
+		for (String q : new String[] { "kinase", "id12", "zzz", "a" }) {
+			Set<Feature> expected = scan(annot, q);
+			expected.addAll(scan(inFile, q));
+			Assert.assertEquals(q, expected, search(index, q));
+		}
+		Assert.assertFalse(Collections.disjoint(inFile, search(index, "kinase")));
+	}
+}
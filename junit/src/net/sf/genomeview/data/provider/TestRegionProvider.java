@@ -0,0 +1,97 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.genomeview.data.GenomeViewScheduler;
+import net.sf.jannot.Data;
+import net.sf.jannot.Location;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestRegionProvider {
+
+	/* The positions in a region, the first query waits until it is released */
+	private static class Slow implements Data<Integer> {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private int queries = 0;
+
+		@Override
+		public synchronized Iterable<Integer> get(int start, int end) {
+			if (queries++ == 0) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			List<Integer> out = new ArrayList<Integer>();
+			for (int i = start; i < end; i++)
+				out.add(i);
+			return out;
+		}
+
+		@Override
+		public Iterable<Integer> get() {
+			return null;
+		}
+
+		@Override
+		public boolean canSave() {
+			return false;
+		}
+
+		@Override
+		public String label() {
+			return "slow";
+		}
+	}
+
+	@Test
+	public void testLastRequest() throws InterruptedException {
+		GenomeViewScheduler.configure(2, 1);
+		Slow source = new Slow();
+		RegionProvider<Integer> provider = new RegionProvider<Integer>(source);
+		final List<Location> ready = new ArrayList<Location>();
+		final CountDownLatch done = new CountDownLatch(1);
+		DataCallback<Integer> cb = new DataCallback<Integer>() {
+
+			@Override
+			public void dataReady(Location l, List<Integer> it) {
+				synchronized (ready) {
+					ready.add(l);
+				}
+				Assert.assertEquals(l.length(), it.size() + 1);
+				if (l.start == 300)
+					done.countDown();
+			}
+		};
+		provider.get(100, 110, cb);
+		Assert.assertTrue(source.started.await(5, TimeUnit.SECONDS));
+		/* Queued behind the first one, the second is skipped */
+		provider.get(200, 210, cb);
+		provider.get(300, 310, cb);
+		Assert.assertFalse(provider.getStatus().iterator().next().isReady());
+		source.release.countDown();
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		synchronized (ready) {
+			Assert.assertEquals(1, ready.size());
+		}
+		Assert.assertEquals(2, source.queries);
+		Assert.assertTrue(provider.getStatus().iterator().next().isReady());
+		GenomeViewScheduler.cancel(source);
+	}
+
+}
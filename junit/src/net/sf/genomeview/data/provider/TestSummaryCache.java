@@ -0,0 +1,124 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data.provider;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestSummaryCache {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("summaries", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+
+	private static AtomicIntegerArray values(int n, int factor) {
+		AtomicIntegerArray out = new AtomicIntegerArray(n);
+		for (int i = 0; i < n; i++)
+			out.set(i, i * factor);
+		return out;
+	}
+
+	@Test
+	public void testReopen() {
+		SummaryCache cache = new SummaryCache(dir, 1 << 20);
+		SummaryCache.Entry e = cache.open("/data/a.gz", 1000, 42, "chr1", 1000, 4);
+		Assert.assertTrue(e.isFresh());
+		e.store(2, 500, 750, values(1000, 1), values(1000, 2));
+		e.close();
+
+		e = cache.open("/data/a.gz", 1000, 42, "chr1", 1000, 4);
+		Assert.assertFalse(e.isFresh());
+		Assert.assertTrue(e.isReady(2));
+		Assert.assertFalse(e.isReady(1));
+		Assert.assertEquals(600, e.forward(600));
+		Assert.assertEquals(1200, e.reverse(600));
+		/* Outside the stored chunk */
+		Assert.assertEquals(0, e.forward(800));
+		e.close();
+
+		/* Other sequence of the same file */
+		e = cache.open("/data/a.gz", 1000, 42, "chr2", 1000, 4);
+		Assert.assertTrue(e.isFresh());
+		e.close();
+	}
+
+	@Test
+	public void testStale() {
+		SummaryCache cache = new SummaryCache(dir, 1 << 20);
+		SummaryCache.Entry e = cache.open("/data/a.gz", 1000, 42, "chr1", 100, 2);
+		e.store(0, 0, 100, values(100, 1), values(100, 1));
+		e.close();
+		/* Modified data file */
+		e = cache.open("/data/a.gz", 1000, 43, "chr1", 100, 2);
+		Assert.assertTrue(e.isFresh());
+		Assert.assertFalse(e.isReady(0));
+		Assert.assertEquals(0, e.forward(50));
+		e.close();
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		/* Room for two files of a bit more than 8 KB */
+		SummaryCache cache = new SummaryCache(dir, 20000);
+		for (int i = 0; i < 3; i++) {
+			cache.open("/data/" + i + ".gz", 1, 1, "chr1", 1024, 1).close();
+			/* File times have a resolution of a second on some file systems */
+			Thread.sleep(1100);
+		}
+		Assert.assertEquals(2, dir.listFiles().length);
+		/* The oldest one is gone */
+		Assert.assertTrue(cache.open("/data/0.gz", 1, 1, "chr1", 1024, 1).isFresh());
+		Assert.assertFalse(cache.open("/data/2.gz", 1, 1, "chr1", 1024, 1).isFresh());
+	}
+
+	/* A file that is open is shared and not evicted */
+	@Test
+	public void testShared() throws Exception {
+		SummaryCache cache = new SummaryCache(dir, 10000);
+		SummaryCache.Entry a = cache.open("/data/a.gz", 1, 1, "chr1", 1024, 1);
+		SummaryCache.Entry b = cache.open("/data/a.gz", 1, 1, "chr1", 1024, 1);
+		Assert.assertSame(a, b);
+		/* In use with another layout */
+		Assert.assertNull(cache.open("/data/a.gz", 1, 2, "chr1", 1024, 1));
+		SummaryCache.Entry other = cache.open("/data/b.gz", 1, 1, "chr1", 1024, 1);
+		Assert.assertEquals("Both files are in use", 2, dir.listFiles().length);
+		a.close();
+		other.close();
+		cache.open("/data/c.gz", 1, 1, "chr1", 1024, 1).close();
+		Assert.assertEquals("Only the closed file is evicted", 2, dir.listFiles().length);
+		b.store(0, 0, 10, values(1024, 1), values(1024, 1));
+		b.close();
+		Assert.assertFalse(cache.open("/data/a.gz", 1, 1, "chr1", 1024, 1).isFresh());
+	}
+
+	@Test
+	public void testUnknown() {
+		SummaryCache cache = new SummaryCache(dir, 1 << 20);
+		Assert.assertNull(cache.open("http://host/a.gz", -1, 42, "chr1", 100, 1));
+		Assert.assertNull(cache.open("http://host/a.gz", 1000, -1, "chr1", 100, 1));
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.gui.components;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.sf.jannot.Feature;
+import net.sf.jannot.Location;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestCollisionMap {
+
+	@Test
+	public void testAgainstScan() {
+		Random rg = new Random(17);
+		CollisionMap map = new CollisionMap(null);
+		List<Rectangle> rects = new ArrayList<Rectangle>();
+		List<Location> locs = new ArrayList<Location>();
+		for (int i = 0; i < 2000; i++) {
+			/* Rows like a feature track, with some taller and empty ones */
+			Rectangle r = new Rectangle(rg.nextInt(5000) - 100, 15 * rg.nextInt(30), rg.nextInt(200),
+					rg.nextInt(10) == 0 ? rg.nextInt(100) : 10);
+			Feature f = new Feature();
+			Location l = new Location(i + 1, i + 10);
+			f.setLocation(l);
+			map.addLocation(r, l);
+			rects.add(r);
+			locs.add(l);
+			/* Changing the rectangle afterwards does not change the map */
+			r.translate(1, 0);
+			r.translate(-1, 0);
+		}
+		/* The same rectangle holds both locations */
+		Location extra = new Location(1, 2);
+		new Feature().setLocation(extra);
+		map.addLocation(new Rectangle(rects.get(0)), extra);
+
+		for (int q = 0; q < 5000; q++) {
+			int x = rg.nextInt(5400) - 200;
+			int y = rg.nextInt(500) - 20;
+			Set<Location> hits = new HashSet<Location>();
+			boolean border = false;
+			for (int i = 0; i < rects.size(); i++) {
+				Rectangle r = rects.get(i);
+				if (r.contains(x, y)) {
+					hits.add(locs.get(i));
+					if (i == 0)
+						hits.add(extra);
+				}
+				border |= (Math.abs(x - r.getMinX()) < 4 || Math.abs(x - r.getMaxX()) < 4) && y >= r.y
+						&& y <= r.y + r.height;
+			}
+			Assert.assertEquals(hits, map.locationHits(x, y));
+			Assert.assertEquals(border, map.nearBorder(x, y));
+
+			Rectangle probe = new Rectangle(x, y, rg.nextInt(50), rg.nextInt(40));
+			boolean collision = false;
+			for (Rectangle r : rects)
+				collision |= probe.intersects(r);
+			Assert.assertEquals(collision, map.collision(probe));
+		}
+
+		map.clear();
+		Assert.assertFalse(map.collision(new Rectangle(-1000, -1000, 10000, 10000)));
+		Assert.assertTrue(map.locationHits(rects.get(0).x, rects.get(0).y).isEmpty());
+	}
+
+	@Test
+	public void testBorder() {
+		CollisionMap map = new CollisionMap(null);
+		Location l = new Location(1, 100);
+		new Feature().setLocation(l);
+		map.addLocation(new Rectangle(100, 30, 50, 10), l);
+		Assert.assertSame(l, map.borderHit(98, 35));
+		Assert.assertSame(l, map.borderHit(153, 40));
+		Assert.assertNull(map.borderHit(125, 35));
+		Assert.assertNull(map.borderHit(100, 41));
+		Assert.assertSame(l, map.uniqueLocation(120, 35));
+		Assert.assertNull(map.uniqueLocation(99, 35));
+	}
+}
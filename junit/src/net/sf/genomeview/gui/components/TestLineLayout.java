@@ -0,0 +1,52 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.gui.components;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestLineLayout {
+
+	@Test
+	public void testFirstFit() {
+		Random rg = new Random(5);
+		long[] starts = new long[5000];
+		for (int i = 0; i < starts.length; i++)
+			starts[i] = rg.nextInt(20000);
+		Arrays.sort(starts);
+		LineLayout layout = new LineLayout();
+		long[] lineEnd = new long[starts.length];
+		int lines = 0;
+		for (long start : starts) {
+			long end = start + rg.nextInt(300);
+			int expected = 0;
+			while (expected < lines && lineEnd[expected] > start)
+				expected++;
+			if (expected == lines)
+				lines++;
+			lineEnd[expected] = end;
+			Assert.assertEquals(expected, layout.add(start, end));
+		}
+		Assert.assertEquals(lines, layout.lines());
+	}
+
+	@Test
+	public void testUnsorted() {
+		LineLayout layout = new LineLayout();
+		Assert.assertEquals(0, layout.add(100, 200));
+		Assert.assertEquals(1, layout.add(50, 150));
+		Assert.assertEquals(0, layout.add(200, 300));
+		/* Fits before the first interval on line 0, but that is not known */
+		Assert.assertEquals(2, layout.add(0, 10));
+		Assert.assertEquals(3, layout.lines());
+	}
+
+}
@@ -0,0 +1,139 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.gui.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.genomeview.gui.search.ChunkedSearch.Match;
+import net.sf.jannot.AminoAcidMapping;
+import net.sf.jannot.refseq.MemorySequence;
+import net.sf.jannot.utils.SequenceTools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestChunkedSearch {
+
+	/* Every position where the pattern occurs */
+	private static class Exact implements ChunkedSearch.Finder {
+		private final byte[] pattern;
+
+		Exact(String pattern) {
+			this.pattern = pattern.getBytes();
+		}
+
+		@Override
+		public int span() {
+			return pattern.length;
+		}
+
+		@Override
+		public void find(byte[] text, int length, int limit, List<int[]> out) {
+			positions: for (int i = 0; i < limit && i + pattern.length <= length; i++) {
+				for (int j = 0; j < pattern.length; j++)
+					if (text[i + j] != pattern[j])
+						continue positions;
+				out.add(new int[] { i, i + pattern.length });
+			}
+		}
+	}
+
+	private static class Collector implements ChunkedSearch.Listener {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final List<String> found = new ArrayList<String>();
+
+		@Override
+		public synchronized void found(List<Match> matches) {
+			for (Match m : matches)
+				found.add(m.strand + ":" + m.location.start() + "-" + m.location.end());
+		}
+
+		@Override
+		public void done() {
+			done.countDown();
+		}
+
+		List<String> await() throws InterruptedException {
+			Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+			return found;
+		}
+	}
+
+	private static String random(Random rg, int length) {
+		StringBuffer out = new StringBuffer();
+		for (int i = 0; i < length; i++)
+			out.append("acgtACGTN".charAt(rg.nextInt(rg.nextInt(20) == 0 ? 9 : 4)));
+		return out.toString();
+	}
+
+	/* The matches in the residues of one strand, like the searches used to do */
+	private static void scan(String residues, String pattern, String strand, int frame, int codon, int length,
+			List<String> out) {
+		for (int i = residues.indexOf(pattern); i >= 0; i = residues.indexOf(pattern, i + 1)) {
+			int start = frame + codon * i;
+			int end = frame + codon * (i + pattern.length());
+			if (strand.equals("REVERSE")) {
+				int tmp = start;
+				start = length - end;
+				end = length - tmp;
+			}
+			out.add(strand + ":" + (start + 1) + "-" + (end + 1));
+		}
+	}
+
+	private static String translate(String nucleotides, int frame, AminoAcidMapping aamap) {
+		StringBuffer out = new StringBuffer();
+		for (int i = frame; i + 3 <= nucleotides.length(); i += 3)
+			out.append(aamap.get(nucleotides.charAt(i), nucleotides.charAt(i + 1), nucleotides.charAt(i + 2)));
+		return out.toString();
+	}
+
+	@Test
+	public void testNucleotides() throws InterruptedException {
+		Random rg = new Random(7);
+		String seq = random(rg, 5000);
+		String forward = seq.toUpperCase();
+		String reverse = SequenceTools.reverseComplement(new MemorySequence(seq)).stringRepresentation().toUpperCase();
+		for (String pattern : new String[] { "ACG", "GATTA", "A", "NN" }) {
+			List<String> expected = new ArrayList<String>();
+			scan(forward, pattern, "FORWARD", 0, 1, seq.length(), expected);
+			scan(reverse, pattern, "REVERSE", 0, 1, seq.length(), expected);
+			for (int chunk : new int[] { 1, 7, 1000, ChunkedSearch.CHUNK }) {
+				Collector c = new Collector();
+				ChunkedSearch.search(new MemorySequence(seq), null, new Exact(pattern), c, chunk);
+				Assert.assertEquals(pattern + " in chunks of " + chunk, expected, c.await());
+			}
+		}
+	}
+
+	@Test
+	public void testTranslation() throws InterruptedException {
+		Random rg = new Random(8);
+		AminoAcidMapping aamap = AminoAcidMapping.STANDARDCODE;
+		String seq = random(rg, 6001);
+		String forward = seq.toUpperCase();
+		String reverse = SequenceTools.reverseComplement(new MemorySequence(seq)).stringRepresentation().toUpperCase();
+		for (String pattern : new String[] { "M", "KR", "*X", "LLA" }) {
+			List<String> expected = new ArrayList<String>();
+			for (int frame = 0; frame < 3; frame++)
+				scan(translate(forward, frame, aamap), pattern, "FORWARD", frame, 3, seq.length(), expected);
+			for (int frame = 0; frame < 3; frame++)
+				scan(translate(reverse, frame, aamap), pattern, "REVERSE", frame, 3, seq.length(), expected);
+			for (int chunk : new int[] { 5, 333, ChunkedSearch.CHUNK }) {
+				Collector c = new Collector();
+				ChunkedSearch.search(new MemorySequence(seq), aamap, new Exact(pattern), c, chunk);
+				Assert.assertEquals(pattern + " in chunks of " + chunk, expected, c.await());
+			}
+		}
+	}
+
+}
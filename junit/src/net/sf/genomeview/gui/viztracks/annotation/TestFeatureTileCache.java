@@ -0,0 +1,156 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.gui.viztracks.annotation;
+
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.genomeview.data.AnnotationModel;
+import net.sf.genomeview.gui.viztracks.annotation.FeatureTileCache.Tile;
+import net.sf.jannot.Location;
+import net.sf.jannot.Type;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestFeatureTileCache {
+
+	private static final int W = FeatureTileCache.TILE_WIDTH;
+
+	/* Tiles that depend on exactly the genome region they show */
+	private static class Cache extends FeatureTileCache<String> {
+		AtomicInteger rendered = new AtomicInteger();
+		Semaphore ready = new Semaphore(0);
+
+		Cache() {
+			super(1024 * 1024);
+		}
+
+		@Override
+		protected Tile render(long index, double scale, String style) {
+			rendered.incrementAndGet();
+			int from = genome(index * W, scale);
+			int to = genome((index + 1) * W, scale) - 1;
+			return new Tile(index, null, 1, from, to, new ArrayList<Placed>());
+		}
+
+		@Override
+		protected void repaint() {
+			ready.release();
+		}
+
+		@Override
+		protected boolean shows(Type type) {
+			return type == Type.get("gene");
+		}
+
+		/* Waits until all visible tiles are up to date */
+		Tile[] ready(Location visible) throws InterruptedException {
+			while (true) {
+				Tile[] out = get(visible, visible.length(), "style");
+				boolean done = true;
+				for (Tile t : out)
+					done &= t != null && !t.stale;
+				if (done)
+					return out;
+				Assert.assertTrue(ready.tryAcquire(10, TimeUnit.SECONDS));
+			}
+		}
+
+		void waitFor(int size) throws InterruptedException {
+			while (size() < size)
+				Assert.assertTrue(ready.tryAcquire(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testPanning() throws Exception {
+		Cache c = new Cache();
+		/* One base per pixel, three tiles wide */
+		Location visible = new Location(W, 4 * W - 1);
+		Tile[] tiles = c.ready(visible);
+		Assert.assertEquals(3, tiles.length);
+		Assert.assertEquals(1, tiles[0].index);
+		Assert.assertEquals(3, tiles[2].index);
+		/* The tile on each side is rendered too */
+		c.waitFor(5);
+		Assert.assertEquals(5, c.rendered.get());
+
+		/* Panning by one tile uses what is there */
+		Tile[] panned = c.get(new Location(2 * W, 5 * W - 1), 3 * W, "style");
+		Assert.assertSame(tiles[1], panned[0]);
+		Assert.assertSame(tiles[2], panned[1]);
+		Assert.assertNotNull(panned[2]);
+
+		/* Another style is drawn again */
+		Assert.assertNull(c.get(visible, 3 * W, "other")[0]);
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		Cache c = new Cache();
+		AnnotationModel am = new AnnotationModel();
+		am.addObserver(c);
+		Location visible = new Location(W, 4 * W - 1);
+		Tile[] tiles = c.ready(visible);
+		c.waitFor(5);
+
+		/* Only the tile with the edit */
+		c.invalidate(2 * W + 10, 2 * W + 20);
+		Assert.assertFalse(tiles[0].stale);
+		Assert.assertTrue(tiles[1].stale);
+		Assert.assertFalse(tiles[2].stale);
+		/* Stale tiles are painted until they are drawn again */
+		Assert.assertSame(tiles[1], c.get(visible, 3 * W, "style")[1]);
+		Tile[] again = c.ready(visible);
+		Assert.assertSame(tiles[0], again[0]);
+		Assert.assertNotSame(tiles[1], again[1]);
+		Assert.assertSame(tiles[2], again[2]);
+
+		/* Edits of types that are not shown are ignored */
+		am.regionUpdated(Type.get("mRNA"), 0, 10 * W);
+		Assert.assertFalse(again[0].stale);
+		am.regionUpdated(Type.get("gene"), 4 * W - 5, 4 * W + 5);
+		Assert.assertFalse(again[1].stale);
+		Assert.assertTrue(again[2].stale);
+
+		am.typeUpdated(Type.get("gene"));
+		for (Tile t : again)
+			Assert.assertTrue(t.stale);
+		for (Tile t : c.ready(visible))
+			Assert.assertFalse(t.stale);
+	}
+
+	/* All caches share one budget, a cleared cache gives its tiles back */
+	@Test
+	public void testSharedBudget() throws Exception {
+		/* Empty tiles take 64 bytes */
+		FeatureTileCache.setSharedMaxBytes(6 * 64);
+		try {
+			Cache a = new Cache();
+			Cache b = new Cache();
+			Location visible = new Location(W, 4 * W - 1);
+			a.ready(visible);
+			a.waitFor(5);
+			b.ready(visible);
+			b.waitFor(5);
+			Assert.assertTrue(FeatureTileCache.sharedBytes() <= 6 * 64);
+			Assert.assertEquals(5, b.size());
+			Assert.assertEquals(1, a.size());
+
+			long before = FeatureTileCache.sharedBytes();
+			b.clear();
+			Assert.assertEquals(0, b.size());
+			Assert.assertEquals(before - 5 * 64, FeatureTileCache.sharedBytes());
+		} finally {
+			FeatureTileCache.setSharedMaxBytes(64L * 1024 * 1024);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class TestDensityHistogram {
+
+	private static Feature feature(int start, int end) {
+		Feature f = new Feature();
+		f.setType(Type.valueOf("gene"));
+		f.setLocation(new Location(start, end));
+		return f;
+	}
+
+	/* Exact at bin borders, only the two finest border bins are estimated */
+	@Test
+	public void testCount() {
+		DensityHistogram h = new DensityHistogram(4);
+		int[] starts = new int[100000];
+		Random rg = new Random(3);
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = rg.nextInt(10000000);
+			h.add(starts[i], 1);
+		}
+		for (int i = 0; i < 100; i++) {
+			int a = rg.nextInt(10000000);
+			int b = a + rg.nextInt(10000000 - a);
+			Assert.assertEquals(exact(starts, a, b), h.count(a, b), 4);
+			a = a / 16 * 16;
+			b = b / 16 * 16 - 1;
+			Assert.assertEquals(exact(starts, a, b), h.count(a, b));
+		}
+		Assert.assertEquals(starts.length, h.count(0, Integer.MAX_VALUE));
+
+		h.add(starts[0], -1);
+		Assert.assertEquals(starts.length - 1, h.count(0, Integer.MAX_VALUE));
+		h.set(starts[1], 0);
+		Assert.assertTrue(h.count(0, Integer.MAX_VALUE) < starts.length - 1);
+		h.clear();
+		Assert.assertEquals(0, h.count(0, Integer.MAX_VALUE));
+	}
+
+	private static int exact(int[] starts, int a, int b) {
+		int out = 0;
+		for (int s : starts)
+			if (s >= a && s <= b)
+				out++;
+		return out;
+	}
+
+	@Test
+	public void testDensity() {
+		DensityHistogram h = new DensityHistogram(4);
+		h.add(100, 5);
+		h.add(1500, 3);
+		float[] d = h.density(0, 1599, 10);
+		Assert.assertEquals(5, d[0], 0.001);
+		Assert.assertEquals(3, d[9], 0.001);
+		Assert.assertEquals(0, d[5], 0.001);
+	}
+
+	/* Clustered features are counted where they are, not spread out */
+	@Test
+	public void testMemoryAnnotation() {
+		MemoryFeatureAnnotation fa = new MemoryFeatureAnnotation();
+		List<Feature> cluster = new ArrayList<Feature>();
+		for (int i = 0; i < 1000; i++) {
+			Feature f = feature(1000000 + 10 * i, 1000000 + 10 * i + 5);
+			cluster.add(f);
+			fa.add(f);
+		}
+		fa.add(feature(10, 20));
+		fa.add(feature(5000000, 5000100));
+		Assert.assertEquals(0, fa.getEstimateCount(new Location(2000000, 4000000)));
+		Assert.assertEquals(1000, fa.getEstimateCount(new Location(900000, 1100000)), 10);
+
+		cluster.get(0).setLocation(new Location(3000000, 3000010));
+		Assert.assertEquals(1, fa.getEstimateCount(new Location(2000000, 4000000)));
+		fa.remove(cluster.get(0));
+		Assert.assertEquals(0, fa.getEstimateCount(new Location(2000000, 4000000)));
+		fa.clear();
+		Assert.assertEquals(0, fa.getEstimateCount(new Location(1, 10000000)));
+	}
+
+	/*
+	 * The feature track shows all features, collapses them or only shows the
+	 * density by comparing the count with these limits, it has to pick the
+	 * same mode as an exact count would.
+	 */
+	@Test
+	public void testDisplayMode() {
+		int max = 500;
+		MemoryFeatureAnnotation fa = new MemoryFeatureAnnotation();
+		Random rg = new Random(5);
+		int[] starts = new int[50000];
+		for (int i = 0; i < starts.length; i++) {
+			/* Dense and sparse regions */
+			starts[i] = i % 2 == 0 ? 1 + rg.nextInt(10000000) : 2000000 + rg.nextInt(20000);
+			fa.add(feature(starts[i], starts[i] + rg.nextInt(2000)));
+		}
+		for (int i = 0; i < 1000; i++) {
+			int a = 1 + rg.nextInt(10000000);
+			int b = a + rg.nextInt(i % 2 == 0 ? 200000 : 20000);
+			int exact = exact(starts, a, b);
+			int estimate = fa.getEstimateCount(new Location(a, b));
+			Assert.assertEquals(exact, estimate);
+			Assert.assertEquals(exact > max, estimate > max);
+			Assert.assertEquals(exact > 25 * max, estimate > 25 * max);
+		}
+		/* Viewports at the edge of the dense region */
+		for (int a = 1999000; a < 2000000; a += 37) {
+			int b = a + 1000;
+			Assert.assertEquals(exact(starts, a, b), fa.getEstimateCount(new Location(a, b)));
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Thomas Abeel
+ * 
+ */
+public class TestIntervalTree {
+
+	private static Feature feature(int start, int end) {
+		Feature f = new Feature();
+		f.setType(Type.valueOf("gene"));
+		f.setLocation(new Location(start, end));
+		return f;
+	}
+
+	private static List<Feature> scan(List<Feature> list, int start, int end) {
+		List<Feature> out = new ArrayList<Feature>();
+		for (Feature f : list)
+			if (f.overlaps(new Location(start, end)))
+				out.add(f);
+		return out;
+	}
+
+	private static void assertSameItems(List<Feature> expected, Iterable<Feature> actual) {
+		List<Feature> a = new ArrayList<Feature>();
+		int prev = Integer.MIN_VALUE;
+		for (Feature f : actual) {
+			Assert.assertTrue("Not sorted on start", f.start() >= prev);
+			prev = f.start();
+			a.add(f);
+		}
+		Assert.assertEquals(expected.size(), a.size());
+		Assert.assertTrue(a.containsAll(expected));
+	}
+
+	@Test
+	public void testRandomAddRemove() {
+		Random rg = new Random(3);
+		IntervalTree<Feature> tree = new IntervalTree<Feature>();
+		List<Feature> list = new ArrayList<Feature>();
+		for (int i = 0; i < 5000; i++) {
+			int start = 1 + rg.nextInt(100000);
+			Feature f = feature(start, start + rg.nextInt(i % 100 == 0 ? 20000 : 500));
+			tree.add(f);
+			list.add(f);
+		}
+		/* Many features with the same start */
+		for (int i = 0; i < 200; i++) {
+			Feature f = feature(5000, 5000 + i);
+			tree.add(f);
+			list.add(f);
+		}
+		Collections.shuffle(list, rg);
+		for (int i = 0; i < 2000; i++)
+			Assert.assertTrue(tree.remove(list.remove(list.size() - 1)));
+		Assert.assertFalse(tree.remove(feature(1, 10)));
+		Assert.assertEquals(list.size(), tree.size());
+		for (int i = 0; i < 500; i++) {
+			int start = rg.nextInt(100000);
+			int end = start + rg.nextInt(5000);
+			assertSameItems(scan(list, start, end), tree.query(start, end));
+			Assert.assertEquals(scan(list, start, end).size(), tree.count(start, end));
+			int starts = 0;
+			for (Feature f : list)
+				if (f.start() >= start && f.start() <= end)
+					starts++;
+			Assert.assertEquals(starts, tree.countStarts(start, end));
+		}
+	}
+
+	@Test
+	public void testAnnotationFollowsEdits() {
+		MemoryFeatureAnnotation mfa = new MemoryFeatureAnnotation();
+		Feature a = feature(100, 200);
+		Feature b = feature(1000, 1100);
+		mfa.add(a);
+		mfa.add(b);
+		assertSameItems(Collections.singletonList(a), mfa.get(150, 160));
+
+		/* Moving a location, as done when dragging in the GUI */
+		a.location()[0].setStart(5000);
+		a.location()[0].setEnd(5100);
+		assertSameItems(new ArrayList<Feature>(), mfa.get(150, 160));
+		assertSameItems(Collections.singletonList(a), mfa.get(5050, 5060));
+
+		b.addLocation(new Location(3000, 3100));
+		assertSameItems(Collections.singletonList(b), mfa.get(2000, 2000));
+
+		mfa.remove(b);
+		assertSameItems(new ArrayList<Feature>(), mfa.get(2000, 2000));
+		Assert.assertEquals(1, mfa.cachedCount());
+		/* Removed features no longer update the index */
+		b.setLocation(new Location(5000, 5001));
+		assertSameItems(Collections.singletonList(a), mfa.get(5000, 5000));
+	}
+
+	/* Every way to change the list keeps the index in sync */
+	@Test
+	public void testListMutators() {
+		MemoryFeatureAnnotation mfa = new MemoryFeatureAnnotation();
+		List<Feature> all = new ArrayList<Feature>();
+		for (int i = 0; i < 10; i++)
+			all.add(feature(i * 100, i * 100 + 50));
+		mfa.addAll(0, all);
+
+		Feature replaced = mfa.set(0, feature(2000, 2050));
+		Assert.assertSame(all.get(0), replaced);
+		assertSameItems(new ArrayList<Feature>(), mfa.get(0, 10));
+		assertSameItems(Collections.singletonList(mfa.getCached(0)), mfa.get(2000, 2010));
+
+		mfa.remove(1);
+		assertSameItems(new ArrayList<Feature>(), mfa.get(100, 110));
+
+		Iterator<Feature> it = mfa.iterator();
+		it.next();
+		it.next();
+		it.remove();
+		assertSameItems(new ArrayList<Feature>(), mfa.get(200, 210));
+
+		mfa.removeAll(all.subList(3, 5));
+		assertSameItems(new ArrayList<Feature>(), mfa.get(300, 410));
+		mfa.retainAll(all.subList(5, 9));
+		assertSameItems(all.subList(5, 9), mfa.get(0, 3000));
+		Assert.assertEquals(4, mfa.cachedCount());
+
+		mfa.add(0, all.get(0));
+		assertSameItems(Collections.singletonList(all.get(0)), mfa.get(0, 10));
+		try {
+			mfa.subList(0, 2).clear();
+			Assert.fail("Views can not be modified");
+		} catch (UnsupportedOperationException e) {
+		}
+		Assert.assertEquals(5, mfa.cachedCount());
+		Assert.assertEquals(5, mfa.getEstimateCount(new Location(0, 4095)));
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.picard;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the stream against a local HTTP server that supports range requests
+ * and adds latency to every request.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class TestSeekableFileCachedHTTPStream {
+
+	private static final int LATENCY = 200;
+	private static final int BLOCK = 1024;
+
+	private HttpServer server;
+	private byte[] data;
+	private final AtomicInteger ranges = new AtomicInteger();
+	private URL url;
+
+	@Before
+	public void start() throws IOException {
+		data = new byte[100 * BLOCK + 17];
+		new Random(5).nextBytes(data);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/data.bin", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				String range = ex.getRequestHeaders().getFirst("Range");
+				if (ex.getRequestMethod().equals("HEAD")) {
+					ex.getResponseHeaders().set("Content-Length", "" + data.length);
+					ex.sendResponseHeaders(200, -1);
+					ex.close();
+					return;
+				}
+				try {
+					Thread.sleep(LATENCY);
+				} catch (InterruptedException e) {
+					return;
+				}
+				int from = 0, to = data.length - 1;
+				if (range != null) {
+					ranges.incrementAndGet();
+					String[] arr = range.substring(6).split("-");
+					from = Integer.parseInt(arr[0]);
+					to = Math.min(to, Integer.parseInt(arr[1]));
+				}
+				ex.sendResponseHeaders(range != null ? 206 : 200, to - from + 1);
+				OutputStream os = ex.getResponseBody();
+				os.write(data, from, to - from + 1);
+				os.close();
+			}
+		});
+		/* Enough threads to serve concurrent requests */
+		server.setExecutor(java.util.concurrent.Executors.newFixedThreadPool(8));
+		server.start();
+		url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/data.bin");
+	}
+
+	@After
+	public void stop() {
+		server.stop(0);
+	}
+
+	private void check(SeekableFileCachedHTTPStream s, long pos, int len) throws IOException {
+		byte[] out = new byte[len];
+		s.seek(pos);
+		int n = 0;
+		while (n < len) {
+			int r = s.read(out, n, len - n);
+			Assert.assertTrue(r > 0);
+			n += r;
+		}
+		for (int i = 0; i < len; i++)
+			Assert.assertEquals(data[(int) pos + i], out[i]);
+	}
+
+	@Test
+	public void testCoalescing() throws IOException {
+		SeekableFileCachedHTTPStream s = new SeekableFileCachedHTTPStream(url, BLOCK);
+		/* Ten missing blocks in a single request */
+		check(s, 10, 10 * BLOCK - 20);
+		Assert.assertEquals(1, ranges.get());
+		/* Cached */
+		check(s, 100, 1000);
+		Assert.assertEquals(1, ranges.get());
+		/* Last block is partial */
+		check(s, data.length - 100, 100);
+		byte[] b = new byte[10];
+		s.seek(data.length);
+		Assert.assertEquals(-1, s.read(b, 0, 10));
+		s.closeAll();
+	}
+
+	@Test
+	public void testReadAhead() throws Exception {
+		SeekableFileCachedHTTPStream s = new SeekableFileCachedHTTPStream(url, BLOCK);
+		check(s, 40 * BLOCK, BLOCK);
+		/* Moving right triggers downloads beyond the requested block */
+		check(s, 41 * BLOCK, BLOCK);
+		Thread.sleep(3 * LATENCY);
+		int before = ranges.get();
+		long start = System.currentTimeMillis();
+		check(s, 42 * BLOCK, 3 * BLOCK);
+		Assert.assertEquals(before, ranges.get());
+		Assert.assertTrue(System.currentTimeMillis() - start < LATENCY);
+		s.closeAll();
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final SeekableFileCachedHTTPStream s = new SeekableFileCachedHTTPStream(url, BLOCK);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 6; i++) {
+			final int block = i * 15;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						SeekableFileCachedHTTPStream view = (SeekableFileCachedHTTPStream) s.stream();
+						check(view, block * BLOCK + 3, 2 * BLOCK);
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads)
+			t.join();
+		Assert.assertEquals(new ArrayList<Throwable>(), errors);
+		/* The six downloads overlap instead of running one after the other */
+		Assert.assertTrue(System.currentTimeMillis() - start < 4 * LATENCY);
+		s.closeAll();
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.pileup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestPileBlock {
+
+	@Test
+	public void testGrow() {
+		PileBlock pb = new PileBlock(2, 1);
+		for (int i = 0; i < 100; i++)
+			pb.add(i * 10 + 1, 10, i, -i);
+		Assert.assertEquals(100, pb.size());
+		Assert.assertEquals(2, pb.valueCount());
+		Assert.assertEquals(501, pb.start(50));
+		Assert.assertEquals(511, pb.end(50));
+		Assert.assertEquals(50f, pb.value(0, 50), 0);
+		Assert.assertEquals(-50f, pb.values(1)[50], 0);
+		Assert.assertEquals(0f, pb.total(77), 0);
+		Assert.assertNull(pb.bases(3));
+	}
+
+	@Test
+	public void testReads() {
+		byte[] reads = "..,,AcT^].+2AG-1a,".getBytes();
+		PileBlock pb = new PileBlock(2);
+		pb.add(5, 1, 3, 4);
+		pb.addReads(17, reads);
+		Assert.assertEquals(5, pb.value(0, 1), 0);
+		Assert.assertEquals(4, pb.value(1, 1), 0);
+		ReadDetailPile pile = ReadDetailPile.create(17, reads);
+		Assert.assertEquals(5, pile.getValue(0), 0);
+		Assert.assertEquals(4, pile.getValue(1), 0);
+		Assert.assertSame(reads, pile.getBases());
+		Assert.assertSame(reads, pb.bases(1));
+		Assert.assertNull(pb.bases(0));
+	}
+
+	@Test
+	public void testAdapter() {
+		PileBlock a = new PileBlock(3);
+		a.add(1, 5);
+		a.set(0, 2, 7);
+		PileBlock b = new PileBlock(3);
+		b.add(6, 2);
+		b.add(8, 1);
+		b.set(1, 0, 1);
+		b.set(1, 1, 2);
+		List<Pile> piles = new ArrayList<Pile>();
+		for (Pile p : PileBlock.piles(Arrays.asList(a, new PileBlock(3), b)))
+			piles.add(p);
+		Assert.assertEquals(3, piles.size());
+		Assert.assertEquals(1, piles.get(0).start());
+		Assert.assertEquals(5, piles.get(0).getLength());
+		Assert.assertEquals(7f, piles.get(0).getValue(2), 0);
+		Assert.assertEquals(3f, piles.get(2).getTotal(), 0);
+
+		PileBlock back = PileBlock.of(piles);
+		Assert.assertEquals(3, back.size());
+		Assert.assertEquals(8, back.start(2));
+		Assert.assertEquals(2f, back.value(1, 2), 0);
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.refseq;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import net.sf.jannot.AminoAcidMapping;
+import net.sf.samtools.seekablestream.SeekableFileStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Thomas Abeel
+ * 
+ */
+public class TestBulkSequence {
+
+	private static String iterate(Sequence seq, int start, int end) {
+		StringBuffer out = new StringBuffer();
+		for (char c : seq.get(start, end))
+			out.append(c);
+		return out.toString();
+	}
+
+	private static String random(int len) {
+		Random rg = new Random(5);
+		char[] out = new char[len];
+		for (int i = 0; i < len; i++)
+			out[i] = "ACGTNacgt".charAt(rg.nextInt(9));
+		return new String(out);
+	}
+
+	@Test
+	public void testMemorySequence() {
+		MemorySequence seq = new MemorySequence(random(1001));
+		char[] c = new char[1001];
+		seq.get(1, 1002, c, 0);
+		Assert.assertEquals(iterate(seq, 1, 1002), new String(c));
+		byte[] b = new byte[12];
+		seq.get(995, 1005, b, 2);
+		Assert.assertEquals(iterate(seq, 995, 1002) + "___", new String(b, 2, 10));
+		seq.get(-1, 3, b, 0);
+		Assert.assertEquals("__" + iterate(seq, 1, 3), new String(b, 0, 4));
+
+		ByteBuffer bb = ByteBuffer.allocateDirect(20);
+		bb.put((byte) 'x');
+		seq.get(100, 110, bb);
+		Assert.assertEquals(11, bb.position());
+		bb.flip();
+		bb.get();
+		byte[] tmp = new byte[10];
+		bb.get(tmp);
+		Assert.assertEquals(iterate(seq, 100, 110), new String(tmp));
+
+		Assert.assertEquals("GT", new MemorySequence("AGTCG").subsequence(2, 4).stringRepresentation());
+	}
+
+	private static FaidxData faidx(String nts) throws IOException {
+		File fasta = File.createTempFile("bulk", ".fasta");
+		fasta.deleteOnExit();
+		FileWriter fw = new FileWriter(fasta);
+		fw.write(">seq\n");
+		for (int i = 0; i < nts.length(); i += 60)
+			fw.write(nts.substring(i, Math.min(nts.length(), i + 60)) + "\n");
+		fw.close();
+		String fai = "seq\t" + nts.length() + "\t5\t60\t61\n";
+		return new FaidxData(new FaidxIndex(new ByteArrayInputStream(fai.getBytes())), new SeekableFileStream(fasta),
+				"seq");
+	}
+
+	@Test
+	public void testFaidx() throws IOException {
+		String nts = random(1000);
+		FaidxData seq = faidx(nts);
+		Random rg = new Random(1);
+		for (int i = 0; i < 200; i++) {
+			int start = rg.nextInt(1000) + 1;
+			int end = start + rg.nextInt(1001 - start) + 1;
+			byte[] b = new byte[end - start];
+			seq.get(start, end, b, 0);
+			Assert.assertEquals(nts.substring(start - 1, end - 1).toUpperCase(), new String(b));
+		}
+		Assert.assertEquals(nts.toUpperCase(), seq.stringRepresentation());
+		byte[] b = new byte[4];
+		seq.get(999, 1003, b, 0);
+		Assert.assertEquals(nts.substring(998).toUpperCase() + "__", new String(b));
+	}
+
+	/* Long requests are read in several blocks */
+	@Test
+	public void testFaidxBlocks() throws IOException {
+		String nts = random(300000);
+		FaidxData seq = faidx(nts);
+		byte[] b = new byte[nts.length() + 2];
+		seq.get(0, nts.length() + 2, b, 0);
+		Assert.assertEquals("_" + nts.toUpperCase() + "_", new String(b));
+		b = new byte[70000];
+		seq.get(65000, 135000, b, 0);
+		Assert.assertEquals(nts.substring(64999, 134999).toUpperCase(), new String(b));
+	}
+
+	@Test
+	public void testTwoBit() {
+		MemorySequence seq = new MemorySequence(random(200));
+		long[] bits = new long[7];
+		long[] amb = new long[4];
+		int count = seq.get2Bit(3, 203, bits, amb);
+		String s = iterate(seq, 3, 203);
+		int expected = 0;
+		for (int i = 0; i < s.length(); i++) {
+			boolean ambiguous = (amb[i / 64] >>> (i % 64) & 1) == 1;
+			int code = (int) (bits[i / 32] >>> (2 * (i % 32)) & 3);
+			if (s.charAt(i) == '_' || s.charAt(i) == 'N') {
+				expected++;
+				Assert.assertTrue(ambiguous);
+			} else {
+				Assert.assertFalse(ambiguous);
+				Assert.assertEquals(s.charAt(i), "ACGT".charAt(code));
+			}
+		}
+		Assert.assertEquals(expected, count);
+	}
+
+	@Test
+	public void testTranslationTable() {
+		String nt = "ACGTN";
+		for (AminoAcidMapping aa : AminoAcidMapping.values()) {
+			for (char a : nt.toCharArray())
+				for (char b : nt.toCharArray())
+					for (char c : nt.toCharArray()) {
+						String codon = "" + a + b + c;
+						Assert.assertEquals(aa.get(codon), aa.get(a, b, c));
+						Assert.assertEquals(aa.isStart(codon), aa.isStart(a, b, c));
+					}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.refseq;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import net.sf.samtools.seekablestream.SeekableFileStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class TestFastaContent {
+
+	private static File file(byte[] content) throws IOException {
+		File f = File.createTempFile("content", ".fasta");
+		f.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(f);
+		fos.write(content);
+		fos.close();
+		return f;
+	}
+
+	private static byte[] random(int len) {
+		Random rg = new Random(3);
+		byte[] out = new byte[len];
+		rg.nextBytes(out);
+		return out;
+	}
+
+	private static void check(byte[] expected, FastaContent content) throws IOException {
+		Assert.assertEquals(expected.length, content.length());
+		Random rg = new Random(7);
+		for (int i = 0; i < 500; i++) {
+			int pos = rg.nextInt(expected.length);
+			int len = rg.nextInt(expected.length - pos + 1);
+			byte[] out = new byte[len + 1];
+			content.read(pos, out, 1, len);
+			for (int j = 0; j < len; j++)
+				Assert.assertEquals(expected[pos + j], out[j + 1]);
+		}
+	}
+
+	@Test
+	public void testMapped() throws IOException {
+		byte[] data = random(10000);
+		File f = file(data);
+		/* Small segments so reads span several mappings */
+		check(data, new FastaContent.Mapped(f, 1000));
+		check(data, FastaContent.map(f));
+		Assert.assertSame(FastaContent.map(f), FastaContent.map(f));
+	}
+
+	@Test
+	public void testBlockCached() throws IOException {
+		byte[] data = random(10000);
+		File f = file(data);
+		check(data, new FastaContent.BlockCached(new SeekableFileStream(f), 512, 4));
+	}
+
+	@Test
+	public void testSharedFaidx() throws IOException {
+		String fasta = ">a\nACGTA\nCG\n>b\nTTTT\nGG\n";
+		File f = file(fasta.getBytes());
+		String fai = "a\t7\t3\t5\t6\nb\t6\t15\t4\t5\n";
+		FaidxIndex index = new FaidxIndex(new ByteArrayInputStream(fai.getBytes()));
+		FastaContent content = FastaContent.map(f);
+		Assert.assertEquals("ACGTACG", new FaidxData(index, content, "a").stringRepresentation());
+		Assert.assertEquals("TTTTGG", new FaidxData(index, content, "b").stringRepresentation());
+		StringBuffer sb = new StringBuffer();
+		for (char c : new FaidxData(index, content, "b").get(0, 8))
+			sb.append(c);
+		Assert.assertEquals("_TTTTGG_", sb.toString());
+	}
+}
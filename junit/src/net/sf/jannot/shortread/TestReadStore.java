@@ -0,0 +1,101 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.shortread;
+
+import java.util.Arrays;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class TestReadStore {
+
+	private static SAMFileHeader header() {
+		SAMFileHeader h = new SAMFileHeader();
+		h.addSequence(new SAMSequenceRecord("chr1", 100000));
+		h.addSequence(new SAMSequenceRecord("chr2", 100000));
+		return h;
+	}
+
+	private static SAMRecord read(SAMFileHeader h, String name, int start, String cigar, String bases, int flags) {
+		SAMRecord r = new SAMRecord(h);
+		r.setReadName(name);
+		r.setReferenceIndex(0);
+		r.setAlignmentStart(start);
+		r.setCigarString(cigar);
+		r.setReadString(bases);
+		r.setFlags(flags);
+		r.setMappingQuality(37);
+		return r;
+	}
+
+	@Test
+	public void testFields() {
+		SAMFileHeader h = header();
+		SAMRecord r = read(h, "read1", 100, "2S5M2I3M1D4M", "NNACGTAGGTTATGCA", 0x10);
+		ReadStore rs = new ReadStore();
+		int i = rs.add(r);
+		Assert.assertEquals(1, rs.size());
+		Assert.assertEquals(r.getAlignmentStart(), rs.start(i));
+		Assert.assertEquals(r.getAlignmentEnd(), rs.end(i));
+		Assert.assertEquals("read1", rs.name(i));
+		Assert.assertEquals(r.getCigarString(), rs.cigarString(i));
+		Assert.assertEquals(r.getReadString(), rs.readString(i));
+		Assert.assertEquals(37, rs.mappingQuality(i));
+		Assert.assertTrue(rs.isNegativeStrand(i));
+		Assert.assertFalse(rs.isPaired(i));
+		byte[] expected = ShortReadTools.construct(r);
+		byte[] actual = rs.construct(i, null);
+		Assert.assertArrayEquals(expected, Arrays.copyOf(actual, expected.length));
+	}
+
+	@Test
+	public void testMates() {
+		SAMFileHeader h = header();
+		ReadStore rs = new ReadStore(4, null);
+		SAMRecord a1 = read(h, "a", 100, "4M", "ACGT", 0x1 | 0x40);
+		SAMRecord b1 = read(h, "b", 120, "4M", "ACGT", 0x1 | 0x40);
+		SAMRecord single = read(h, "a", 150, "4M", "ACGT", 0);
+		SAMRecord a2 = read(h, "a", 300, "4M", "ACGT", 0x1 | 0x80);
+		a1.setMateReferenceIndex(1);
+		for (SAMRecord r : new SAMRecord[] { a1, b1, single, a2 })
+			rs.add(r);
+		Assert.assertEquals(3, rs.mate(0));
+		Assert.assertEquals(0, rs.mate(3));
+		Assert.assertEquals(-1, rs.mate(1));
+		Assert.assertEquals(-1, rs.mate(2));
+
+		/* Copies keep all fields */
+		ReadStore copy = new ReadStore(1, Arrays.asList("chr1", "chr2"));
+		copy.add(rs, 3);
+		copy.add(rs, 0);
+		Assert.assertEquals(1, copy.mate(0));
+		Assert.assertEquals("a", copy.name(1));
+		Assert.assertEquals("chr2", copy.mateReferenceName(1));
+		Assert.assertEquals(rs.cigarString(3), copy.cigarString(0));
+		Assert.assertEquals(rs.readString(3), copy.readString(0));
+	}
+
+	@Test
+	public void testTrim() {
+		SAMFileHeader h = header();
+		ReadStore rs = new ReadStore();
+		for (int i = 0; i < 100; i++)
+			rs.add(read(h, "r" + i, i * 10 + 1, "5M", "ACGTN", 0));
+		long before = rs.bytes();
+		rs.trim();
+		Assert.assertTrue(rs.bytes() < before);
+		Assert.assertEquals(100, rs.size());
+		Assert.assertEquals("ACGTN", rs.readString(99));
+		Assert.assertEquals("r99", rs.name(99));
+	}
+}
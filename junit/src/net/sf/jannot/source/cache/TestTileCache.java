@@ -0,0 +1,189 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.source.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Thomas Abeel
+ * 
+ */
+public class TestTileCache {
+
+	/* One record every 100 bp, each 150 bp long */
+	private static class CountingLoader extends TileCache.Loader<int[]> {
+		int loads = 0;
+
+		@Override
+		public List<int[]> load(String seq, int start, int end) {
+			loads++;
+			List<int[]> out = new ArrayList<int[]>();
+			for (int i = start / 100 * 100; i <= end; i += 100) {
+				if (i + 150 >= start)
+					out.add(new int[] { i, i + 150 });
+			}
+			return out;
+		}
+
+		@Override
+		public int start(int[] record) {
+			return record[0];
+		}
+
+		@Override
+		public int end(int[] record) {
+			return record[1];
+		}
+
+		@Override
+		public long size(int[] record) {
+			return 100;
+		}
+
+		@Override
+		public int tileSize(String seq) {
+			return 1000;
+		}
+	}
+
+	/**
+	 * Switching between sequences should not reload tiles that are still
+	 * cached.
+	 */
+	@Test
+	public void testMultipleSequences() throws Exception {
+		CountingLoader loader = new CountingLoader();
+		TileCache<int[]> cache = new TileCache<int[]>(loader, 1000000);
+		cache.query("chr1", 0, 5000);
+		cache.query("chr2", 0, 5000);
+		Assert.assertEquals(2, loader.loads);
+		cache.query("chr1", 0, 5000);
+		cache.query("chr2", 1000, 4000);
+		Assert.assertEquals(2, loader.loads);
+	}
+
+	/**
+	 * Records spanning multiple tiles are returned once.
+	 */
+	@Test
+	public void testNoDuplicates() throws Exception {
+		TileCache<int[]> cache = new TileCache<int[]>(new CountingLoader(), 1000000);
+		List<int[]> list = cache.query("chr1", 1500, 4500);
+		for (int i = 1; i < list.size(); i++)
+			Assert.assertTrue(list.get(i - 1)[0] < list.get(i)[0]);
+	}
+
+	/**
+	 * The cache should stay within its memory budget.
+	 */
+	@Test
+	public void testByteBound() throws Exception {
+		CountingLoader loader = new CountingLoader();
+		TileCache<int[]> cache = new TileCache<int[]>(loader, 10000);
+		for (int i = 0; i < 100; i++)
+			cache.query("chr1", i * 1000, i * 1000 + 500);
+		Assert.assertTrue(cache.bytes() <= 10000);
+		cache.query("chr1", 0, 500);
+		Assert.assertEquals(101, loader.loads);
+	}
+
+	/**
+	 * All caches together stay within the shared budget, the least recently
+	 * used tiles of any cache go first.
+	 */
+	@Test
+	public void testSharedBound() throws Exception {
+		TileCache.setSharedMaxBytes(30000);
+		try {
+			CountingLoader la = new CountingLoader();
+			CountingLoader lb = new CountingLoader();
+			TileCache<int[]> a = new TileCache<int[]>(la, 1000000);
+			TileCache<int[]> b = new TileCache<int[]>(lb, 1000000);
+			a.query("chr1", 0, 500);
+			for (int i = 0; i < 100; i++) {
+				a.query("chr2", i * 1000, i * 1000 + 500);
+				b.query("chr1", i * 1000, i * 1000 + 500);
+				Assert.assertTrue(a.bytes() + b.bytes() <= 30000);
+			}
+			Assert.assertTrue(TileCache.sharedBytes() <= 30000);
+			/* Both hold recent tiles, the first tile of a is gone */
+			Assert.assertTrue(a.bytes() > 0 && b.bytes() > 0);
+			a.query("chr1", 0, 500);
+			Assert.assertEquals(102, la.loads);
+			long before = TileCache.sharedBytes();
+			long used = a.bytes() + b.bytes();
+			a.clear();
+			b.clear();
+			Assert.assertEquals(before - used, TileCache.sharedBytes());
+		} finally {
+			TileCache.setSharedMaxBytes(256L * 1024 * 1024);
+		}
+	}
+	/* Loads that overlap in time, each tile loaded once */
+	private static class ConcurrentLoader extends CountingLoader {
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		final AtomicInteger tiles = new AtomicInteger();
+
+		@Override
+		public List<int[]> load(String seq, int start, int end) {
+			int now = active.incrementAndGet();
+			while (maxActive.get() < now && !maxActive.compareAndSet(maxActive.get(), now))
+				;
+			tiles.addAndGet((end - start) / 1000);
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			List<int[]> out = super.load(seq, start, end);
+			active.decrementAndGet();
+			return out;
+		}
+
+		@Override
+		public boolean isConcurrent() {
+			return true;
+		}
+	}
+
+	@Test
+	public void testConcurrentLoads() throws Exception {
+		final ConcurrentLoader loader = new ConcurrentLoader();
+		final TileCache<int[]> cache = new TileCache<int[]>(loader, 1000000);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			final int from = (i % 4) * 10000;
+			threads[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						List<int[]> list = cache.query("chr1", from, from + 9999);
+						Assert.assertEquals(from, list.get(0)[0]);
+						for (int j = 1; j < list.size(); j++)
+							Assert.assertEquals(list.get(j - 1)[0] + 100, list.get(j)[0]);
+					} catch (Throwable t) {
+						errors.add(t);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		Assert.assertTrue(errors.toString(), errors.isEmpty());
+		Assert.assertTrue(loader.maxActive.get() > 1);
+		/* Tiles 0 to 39, every one of them loaded once */
+		Assert.assertEquals(40, loader.tiles.get());
+	}
+}
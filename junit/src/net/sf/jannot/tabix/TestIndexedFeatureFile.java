@@ -0,0 +1,103 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.tabix;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.jannot.source.Locator;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class TestIndexedFeatureFile {
+
+	static class Line {
+		final String seq;
+		final int start, end;
+		final String text;
+
+		Line(String seq, int start, int end, String text) {
+			this.seq = seq;
+			this.start = start;
+			this.end = end;
+			this.text = text;
+		}
+	}
+
+	/*
+	 * Feature starts end in 1, feature ends in 5 and query coordinates in 7
+	 * and 8, so there are no ties between query and feature coordinates.
+	 */
+	static List<Line> write(File gz, int perSequence, int offset) throws IOException {
+		Random rg = new Random(11);
+		List<Line> lines = new ArrayList<Line>();
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(gz);
+		for (String seq : new String[] { "chr1", "chr2" }) {
+			int pos = offset + 1;
+			for (int i = 0; i < perSequence; i++) {
+				pos += 10 * rg.nextInt(20);
+				int len = 10 * (rg.nextInt(50) == 0 ? rg.nextInt(20000) : rg.nextInt(100)) + 4;
+				String text = seq + "\ttest\tgene\t" + pos + "\t" + (pos + len) + "\t.\t+\t.\tID=f" + seq + i;
+				lines.add(new Line(seq, pos, pos + len, text));
+				out.write((text + "\n").getBytes());
+			}
+		}
+		out.close();
+		return lines;
+	}
+
+	static File index(File gz) throws Exception {
+		File tbi = new File(gz + ".tbi");
+		tbi.deleteOnExit();
+		new TabixWriter(new Locator(gz), TabixWriter.GFF_CONF).createIndex(new Locator(tbi));
+		return tbi;
+	}
+
+	@Test
+	public void testQuery() throws Exception {
+		check(0);
+	}
+
+	/* Bin numbers of the lowest level do not fit in a short any more */
+	@Test
+	public void testLargeCoordinates() throws Exception {
+		check(480000000);
+	}
+
+	private void check(int offset) throws Exception {
+		File gz = File.createTempFile("features", ".gff.gz");
+		gz.deleteOnExit();
+		List<Line> lines = write(gz, 20000, offset);
+		File tbi = index(gz);
+		IndexedFeatureFile iff = new IndexedFeatureFile(new Locator(gz), new Locator(tbi));
+		Random rg = new Random(3);
+		for (int q = 0; q < 200; q++) {
+			String seq = rg.nextBoolean() ? "chr1" : "chr2";
+			int start = offset + 10 * rg.nextInt(200000) + 7;
+			int end = start + 10 * rg.nextInt(q % 10 == 0 ? 50000 : 1000) + 1;
+			List<String> expected = new ArrayList<String>();
+			for (Line l : lines)
+				if (l.seq.equals(seq) && l.end >= start && l.start <= end)
+					expected.add(l.text);
+			List<String> actual = new ArrayList<String>();
+			for (TabixLine tl : iff.query(seq, start, end))
+				if (tl.end >= start && tl.beg <= end)
+					actual.add(tl.line());
+			Collections.sort(expected);
+			Collections.sort(actual);
+			Assert.assertEquals(expected, actual);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.tabix;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class TestTabixLine {
+
+	private static TabIndex idx;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		File gz = File.createTempFile("features", ".gff.gz");
+		gz.deleteOnExit();
+		TestIndexedFeatureFile.write(gz, 10, 0);
+		BlockCompressedInputStream in = new BlockCompressedInputStream(TestIndexedFeatureFile.index(gz));
+		idx = TabIndex.read(in);
+		in.close();
+	}
+
+	private static TabixLine parse(String line) throws UnsupportedEncodingException {
+		byte[] bytes = ("xx" + line + "\n").getBytes("UTF-8");
+		return TabixLine.parse(idx, bytes, 2, bytes.length - 3, (byte) '\t');
+	}
+
+	@Test
+	public void testFields() throws UnsupportedEncodingException {
+		TabixLine tl = parse("chr2\ttest\tgene\t120\t-340\t\t+\t.\tID=f;Name=\u00e9");
+		Assert.assertFalse(tl.meta);
+		Assert.assertEquals(1, tl.tid);
+		Assert.assertEquals(120, tl.beg);
+		Assert.assertEquals(-340, tl.end);
+		Assert.assertEquals(9, tl.length());
+		Assert.assertEquals("gene", tl.get(2));
+		Assert.assertEquals("", tl.get(5));
+		Assert.assertEquals(0, tl.fieldLength(5));
+		Assert.assertEquals('+', tl.firstChar(6));
+		Assert.assertEquals("ID=f;Name=\u00e9", tl.get(8));
+		Assert.assertEquals("chr2\ttest\tgene\t120\t-340\t\t+\t.\tID=f;Name=\u00e9", tl.line());
+		Assert.assertArrayEquals("test".getBytes(), tl.getBytes(1));
+	}
+
+	@Test
+	public void testNames() throws UnsupportedEncodingException {
+		Assert.assertEquals(0, parse("chr1\tt\tg\t1\t2").tid);
+		Assert.assertEquals(-1, parse("chr\tt\tg\t1\t2").tid);
+		Assert.assertEquals(-1, parse("chr12\tt\tg\t1\t2").tid);
+		Assert.assertTrue(parse("").meta);
+		Assert.assertTrue(parse("chr1\tt\tg\t1").meta);
+	}
+
+	@Test
+	public void testInt() throws UnsupportedEncodingException {
+		TabixLine tl = parse("chr1\tx\t-2147483648\t2147483647\t+7\t2147483648\t1x\t-\t");
+		Assert.assertEquals(Integer.MIN_VALUE, tl.getInt(2));
+		Assert.assertEquals(Integer.MAX_VALUE, tl.beg);
+		Assert.assertEquals(7, tl.end);
+		for (int i = 5; i < tl.length(); i++) {
+			try {
+				tl.getInt(i);
+				Assert.fail("Parsed " + tl.get(i));
+			} catch (NumberFormatException e) {
+				/* Expected */
+			}
+		}
+	}
+}
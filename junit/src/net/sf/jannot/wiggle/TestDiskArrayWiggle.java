@@ -0,0 +1,185 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.wiggle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import net.sf.jannot.DataKey;
+import net.sf.jannot.Entry;
+import net.sf.jannot.EntrySet;
+import net.sf.jannot.parser.WiggleParser;
+import net.sf.jannot.refseq.MemorySequence;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class TestDiskArrayWiggle {
+
+	private static File temporary(String suffix) throws IOException {
+		File file = File.createTempFile("wiggle", suffix);
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void testPutGet() throws IOException {
+		DiskArrayWiggle daw = new DiskArrayWiggle(1000);
+		float[] values = new float[100];
+		for (int i = 0; i < values.length; i++)
+			values[i] = i - 50;
+		/* Values outside the wiggle are dropped */
+		daw.put(950, values, 0, values.length);
+		daw.put(-10, values, 0, values.length);
+		daw.set(500, 7);
+		daw.finish();
+
+		float[] out = new float[100];
+		daw.get(950, out, 0, out.length);
+		Assert.assertArrayEquals(Arrays.copyOf(values, 50), Arrays.copyOf(out, 50), 0);
+		for (int i = 50; i < out.length; i++)
+			Assert.assertEquals(0, out[i], 0);
+		Assert.assertEquals(values[10], daw.value(1), 0);
+		Assert.assertEquals(7, daw.value(501), 0);
+		Assert.assertEquals(0, daw.value(502), 0);
+		Assert.assertEquals(-50, daw.min(), 0);
+		Assert.assertEquals(49, daw.max(), 0);
+		Assert.assertEquals(1000, daw.size());
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		File file = temporary(".wig");
+		DiskArrayWiggle daw = new DiskArrayWiggle(file, 5000);
+		daw.set(10, 3);
+		daw.set(4999, -2);
+		Assert.assertNull("Not finished", DiskArrayWiggle.open(file));
+		daw.finish();
+
+		DiskArrayWiggle reopened = DiskArrayWiggle.open(file);
+		Assert.assertEquals(5000, reopened.size());
+		Assert.assertEquals(3, reopened.value(11), 0);
+		Assert.assertEquals(-2, reopened.value(5000), 0);
+		Assert.assertEquals(-2, reopened.min(), 0);
+		Assert.assertEquals(3, reopened.max(), 0);
+		Assert.assertEquals(3, reopened.getEnvelope(0, 5000, 12).max[0], 0);
+
+		Assert.assertNull(DiskArrayWiggle.open(temporary(".wig")));
+	}
+
+	private static EntrySet sequence() {
+		return sequence(2000);
+	}
+
+	private static EntrySet sequence(int length) {
+		EntrySet set = new EntrySet();
+		char[] c = new char[length];
+		Arrays.fill(c, 'A');
+		set.getOrCreateEntry("chr1").setSequence(new MemorySequence(new String(c)));
+		return set;
+	}
+
+	private static Graph graph(EntrySet set, String name) {
+		Entry e = set.getEntry("chr1");
+		for (DataKey key : e)
+			if (key.toString().equals(name))
+				return (Graph) e.get(key);
+		return null;
+	}
+
+	private static File wig() throws IOException {
+		File wig = temporary(".wig");
+		PrintWriter out = new PrintWriter(new FileWriter(wig));
+		out.println("track type=wiggle_0 name=a chrom=chr1");
+		out.println("variableStep chrom=chr1 span=5");
+		out.println("100 1.5");
+		out.println("track type=wiggle_0 name=b chrom=chr1");
+		out.println("fixedStep chrom=chr1 start=1000 step=10");
+		out.println("2");
+		out.println("4");
+		out.close();
+		return wig;
+	}
+
+	private static File cache() throws IOException {
+		File dir = temporary(".cache");
+		dir.delete();
+		WiggleParser.cacheDir = dir;
+		return dir;
+	}
+
+	private static void clean(File dir, File old) {
+		if (dir.exists())
+			for (File f : dir.listFiles())
+				f.delete();
+		dir.delete();
+		WiggleParser.cacheDir = old;
+		WiggleParser.cacheSize = 4L * 1024 * 1024 * 1024;
+	}
+
+	/* The second load of an unchanged file uses the stored wiggles */
+	@Test
+	public void testParserCache() throws IOException {
+		File old = WiggleParser.cacheDir;
+		File dir = cache();
+		try {
+			File wig = wig();
+
+			EntrySet first = new WiggleParser(wig).parse(new FileInputStream(wig), sequence());
+			EntrySet second = new WiggleParser(wig).parse(new ByteArrayInputStream(new byte[0]), sequence());
+			for (EntrySet set : new EntrySet[] { first, second }) {
+				Graph a = graph(set, "a");
+				Assert.assertEquals(1.5, a.value(105), 0);
+				Assert.assertEquals(0, a.value(106), 0);
+				Graph b = graph(set, "b");
+				Assert.assertEquals(2, b.value(1002), 0);
+				Assert.assertEquals(4, b.value(1012), 0);
+			}
+			Assert.assertTrue(wig.setLastModified(wig.lastModified() - 10000));
+			/* A changed file is read again */
+			EntrySet changed = new WiggleParser(wig).parse(new FileInputStream(wig), sequence());
+			Assert.assertEquals(1.5, graph(changed, "a").value(105), 0);
+			Assert.assertEquals("Only the last version is kept", 3, dir.list().length);
+
+			/* Wiggles stored for a shorter sequence are not used */
+			EntrySet longer = new WiggleParser(wig).parse(new FileInputStream(wig), sequence(3000));
+			Assert.assertEquals(3000, ((DiskArrayWiggle) graph(longer, "a")).size());
+			Assert.assertEquals(4, graph(longer, "b").value(1012), 0);
+			Assert.assertEquals(3, dir.list().length);
+		} finally {
+			clean(dir, old);
+		}
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		File old = WiggleParser.cacheDir;
+		File dir = cache();
+		try {
+			/* Two wiggles of 2000 values, a header each and an index */
+			WiggleParser.cacheSize = 30000;
+			File first = wig();
+			new WiggleParser(first).parse(new FileInputStream(first), sequence());
+			String[] stored = dir.list();
+			Assert.assertEquals(3, stored.length);
+			File second = wig();
+			new WiggleParser(second).parse(new FileInputStream(second), sequence());
+			Assert.assertEquals(3, dir.list().length);
+			for (String name : stored)
+				Assert.assertFalse(new File(dir, name).exists());
+		} finally {
+			clean(dir, old);
+		}
+	}
+}
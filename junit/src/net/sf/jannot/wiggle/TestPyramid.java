@@ -0,0 +1,113 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.wiggle;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class TestPyramid {
+
+	/* Waits for the summary that is built in the background */
+	private static Envelope envelope(Graph graph, int start, int end, int resolutionIndex) {
+		Envelope e = graph.getEnvelope(start, end, resolutionIndex);
+		long limit = System.currentTimeMillis() + 10000;
+		while (e.isPartial() && System.currentTimeMillis() < limit) {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+			e = graph.getEnvelope(start, end, resolutionIndex);
+		}
+		Assert.assertFalse(e.isPartial());
+		return e;
+	}
+
+	private static void check(float[] values, Graph graph, int start, int end, int resolutionIndex) {
+		Envelope e = envelope(graph, start, end, resolutionIndex);
+		int scale = 1 << resolutionIndex;
+		Assert.assertEquals((end - start + scale - 1) / scale, e.size());
+		for (int i = 0; i < e.size(); i++) {
+			float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+			double sum = 0;
+			int count = 0;
+			long to = Math.min(Math.min(values.length, end), start + (long) (i + 1) * scale);
+			for (long p = Math.max(0, start + (long) i * scale); p < to; p++) {
+				min = Math.min(min, values[(int) p]);
+				max = Math.max(max, values[(int) p]);
+				sum += values[(int) p];
+				count++;
+			}
+			if (count == 0) {
+				min = max = 0;
+				count = 1;
+			}
+			Assert.assertEquals(min, e.min[i], 0);
+			Assert.assertEquals(max, e.max[i], 0);
+			Assert.assertEquals(sum / count, e.mean[i], 1e-3);
+		}
+		Assert.assertArrayEquals(e.mean, graph.get(start, end, resolutionIndex), 0);
+	}
+
+	/* More values than one build task handles, with a spike */
+	@Test
+	public void testEnvelope() {
+		Random rg = new Random(13);
+		float[] values = new float[(1 << 22) + 123457];
+		for (int i = 0; i < values.length; i++)
+			values[i] = rg.nextFloat();
+		values[3000001] = 100;
+		FloatArrayWiggle w = new FloatArrayWiggle(values);
+		check(values, w, 0, values.length, 22);
+		check(values, w, -1, values.length + 5000, 16);
+		check(values, w, 2999999, 3100000, 10);
+		check(values, w, 2999936, 3999936, 6);
+		check(values, w, 17, 1000, 3);
+		for (int i = 0; i < 50; i++) {
+			int start = rg.nextInt(values.length);
+			int end = start + rg.nextInt(values.length - start) + 1;
+			int res = rg.nextInt(24);
+			check(values, w, start, end, res);
+		}
+		Envelope e = envelope(w, 0, values.length, 20);
+		Assert.assertEquals(100, e.max[2], 0);
+		Assert.assertTrue(e.mean[2] < 1);
+	}
+
+	@Test
+	public void testChanged() throws Exception {
+		TroveArrayWiggle w = new TroveArrayWiggle(1000);
+		w.set(10, 5);
+		w.init();
+		Assert.assertEquals(5, w.getEnvelope(0, 1000, 8).max[0], 0);
+		w.set(20, 7);
+		Assert.assertEquals(7, w.getEnvelope(0, 1000, 8).max[0], 0);
+		Assert.assertEquals(12 / 256f, w.get(0, 1000, 8)[0], 1e-6);
+	}
+
+	/* Queries do not wait for the pyramid, a preview reads a bounded part */
+	@Test
+	public void testPreview() {
+		float[] values = new float[4 * AbstractWiggle.PREVIEW];
+		for (int i = 0; i < values.length; i++)
+			values[i] = i % 1000;
+		FloatArrayWiggle w = new FloatArrayWiggle(values);
+		Envelope e = w.getEnvelope(0, values.length, 12);
+		Assert.assertEquals(values.length >> 12, e.size());
+		if (e.isPartial())
+			for (int i = 0; i < e.size(); i++)
+				Assert.assertTrue(e.min[i] >= 0 && e.max[i] <= 999);
+		e = envelope(w, 0, values.length, 12);
+		Assert.assertEquals(999, e.max[0], 0);
+		Assert.assertEquals(0, e.min[1], 0);
+	}
+
+}
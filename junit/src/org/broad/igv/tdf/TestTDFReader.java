@@ -0,0 +1,152 @@
+/**
+ * %HEADER%
+ */
+package org.broad.igv.tdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.samtools.seekablestream.SeekableFileStream;
+
+import org.broad.igv.track.WindowFunction;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestTDFReader {
+
+	private static final int TILES = 200;
+	private static final int BINS = 100;
+
+	private File file;
+	private TDFReader reader;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("reader", ".tdf");
+		TDFWriter writer = new TDFWriter(file, "test", "COVERAGE", null, new String[] { "a" },
+				Arrays.asList(WindowFunction.mean), true);
+		writer.createDataset("/chr1/z0/mean", TDFDataset.DataType.FLOAT, BINS, TILES);
+		for (int t = 0; t < TILES; t++) {
+			float[][] data = new float[1][BINS];
+			for (int i = 0; i < BINS; i++)
+				data[0][i] = t * 1000 + i;
+			writer.writeTile("/chr1/z0/mean", t, new TDFFixedTile(t * BINS, t * BINS, 1, data));
+		}
+		writer.closeFile();
+		reader = TDFReader.getReader(new SeekableFileStream(file));
+	}
+
+	@After
+	public void tearDown() {
+		TDFTileCache.setMaxBytes(64L * 1024 * 1024);
+		reader.close();
+		file.delete();
+	}
+
+	private static void check(TDFTile tile, int t) {
+		Assert.assertEquals(BINS, tile.getSize());
+		Assert.assertEquals(t * BINS + 7, tile.getStartPosition(7));
+		Assert.assertEquals(t * 1000 + 42, tile.getValue(0, 42), 0);
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		/* Small enough that tiles are evicted and read again */
+		TDFTileCache.setMaxBytes(50 * 1024);
+		final TDFDataset ds = reader.getDataset("chr1", 0, WindowFunction.mean);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < 8; i++) {
+			final int seed = i;
+			results.add(pool.submit(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception {
+					Random rg = new Random(seed);
+					for (int j = 0; j < 2000; j++) {
+						int t = rg.nextInt(TILES);
+						/* Datasets are shared too */
+						Assert.assertSame(ds, reader.getDataset("/chr1/z0/mean"));
+						check(ds.getTile(t), t);
+					}
+					return 2000;
+				}
+			}));
+		}
+		for (Future<Integer> f : results)
+			Assert.assertEquals(2000, (int) f.get());
+		pool.shutdown();
+		Assert.assertTrue(TDFTileCache.size() <= 50 * 1024);
+	}
+
+	@Test
+	public void testCache() {
+		TDFDataset ds = reader.getDataset("/chr1/z0/mean");
+		TDFTile tile = ds.getTile(3);
+		check(tile, 3);
+		Assert.assertSame(tile, ds.getTile(3));
+		Assert.assertTrue(TDFTileCache.size() > 0);
+
+		TDFTileCache.setMaxBytes(0);
+		Assert.assertEquals(0, TDFTileCache.size());
+		Assert.assertNotSame(tile, ds.getTile(3));
+		check(ds.getTile(3), 3);
+		Assert.assertNull(ds.getTile(TILES));
+	}
+
+	/* An interrupted read must not break the reader for other reads */
+	@Test
+	public void testInterrupt() throws Exception {
+		byte[] expected = reader.readBytes(0, 64);
+		Thread.currentThread().interrupt();
+		try {
+			reader.readBytes(0, 64);
+			Assert.fail("Read while interrupted");
+		} catch (ClosedByInterruptException e) {
+			/* Expected */
+		} finally {
+			Thread.interrupted();
+		}
+		Assert.assertArrayEquals(expected, reader.readBytes(0, 64));
+		TDFTileCache.setMaxBytes(0);
+		check(reader.getDataset("/chr1/z0/mean").getTile(5), 5);
+	}
+
+	/* A failed background tile write must fail the file instead of completing it */
+	@Test
+	public void testFailedTile() throws Exception {
+		File broken = File.createTempFile("broken", ".tdf");
+		TDFWriter writer = new TDFWriter(broken, "test", "COVERAGE", null, new String[] { "a" },
+				Arrays.asList(WindowFunction.mean), true);
+		writer.createDataset("/chr1/z0/mean", TDFDataset.DataType.FLOAT, BINS, TILES);
+		writer.submitTile("/chr1/z0/mean", 0, new TDFFixedTile(0, 0, 1, new float[1][BINS]));
+		writer.submitTile("/chr1/z0/mean", 1, new TDFFixedTile(BINS, BINS, 1, new float[1][BINS]) {
+			@Override
+			public void writeTo(BufferedByteWriter fos) throws IOException {
+				throw new IOException("Disk full");
+			}
+		});
+		try {
+			writer.closeFile();
+			Assert.fail("Closed a file with a failed tile");
+		} catch (IOException e) {
+			Assert.assertEquals("Disk full", e.getMessage());
+		}
+		Assert.assertFalse(broken.exists());
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * %HEADER%
+ */
+package org.broad.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import net.sf.samtools.AlignmentBlock;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.broad.igv.track.WindowFunction;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Thomas Abeel
+ *
+ */
+public class TestCoverageCounter {
+
+	private File bam;
+	private SAMFileHeader header;
+	private List<SAMRecord> reads = new ArrayList<SAMRecord>();
+
+	/* Collects the data instead of writing a TDF file */
+	private static class Collector extends Preprocessor {
+		List<String> data = new ArrayList<String>();
+		String totalCount;
+
+		Collector(SAMSequenceDictionary dict) {
+			super("test", null, dict, Arrays.asList(WindowFunction.mean), 1);
+		}
+
+		@Override
+		void addData(String chr, int start, int end, float[] values, String name) {
+			data.add(chr + ":" + start + "-" + end + "=" + values[0] + "," + values[1]);
+		}
+
+		@Override
+		public void setAttribute(String key, String value) {
+			if (key.equals("totalCount"))
+				totalCount = value;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		bam = File.createTempFile("coverage", ".bam");
+		header = new SAMFileHeader();
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		SAMSequenceDictionary dict = new SAMSequenceDictionary();
+		dict.addSequence(new SAMSequenceRecord("chr1", 3000000));
+		dict.addSequence(new SAMSequenceRecord("chr2", 50000));
+		header.setSequenceDictionary(dict);
+
+		String[] cigars = { "100M", "40M10D60M", "30M500N70M", "10S80M5I5M", "50M" };
+		Random rg = new Random(5);
+		for (SAMSequenceRecord seq : dict.getSequences()) {
+			for (int i = 0; i < 4000; i++) {
+				SAMRecord r = new SAMRecord(header);
+				r.setReadName("r" + seq.getSequenceName() + i);
+				r.setReferenceName(seq.getSequenceName());
+				r.setAlignmentStart(1 + rg.nextInt(seq.getSequenceLength() - 1000));
+				r.setCigarString(cigars[rg.nextInt(cigars.length)]);
+				byte[] bases = new byte[r.getCigar().getReadLength()];
+				Arrays.fill(bases, (byte) 'A');
+				r.setReadBases(bases);
+				r.setBaseQualities(SAMRecord.NULL_QUALS);
+				r.setReadNegativeStrandFlag(rg.nextBoolean());
+				r.setDuplicateReadFlag(rg.nextInt(20) == 0);
+				r.setMappingQuality(60);
+				reads.add(r);
+			}
+		}
+		SAMFileWriterFactory factory = new SAMFileWriterFactory();
+		factory.setCreateIndex(true);
+		SAMFileWriter writer = factory.makeBAMWriter(header, false, bam);
+		for (SAMRecord r : reads)
+			writer.addAlignment(r);
+		writer.close();
+	}
+
+	@After
+	public void tearDown() {
+		bam.delete();
+		String name = bam.getPath();
+		new File(name.substring(0, name.length() - 4) + ".bai").delete();
+	}
+
+	/**
+	 * Per base counting, the way the counter used to work.
+	 */
+	private List<String> expected(int windowSize, int extFactor) {
+		List<String> out = new ArrayList<String>();
+		for (SAMSequenceRecord seq : header.getSequenceDictionary().getSequences()) {
+			TreeMap<Integer, int[]> counts = new TreeMap<Integer, int[]>();
+			for (SAMRecord r : reads) {
+				if (!r.getReferenceName().equals(seq.getSequenceName()) || r.getDuplicateReadFlag())
+					continue;
+				for (AlignmentBlock block : r.getAlignmentBlocks()) {
+					int s = block.getReferenceStart();
+					int e = s + block.getLength();
+					if (r.getReadNegativeStrandFlag())
+						s = Math.max(0, s - extFactor);
+					else
+						e += extFactor;
+					for (int pos = s; pos < e; pos++) {
+						int[] c = counts.get(pos / windowSize);
+						if (c == null)
+							counts.put(pos / windowSize, c = new int[2]);
+						c[r.getReadNegativeStrandFlag() ? 1 : 0]++;
+					}
+				}
+			}
+			for (Integer bucket : counts.keySet()) {
+				int start = bucket * windowSize;
+				int end = Math.min(start + windowSize, seq.getSequenceLength());
+				int[] c = counts.get(bucket);
+				out.add(seq.getSequenceName() + ":" + start + "-" + end + "=" + ((float) c[0]) / (end - start) + ","
+						+ ((float) c[1]) / (end - start));
+			}
+		}
+		return out;
+	}
+
+	private void check(int windowSize, int extFactor, int threads) throws Exception {
+		Collector c = new Collector(header.getSequenceDictionary());
+		CoverageCounter counter = new CoverageCounter(bam.getPath(), c, windowSize, extFactor, null,
+				header.getSequenceDictionary());
+		counter.setThreads(threads);
+		counter.parse();
+		Assert.assertEquals(expected(windowSize, extFactor), c.data);
+		int total = 0;
+		for (SAMRecord r : reads)
+			if (!r.getDuplicateReadFlag())
+				total++;
+		Assert.assertEquals(String.valueOf(total), c.totalCount);
+	}
+
+	@Test
+	public void testBases() throws Exception {
+		check(1, 0, 4);
+	}
+
+	@Test
+	public void testWindows() throws Exception {
+		check(25, 0, 1);
+	}
+
+	@Test
+	public void testExtension() throws Exception {
+		check(10, 200, 3);
+	}
+}
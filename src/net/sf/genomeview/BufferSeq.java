@@ -13,13 +13,8 @@ public class BufferSeq {
 
 	public BufferSeq(Sequence seq, Location l) {
 		this.l = l;
-		Iterable<Character> bufferedSeq = seq.get(l.start, l.end);
-
 		buffer = new char[l.length()];
-		int idx = 0;
-		for (char c : bufferedSeq) {
-			buffer[idx++] = c;
-		}
+		seq.get(l.start, l.end, buffer, 0);
 	}
 
 	public BufferSeq(Sequence sequence) {
@@ -42,11 +37,19 @@ public class BufferSeq {
 	}
 
 	public char getAminoAcid(int pos, AminoAcidMapping mapping) {
-		return mapping.get(getCodon(pos));
+		return mapping.get(getNucleotide(pos), getNucleotide(pos + 1), getNucleotide(pos + 2));
 	}
 
 	public char getReverseAminoAcid(int pos, AminoAcidMapping mapping) {
-		return mapping.get(getReverseCodon(pos));
+		return mapping.get(getReverseNucleotide(pos + 2), getReverseNucleotide(pos + 1), getReverseNucleotide(pos));
+	}
+
+	public boolean isStart(int pos, AminoAcidMapping mapping) {
+		return mapping.isStart(getNucleotide(pos), getNucleotide(pos + 1), getNucleotide(pos + 2));
+	}
+
+	public boolean isReverseStart(int pos, AminoAcidMapping mapping) {
+		return mapping.isStart(getReverseNucleotide(pos + 2), getReverseNucleotide(pos + 1), getReverseNucleotide(pos));
 	}
 
 	public String getCodon(int pos) {
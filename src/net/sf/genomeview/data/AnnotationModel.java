@@ -5,21 +5,95 @@ package net.sf.genomeview.data;
 
 import java.util.Observable;
 
+import net.sf.jannot.FeatureAnnotation;
+import net.sf.jannot.MemoryFeatureAnnotation;
 import net.sf.jannot.Type;
 
 /**
  * Keeps track of changes of that the user makes to the feature annotation and
  * notifies interested parties.
- * 
+ *
+ * Observers either get the {@link Type} of which anything may have changed, or
+ * a {@link RegionUpdate} when only the features in a region of one type
+ * changed.
+ *
  * @author Thomas Abeel
- * 
+ *
  */
 public class AnnotationModel extends Observable {
 
+	/**
+	 * Notification that features of a type were added, removed or edited
+	 * between two coordinates.
+	 */
+	public static class RegionUpdate {
+		public final Type type;
+		public final int start;
+		public final int end;
+
+		RegionUpdate(Type type, int start, int end) {
+			this.type = type;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public String toString() {
+			return type + ":" + start + "-" + end;
+		}
+	}
+
+	/* Passes on the edits of an annotation that holds one type */
+	private class Relay implements MemoryFeatureAnnotation.RegionListener {
+		private final Type type;
+
+		Relay(Type type) {
+			this.type = type;
+		}
+
+		@Override
+		public void regionChanged(MemoryFeatureAnnotation annotation, int start, int end) {
+			regionUpdated(type, start, end);
+		}
+
+		private AnnotationModel model() {
+			return AnnotationModel.this;
+		}
+
+		@Override
+		public int hashCode() {
+			return type.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Relay))
+				return false;
+			Relay r = (Relay) o;
+			return r.model() == model() && r.type == type;
+		}
+	}
+
 	public void typeUpdated(Type type) {
 		setChanged();
 		notifyObservers(type);
 
 	}
 
-}
\ No newline at end of file
+	public void regionUpdated(Type type, int start, int end) {
+		setChanged();
+		notifyObservers(new RegionUpdate(type, start, end));
+	}
+
+	/**
+	 * Passes on all edits of the features in an annotation as region updates.
+	 * Only annotations that are kept in memory can be edited, others are
+	 * ignored.
+	 */
+	public void watch(Type type, FeatureAnnotation annot) {
+		if (!(annot instanceof MemoryFeatureAnnotation))
+			return;
+		((MemoryFeatureAnnotation) annot).addRegionListener(new Relay(type));
+	}
+
+}
@@ -52,6 +52,7 @@ import org.broad.igv.tdf.TDFTile;
 import org.broad.igv.tdf.TDFVaryTile;
 import org.broad.igv.tdf.TDFWriter;
 import org.broad.igv.tools.Accumulator;
+import org.broad.igv.tools.LevelPipeline;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.collections.FloatArrayList;
 import org.broad.igv.util.collections.IntArrayList;
@@ -80,6 +81,8 @@ public class ConvertWig2TDF {
 	private HashSet<String> skippedChromosomes = new HashSet<String>();
 	private TDFWriter writer;
 	private Raw rawData;
+	private LevelPipeline pipeline;
+	private boolean parallel = true;
 	private File outputFile;
 	private Accumulator allDataStats;
 	private List<String> chromosomes = new ArrayList<String>();
@@ -116,6 +119,7 @@ public class ConvertWig2TDF {
 		if (outputFile != null && writer == null) {
 			writer = new TDFWriter(outputFile, trackName, trackType, trackLine, trackNames, windowFunctions, compressed);
 			nTracks = trackNames.length;
+			pipeline = new LevelPipeline(nZoom + 2, parallel);
 
 			TDFGroup rootGroup = writer.getRootGroup();
 			rootGroup.setAttribute("genome", trackName);
@@ -178,13 +182,8 @@ public class ConvertWig2TDF {
 			return;
 		}
 
-		// Add to raw data
-		rawData.addData(start, end, data, name);
-
-		// Zoom levels
-		for (Zoom zl : zoomLevels) {
-			zl.addData(start, end, data);
-		}
+		// Raw data and zoom levels
+		pipeline.addData(start, end, data, name);
 
 		lastStartPosition = start;
 
@@ -209,14 +208,6 @@ public class ConvertWig2TDF {
 
 		out.println();
 		out.println("Processing chromosome " + chr);
-		if (zoomLevels != null) {
-			for (Zoom zl : zoomLevels) {
-				zl.close();
-			}
-		}
-		if (rawData != null) {
-			rawData.close();
-		}
 
 		currentChr = chr;
 		currentChrLength = mapLength.get(currentChr);// c.getMaximumLength();
@@ -226,12 +217,16 @@ public class ConvertWig2TDF {
 		}
 
 		rawData = new Raw(chr, currentChrLength, 100000);
+		LevelPipeline.Level[] levels = new LevelPipeline.Level[zoomLevels.length + 1];
+		levels[0] = rawData;
+		System.arraycopy(zoomLevels, 0, levels, 1, zoomLevels.length);
+		pipeline.setLevels(levels);
 
 		lastStartPosition = 0;
 
 	}
 
-	private void finish() {
+	private void finish() throws IOException {
 		if (writer == null) {
 			return;
 		}
@@ -250,19 +245,13 @@ public class ConvertWig2TDF {
 			writer.getRootGroup().setAttribute(entry.getKey(), entry.getValue());
 		}
 
-		if (zoomLevels != null) {
-			for (Zoom zl : zoomLevels) {
-				zl.close();
-			}
-		}
+		pipeline.finish();
 
 		if (rawData == null) {
 			// TODO -- delete .tdf file?
 			out.println("No features were found that matched chromosomes in genome: " + trackName);
 
 		} else {
-			rawData.close();
-
 			// Record max/min
 			allDataStats.finish();
 			TDFGroup group = writer.getGroup("/");
@@ -353,7 +342,7 @@ public class ConvertWig2TDF {
 					String[] n = nameList == null ? null : nameList.toArray(new String[] {});
 
 					TDFBedTile tile = new TDFBedTile(tileStart, s, e, d, n);
-					writer.writeTile(dsName, tileNumber, tile);
+					writer.submitTile(dsName, tileNumber, tile);
 					startArray.clear();
 					endArray.clear();
 					for (int i = 0; i < dataArray.length; i++) {
@@ -369,7 +358,7 @@ public class ConvertWig2TDF {
 	/**
 	 * Class representing the raw dataset
 	 */
-	private class Raw {
+	private class Raw implements LevelPipeline.Level {
 
 		private String dsName;
 		private int tileWidth;
@@ -389,7 +378,8 @@ public class ConvertWig2TDF {
 		 * @param end
 		 * @param data
 		 */
-		private void addData(int start, int end, float[] data, String name) {
+		@Override
+		public void addData(int start, int end, float[] data, String name) {
 
 			int startTileNumber = (int) (start / tileWidth);
 			int endTileNumber = (int) (end / tileWidth);
@@ -422,7 +412,8 @@ public class ConvertWig2TDF {
 			nPtsProcessed++;
 		}
 
-		void close() {
+		@Override
+		public void close() {
 			for (RawTile t : activeTiles.values()) {
 				t.close();
 			}
@@ -434,7 +425,7 @@ public class ConvertWig2TDF {
 	/**
 	 * Class representing all the data for a particular zoom level.
 	 */
-	private class Zoom {
+	private class Zoom implements LevelPipeline.Level {
 
 		int level;
 		int tileWidth;
@@ -453,7 +444,8 @@ public class ConvertWig2TDF {
 			}
 		}
 
-		private void addData(int start, int end, float[] data) {
+		@Override
+		public void addData(int start, int end, float[] data, String name) {
 
 			int startTile = start / tileWidth;
 			int endTile = end / tileWidth;
@@ -483,7 +475,8 @@ public class ConvertWig2TDF {
 
 		// Close all active tiles
 
-		private void close() {
+		@Override
+		public void close() {
 			for (Tile t : activeTiles.values()) {
 				t.close();
 			}
@@ -605,7 +598,7 @@ public class ConvertWig2TDF {
 
 				String dsName = datasets.get(wf).getName();
 				try {
-					writer.writeTile(dsName, tileNumber, tile);
+					writer.submitTile(dsName, tileNumber, tile);
 				} catch (IOException iOException) {
 					log.error("Error writing tile: " + dsName + " [" + tileNumber + "]", iOException);
 					// TODO -- replace with PreprocessorException
@@ -769,6 +762,16 @@ public class ConvertWig2TDF {
 	private static HashMap<String, Integer> mapLength = new HashMap<String, Integer>();
 
 	public static void convertWig2TDF(Locator data, File output) throws IOException, URISyntaxException {
+		convertWig2TDF(data, output, true);
+	}
+
+	/**
+	 * @param parallel
+	 *            accumulate the zoom levels on separate threads and compress
+	 *            the tiles in the background
+	 */
+	public static void convertWig2TDF(Locator data, File output, boolean parallel) throws IOException,
+			URISyntaxException {
 		// this.dnaproperty = (ConversionMapDNAProperty) prop;
 		BufferedInputStream bis = new BufferedInputStream(data.stream(), 1024 * 1024);
 		LineIterator it = new LineIterator(bis, true, true);
@@ -880,8 +883,14 @@ public class ConvertWig2TDF {
 			maxColumns -= 3;
 		}
 		ConvertWig2TDF cv = new ConvertWig2TDF(trackName, output, maxColumns);
-		cv.count(zoom, data);
-		cv.finish();
+		cv.parallel = parallel;
+		try {
+			cv.count(zoom, data);
+			cv.finish();
+		} finally {
+			if (cv.pipeline != null)
+				cv.pipeline.cancel();
+		}
 
 	}
 
@@ -1,71 +1,360 @@
 package net.sf.genomeview.data;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
 
+import net.sf.genomeview.core.Configuration;
 import net.sf.jannot.Location;
-import be.abeel.concurrency.DaemonThread;
-import be.abeel.concurrency.DaemonThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * 
+ * Schedules background tasks on a pool of worker threads.
+ *
+ * Tasks are queued per data source and the workers visit the sources in a
+ * round-robin fashion. The number of tasks that can run concurrently for a
+ * single source is limited, so a slow source (for example a remote BAM file)
+ * can only occupy part of the workers and other tracks keep loading.
+ *
+ * Pool size and the per source limit are set with the
+ * <code>scheduler:workers</code> and <code>scheduler:workersPerSource</code>
+ * configuration options.
+ *
+ * Sources whose tasks are independent and cheap to run concurrently, like
+ * the chunks of a coverage summary, can raise their own limit with
+ * {@link #setSourceLimit(Object, int)}. The limit is forgotten when the tasks
+ * of the source are cancelled.
+ *
+ * Within a source, tasks that overlap the visible region are run first,
+ * closest to the center of the screen first. Whenever the visible region
+ * changes, tasks that are far away are cancelled.
+ *
  * @author Thomas Abeel
- * 
+ *
  */
 public class GenomeViewScheduler {
 
-	public static int queueLength(){
-		return gvs.size();
+	private static Logger log = LoggerFactory.getLogger(GenomeViewScheduler.class.toString());
+
+	/* Key for tasks that do not belong to a particular data source */
+	private static final Object GENERAL = "general";
+
+	private static class SourceQueue {
+		private final SourceStatistics stats;
+		private final TaskQueue tasks = new TaskQueue();
+		private final HashSet<Task> running = new HashSet<Task>();
+
+		SourceQueue(Object source) {
+			stats = new SourceStatistics(source);
+		}
 	}
-	static PriorityBlockingQueue<Runnable> gvs;
-	static {
-		gvs = new PriorityBlockingQueue<Runnable>();
+
+	private static final Object lock = new Object();
+	private static final HashMap<Object, SourceQueue> queues = new HashMap<Object, SourceQueue>();
+	/* Sources with a different limit than perSource, zero means no limit */
+	private static final HashMap<Object, Integer> limits = new HashMap<Object, Integer>();
+	/* Sources in the order the workers visit them */
+	private static final ArrayList<SourceQueue> order = new ArrayList<SourceQueue>();
+	/* Round-robin pointer in order */
+	private static int next = 0;
+	/* Currently visible region, used to prioritize tasks */
+	private static Location visible = null;
+
+	private static int targetWorkers = Runtime.getRuntime().availableProcessors();
+	private static int perSource = 1;
+	private static int aliveWorkers = 0;
+
+	public static int queueLength() {
+		synchronized (lock) {
+			int out = 0;
+			for (SourceQueue sq : order)
+				out += sq.tasks.size();
+			return out;
+		}
 	}
 
-	private static ExecutorService worker = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, gvs,new DaemonThreadFactory());
+	/**
+	 * Sets the number of worker threads and the maximum number of tasks of a
+	 * single source that are allowed to run at the same time.
+	 *
+	 * @param workers
+	 *            number of worker threads, values smaller than one select the
+	 *            number of available processors.
+	 * @param workersPerSource
+	 *            values smaller than one remove the per source limit.
+	 */
+	public static void configure(int workers, int workersPerSource) {
+		synchronized (lock) {
+			if (workers < 1)
+				workers = Runtime.getRuntime().availableProcessors();
+			if (workersPerSource < 1)
+				workersPerSource = workers;
+			targetWorkers = workers;
+			perSource = workersPerSource;
+			lock.notifyAll();
+		}
+		ensureWorkers();
+	}
+
+	/**
+	 * @return the number of worker threads
+	 */
+	public static int workers() {
+		synchronized (lock) {
+			return targetWorkers;
+		}
+	}
+
+	/**
+	 * Overrides the number of tasks of a single source that are allowed to run
+	 * at the same time.
+	 *
+	 * @param source
+	 *            the data source
+	 * @param max
+	 *            the maximum number of running tasks, values smaller than one
+	 *            allow the source to use all workers.
+	 */
+	public static void setSourceLimit(Object source, int max) {
+		synchronized (lock) {
+			limits.put(source, max < 1 ? 0 : max);
+			lock.notifyAll();
+		}
+	}
+
+	private static int limit(SourceQueue sq) {
+		Integer max = limits.get(sq.stats.getSource());
+		if (max == null)
+			return perSource;
+		return max == 0 ? Integer.MAX_VALUE : max;
+	}
 
 	public static void submit(Task t) {
-		worker.execute(t);
-		// System.out.println("Queuesize: " + gvs.size());
+		Object key = t.getSource() == null ? GENERAL : t.getSource();
+		synchronized (lock) {
+			SourceQueue sq = queues.get(key);
+			if (sq == null) {
+				sq = new SourceQueue(key);
+				queues.put(key, sq);
+				order.add(sq);
+			}
+			t.queuedAt = System.currentTimeMillis();
+			sq.tasks.add(t);
+			sq.stats.queued = sq.tasks.size();
+			lock.notifyAll();
+		}
+		ensureWorkers();
+	}
 
+	/**
+	 * Cancels all queued and running tasks for a data source. Running tasks
+	 * will be interrupted and the limit of the source is reset.
+	 *
+	 * @param source
+	 *            the data source
+	 */
+	public static void cancel(Object source) {
+		synchronized (lock) {
+			limits.remove(source);
+			SourceQueue sq = queues.remove(source);
+			if (sq == null)
+				return;
+			order.remove(sq);
+			abort(sq);
+		}
 	}
 
-	private static void boost(Location visible) {
-		for (Runnable r : gvs) {
-			Task t = (Task) r;
-			gvs.remove(t);
-			Location l=t.getLocation();
-			if (l!=null&&l.overlaps(visible.start,visible.end)) {
-				t.boost();
-			} else
-				t.cancel();
-			if(!t.isCancelled())
-				gvs.add(t);
+	/**
+	 * Cancels all queued and running tasks.
+	 */
+	public static void cancelAll() {
+		synchronized (lock) {
+			for (SourceQueue sq : order)
+				abort(sq);
+			queues.clear();
+			order.clear();
+			limits.clear();
+		}
+	}
 
+	private static void abort(SourceQueue sq) {
+		for (Task t : sq.tasks.clear()) {
+			t.abort();
+			sq.stats.cancelled++;
 		}
+		sq.stats.queued = 0;
+		for (Task t : sq.running)
+			t.abort();
 	}
 
-	public static void start(final Model model) {
-		/* Scheduler booster thread */
-		new DaemonThread(new Runnable() {
+	/**
+	 * Returns a snapshot of the queue depth and latency for each data source
+	 * that has tasks submitted.
+	 *
+	 * @return statistics per source
+	 */
+	public static List<SourceStatistics> statistics() {
+		synchronized (lock) {
+			ArrayList<SourceStatistics> out = new ArrayList<SourceStatistics>();
+			for (SourceQueue sq : order)
+				out.add(sq.stats.copy());
+			return out;
+		}
+	}
+
+	private static void ensureWorkers() {
+		synchronized (lock) {
+			while (aliveWorkers < targetWorkers) {
+				Thread t = new Thread(new Worker(), "GenomeViewScheduler-" + aliveWorkers);
+				t.setDaemon(true);
+				aliveWorkers++;
+				t.start();
+			}
+		}
+	}
 
-			@Override
-			public void run() {
-				while (true && !model.isExitRequested()) {
-					GenomeViewScheduler.boost(model.vlm.getAnnotationLocationVisible());
-					try {
-						Thread.sleep(500);
-					} catch (InterruptedException e) {
-						/* This happens when restarting the Applet */
-						return;
+	/**
+	 * Blocks until there is a task that can be run.
+	 *
+	 * @return the next task, or null when the calling worker should stop
+	 *         because the pool was made smaller.
+	 */
+	private static Task take() throws InterruptedException {
+		synchronized (lock) {
+			while (true) {
+				if (aliveWorkers > targetWorkers) {
+					aliveWorkers--;
+					return null;
+				}
+				for (int i = 0; i < order.size(); i++) {
+					int idx = (next + i) % order.size();
+					SourceQueue sq = order.get(idx);
+					if (sq.running.size() >= limit(sq))
+						continue;
+					Task t = sq.tasks.poll(visible);
+					while (t != null && (t.isAborted() || t.isCancelled())) {
+						sq.stats.cancelled++;
+						t = sq.tasks.poll(visible);
+					}
+					sq.stats.queued = sq.tasks.size();
+					if (t != null) {
+						next = idx + 1;
+						sq.running.add(t);
+						sq.stats.running = sq.running.size();
+						sq.stats.waitTime += System.currentTimeMillis() - t.queuedAt;
+						return t;
 					}
 				}
+				lock.wait();
+			}
+		}
+	}
 
+	private static void done(Task t, long runTime) {
+		Object key = t.getSource() == null ? GENERAL : t.getSource();
+		synchronized (lock) {
+			SourceQueue sq = queues.get(key);
+			if (sq != null && sq.running.remove(t)) {
+				sq.stats.running = sq.running.size();
+				if (t.isAborted())
+					sq.stats.cancelled++;
+				else
+					sq.stats.completed++;
+				sq.stats.runTime += runTime;
 			}
-		}).start();
-		
+			lock.notifyAll();
+		}
+	}
+
+	private static class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			while (true) {
+				Task t;
+				try {
+					t = take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				if (t == null)
+					return;
+				long start = System.currentTimeMillis();
+				t.setRunner(Thread.currentThread());
+				try {
+					if (!t.isAborted())
+						t.run();
+				} catch (Throwable e) {
+					log.error("Scheduler exception in " + t, e);
+				} finally {
+					t.setRunner(null);
+					/* Clear interrupt status from an aborted task */
+					Thread.interrupted();
+					done(t, System.currentTimeMillis() - start);
+				}
+			}
+
+		}
+	}
+
+	/**
+	 * Updates the visible region. Tasks that do not overlap the region
+	 * extended with its own length on both sides are cancelled.
+	 *
+	 * @param region
+	 *            the new visible region
+	 */
+	public static void setVisible(Location region) {
+		synchronized (lock) {
+			/* Nothing loaded yet */
+			if (region.end < 1) {
+				visible = null;
+				return;
+			}
+			visible = region;
+			int lo = region.start - region.length();
+			int hi = region.end + region.length();
+			for (SourceQueue sq : new ArrayList<SourceQueue>(order)) {
+				sq.stats.cancelled += sq.tasks.dropOutside(lo, hi);
+				sq.stats.queued = sq.tasks.size();
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/* Model of which the visible region is followed, set while holding the class lock */
+	private static volatile Model observed = null;
+
+	private static final Observer visibility = new Observer() {
+
+		@Override
+		public void update(Observable o, Object arg) {
+			Model model = observed;
+			if (model != null)
+				GenomeViewScheduler.setVisible(model.vlm.getVisibleLocation());
+		}
+	};
+
+	/**
+	 * Follows the visible region of a model, the observer is registered once
+	 * and moved when a different model is started.
+	 */
+	public static synchronized void start(Model model) {
+		configure(Configuration.getInt("scheduler:workers"), Configuration.getInt("scheduler:workersPerSource"));
+		if (observed != model) {
+			if (observed != null)
+				observed.vlm.deleteObserver(visibility);
+			observed = model;
+			/* Reprioritize as soon as the visible region changes */
+			model.vlm.addObserver(visibility);
+		}
+		setVisible(model.vlm.getVisibleLocation());
+
 	}
 
 }
@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
@@ -78,6 +79,7 @@ public class Model extends Observable implements Observer {
 
 		selectionModel.addObserver(this);
 		messageModel.addObserver(this);
+		addObserver(qualifierIndex);
 		final Model _this = this;
 		vlm.addObserver(new Observer() {
 
@@ -127,6 +129,7 @@ public class Model extends Observable implements Observer {
 	public final VisualLocationModel vlm = new VisualLocationModel();
 
 	public void clearEntries() {
+		GenomeViewScheduler.cancelAll();
 		selectionModel.clear();
 		vlm.clear();
 		// visible=new Location(0,0);
@@ -318,6 +321,16 @@ public class Model extends Observable implements Observer {
 		refresh();
 	}
 
+	/**
+	 * Adds highlights that have the same color and strand, with a single
+	 * refresh.
+	 */
+	public void addHighlights(Collection<Location> locations, Color c, Strand s) {
+		for (Location l : locations)
+			highlights.add(new Highlight(l, c, s));
+		refresh();
+	}
+
 	/**
 	 * Load new entries from a data source.
 	 * 
@@ -525,6 +538,8 @@ public class Model extends Observable implements Observer {
 		if (!(track instanceof StructureTrack) && !(track instanceof TickmarkTrack)) {
 			trackList.remove(track.getDataKey());
 			for (Entry e : entries) {
+				if (e.contains(track.getDataKey()))
+					GenomeViewScheduler.cancel(e.get(track.getDataKey()));
 				e.remove(track.getDataKey());
 			}
 
@@ -575,6 +590,12 @@ public class Model extends Observable implements Observer {
 		return annotationModel;
 	}
 
+	private QualifierIndex qualifierIndex = new QualifierIndex(entries, annotationModel);
+
+	public QualifierIndex qualifierIndex() {
+		return qualifierIndex;
+	}
+
 	private FilteredListModel<String> recentFiles = new FilteredListModel<String>(new DefaultListModel<String>());
 
 	public FilteredListModel<String> getRecentFiles() {
@@ -0,0 +1,503 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.genomeview.data.AnnotationModel.RegionUpdate;
+import net.sf.jannot.Data;
+import net.sf.jannot.DataKey;
+import net.sf.jannot.Entry;
+import net.sf.jannot.EntrySet;
+import net.sf.jannot.Feature;
+import net.sf.jannot.FeatureAnnotation;
+import net.sf.jannot.MemoryFeatureAnnotation;
+import net.sf.jannot.Type;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.abeel.concurrency.DaemonThreadFactory;
+
+/**
+ * Inverted index on the qualifier keys and values of all loaded features, to
+ * find the features of which a key or value contains a piece of text.
+ *
+ * Every distinct lower case key and value gets a number, the trigrams of the
+ * text point to the numbers of the texts they occur in. A query looks up the
+ * texts that have all its trigrams, checks that they really contain the query
+ * and then reports the features that have one of these texts. Long texts like
+ * translations are not split in trigrams but checked on every query.
+ *
+ * The index is built when annotation is loaded and follows the edits reported
+ * by the {@link AnnotationModel}. All work happens on one background thread,
+ * so searches see every change that was reported before them. Only annotation
+ * that is kept in memory is indexed. Annotation that is read on demand, like
+ * indexed files, is read completely and checked on every search after the
+ * indexed features.
+ *
+ * Texts are counted by the features that have them. When more than half of
+ * the texts are not used anymore, the dictionary is built again from the
+ * indexed features.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class QualifierIndex implements Observer {
+
+	private static final Logger log = LoggerFactory.getLogger(QualifierIndex.class.getCanonicalName());
+
+	/* Texts that are longer are not split in trigrams */
+	private static final int LONG_TEXT = 200;
+
+	/* Number of hits that are reported together */
+	private static final int BATCH = 256;
+
+	/**
+	 * A feature of which a qualifier matched the query.
+	 */
+	public static class Hit {
+		public final Entry entry;
+		public final Feature feature;
+
+		Hit(Entry entry, Feature feature) {
+			this.entry = entry;
+			this.feature = feature;
+		}
+	}
+
+	/**
+	 * Receives the results of a search, on the thread of the index.
+	 */
+	public interface Results {
+		/**
+		 * Called every time a number of features were found.
+		 */
+		void found(List<Hit> hits);
+
+		/**
+		 * Called when all features were checked, not when the search was
+		 * cancelled.
+		 */
+		void done();
+	}
+
+	/* A feature with its extent and texts at the time it was indexed */
+	private static class Indexed {
+		private final Feature feature;
+		private final int start, end;
+		private int[] texts;
+
+		Indexed(Feature feature, int[] texts) {
+			this.feature = feature;
+			this.start = feature.start();
+			this.end = feature.end();
+			this.texts = texts;
+		}
+	}
+
+	/* The features of one annotation track of an entry */
+	private static class Source {
+		private final Entry entry;
+		private final DataKey key;
+		private final FeatureAnnotation annotation;
+		/* Only annotation in memory is indexed, the rest is scanned */
+		private final boolean memory;
+		private List<Indexed> features = new ArrayList<Indexed>();
+		private boolean indexed = false;
+
+		Source(Entry entry, DataKey key, FeatureAnnotation annotation) {
+			this.entry = entry;
+			this.key = key;
+			this.annotation = annotation;
+			this.memory = annotation instanceof MemoryFeatureAnnotation;
+		}
+	}
+
+	private static final Comparator<Indexed> byStart = new Comparator<Indexed>() {
+
+		@Override
+		public int compare(Indexed o1, Indexed o2) {
+			return o1.start < o2.start ? -1 : (o1.start == o2.start ? 0 : 1);
+		}
+	};
+
+	/* Growable list of text numbers, in increasing order */
+	private static class Postings {
+		private int[] ids = new int[4];
+		private int size = 0;
+
+		void add(int id) {
+			if (size == ids.length)
+				ids = Arrays.copyOf(ids, size * 2);
+			ids[size++] = id;
+		}
+
+		boolean contains(int id) {
+			return Arrays.binarySearch(ids, 0, size, id) >= 0;
+		}
+	}
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(new DaemonThreadFactory());
+
+	private final EntrySet entries;
+	private final AnnotationModel annotations;
+
+	/* Regions per type that were edited, guarded by itself */
+	private final Map<Type, int[]> dirty = new HashMap<Type, int[]>();
+
+	/* Everything below is only used on the worker thread */
+	private Map<List<Object>, Source> sources = new LinkedHashMap<List<Object>, Source>();
+	private List<String> texts = new ArrayList<String>();
+	private Map<String, Integer> textIds = new HashMap<String, Integer>();
+	private Map<Long, Postings> trigrams = new HashMap<Long, Postings>();
+	private Postings longTexts = new Postings();
+	/* Number of indexed features that have each text */
+	private int[] refs = new int[16];
+	/* Number of texts that no feature has */
+	private int dead = 0;
+
+	public QualifierIndex(EntrySet entries, AnnotationModel annotations) {
+		this.entries = entries;
+		this.annotations = annotations;
+		annotations.addObserver(this);
+	}
+
+	@Override
+	public void update(Observable o, Object arg) {
+		if (arg instanceof RegionUpdate) {
+			RegionUpdate ru = (RegionUpdate) arg;
+			reindexLater(ru.type, ru.start, ru.end);
+		} else if (arg instanceof Type) {
+			reindexLater((Type) arg, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		} else if (arg == NotificationTypes.UPDATETRACKS || entries.size() == 0) {
+			sync();
+		}
+	}
+
+	/*
+	 * Edits of a type that were not indexed yet are merged into one region,
+	 * loading a file into an existing annotation reports every feature.
+	 */
+	private void reindexLater(final Type type, int start, int end) {
+		synchronized (dirty) {
+			int[] region = dirty.get(type);
+			if (region != null) {
+				region[0] = Math.min(region[0], start);
+				region[1] = Math.max(region[1], end);
+				return;
+			}
+			dirty.put(type, new int[] { start, end });
+		}
+		worker.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				int[] region;
+				synchronized (dirty) {
+					region = dirty.remove(type);
+				}
+				try {
+					reindex(type, region[0], region[1]);
+				} catch (ConcurrentModificationException e) {
+					/* The editor reports the type again when it is done */
+					log.debug("Qualifiers changed during indexing", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Indexes the annotation that was loaded since the last time and forgets
+	 * the annotation that was removed.
+	 */
+	public void sync() {
+		worker.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					doSync();
+				} catch (ConcurrentModificationException e) {
+					/* Data was added while we were looking, try again */
+					log.debug("Entries changed during indexing", e);
+					sync();
+				}
+			}
+		});
+	}
+
+	private void doSync() {
+		Map<List<Object>, Source> current = new LinkedHashMap<List<Object>, Source>();
+		for (Entry e : entries) {
+			for (DataKey key : e) {
+				Data<?> data = e.get(key);
+				if (!(data instanceof FeatureAnnotation))
+					continue;
+				List<Object> id = Arrays.<Object> asList(e, key);
+				Source s = sources.get(id);
+				if (s == null || s.annotation != data) {
+					s = new Source(e, key, (FeatureAnnotation) data);
+					if (key instanceof Type)
+						annotations.watch((Type) key, s.annotation);
+				}
+				current.put(id, s);
+			}
+		}
+		for (Source s : sources.values())
+			if (!current.containsValue(s))
+				release(s.features);
+		sources = current;
+		for (Source s : sources.values())
+			if (s.memory && !s.indexed)
+				reindex(s, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		compact();
+	}
+
+	private void reindex(Type type, int start, int end) {
+		for (Source s : sources.values())
+			if (s.memory && s.key.equals(type))
+				reindex(s, start, end);
+		compact();
+	}
+
+	/*
+	 * Replaces the indexed features that overlap the region with the features
+	 * that are there now.
+	 */
+	private void reindex(Source s, int start, int end) {
+		List<Feature> fresh = new ArrayList<Feature>();
+		boolean all = start == Integer.MIN_VALUE && end == Integer.MAX_VALUE;
+		/* Memory annotation is edited under its own lock */
+		synchronized (s.annotation) {
+			Iterable<Feature> it = all ? s.annotation.get() : s.annotation.get(start, end);
+			for (Feature f : it)
+				fresh.add(f);
+		}
+		List<Indexed> out = new ArrayList<Indexed>(s.features.size() + fresh.size());
+		List<Indexed> old = new ArrayList<Indexed>();
+		for (Indexed i : s.features) {
+			if (!all && (i.end < start || i.start > end))
+				out.add(i);
+			else
+				old.add(i);
+		}
+		for (Feature f : fresh)
+			out.add(new Indexed(f, index(f)));
+		if (!all)
+			Collections.sort(out, byStart);
+		s.features = out;
+		s.indexed = true;
+		release(old);
+	}
+
+	/* Forgets the texts of features that are not indexed anymore */
+	private void release(List<Indexed> features) {
+		for (Indexed i : features)
+			for (int t : i.texts)
+				if (--refs[t] == 0)
+					dead++;
+	}
+
+	/* Builds the dictionary again when most of its texts are not used */
+	private void compact() {
+		if (dead <= 1024 || dead <= texts.size() / 2)
+			return;
+		List<String> old = texts;
+		texts = new ArrayList<String>();
+		textIds = new HashMap<String, Integer>();
+		trigrams = new HashMap<Long, Postings>();
+		longTexts = new Postings();
+		refs = new int[16];
+		dead = 0;
+		for (Source s : sources.values()) {
+			for (Indexed i : s.features) {
+				int[] ids = new int[i.texts.length];
+				for (int j = 0; j < ids.length; j++)
+					ids[j] = id(old.get(i.texts[j]));
+				i.texts = ids;
+			}
+		}
+	}
+
+	private int[] index(Feature f) {
+		Set<String> keys = f.getQualifiersKeys();
+		int[] out = new int[keys.size() * 2];
+		int n = 0;
+		for (String key : keys) {
+			String value = f.qualifier(key);
+			if (key != null)
+				out[n++] = id(key.toLowerCase());
+			if (value != null)
+				out[n++] = id(value.toLowerCase());
+		}
+		return n == out.length ? out : Arrays.copyOf(out, n);
+	}
+
+	/* The number of the text, counting one more feature that has it */
+	private int id(String text) {
+		Integer id = textIds.get(text);
+		if (id != null) {
+			if (refs[id]++ == 0)
+				dead--;
+			return id;
+		}
+		int n = texts.size();
+		texts.add(text);
+		textIds.put(text, n);
+		if (n == refs.length)
+			refs = Arrays.copyOf(refs, n * 2);
+		refs[n] = 1;
+		if (text.length() > LONG_TEXT) {
+			longTexts.add(n);
+		} else {
+			Set<Long> seen = new HashSet<Long>();
+			for (int i = 0; i + 3 <= text.length(); i++) {
+				Long g = trigram(text, i);
+				if (!seen.add(g))
+					continue;
+				Postings p = trigrams.get(g);
+				if (p == null) {
+					p = new Postings();
+					trigrams.put(g, p);
+				}
+				p.add(n);
+			}
+		}
+		return n;
+	}
+
+	private static long trigram(String s, int i) {
+		return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+	}
+
+	/* The texts that contain the query */
+	private BitSet matches(String query) {
+		BitSet out = new BitSet(texts.size());
+		if (query.length() < 3) {
+			for (int i = 0; i < texts.size(); i++)
+				if (texts.get(i).contains(query))
+					out.set(i);
+			return out;
+		}
+		for (int i = 0; i < longTexts.size; i++)
+			if (texts.get(longTexts.ids[i]).contains(query))
+				out.set(longTexts.ids[i]);
+		List<Postings> lists = new ArrayList<Postings>();
+		for (int i = 0; i + 3 <= query.length(); i++) {
+			Postings p = trigrams.get(trigram(query, i));
+			if (p == null)
+				return out;
+			lists.add(p);
+		}
+		Postings shortest = lists.get(0);
+		for (Postings p : lists)
+			if (p.size < shortest.size)
+				shortest = p;
+		candidates: for (int i = 0; i < shortest.size; i++) {
+			int id = shortest.ids[i];
+			for (Postings p : lists)
+				if (p != shortest && !p.contains(id))
+					continue candidates;
+			if (texts.get(id).contains(query))
+				out.set(id);
+		}
+		return out;
+	}
+
+	/* Whether a qualifier key or value of a feature contains the lower case query */
+	private static boolean contains(Feature f, String query) {
+		for (String key : f.getQualifiersKeys()) {
+			String value = f.qualifier(key);
+			if ((key != null && key.toLowerCase().contains(query))
+					|| (value != null && value.toLowerCase().contains(query)))
+				return true;
+		}
+		return false;
+	}
+
+	/* Number of texts in the dictionary, for testing */
+	int dictionarySize() throws InterruptedException, ExecutionException {
+		return worker.submit(new Callable<Integer>() {
+
+			@Override
+			public Integer call() {
+				return texts.size();
+			}
+		}).get();
+	}
+
+	/**
+	 * Finds the features with a qualifier key or value that contains the text,
+	 * ignoring case. The results are reported in batches while the search is
+	 * running, cancel the returned future to stop searching.
+	 */
+	public Future<?> search(String text, final Results results) {
+		final String query = text.toLowerCase();
+		return worker.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				BitSet matches = matches(query);
+				List<Hit> batch = new ArrayList<Hit>();
+				for (Source s : sources.values()) {
+					for (Indexed i : s.features) {
+						for (int t : i.texts) {
+							if (matches.get(t)) {
+								batch.add(new Hit(s.entry, i.feature));
+								break;
+							}
+						}
+						if (batch.size() == BATCH) {
+							if (Thread.currentThread().isInterrupted())
+								return;
+							results.found(batch);
+							batch = new ArrayList<Hit>();
+						}
+					}
+				}
+				/* Annotation that is not indexed is read and checked like it used to be */
+				for (Source s : sources.values()) {
+					if (s.memory)
+						continue;
+					int checked = 0;
+					for (Feature f : s.annotation.get()) {
+						if (contains(f, query))
+							batch.add(new Hit(s.entry, f));
+						if (++checked % BATCH == 0 && Thread.currentThread().isInterrupted())
+							return;
+						if (batch.size() == BATCH) {
+							results.found(batch);
+							batch = new ArrayList<Hit>();
+						}
+					}
+				}
+				if (Thread.currentThread().isInterrupted())
+					return;
+				if (!batch.isEmpty())
+					results.found(batch);
+				results.done();
+			}
+		});
+	}
+
+}
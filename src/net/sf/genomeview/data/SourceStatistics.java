@@ -0,0 +1,88 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data;
+
+/**
+ * Scheduler statistics for a single data source. Instances returned by
+ * {@link GenomeViewScheduler#statistics()} are snapshots and will not change
+ * afterwards.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class SourceStatistics {
+
+	private final Object source;
+	int queued;
+	int running;
+	long completed;
+	long cancelled;
+	/* Accumulated time tasks spent waiting in the queue, in ms */
+	long waitTime;
+	/* Accumulated time tasks spent running, in ms */
+	long runTime;
+
+	SourceStatistics(Object source) {
+		this.source = source;
+	}
+
+	SourceStatistics copy() {
+		SourceStatistics out = new SourceStatistics(source);
+		out.queued = queued;
+		out.running = running;
+		out.completed = completed;
+		out.cancelled = cancelled;
+		out.waitTime = waitTime;
+		out.runTime = runTime;
+		return out;
+	}
+
+	public Object getSource() {
+		return source;
+	}
+
+	/**
+	 * @return number of tasks waiting for a worker
+	 */
+	public int queueDepth() {
+		return queued;
+	}
+
+	public int running() {
+		return running;
+	}
+
+	public long completed() {
+		return completed;
+	}
+
+	public long cancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return average time in ms between submitting a task and starting it.
+	 */
+	public double meanLatency() {
+		if (completed == 0)
+			return 0;
+		return waitTime / (double) completed;
+	}
+
+	/**
+	 * @return average time in ms a task of this source takes to run.
+	 */
+	public double meanRunTime() {
+		if (completed == 0)
+			return 0;
+		return runTime / (double) completed;
+	}
+
+	@Override
+	public String toString() {
+		return source + "\tqueued=" + queued + "\trunning=" + running + "\tcompleted=" + completed + "\tcancelled="
+				+ cancelled + "\tlatency=" + (int) meanLatency() + "ms\truntime=" + (int) meanRunTime() + "ms";
+	}
+
+}
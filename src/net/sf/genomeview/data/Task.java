@@ -15,9 +15,30 @@ public abstract class Task implements Runnable, Comparable<Task> {
 	// static long IDCOUNTER = 0;
 	long id = 0;
 	private Location location;
+	private Object source;
+
+	/* Bookkeeping for the scheduler */
+	long queuedAt;
+	private volatile boolean aborted = false;
+	private Thread runner = null;
 
 	public Task(Location l) {
+		this(l, null);
+	}
+
+	/**
+	 * Creates a task that fetches data for the given source. Tasks that share a
+	 * source are queued together so that one slow source cannot starve the
+	 * others.
+	 *
+	 * @param l
+	 *            the region this task works on, may be null
+	 * @param source
+	 *            the data source this task reads from, may be null
+	 */
+	public Task(Location l, Object source) {
 		this.location = l;
+		this.source = source;
 	}
 
 	public Task() {
@@ -28,6 +49,10 @@ public abstract class Task implements Runnable, Comparable<Task> {
 		return location;
 	}
 
+	public Object getSource() {
+		return source;
+	}
+
 	public void boost() {
 		id++;
 	}
@@ -43,10 +68,10 @@ public abstract class Task implements Runnable, Comparable<Task> {
 
 	/**
 	 * Try to cancel this task.
-	 * 
+	 *
 	 * Default implementation will not cancel the task, but reduce it's priority
-	 * to zero.
-	 * 
+	 * to zero. The scheduler will only run it when there is nothing else to do.
+	 *
 	 */
 	public void cancel() {
 		id = 0;
@@ -54,6 +79,28 @@ public abstract class Task implements Runnable, Comparable<Task> {
 	}
 
 	public boolean isCancelled() {
-		return false;
+		return aborted;
+	}
+
+	/**
+	 * Really cancel this task. A queued task will never be started, a running
+	 * task gets interrupted. Long running implementations should check
+	 * {@link #isAborted()} regularly and return early.
+	 */
+	public void abort() {
+		aborted = true;
+		cancel();
+		synchronized (this) {
+			if (runner != null)
+				runner.interrupt();
+		}
+	}
+
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	synchronized void setRunner(Thread t) {
+		this.runner = t;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,182 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import net.sf.jannot.Location;
+
+/**
+ * Queue of tasks indexed on the start coordinate of their location.
+ *
+ * The priority of a task is not stored, but follows from its distance to the
+ * visible region at the time a task is requested. This means moving the
+ * viewport does not require reordering the queue. Tasks that are far from the
+ * visible region can be removed in bulk by dropping a range from the index.
+ *
+ * Not thread-safe, the scheduler synchronizes access.
+ *
+ * @author Thomas Abeel
+ *
+ */
+class TaskQueue {
+
+	/* Tasks with a location, keyed by start coordinate */
+	private TreeMap<Integer, ArrayDeque<Task>> index = new TreeMap<Integer, ArrayDeque<Task>>();
+	/* Tasks without location, run in submission order */
+	private ArrayDeque<Task> unlocated = new ArrayDeque<Task>();
+	/* Tasks that were far from the viewport, but refused to be cancelled */
+	private ArrayDeque<Task> background = new ArrayDeque<Task>();
+
+	/* Length of the longest task location ever added */
+	private int maxLength = 0;
+	private int indexSize = 0;
+
+	void add(Task t) {
+		Location l = t.getLocation();
+		if (l == null) {
+			unlocated.add(t);
+			return;
+		}
+		ArrayDeque<Task> list = index.get(l.start);
+		if (list == null) {
+			list = new ArrayDeque<Task>();
+			index.put(l.start, list);
+		}
+		list.add(t);
+		indexSize++;
+		if (l.length() > maxLength)
+			maxLength = l.length();
+	}
+
+	int size() {
+		return indexSize + unlocated.size() + background.size();
+	}
+
+	/**
+	 * Retrieves and removes the task with the highest priority. Tasks that
+	 * overlap the visible region come first, the one closest to the center of
+	 * the visible region is selected. Next are tasks without location, then the
+	 * remaining indexed tasks by distance and last the background tasks.
+	 *
+	 * @param visible
+	 *            the visible region, may be null
+	 * @return the next task, or null when the queue is empty
+	 */
+	Task poll(Location visible) {
+		Map.Entry<Integer, ArrayDeque<Task>> best = nearest(visible);
+		if (best != null && (visible == null || overlaps(best.getValue().peek(), visible)))
+			return remove(best);
+		if (!unlocated.isEmpty())
+			return unlocated.poll();
+		if (best != null)
+			return remove(best);
+		return background.poll();
+	}
+
+	private Task remove(Map.Entry<Integer, ArrayDeque<Task>> e) {
+		Task t = e.getValue().poll();
+		if (e.getValue().isEmpty())
+			index.remove(e.getKey());
+		indexSize--;
+		return t;
+	}
+
+	private Map.Entry<Integer, ArrayDeque<Task>> nearest(Location visible) {
+		if (index.isEmpty())
+			return null;
+		if (visible == null)
+			return index.firstEntry();
+		int center = (visible.start + visible.end) / 2;
+		Map.Entry<Integer, ArrayDeque<Task>> left = index.floorEntry(center);
+		Map.Entry<Integer, ArrayDeque<Task>> right = index.higherEntry(center);
+		if (left == null)
+			return right;
+		if (right == null)
+			return left;
+		Location ll = left.getValue().peek().getLocation();
+		int leftDistance = ll.end >= center ? 0 : center - ll.end;
+		if (leftDistance <= right.getKey() - center)
+			return left;
+		return right;
+	}
+
+	private static boolean overlaps(Task t, Location visible) {
+		return t.getLocation().overlaps(visible.start, visible.end);
+	}
+
+	/**
+	 * Cancels indexed tasks that do not overlap [lo,hi]. Tasks that are
+	 * cancelled are removed, the others are moved to the background queue.
+	 *
+	 * Only the parts of the index outside the region are visited, so the cost
+	 * is proportional to the number of removed tasks.
+	 *
+	 * @return the number of tasks that were cancelled
+	 */
+	int dropOutside(int lo, int hi) {
+		ArrayList<Task> far = new ArrayList<Task>();
+		drain(index.tailMap(hi, false), far);
+		/* Anything starting more than maxLength before lo, ends before lo */
+		drain(index.headMap(lo - maxLength, false), far);
+		/* Tasks starting just before lo need to be checked individually */
+		Iterator<ArrayDeque<Task>> band = index.headMap(lo, false).values().iterator();
+		while (band.hasNext()) {
+			ArrayDeque<Task> list = band.next();
+			Iterator<Task> it = list.iterator();
+			while (it.hasNext()) {
+				Task t = it.next();
+				if (t.getLocation().end < lo) {
+					far.add(t);
+					it.remove();
+					indexSize--;
+				}
+			}
+			if (list.isEmpty())
+				band.remove();
+		}
+		int cancelled = 0;
+		for (Task t : far) {
+			t.cancel();
+			if (t.isCancelled())
+				cancelled++;
+			else
+				background.add(t);
+		}
+		return cancelled;
+	}
+
+	private void drain(NavigableMap<Integer, ArrayDeque<Task>> range, List<Task> out) {
+		Iterator<ArrayDeque<Task>> it = range.values().iterator();
+		while (it.hasNext()) {
+			ArrayDeque<Task> list = it.next();
+			indexSize -= list.size();
+			out.addAll(list);
+			it.remove();
+		}
+	}
+
+	/**
+	 * Removes all tasks from the queue.
+	 *
+	 * @return the removed tasks
+	 */
+	Collection<Task> clear() {
+		ArrayList<Task> out = new ArrayList<Task>(size());
+		drain(index, out);
+		out.addAll(unlocated);
+		out.addAll(background);
+		unlocated.clear();
+		background.clear();
+		return out;
+	}
+
+}
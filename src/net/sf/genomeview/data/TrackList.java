@@ -34,7 +34,7 @@ import net.sf.jannot.alignment.maf.AbstractMAFMultipleAlignment;
 import net.sf.jannot.alignment.mfa.AlignmentAnnotation;
 import net.sf.jannot.bigwig.BigWigData;
 import net.sf.jannot.pileup.DoublePile;
-import net.sf.jannot.pileup.Pile;
+import net.sf.jannot.pileup.PileBlock;
 import net.sf.jannot.shortread.ReadGroup;
 import net.sf.jannot.tabix.BEDWrapper;
 import net.sf.jannot.tabix.GFFWrapper;
@@ -111,6 +111,8 @@ public class TrackList implements Iterable<Track> {
 
 	@Deprecated
 	public void clear() {
+		for (Track t : mapping.values())
+			t.clear();
 		mapping.clear();
 		order.clear();
 		init();
@@ -154,7 +156,9 @@ public class TrackList implements Iterable<Track> {
 
 	public void remove(DataKey key) {
 		order.remove(key);
-		mapping.remove(key);
+		Track t = mapping.remove(key);
+		if (t != null)
+			t.clear();
 	}
 
 	private boolean containsTrack(DataKey key) {
@@ -224,7 +228,7 @@ public class TrackList implements Iterable<Track> {
 
 			if (data instanceof PileupWrapper || data instanceof SWigWrapper) {
 				if (!this.containsTrack(key))
-					this.add(key, new PileupTrack(key, new WiggleProvider(e, (Data<Pile>) data, model), model));
+					this.add(key, new PileupTrack(key, new WiggleProvider(e, (Data<PileBlock>) data, model), model));
 			}
 
 			if (data instanceof TDFData) {
@@ -6,14 +6,13 @@ package net.sf.genomeview.data.provider;
 import org.broad.igv.track.WindowFunction;
 
 import net.sf.genomeview.data.Model;
-import net.sf.jannot.pileup.DoublePile;
-import net.sf.jannot.pileup.Pile;
+import net.sf.jannot.pileup.PileBlock;
 /**
  * 
  * @author Thomas Abeel
  *
  */
-public abstract class PileProvider implements DataProvider<Pile> {
+public abstract class PileProvider implements DataProvider<PileBlock> {
 	
 
 //	public PileProvider(Model model) {
@@ -28,6 +27,13 @@ public abstract class PileProvider implements DataProvider<Pile> {
 
 	public abstract boolean isCurrentWindowFunction(WindowFunction wf);
 
+	/**
+	 * Releases the resources of the provider when its track is removed.
+	 */
+	public void close() {
+
+	}
+
 	
 //	public abstract double getMaxSummary();
 
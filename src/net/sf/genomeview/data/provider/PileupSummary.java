@@ -4,146 +4,173 @@
 package net.sf.genomeview.data.provider;
 
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Collections;
 import java.util.Observable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import net.sf.genomeview.data.GenomeViewScheduler;
 import net.sf.genomeview.data.Model;
 import net.sf.jannot.Data;
 import net.sf.jannot.Entry;
-import net.sf.jannot.pileup.DoublePile;
-import net.sf.jannot.pileup.Pile;
-import net.sf.jannot.pileup.PileTools;
+import net.sf.jannot.pileup.PileBlock;
 
 /**
- * 
+ * Coverage summary in windows of SUMMARYSIZE, built in chunks of CHUNK by
+ * {@link PileupTask}s.
+ *
+ * Chunks are independent, so their tasks run in parallel on the scheduler.
+ * Each task accumulates its chunk locally and adds the result to the shared
+ * arrays when done. The state of each chunk is kept in an atomic array, which
+ * makes queuing, cancelling and completing safe from any thread.
+ *
+ * When a {@link SummaryCache} entry is given, completed chunks are written to
+ * it and the chunks it already has are not computed again.
+ *
  * @author Thomas Abeel
- * 
+ *
  */
 class PileupSummary extends Observable{
 
 	static final int CHUNK = 32000;
 	static final int SUMMARYSIZE = 100;
 
-	/* Queue in blocks of CHUNK */
-	private BitSet queued = null;
-	/* Queue in blocks of CHUNK */
-	private BitSet ready = null;
-	private BitSet running = null;
-	private int[] forwardSummary;
-	private int[] reverseSummary;
+	/* States of a chunk */
+	private static final int IDLE = 0;
+	private static final int QUEUED = 1;
+	private static final int RUNNING = 2;
+	private static final int READY = 3;
+	/* Results of the chunk are being added */
+	private static final int ADDING = 4;
 
-	/* Keeps track of the maximum value in detailed mode */
-	private double maxPile = 0;
+	/* State per chunk */
+	private AtomicIntegerArray state;
+	private AtomicIntegerArray forwardSummary;
+	private AtomicIntegerArray reverseSummary;
 
-//	/* Keeps track of the maximum value in summary graph mode */
-//	private double maxSummary = 0;
 	private Model model;
-
+	private volatile SummaryCache.Entry cache;
 
 	public int length() {
 		if (forwardSummary == null)
 			return 0;
-		return forwardSummary.length;
+		return forwardSummary.length();
 	}
 
 	public PileupSummary(Model model,Entry e) {
+		this(model, e.getMaximumLength(), null);
+	}
+
+	/**
+	 * @param cache
+	 *            persistent storage for the summary, may be null
+	 */
+	PileupSummary(Model model, int length, SummaryCache.Entry cache) {
 		this.model = model;
-		//this.entry=e;
-		reset(e);
-		// System.out.println(entry);
-	
-	}
-	
-	private void reset(Entry e){
-		forwardSummary = new int[e.getMaximumLength() / SUMMARYSIZE + 1];
-		reverseSummary = new int[e.getMaximumLength() / SUMMARYSIZE + 1];
-		ready = new BitSet();
-		queued = new BitSet();
-		running = new BitSet();
-		
-	}
-
-	void conditionalQueue(Data<Pile> pw, int idx) {
-		if (!queued.get(idx)) {
-			if (idx < forwardSummary.length) {
-				/* Only queue additional chunks in visible region */
-				if ((idx) * PileupSummary.CHUNK < model.vlm.getAnnotationLocationVisible().end
-						&& (idx + 1) * PileupSummary.CHUNK > model.vlm.getAnnotationLocationVisible().start) {
-
-					queued.set(idx);
-					GenomeViewScheduler.submit(new PileupTask(pw, idx, this, model));
-				}
-			}
+		this.cache = cache;
+		reset(length);
+	}
+
+	/**
+	 * Closes the persistent storage, chunks that complete afterwards are
+	 * only kept in memory.
+	 */
+	void close() {
+		SummaryCache.Entry c = cache;
+		cache = null;
+		if (c != null)
+			c.close();
+	}
+
+	static int windows(int length) {
+		return length / SUMMARYSIZE + 1;
+	}
 
+	static int chunks(int length) {
+		return length / CHUNK + 1;
+	}
+
+	private void reset(int length){
+		forwardSummary = new AtomicIntegerArray(windows(length));
+		reverseSummary = new AtomicIntegerArray(windows(length));
+		state = new AtomicIntegerArray(chunks(length));
+		SummaryCache.Entry c = cache;
+		if (c != null && !c.isFresh()) {
+			for (int i = 0; i < forwardSummary.length(); i++) {
+				forwardSummary.set(i, c.forward(i));
+				reverseSummary.set(i, c.reverse(i));
+			}
+			for (int i = 0; i < state.length(); i++)
+				if (c.isReady(i))
+					state.set(i, READY);
 		}
+	}
 
+	void conditionalQueue(Data<PileBlock> pw, int idx) {
+		if (idx >= 0 && idx < state.length() && state.compareAndSet(idx, IDLE, QUEUED))
+			GenomeViewScheduler.submit(new PileupTask(pw, idx, this, model));
 	}
 
-	
 	private boolean isReady(int i) {
-		return ready.get(i);
+		return i < state.length() && state.get(i) == READY;
 	}
 
 	private boolean isRunning(int i) {
-		return running.get(i);
+		return i < state.length() && state.get(i) == RUNNING;
 	}
 
 	private boolean isQueued(int i) {
-		return queued.get(i);
+		return i < state.length() && state.get(i) != IDLE;
 	}
 
 	private double getFValue(int idx) {
-		return forwardSummary[idx];
+		return forwardSummary.get(idx);
 	}
 	private double getRValue(int idx) {
-		return reverseSummary[idx];
-	}
-	
-	void setRunning(int idx) {
-		running.set(idx);
-
-	}
-//
-//	private double getMaxPile() {
-//		return maxPile;
-//	}
-
-//	private double getMaxSummary() {
-//		return maxSummary;
-//	}
-
-	void add(int idx, float fcov,float rcov) {
-		forwardSummary[idx] += fcov;
-		reverseSummary[idx] += rcov;
-		if (fcov > maxPile)
-			maxPile = fcov;
-		if (rcov> maxPile)
-			maxPile = rcov;
-//		if (summary[idx] > maxPile)
-//			maxPile = summary[idx];
-
-	}
-
-
-	
-	
-	public void complyCancel(int idx) {
-		
-		ready.set(idx,false);
-		queued.set(idx,false);
-		running.set(idx,false);
+		return reverseSummary.get(idx);
+	}
+
+	/**
+	 * Marks a queued chunk as running.
+	 *
+	 * @return false when the chunk was cancelled in the mean time
+	 */
+	boolean setRunning(int idx) {
+		return state.compareAndSet(idx, QUEUED, RUNNING);
+	}
+
+	/**
+	 * Adds the totals of a running chunk to the summary, the arrays start at
+	 * summary window offset. Nothing is added when the chunk was cancelled
+	 * while it was running, it will be counted again when it is queued anew.
+	 */
+	void setReady(int idx, int offset, float[] fcov, float[] rcov) {
+		if (!state.compareAndSet(idx, RUNNING, ADDING))
+			return;
+		for (int i = 0; i < fcov.length; i++) {
+			int pos = offset + i;
+			if (pos < 0 || pos >= forwardSummary.length())
+				continue;
+			if (fcov[i] != 0)
+				forwardSummary.addAndGet(pos, (int) fcov[i]);
+			if (rcov[i] != 0)
+				reverseSummary.addAndGet(pos, (int) rcov[i]);
+		}
+		SummaryCache.Entry c = cache;
+		if (c != null)
+			c.store(idx, offset, offset + fcov.length, forwardSummary, reverseSummary);
+		state.set(idx, READY);
 		lastStart=-1;
 		lastEnd=-1;
 		setChanged();
 		notifyObservers();
-		
+
 	}
 
-	
-	void setReady(int idx) {
-		ready.set(idx);
-		System.out.println("Completed "+idx);
+	public void complyCancel(int idx) {
+		/* Chunks that are complete or being completed stay */
+		int s = state.get(idx);
+		if ((s != QUEUED && s != RUNNING) || !state.compareAndSet(idx, s, IDLE))
+			return;
 		lastStart=-1;
 		lastEnd=-1;
 		setChanged();
@@ -151,39 +178,30 @@ class PileupSummary extends Observable{
 
 	}
 
-//	private void setMaxPile(double coverage) {
-//		this.maxPile = coverage;
-//
-//	}
-
-	private ArrayList<Pile>buffer=new ArrayList<Pile>();
-	private int lastEnd=0;
-	private int lastStart=0;
-	public Iterable<Pile> get(Data<Pile> source, int start, int end) {
-		
-		
-		/* Queue data retrieval */
-		int startChunk = start / PileupSummary.CHUNK;
-		int endChunk = end / PileupSummary.CHUNK;
-		int stepChunk = (endChunk - startChunk) / 20 + 1;
-		for (int i = start / PileupSummary.CHUNK; i < end / PileupSummary.CHUNK + 1; i += stepChunk) {
-			final int idx = i;
-			conditionalQueue(source, idx);
-
+	private volatile PileBlock buffer = new PileBlock(2);
+	private volatile int lastEnd=0;
+	private volatile int lastStart=0;
+	public Iterable<PileBlock> get(Data<PileBlock> source, int start, int end) {
+		/* Queue data retrieval, outward from the center */
+		int startChunk = Math.max(0, start / PileupSummary.CHUNK);
+		int endChunk = Math.min(state.length() - 1, end / PileupSummary.CHUNK);
+		int center = (startChunk + endChunk) / 2;
+		for (int d = 0; center - d >= startChunk || center + d <= endChunk; d++) {
+			if (center - d >= startChunk)
+				conditionalQueue(source, center - d);
+			if (d > 0 && center + d <= endChunk)
+				conditionalQueue(source, center + d);
 		}
 		int vs = start / PileupSummary.SUMMARYSIZE * PileupSummary.SUMMARYSIZE;// + PileupSummary.SUMMARYSIZE / 2;
-		//double topValue = maxPile;
-		// double range = topValue - bottomValue;
-
-		//conservationGP.moveTo(-5, yOffset + graphLineHeigh);
 
+		PileBlock out = buffer;
 		if (start >= lastStart && end <= lastEnd)
-			return buffer;
-		
+			return Collections.singletonList(out);
+
 		lastStart=start;
 		lastEnd=end;
 
-		buffer.clear();
+		out = new PileBlock(2, (end - vs) / PileupSummary.SUMMARYSIZE + 1);
 		for (int i = vs; i < end + PileupSummary.SUMMARYSIZE; i += PileupSummary.SUMMARYSIZE) {
 			if (!isReady(i / PileupSummary.CHUNK))
 				continue;
@@ -195,30 +213,29 @@ class PileupSummary extends Observable{
 				}
 				float fval = (float)getFValue(idx)/SUMMARYSIZE;// /
 				float rval = (float)getRValue(idx)/SUMMARYSIZE;// /
-				Pile tmp=PileTools.create(i, fval,rval);//new DoublePile(i,fval,rval,null);
-				tmp.setLength(PileupSummary.SUMMARYSIZE);
-				buffer.add(tmp);
+				out.add(i, PileupSummary.SUMMARYSIZE, fval, rval);
 			}
 		}
-		return buffer;
+		buffer = out;
+		return Collections.singletonList(out);
 	}
 
 	public Iterable<Status> getStatus(int start, int end) {
 		ArrayList<Status>out=new ArrayList<Status>();
-		
+
 		int vs = start / PileupSummary.CHUNK * PileupSummary.CHUNK;// + PileupSummary.SUMMARYSIZE / 2;
-		
+
 		for (int i = vs; i < end + PileupSummary.CHUNK; i += PileupSummary.CHUNK) {
 			out.add(getStatus(i/PileupSummary.CHUNK));
 		}
 		return out;
-		
+
 	}
 
 	private Status getStatus(int i) {
 		return new Status(isRunning(i),isQueued(i),isReady(i),i*CHUNK,(i+1)*CHUNK);
-			
+
 	}
 
-	
+
 }
@@ -10,8 +10,7 @@ import net.sf.genomeview.data.Model;
 import net.sf.genomeview.data.Task;
 import net.sf.jannot.Data;
 import net.sf.jannot.Location;
-import net.sf.jannot.pileup.DoublePile;
-import net.sf.jannot.pileup.Pile;
+import net.sf.jannot.pileup.PileBlock;
 /**
  * 
  * @author Thomas Abeel
@@ -22,13 +21,14 @@ class PileupTask extends Task {
 	private Logger log = LoggerFactory.getLogger(PileupTask.class.toString());
 
 	private int idx;
-	private Data<Pile> pw;
+	private Data<PileBlock> pw;
 	private PileupSummary summary;
 
 	private Model model;
 
-	public PileupTask(Data<Pile> pw, int idx, PileupSummary summary,Model model) {
-		super(new Location(idx * PileupSummary.CHUNK, (idx + 1) * PileupSummary.CHUNK));
+	public PileupTask(Data<PileBlock> pw, int idx, PileupSummary summary,Model model) {
+		/* Queued on the summary, so chunks do not hold up detail queries of the data */
+		super(new Location(idx * PileupSummary.CHUNK, (idx + 1) * PileupSummary.CHUNK), summary);
 		this.model=model;
 		this.pw = pw;
 		this.summary = summary;
@@ -37,7 +37,7 @@ class PileupTask extends Task {
 	}
 
 	
-	private boolean cancelled=false;
+	private volatile boolean cancelled=false;
 	@Override
 	public void cancel(){
 		super.cancel();
@@ -58,20 +58,34 @@ class PileupTask extends Task {
 				summary.complyCancel(idx);
 				return;
 			}
-			summary.setRunning(idx);
-			Iterable<Pile> piles = pw.get(idx * PileupSummary.CHUNK, (idx + 1) * PileupSummary.CHUNK);
-			for (Pile p : piles) {
-				if (p.start() >= idx * PileupSummary.CHUNK && p.start() < (idx + 1) * PileupSummary.CHUNK) {
-					int position = (p.start() - 1) / PileupSummary.SUMMARYSIZE;
-					summary.add(position, p.getValue(0),p.getValue(1));
-
+			if (!summary.setRunning(idx))
+				return;
+			int chunkStart = idx * PileupSummary.CHUNK;
+			int chunkEnd = (idx + 1) * PileupSummary.CHUNK;
+			/* First summary window this chunk contributes to */
+			int offset = (chunkStart - 1) / PileupSummary.SUMMARYSIZE;
+			float[] fcov = new float[PileupSummary.CHUNK / PileupSummary.SUMMARYSIZE + 2];
+			float[] rcov = new float[fcov.length];
+			Iterable<PileBlock> blocks = pw.get(chunkStart, chunkEnd);
+			for (PileBlock pb : blocks) {
+				if (cancelled || isAborted()) {
+					summary.complyCancel(idx);
+					return;
+				}
+				int[] starts = pb.starts();
+				float[] forward = pb.values(0);
+				float[] reverse = pb.valueCount() > 1 ? pb.values(1) : null;
+				for (int i = 0; i < pb.size(); i++) {
+					int s = starts[i];
+					if (s >= chunkStart && s < chunkEnd) {
+						int position = (s - 1) / PileupSummary.SUMMARYSIZE - offset;
+						fcov[position] += forward[i];
+						if (reverse != null)
+							rcov[position] += reverse[i];
+					}
 				}
 			}
-			// System.out.println("Pilerequest: " + idx + " completed " +
-			// maxSummary);
-
-			summary.conditionalQueue(pw, idx + 1);
-			summary.setReady(idx);
+			summary.setReady(idx, offset, fcov, rcov);
 
 		} catch (Exception e) {
 			log.error("Scheduler exception: " + pw + "\t" + idx + "\tpw.get(" + idx * PileupSummary.CHUNK + ", "
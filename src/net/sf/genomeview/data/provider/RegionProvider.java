@@ -0,0 +1,82 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data.provider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.genomeview.data.GenomeViewScheduler;
+import net.sf.genomeview.data.Task;
+import net.sf.jannot.Data;
+import net.sf.jannot.Location;
+
+/**
+ * Retrieves the items of a data source that overlap a region on the
+ * scheduler, for sources like indexed files where every query reads and
+ * parses part of a file.
+ *
+ * Only the last request matters, older requests that did not start yet are
+ * skipped and their results are never reported.
+ *
+ * @author Thomas Abeel
+ *
+ * @param <T>
+ */
+public class RegionProvider<T> implements DataProvider<T> {
+
+	private final Data<T> source;
+
+	/* The last request, older tasks check against it */
+	private volatile Location last = null;
+	private volatile Status status = null;
+
+	public RegionProvider(Data<T> source) {
+		this.source = source;
+	}
+
+	public Data<T> source() {
+		return source;
+	}
+
+	@Override
+	public void get(final int start, final int end, final DataCallback<T> cb) {
+		final Location request = new Location(start, end);
+		final Status thisJob = new Status(false, true, false, start, end);
+		last = request;
+		status = thisJob;
+		Task t = new Task(request, source) {
+
+			@Override
+			public void run() {
+				/* Still needed? */
+				if (last != request)
+					return;
+				thisJob.setRunning();
+				List<T> fresh = new ArrayList<T>();
+				for (T item : source.get(start, end)) {
+					if (isAborted())
+						return;
+					fresh.add(item);
+				}
+				thisJob.setFinished();
+				if (last == request)
+					cb.dataReady(request, fresh);
+			}
+
+		};
+		GenomeViewScheduler.submit(t);
+	}
+
+	/**
+	 * The status of the last request.
+	 */
+	public Iterable<Status> getStatus() {
+		Status s = status;
+		if (s == null)
+			return Collections.emptyList();
+		return Collections.singletonList(s);
+	}
+
+}
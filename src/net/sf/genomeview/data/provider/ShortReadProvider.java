@@ -3,7 +3,7 @@
  */
 package net.sf.genomeview.data.provider;
 
-import java.util.ArrayList;
+import java.util.Collections;
 
 import net.sf.genomeview.core.Configuration;
 import net.sf.genomeview.core.NoFailIterable;
@@ -15,8 +15,8 @@ import net.sf.jannot.Entry;
 import net.sf.jannot.Location;
 import net.sf.jannot.pileup.DoublePile;
 import net.sf.jannot.shortread.ReadGroup;
+import net.sf.jannot.shortread.ReadStore;
 import net.sf.jannot.tdf.TDFData;
-import net.sf.samtools.SAMRecord;
 
 import org.broad.igv.track.WindowFunction;
 
@@ -25,7 +25,7 @@ import org.broad.igv.track.WindowFunction;
  * @author Thomas Abeel
  * 
  */
-public class ShortReadProvider implements DataProvider<SAMRecord> {
+public class ShortReadProvider implements DataProvider<ReadStore> {
 
 	private ReadGroup source;
 	private int lastStart;
@@ -37,14 +37,14 @@ public class ShortReadProvider implements DataProvider<SAMRecord> {
 	}
 
 	@Override
-	public void get(final int start, final int end, final DataCallback<SAMRecord> cb) {
+	public void get(final int start, final int end, final DataCallback<ReadStore> cb) {
 
 		/* New request */
 		lastStart = start;
 		lastEnd = end;
 
 		/* Queue up retrieval */
-		Task t = new Task(new Location(start, end)) {
+		Task t = new Task(new Location(start, end), source) {
 
 			@Override
 			public void run() {
@@ -53,13 +53,9 @@ public class ShortReadProvider implements DataProvider<SAMRecord> {
 				if (start != lastStart && end != lastEnd)
 					return;
 
-				Iterable<SAMRecord> fresh = source.get(start, end);
-				ArrayList<SAMRecord> tmp = new ArrayList<SAMRecord>();
-				for (SAMRecord p : fresh) {
-					tmp.add(p);
-				}
+				ReadStore fresh = source.getReads(start, end);
 				/* Notify rendered that the data is ready */
-				cb.dataReady(new Location(start, end), tmp);
+				cb.dataReady(new Location(start, end), Collections.singletonList(fresh));
 			}
 
 		};
@@ -71,12 +67,4 @@ public class ShortReadProvider implements DataProvider<SAMRecord> {
 		return source.readLength();
 	}
 
-	public SAMRecord getSecondRead(SAMRecord one) {
-		return source.getSecondRead(one);
-	}
-
-	public SAMRecord getFirstRead(SAMRecord one) {
-		return source.getFirstRead(one);
-	}
-
 }
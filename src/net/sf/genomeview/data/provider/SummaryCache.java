@@ -0,0 +1,266 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.data.provider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import net.sf.genomeview.core.Configuration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import atk.util.MD5Tools;
+
+/**
+ * Directory of memory mapped files that keep {@link PileupSummary} data
+ * between sessions.
+ *
+ * There is one file per data file and sequence, named after a hash of the
+ * path and the sequence. The header records the size and modification time
+ * of the data file, a file that does not match anymore is discarded. The
+ * modification time of the cache files is used to track when they were last
+ * opened, when the directory grows beyond its maximum size the least recently
+ * used files that are not open are deleted. A file that is already open is
+ * shared, it is closed when all its users closed it. Data files of which the
+ * size or modification time is not known are not cached.
+ *
+ * File layout: header, one byte per chunk that is one when the chunk is
+ * complete, the forward totals and the reverse totals as ints.
+ *
+ * @author Thomas Abeel
+ *
+ */
+class SummaryCache {
+
+	private static Logger log = LoggerFactory.getLogger(SummaryCache.class.toString());
+
+	private static final int MAGIC = 0x47565053;
+	private static final int VERSION = 1;
+	/* magic, version, size, mtime, windows, chunks */
+	private static final int HEADER = 4 + 4 + 8 + 8 + 4 + 4;
+	private static final String EXTENSION = ".summary";
+
+	private static SummaryCache instance = null;
+
+	/**
+	 * @return the cache in the configuration directory, or null when it is
+	 *         disabled
+	 */
+	static synchronized SummaryCache get() {
+		if (instance == null) {
+			long max = Configuration.getInt("pileup:summaryCacheSize") * 1024L * 1024L;
+			if (max <= 0 || Configuration.getDirectory() == null)
+				return null;
+			instance = new SummaryCache(new File(Configuration.getDirectory(), "summaries"), max);
+		}
+		return instance;
+	}
+
+	private final File dir;
+	private final long maxBytes;
+	/* Entries that are in use, guarded by this */
+	private final Map<File, Entry> open = new HashMap<File, Entry>();
+
+	SummaryCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Persistent storage for a single summary.
+	 */
+	static class Entry {
+		private final SummaryCache owner;
+		private final File file;
+		private final RandomAccessFile raf;
+		private final MappedByteBuffer map;
+		private final long size;
+		private final long mtime;
+		private final int windows;
+		private final int chunks;
+		private boolean fresh;
+		/* Number of users, guarded by the owner */
+		private int users = 1;
+
+		private Entry(SummaryCache owner, File file, RandomAccessFile raf, MappedByteBuffer map, long size,
+				long mtime, int windows, int chunks, boolean fresh) {
+			this.owner = owner;
+			this.file = file;
+			this.raf = raf;
+			this.map = map;
+			this.size = size;
+			this.mtime = mtime;
+			this.windows = windows;
+			this.chunks = chunks;
+			this.fresh = fresh;
+		}
+
+		/**
+		 * @return true when the file was just created and contains no data
+		 */
+		synchronized boolean isFresh() {
+			return fresh;
+		}
+
+		synchronized boolean isReady(int chunk) {
+			return map.get(HEADER + chunk) != 0;
+		}
+
+		synchronized int forward(int window) {
+			return map.getInt(HEADER + chunks + 4 * window);
+		}
+
+		synchronized int reverse(int window) {
+			return map.getInt(HEADER + chunks + 4 * windows + 4 * window);
+		}
+
+		/**
+		 * Stores the totals of windows [from,to[ and marks the chunk complete.
+		 * The values are read from the arrays of the summary while holding
+		 * the lock, so the last writer of a window shared by two chunks stores
+		 * the sum of both.
+		 */
+		synchronized void store(int chunk, int from, int to, AtomicIntegerArray forward, AtomicIntegerArray reverse) {
+			from = Math.max(0, from);
+			to = Math.min(windows, to);
+			for (int i = from; i < to; i++) {
+				map.putInt(HEADER + chunks + 4 * i, forward.get(i));
+				map.putInt(HEADER + chunks + 4 * windows + 4 * i, reverse.get(i));
+			}
+			map.put(HEADER + chunk, (byte) 1);
+		}
+
+		/**
+		 * Closes the file when this was the last user of the entry.
+		 */
+		void close() {
+			synchronized (owner) {
+				if (users == 0 || --users > 0)
+					return;
+				owner.open.remove(file);
+			}
+			try {
+				raf.close();
+			} catch (IOException e) {
+				log.warn("Could not close summary cache file", e);
+			}
+		}
+	}
+
+	/**
+	 * Opens the cache file for a sequence of a data file. An existing file
+	 * is reused when it was made for the same file size, modification time
+	 * and layout, otherwise it is replaced by an empty one. Every entry that
+	 * is returned must be closed.
+	 *
+	 * @return the cache entry, or null when it can not be opened
+	 */
+	synchronized Entry open(String path, long size, long mtime, String sequence, int windows, int chunks) {
+		if (size < 0 || mtime < 0)
+			return null;
+		if (!dir.exists())
+			dir.mkdirs();
+		File file = new File(dir, MD5Tools.md5(path + "\t" + sequence) + EXTENSION);
+		Entry shared = open.get(file);
+		if (shared != null) {
+			/* The file of an entry in use can not be replaced */
+			if (shared.size != size || shared.mtime != mtime || shared.windows != windows || shared.chunks != chunks)
+				return null;
+			shared.users++;
+			synchronized (shared) {
+				shared.fresh = false;
+			}
+			return shared;
+		}
+		long length = HEADER + chunks + 8L * windows;
+		try {
+			boolean fresh = true;
+			if (file.exists()) {
+				if (matches(file, length, size, mtime, windows, chunks))
+					fresh = false;
+				else if (!file.delete())
+					log.warn("Could not remove stale summary cache " + file);
+			}
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(length);
+			/* Marks the file as used, for the eviction */
+			file.setLastModified(System.currentTimeMillis());
+			MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			if (fresh) {
+				map.putInt(0, MAGIC);
+				map.putInt(4, VERSION);
+				map.putLong(8, size);
+				map.putLong(16, mtime);
+				map.putInt(24, windows);
+				map.putInt(28, chunks);
+			}
+			Entry out = new Entry(this, file, raf, map, size, mtime, windows, chunks, fresh);
+			open.put(file, out);
+			evict();
+			return out;
+		} catch (IOException e) {
+			log.warn("Could not open summary cache " + file, e);
+			return null;
+		}
+	}
+
+	private static boolean matches(File file, long length, long size, long mtime, int windows, int chunks)
+			throws IOException {
+		if (file.length() != length)
+			return false;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.readInt() == MAGIC && raf.readInt() == VERSION && raf.readLong() == size
+					&& raf.readLong() == mtime && raf.readInt() == windows && raf.readInt() == chunks;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files until the directory fits in the
+	 * maximum size. Files that are in use are never removed.
+	 */
+	synchronized void evict() {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		long total = 0;
+		for (File f : files)
+			if (f.getName().endsWith(EXTENSION))
+				total += f.length();
+		if (total <= maxBytes)
+			return;
+		final long[] used = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			order[i] = i;
+			used[i] = files[i].lastModified();
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(used[a], used[b]);
+			}
+		});
+		for (int i = 0; i < order.length && total > maxBytes; i++) {
+			File f = files[order[i]];
+			if (!f.getName().endsWith(EXTENSION) || open.containsKey(f))
+				continue;
+			long len = f.length();
+			if (f.delete())
+				total -= len;
+		}
+	}
+
+}
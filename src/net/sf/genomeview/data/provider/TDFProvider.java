@@ -12,7 +12,7 @@ import net.sf.genomeview.data.Model;
 import net.sf.genomeview.data.Task;
 import net.sf.jannot.Entry;
 import net.sf.jannot.Location;
-import net.sf.jannot.pileup.Pile;
+import net.sf.jannot.pileup.PileBlock;
 import net.sf.jannot.tdf.TDFData;
 
 import org.broad.igv.track.WindowFunction;
@@ -39,7 +39,7 @@ public class TDFProvider extends PileProvider {
 
 	}
 
-	private ArrayList<Pile> buffer = new ArrayList<Pile>();
+	private ArrayList<PileBlock> buffer = new ArrayList<PileBlock>();
 	private ArrayList<Status> status = new ArrayList<Status>();
 	private int lastStart = -1;
 	private int lastEnd = -1;
@@ -47,7 +47,7 @@ public class TDFProvider extends PileProvider {
 	private float maxPile;
 
 	@Override
-	public void get(final int start, final int end,final DataCallback<Pile>cb) {
+	public void get(final int start, final int end,final DataCallback<PileBlock>cb) {
 		/* Check whether request can be fulfilled by buffer */
 		if (start >= lastStart && end <= lastEnd
 				&& (lastEnd - lastStart) <= 2 * (end - start))
@@ -65,7 +65,7 @@ public class TDFProvider extends PileProvider {
 		status.add(new Status(false, true, false, start, end));
 		final Status thisJob=status.get(0);
 		// queue up retrieval
-		Task t = new Task(new Location(start, end)) {
+		Task t = new Task(new Location(start, end), source) {
 
 			@Override
 			public void run() {
@@ -74,15 +74,15 @@ public class TDFProvider extends PileProvider {
 				if (!(start >= lastStart && end <= lastEnd && (lastEnd - lastStart) <= 2 * (end - start)))
 					return;
 				thisJob.setRunning();
-				Iterable<Pile> fresh = source.get(start, end+1);
-				
-				for (Pile p : fresh) {
-					float val = p.getTotal();
+				Iterable<PileBlock> fresh = source.get(start, end+1);
+
+				for (PileBlock pb : fresh) {
+					float val = pb.maxTotal();
 
 					if (val > maxPile)
 						maxPile = val;
 
-					buffer.add(p);
+					buffer.add(pb);
 				}
 				thisJob.setFinished();
 //				notifyListeners();
@@ -4,6 +4,7 @@
 package net.sf.genomeview.data.provider;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -14,8 +15,9 @@ import net.sf.genomeview.data.Task;
 import net.sf.jannot.Data;
 import net.sf.jannot.Entry;
 import net.sf.jannot.Location;
-import net.sf.jannot.pileup.DoublePile;
-import net.sf.jannot.pileup.Pile;
+import net.sf.jannot.pileup.PileBlock;
+import net.sf.jannot.source.Locator;
+import net.sf.jannot.tabix.TabixWrapper;
 
 import org.broad.igv.track.WindowFunction;
 
@@ -26,27 +28,60 @@ import org.broad.igv.track.WindowFunction;
  */
 public class WiggleProvider extends PileProvider implements Observer {
 	private PileupSummary summary = null;
-	private Data<Pile> source;
+	private Data<PileBlock> source;
 
 	// private Model model;
 
-	public WiggleProvider(Entry e, Data<Pile> source, Model model) {
+	public WiggleProvider(Entry e, Data<PileBlock> source, Model model) {
 		// super(model);
-		summary = new PileupSummary(model, e);
+		summary = new PileupSummary(model, e.getMaximumLength(), cacheEntry(e, source));
 		summary.addObserver(this);
 		this.source = source;
+		/*
+		 * Chunks of a summary are independent and queued on the summary, leave
+		 * one worker for other sources. Detail queries stay one at a time.
+		 */
+		GenomeViewScheduler.setSourceLimit(summary, Math.max(1, GenomeViewScheduler.workers() - 1));
 
 	}
 
-	private ArrayList<Pile> buffer = new ArrayList<Pile>();
-	private ArrayList<Status> status = new ArrayList<Status>();
-	private int lastStart = -1;
-	private int lastEnd = -1;
+	/*
+	 * Persistent storage for the summary of tabix files, keyed on the path,
+	 * size and modification time of the file.
+	 */
+	private static SummaryCache.Entry cacheEntry(Entry e, Data<PileBlock> source) {
+		SummaryCache cache = SummaryCache.get();
+		if (cache == null || !(source instanceof TabixWrapper))
+			return null;
+		TabixWrapper<?> tw = (TabixWrapper<?>) source;
+		Locator l = tw.locator();
+		int length = e.getMaximumLength();
+		return cache.open(l.toString(), l.length(), l.lastModified(), tw.sequence(), PileupSummary.windows(length),
+				PileupSummary.chunks(length));
+	}
+
+	@Override
+	public void close() {
+		GenomeViewScheduler.cancel(summary);
+		summary.close();
+	}
+
+	/* Replaced as a whole, never changed after it is published */
+	private volatile List<PileBlock> buffer = new ArrayList<PileBlock>();
+	private volatile List<Status> status = new ArrayList<Status>();
+	private volatile int lastStart = -1;
+	private volatile int lastEnd = -1;
 	// private float maxSummary;
 	private float maxPile;
 
+	private synchronized void updateMax(PileBlock pb) {
+		float val = pb.maxTotal();
+		if (val > maxPile)
+			maxPile = val;
+	}
+
 	@Override
-	public void get(final int start, final int end, final DataCallback<Pile> cb) {
+	public void get(final int start, final int end, final DataCallback<PileBlock> cb) {
 		/* Check whether request can be fulfilled by buffer */
 		if (start >= lastStart && end <= lastEnd && (lastEnd - lastStart) <= 2 * (end - start))
 			cb.dataReady(new Location(start,end),buffer);
@@ -57,15 +92,16 @@ public class WiggleProvider extends PileProvider implements Observer {
 		lastStart = start;
 		lastEnd = end;
 
-		buffer.clear();
-		status.clear();
+		buffer = new ArrayList<PileBlock>();
 
 		if (end - start + 1 < PileupSummary.CHUNK) {
 
-			status.add(new Status(false, true, false, start, end));
-			final Status thisJob = status.get(0);
+			final Status thisJob = new Status(false, true, false, start, end);
+			List<Status> jobs = new ArrayList<Status>();
+			jobs.add(thisJob);
+			status = jobs;
 			// queue up retrieval
-			Task t = new Task(new Location(start, end)) {
+			Task t = new Task(new Location(start, end), source) {
 
 				@Override
 				public void run() {
@@ -83,19 +119,16 @@ public class WiggleProvider extends PileProvider implements Observer {
 					// fresh = summary.get(source, start, end);
 					//
 					// }
-					for (Pile p : source.get(start, end)) {
-						float val = p.getTotal();// .getCoverage();
-						// int len = p.getLength();
-						// if (len > 1 && val > maxSummary)
-						// maxSummary = val;
-						if (val > maxPile)
-							maxPile = val;
-
-						buffer.add(p);
+					List<PileBlock> fresh = new ArrayList<PileBlock>();
+					for (PileBlock pb : source.get(start, end)) {
+						updateMax(pb);
+						fresh.add(pb);
 					}
+					if (start == lastStart && end == lastEnd)
+						buffer = fresh;
 
 					thisJob.setFinished();
-					cb.dataReady(new Location(start,end),buffer);
+					cb.dataReady(new Location(start,end),fresh);
 					// notifyListeners();
 				}
 
@@ -103,17 +136,14 @@ public class WiggleProvider extends PileProvider implements Observer {
 			GenomeViewScheduler.submit(t);
 			// fresh = source.get(start, end);
 		} else {
-			for (Pile p : summary.get(source, start, end)) {
-				float val = p.getTotal();// p.getCoverage();
-				// int len = p.getLength();
-				// if (len > 1 && val > maxSummary)
-				// maxSummary = val;
-				if (val > maxPile)
-					maxPile = val;
-
-				buffer.add(p);
+			status = new ArrayList<Status>();
+			List<PileBlock> fresh = new ArrayList<PileBlock>();
+			for (PileBlock pb : summary.get(source, start, end)) {
+				updateMax(pb);
+				fresh.add(pb);
 			}
-			cb.dataReady(new Location(start,end),buffer);
+			buffer = fresh;
+			cb.dataReady(new Location(start,end),fresh);
 		}
 
 		// System.out.println("\tServing new request from provider");
@@ -123,7 +153,7 @@ public class WiggleProvider extends PileProvider implements Observer {
 	}
 
 	@Override
-	public double getMaxPile() {
+	public synchronized double getMaxPile() {
 		return maxPile;
 	}
 
@@ -150,7 +180,7 @@ public class WiggleProvider extends PileProvider implements Observer {
 		// System.out.println("\tInvalidating Wiggle Provider buffers ");
 		lastStart = -1;
 		lastEnd = -1;
-		buffer.clear();
+		buffer = new ArrayList<PileBlock>();
 		// setChanged();
 		// notifyObservers();
 	}
@@ -17,11 +17,16 @@ import net.sf.genomeview.data.Session;
 import net.sf.genomeview.gui.explorer.DataExplorerManager;
 import net.sf.genomeview.gui.external.ExternalHelper;
 import net.sf.jannot.exception.ReadFailedException;
+import net.sf.jannot.parser.WiggleParser;
 import net.sf.jannot.source.DataSource;
 import net.sf.jannot.source.DataSourceFactory;
 import net.sf.jannot.source.IndexManager;
 import net.sf.jannot.source.Locator;
 import net.sf.jannot.source.cache.SourceCache;
+import net.sf.jannot.source.cache.TileCache;
+
+import org.broad.igv.tdf.TDFTileCache;
+
 import be.abeel.net.URIFactory;
 
 public class InitDataLoader {
@@ -39,7 +44,11 @@ public class InitDataLoader {
 
 		SourceCache.cacheDir = new File(Configuration.getDirectory(), "cache");
 		IndexManager.cacheDir = new File(Configuration.getDirectory(), "index");
+		WiggleParser.cacheDir = new File(Configuration.getDirectory(), "wiggle");
+		WiggleParser.cacheSize = Configuration.getInt("wiggle:cacheSize") * 1024L * 1024L;
 		DataSourceFactory.disableURLCaching = Configuration.getBoolean("general:disableURLCaching");
+		TDFTileCache.setMaxBytes(Configuration.getInt("tdf:tileCacheSize") * 1024L * 1024L);
+		TileCache.setSharedMaxBytes(Configuration.getInt("shortread:recordCacheSize") * 1024L * 1024L);
 
 		/*
 		 * Initialize session, all other arguments will override what the
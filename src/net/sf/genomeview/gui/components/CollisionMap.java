@@ -15,10 +15,58 @@ import java.util.SortedSet;
 import net.sf.genomeview.data.Model;
 import net.sf.genomeview.gui.dialog.UniqueFeatureHitDialog;
 import net.sf.jannot.Feature;
+import net.sf.jannot.IntervalTree;
+import net.sf.jannot.Located;
 import net.sf.jannot.Location;
 
+/**
+ * Rectangles on screen with the locations that were drawn in them, used to lay
+ * out tracks and to find what is under the mouse.
+ *
+ * The rectangles are indexed in horizontal bands of a few pixels high, within
+ * a band an interval tree on the horizontal extent gives the rectangles that
+ * may contain a point or overlap another rectangle in logarithmic time.
+ * Rectangles that are higher than a band are added to every band they cover.
+ *
+ * @author Thomas Abeel
+ *
+ */
 public class CollisionMap {
-	private Map<Rectangle, ArrayList<Location>> locationMap = new HashMap<Rectangle, ArrayList<Location>>();
+
+	/* Height in pixels of the bands */
+	private static final int BAND = 16;
+
+	/* A rectangle with the locations drawn in it, indexed on [x, x+width] */
+	private static class Slot implements Located {
+		private final Rectangle rect;
+		private final ArrayList<Location> locations = new ArrayList<Location>();
+
+		Slot(Rectangle rect) {
+			this.rect = rect;
+		}
+
+		@Override
+		public int start() {
+			return Math.min(rect.x, rect.x + rect.width);
+		}
+
+		@Override
+		public int end() {
+			return Math.max(rect.x, rect.x + rect.width);
+		}
+
+		@Override
+		public String toString() {
+			return locations.toString();
+		}
+	}
+
+	private Map<Rectangle, Slot> locationMap = new HashMap<Rectangle, Slot>();
+
+	private Map<Integer, IntervalTree<Slot>> bands = new HashMap<Integer, IntervalTree<Slot>>();
+
+	/* Reused for queries, the map is only used from one thread */
+	private List<Slot> buffer = new ArrayList<Slot>();
 
 	private Model model;
 
@@ -31,12 +79,30 @@ public class CollisionMap {
 	 */
 	public void clear() {
 		locationMap.clear();
+		bands.clear();
 	}
 
 	@Override
-	public String toString(){
+	public String toString() {
 		return locationMap.toString();
 	}
+
+	private static int band(int y) {
+		return y >= 0 ? y / BAND : (y - BAND + 1) / BAND;
+	}
+
+	/**
+	 * The rectangles that overlap [x1,x2] horizontally in the band of y, the
+	 * result is only valid until the next query.
+	 */
+	private List<Slot> candidates(int x1, int x2, int y) {
+		buffer.clear();
+		IntervalTree<Slot> tree = bands.get(band(y));
+		if (tree != null)
+			tree.query(x1, x2, buffer);
+		return buffer;
+	}
+
 	public Location uniqueLocation(int x, int y) {
 
 		Set<Location> locHits = locationHits(x, y);
@@ -63,11 +129,9 @@ public class CollisionMap {
 
 	public Set<Location> locationHits(int x, int y) {
 		Set<Location> hits = new HashSet<Location>();
-		for (Rectangle r : locationMap.keySet()) {
-			if (r.contains(x, y)) {
-				List<Location> pair = locationMap.get(r);
-				hits.addAll(pair);
-			}
+		for (Slot s : candidates(x, x, y)) {
+			if (s.rect.contains(x, y))
+				hits.addAll(s.locations);
 		}
 		return hits;
 	}
@@ -81,27 +145,26 @@ public class CollisionMap {
 		return hits;
 	}
 
+	private static boolean nearBorder(Rectangle rec, int x, int y) {
+		double a = Math.abs(x - rec.getMinX());
+		double b = Math.abs(x - rec.getMaxX());
+		boolean yCheck = y >= rec.y && y <= rec.y + rec.height;
+		return (a < 4 || b < 4) && yCheck;
+	}
+
 	public boolean nearBorder(int x, int y) {
-		for (Rectangle rec : locationMap.keySet()) {
-			double a = Math.abs(x - rec.getMinX());
-			double b = Math.abs(x - rec.getMaxX());
-			boolean yCheck = y >= rec.y && y <= rec.y + rec.height;
-			if ((a < 4 || b < 4) && yCheck) {
+		for (Slot s : candidates(x - 3, x + 3, y)) {
+			if (nearBorder(s.rect, x, y))
 				return true;
-			}
 		}
 		return false;
 	}
 
 	public Location borderHit(int x, int y) {
 		Set<Location> hits = new HashSet<Location>();
-		for (Rectangle rec : locationMap.keySet()) {
-			double a = Math.abs(x - rec.getMinX());
-			double b = Math.abs(x - rec.getMaxX());
-			boolean yCheck = y >= rec.y && y <= rec.y + rec.height;
-			if ((a < 4 || b < 4) && yCheck) {
-				hits.addAll(locationMap.get(rec));
-			}
+		for (Slot s : candidates(x - 3, x + 3, y)) {
+			if (nearBorder(s.rect, x, y))
+				hits.addAll(s.locations);
 		}
 		if (hits.size() == 0)
 			return null;
@@ -132,16 +195,31 @@ public class CollisionMap {
 	}
 
 	public void addLocation(Rectangle r, Location l) {
-		if (!locationMap.containsKey(r))
-			locationMap.put(r, new ArrayList<Location>());
-		locationMap.get(r).add(l);
+		Slot s = locationMap.get(r);
+		if (s == null) {
+			/* Callers may reuse their rectangle */
+			Rectangle copy = new Rectangle(r);
+			s = new Slot(copy);
+			locationMap.put(copy, s);
+			for (int b = band(copy.y); b <= band(copy.y + copy.height); b++) {
+				IntervalTree<Slot> tree = bands.get(b);
+				if (tree == null) {
+					tree = new IntervalTree<Slot>();
+					bands.put(b, tree);
+				}
+				tree.add(s);
+			}
+		}
+		s.locations.add(l);
 
 	}
 
 	public boolean collision(Rectangle rectangle) {
-		for (Rectangle r : locationMap.keySet()) {
-			if (rectangle.intersects(r))
-				return true;
+		for (int b = band(rectangle.y); b <= band(rectangle.y + rectangle.height); b++) {
+			for (Slot s : candidates(rectangle.x, rectangle.x + rectangle.width, b * BAND)) {
+				if (rectangle.intersects(s.rect))
+					return true;
+			}
 		}
 		return false;
 
@@ -0,0 +1,70 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.gui.components;
+
+import java.util.Arrays;
+
+/**
+ * Puts intervals on the first line where they do not overlap with the
+ * intervals that are already on it.
+ *
+ * Every line remembers where its last interval ends. A tree with the minimum
+ * end of each range of lines finds the first line that is free in O(log L)
+ * for L lines. When intervals are added from left to right this gives the
+ * same lines as checking every line for collisions, in any other order an
+ * interval may end up lower than needed but never overlaps another one.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class LineLayout {
+
+	/* Leaves are the line ends, inner node i holds the minimum of 2i and 2i+1 */
+	private long[] tree = new long[32];
+	private int capacity = 16;
+	private int lines = 0;
+
+	public LineLayout() {
+		Arrays.fill(tree, Long.MIN_VALUE);
+	}
+
+	/**
+	 * Adds the interval [start, end) to the first line that ends at or before
+	 * start.
+	 *
+	 * @return the line, starting from 0
+	 */
+	public int add(long start, long end) {
+		if (tree[1] > start)
+			grow();
+		int node = 1;
+		while (node < capacity)
+			node = tree[2 * node] <= start ? 2 * node : 2 * node + 1;
+		int line = node - capacity;
+		tree[node] = Math.max(start, end);
+		for (node /= 2; node > 0; node /= 2)
+			tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+		if (line >= lines)
+			lines = line + 1;
+		return line;
+	}
+
+	private void grow() {
+		long[] bigger = new long[4 * capacity];
+		Arrays.fill(bigger, Long.MIN_VALUE);
+		System.arraycopy(tree, capacity, bigger, 2 * capacity, capacity);
+		capacity *= 2;
+		tree = bigger;
+		for (int node = capacity - 1; node > 0; node--)
+			tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+	}
+
+	/**
+	 * @return the number of lines that are used
+	 */
+	public int lines() {
+		return lines;
+	}
+
+}
@@ -0,0 +1,249 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.gui.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import net.sf.jannot.AminoAcidMapping;
+import net.sf.jannot.Location;
+import net.sf.jannot.Strand;
+import net.sf.jannot.refseq.Sequence;
+import net.sf.jannot.utils.SequenceTools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Searches both strands of a sequence, or the three frames of the translation
+ * of each strand, without copying the whole sequence.
+ *
+ * Every strand or frame is cut in chunks that are searched in parallel. A
+ * chunk also reads the residues that the longest match can reach into the next
+ * chunk, but only reports matches that start in the chunk itself. The reverse
+ * strand is complemented per chunk and translation uses the codon table of
+ * the {@link AminoAcidMapping}.
+ *
+ * Matches are reported per chunk in the order of the strands, frames and
+ * positions, as soon as all chunks before them are done.
+ *
+ * @author Thomas Abeel
+ *
+ */
+class ChunkedSearch {
+
+	private static final Logger log = LoggerFactory.getLogger(ChunkedSearch.class.getCanonicalName());
+
+	/* Residues per chunk */
+	static final int CHUNK = 1 << 20;
+
+	private static final ForkJoinPool pool = new ForkJoinPool();
+
+	/* Upper case complement of each nucleotide */
+	private static final byte[] COMPLEMENT = new byte[256];
+	private static final byte[] UPPER = new byte[256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			UPPER[i] = (byte) Character.toUpperCase((char) i);
+			COMPLEMENT[i] = (byte) Character.toUpperCase(SequenceTools.complement((char) i));
+		}
+	}
+
+	/**
+	 * Finds matches in the upper case residues of a part of a strand or frame.
+	 */
+	interface Finder {
+		/**
+		 * @return the number of residues of the longest match
+		 */
+		int span();
+
+		/**
+		 * Adds the start and end of the matches in text[0,length[ that start
+		 * before limit.
+		 */
+		void find(byte[] text, int length, int limit, List<int[]> out);
+	}
+
+	static class Match {
+		final Strand strand;
+		final Location location;
+
+		Match(Strand strand, Location location) {
+			this.strand = strand;
+			this.location = location;
+		}
+	}
+
+	/**
+	 * Receives the matches, on the threads of the pool.
+	 */
+	interface Listener {
+		void found(List<Match> matches);
+
+		/**
+		 * Called after the last matches, not when the search was cancelled.
+		 */
+		void done();
+	}
+
+	/**
+	 * Starts a search, cancel the returned task to stop it.
+	 *
+	 * @param aamap
+	 *            the genetic code to search the translation with, or null to
+	 *            search the nucleotides
+	 */
+	static ForkJoinTask<?> search(Sequence seq, AminoAcidMapping aamap, Finder finder, Listener listener) {
+		return search(seq, aamap, finder, listener, CHUNK);
+	}
+
+	static ForkJoinTask<?> search(Sequence seq, AminoAcidMapping aamap, Finder finder, Listener listener, int chunk) {
+		Search s = new Search(seq, aamap, finder, listener, chunk);
+		pool.execute(s);
+		return s;
+	}
+
+	private static class Search extends RecursiveAction {
+
+		private static final long serialVersionUID = -3186251473590094563L;
+
+		private final Sequence seq;
+		private final AminoAcidMapping aamap;
+		private final Finder finder;
+		private final Listener listener;
+		private final int chunk;
+
+		/* Matches of the chunks that are done, reported in order */
+		private List<List<Match>> done;
+		private int next = 0;
+
+		Search(Sequence seq, AminoAcidMapping aamap, Finder finder, Listener listener, int chunk) {
+			this.seq = seq;
+			this.chunk = chunk;
+			this.aamap = aamap;
+			this.finder = finder;
+			this.listener = listener;
+		}
+
+		@Override
+		protected void compute() {
+			int length = seq.size();
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			for (Strand strand : new Strand[] { Strand.FORWARD, Strand.REVERSE }) {
+				for (int frame = 0; frame < (aamap == null ? 1 : 3); frame++) {
+					int residues = aamap == null ? length : (length - frame) / 3;
+					for (int start = 0; start < residues; start += chunk)
+						chunks.add(new Chunk(this, chunks.size(), strand, frame, start, Math.min(residues, start
+								+ chunk), residues));
+				}
+			}
+			done = new ArrayList<List<Match>>(Collections.<List<Match>> nCopies(chunks.size(), null));
+			try {
+				invokeAll(chunks);
+			} catch (RuntimeException e) {
+				log.error("Sequence search failed", e);
+				return;
+			}
+			if (!isCancelled())
+				listener.done();
+		}
+
+		private synchronized void completed(int index, List<Match> matches) {
+			done.set(index, matches);
+			while (next < done.size() && done.get(next) != null) {
+				if (!isCancelled() && !done.get(next).isEmpty())
+					listener.found(done.get(next));
+				done.set(next++, null);
+			}
+		}
+
+		/*
+		 * Upper case residues [from,to[ of a strand or frame, the positions on
+		 * the reverse strand count from its own start.
+		 */
+		private byte[] residues(Strand strand, int frame, int from, int to) {
+			int length = seq.size();
+			int codon = aamap == null ? 1 : 3;
+			int start = frame + codon * from;
+			int end = frame + codon * to;
+			byte[] bases = new byte[end - start];
+			if (strand == Strand.FORWARD) {
+				seq.get(start + 1, end + 1, bases, 0);
+				for (int i = 0; i < bases.length; i++)
+					bases[i] = UPPER[bases[i] & 0xFF];
+			} else {
+				seq.get(length - end + 1, length - start + 1, bases, 0);
+				for (int i = 0, j = bases.length - 1; i <= j; i++, j--) {
+					byte b = bases[i];
+					bases[i] = COMPLEMENT[bases[j] & 0xFF];
+					bases[j] = COMPLEMENT[b & 0xFF];
+				}
+			}
+			if (aamap == null)
+				return bases;
+			byte[] out = new byte[to - from];
+			aamap.translate(bases, 0, bases.length, out, 0);
+			for (int i = 0; i < out.length; i++)
+				out[i] = UPPER[out[i] & 0xFF];
+			return out;
+		}
+
+		/*
+		 * The location of residues [from,to[ of a strand or frame, ends are one
+		 * more than the last nucleotide like the searches always did.
+		 */
+		private Location location(Strand strand, int frame, int from, int to) {
+			int codon = aamap == null ? 1 : 3;
+			int start = frame + codon * from;
+			int end = frame + codon * to;
+			if (strand == Strand.REVERSE) {
+				int length = seq.size();
+				int tmp = start;
+				start = length - end;
+				end = length - tmp;
+			}
+			return new Location(start + 1, end + 1);
+		}
+	}
+
+	private static class Chunk extends RecursiveAction {
+
+		private static final long serialVersionUID = 3520137312467209719L;
+
+		private final Search search;
+		private final int index;
+		private final Strand strand;
+		private final int frame, start, end, residues;
+
+		Chunk(Search search, int index, Strand strand, int frame, int start, int end, int residues) {
+			this.search = search;
+			this.index = index;
+			this.strand = strand;
+			this.frame = frame;
+			this.start = start;
+			this.end = end;
+			this.residues = residues;
+		}
+
+		@Override
+		protected void compute() {
+			List<Match> matches = new ArrayList<Match>();
+			if (!search.isCancelled()) {
+				int to = (int) Math.min(residues, (long) end + search.finder.span() - 1);
+				byte[] text = search.residues(strand, frame, start, to);
+				List<int[]> found = new ArrayList<int[]>();
+				search.finder.find(text, text.length, end - start, found);
+				for (int[] f : found)
+					matches.add(new Match(strand, search.location(strand, frame, start + f[0], start + f[1])));
+			}
+			search.completed(index, matches);
+		}
+	}
+
+}
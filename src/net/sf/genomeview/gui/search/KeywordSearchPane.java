@@ -6,8 +6,6 @@ package net.sf.genomeview.gui.search;
 import java.awt.GridBagConstraints;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.event.KeyAdapter;
-import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
@@ -15,6 +13,8 @@ import javax.swing.JButton;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 import net.sf.genomeview.data.Model;
 import net.sf.genomeview.gui.MessageManager;
@@ -57,24 +57,29 @@ class KeywordSearchPane extends SearchPanel {
 
 			}
 		});
-		text.addKeyListener(new KeyAdapter() {
+		text.getDocument().addDocumentListener(new DocumentListener() {
+
+			/* Searches run on the index, a new one cancels the previous */
+			private void changed() {
+				String query = text.getText().trim();
+				if (query.length() == 0)
+					srm.clear();
+				else
+					srm.search(query);
+			}
 
-			/*
-			 * (non-Javadoc)
-			 * 
-			 * @see java.awt.event.KeyAdapter#keyTyped(java.awt.event.KeyEvent)
-			 */
 			@Override
-			public void keyReleased(KeyEvent e) {
+			public void removeUpdate(DocumentEvent e) {
+				changed();
+			}
 
-				int key = e.getKeyCode();
-				if (key == KeyEvent.VK_ENTER) {
-					srm.clear();
-					srm.search(text.getText().trim());
-				} else {
-					super.keyTyped(e);
-				}
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				changed();
+			}
 
+			@Override
+			public void changedUpdate(DocumentEvent e) {
 			}
 
 		});
@@ -82,7 +87,6 @@ class KeywordSearchPane extends SearchPanel {
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				srm.clear();
 				srm.search(text.getText().trim());
 
 			}
@@ -5,13 +5,17 @@ package net.sf.genomeview.gui.search;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
+
+import javax.swing.SwingUtilities;
 
 import net.sf.genomeview.data.Model;
-import net.sf.jannot.DataKey;
+import net.sf.genomeview.data.QualifierIndex;
+import net.sf.genomeview.data.QualifierIndex.Hit;
 import net.sf.jannot.Entry;
 import net.sf.jannot.Feature;
-import net.sf.jannot.FeatureAnnotation;
 
 /**
  * 
@@ -67,34 +71,45 @@ class KeywordSearchResultModel extends AbstractSearchResultModel {
 
 	}
 
+	/* The running search and its number, only used on the event thread */
+	private Future<?> running = null;
+	private int generation = 0;
+
+	/**
+	 * Starts looking for features with a qualifier that contains the text, the
+	 * search that was running is cancelled. Results are added to the table as
+	 * they are found.
+	 */
 	void search(String text) {
-		String lowerCaseText = text.toLowerCase();
 		clear();
-		for (Entry e : model.entries()) {
-			for (DataKey d : e) {
-				if (e.get(d) instanceof FeatureAnnotation) {
-					for (Feature f : ((FeatureAnnotation) e.get(d)).get()) {
-						if (!featuresSet.contains(f)) {
-							for (String key : f.getQualifiersKeys()) {
-								String value=f.qualifier(key);
-								
-									if ((key!=null&&key.toLowerCase().contains(lowerCaseText))
-											|| (value!=null&&value.toLowerCase().contains(lowerCaseText))) {
-										if (!featuresSet.contains(f)) {
-											features.add(f);
-											entries.add(e);
-											featuresSet.add(f);
-										}
-									}
-
+		final int current = generation;
+		running = model.qualifierIndex().search(text, new QualifierIndex.Results() {
+
+			@Override
+			public void found(final List<Hit> hits) {
+				SwingUtilities.invokeLater(new Runnable() {
+
+					@Override
+					public void run() {
+						if (generation != current)
+							return;
+						int first = features.size();
+						for (Hit h : hits) {
+							if (featuresSet.add(h.feature)) {
+								features.add(h.feature);
+								entries.add(h.entry);
 							}
 						}
+						if (features.size() > first)
+							fireTableRowsInserted(first, features.size() - 1);
 					}
-				}
+				});
 			}
-		}
-		
-		fireTableDataChanged();
+
+			@Override
+			public void done() {
+			}
+		});
 
 	}
 
@@ -103,6 +118,10 @@ class KeywordSearchResultModel extends AbstractSearchResultModel {
 	}
 	@Override
 	void clear() {
+		generation++;
+		if (running != null)
+			running.cancel(true);
+		running = null;
 		features.clear();
 		entries.clear();
 		featuresSet.clear();
@@ -5,23 +5,20 @@ package net.sf.genomeview.gui.search;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.swing.JOptionPane;
-import javax.swing.table.AbstractTableModel;
+import javax.swing.SwingUtilities;
 
-import net.sf.genomeview.BufferSeq;
 import net.sf.genomeview.data.Model;
+import net.sf.genomeview.gui.search.ChunkedSearch.Match;
 import net.sf.genomeview.gui.search.SearchDialog.SequenceType;
 import net.sf.jannot.AminoAcidMapping;
 import net.sf.jannot.Entry;
 import net.sf.jannot.Location;
 import net.sf.jannot.Strand;
-import net.sf.jannot.utils.SequenceTools;
-
-import com.eaio.stringsearch.BoyerMooreHorspoolRaita;
-import com.eaio.stringsearch.ShiftOrMismatches;
 
 /**
  * 
@@ -98,6 +95,45 @@ class MotifSearchResultModel extends AbstractSearchResultModel {
 		return false;
 	}
 
+	/* Matches that are longer may be cut off at the end of a chunk */
+	private static final int MAX_MATCH = 10000;
+
+	/* The residues of a chunk as characters for the regular expression */
+	private static class Residues implements CharSequence {
+		private final byte[] text;
+		private final int offset, length;
+
+		Residues(byte[] text, int offset, int length) {
+			this.text = text;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) text[offset + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new Residues(text, offset + start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(text, offset, length);
+		}
+	}
+
+	/* The running search and its number, only used on the event thread */
+	private ForkJoinTask<?> running = null;
+	private int generation = 0;
+
 	/**
 	 * Search this particular sequence and populate the model with the results.
 	 * 
@@ -105,110 +141,67 @@ class MotifSearchResultModel extends AbstractSearchResultModel {
 	 * @param text
 	 */
 	void search(final Model model, String inPattern, final SequenceType type) {
-		locations.clear();
+		clear();
 		model.clearHighlights();
-		// final byte[] bytePattern = pattern.toUpperCase().getBytes();
 
-		final String pattern =inPattern.replace('*', '.').replace('?', '.').replace('-', '.');
-		new Thread(new Runnable() {
+		String pattern = inPattern.replace('*', '.').replace('?', '.').replace('-', '.').toUpperCase();
+		final Pattern p = Pattern.compile(type == SequenceType.AminoAcid ? pattern.replace('X', '.') : pattern.replace(
+				'N', '.'));
+		ChunkedSearch.Finder finder = new ChunkedSearch.Finder() {
 
 			@Override
-			public void run() {
-
-				switch (type) {
-				case Nucleotide:
-
-					performNucleotideSearch();
-					break;
-				case AminoAcid:
-
-					performAminoAcidSearch();
-				}
-
+			public int span() {
+				return MAX_MATCH;
 			}
 
-			private void search(String input, Pattern p, boolean forward, Entry selected, int modifier) {
-				Matcher m = p.matcher(input.toUpperCase());
-				
-				while (m.find()) {
-					
-			
-					int multiplier=1;
-					if(type==SequenceType.AminoAcid)
-						multiplier=3;
-					if (forward) {
-						Location l = new Location(m.start()*multiplier+modifier, m.end()*multiplier+modifier);
-						locations.add(new StrandedLocation(Strand.FORWARD, l));
-						model.addHighlight(l, Color.cyan, Strand.FORWARD);
-
-					} else {
-
-						Location l = new Location(selected.getMaximumLength() - (m.end()*multiplier)+modifier, selected.getMaximumLength() - (m.start()*multiplier)+modifier);
-						locations.add(new StrandedLocation(Strand.REVERSE, l));
-						model.addHighlight(l, Color.magenta, Strand.REVERSE);
-					}
-					fireTableDataChanged();
-
-				}
-			}
-
-			private void performAminoAcidSearch() {
-			
-				Pattern p = Pattern.compile(pattern.toUpperCase().replace('X', '.'));
-
-				Entry selected = model.vlm.getVisibleEntry();
-
-				String seq=model.vlm.getSelectedEntry().sequence().stringRepresentation().toUpperCase();
-		
-				String translation = new String(translate(seq.getBytes(), 0));
-				search(translation,p,true,selected,1);
-				translation = new String(translate(seq.getBytes(), 1));
-				search(translation,p,true,selected,2);
-				translation = new String(translate(seq.getBytes(), 2));
-				search(translation,p,true,selected,3);
-
-
-				seq=SequenceTools.reverseComplement(selected.sequence()).stringRepresentation().toUpperCase();
-
-				translation = new String(translate(seq.getBytes(), 0));
-
-				search(translation,p,false,selected,1);
-				translation = new String(translate(seq.getBytes(), 1));
-
-				search(translation,p,false,selected,0);
-				translation = new String(translate(seq.getBytes(), 2));
-				search(translation,p,false,selected,-1);
-
+			@Override
+			public void find(byte[] text, int length, int limit, List<int[]> out) {
+				Matcher m = p.matcher(new Residues(text, 0, length));
+				while (m.find() && m.start() < limit)
+					out.add(new int[] { m.start(), m.end() });
 			}
+		};
+		Entry entry = model.vlm.getSelectedEntry();
+		AminoAcidMapping aamap = type == SequenceType.AminoAcid ? model.getAAMapping(entry) : null;
+		final int current = generation;
+		running = ChunkedSearch.search(entry.sequence(), aamap, finder, new ChunkedSearch.Listener() {
 
-			private byte[] translate(byte[] seq, int offset) {
-				byte[] out = new byte[seq.length / 3];
-				for (int i = 0; i < out.length && 3 * i + offset + 2 < seq.length; i++) {
-					AminoAcidMapping aamap = model.getAAMapping(model.vlm.getSelectedEntry());
-					out[i] = (byte) aamap.get("" + (char) seq[3 * i + offset] + (char) seq[3 * i + offset + 1]
-							+ (char) seq[3 * i + offset + 2]);
-					// System.out.println((char)out[i]);
-				}
-				return out;
+			@Override
+			public void found(final List<Match> matches) {
+				SwingUtilities.invokeLater(new Runnable() {
+
+					@Override
+					public void run() {
+						if (generation != current)
+							return;
+						add(matches);
+					}
+				});
 			}
 
-
-			private void performNucleotideSearch() {
-				Pattern p = Pattern.compile(pattern.toUpperCase().replace('N', '.'));
-
-				Entry selected = model.vlm.getVisibleEntry();
-
-				search(model.vlm.getSelectedEntry().sequence().stringRepresentation().toUpperCase(), p, true, selected,1);
-				search(SequenceTools.reverseComplement(selected.sequence()).stringRepresentation().toUpperCase(), p, false, selected,1);
-
-
+			@Override
+			public void done() {
 			}
+		});
+	}
 
-			
-
-			
-
-		}).start();
+	/* Adds a batch of matches to the table and the highlights */
+	private void add(List<Match> matches) {
+		List<Location> forward = new ArrayList<Location>();
+		List<Location> reverse = new ArrayList<Location>();
+		int first = locations.size();
+		for (Match m : matches) {
+			locations.add(new StrandedLocation(m.strand, m.location));
+			if (m.strand == Strand.FORWARD)
+				forward.add(m.location);
+			else
+				reverse.add(m.location);
+		}
+		if (!forward.isEmpty())
+			model.addHighlights(forward, Color.cyan, Strand.FORWARD);
+		if (!reverse.isEmpty())
+			model.addHighlights(reverse, Color.magenta, Strand.REVERSE);
+		fireTableRowsInserted(first, locations.size() - 1);
 	}
 
 	Location getLocation(int index) {
@@ -217,6 +210,10 @@ class MotifSearchResultModel extends AbstractSearchResultModel {
 
 	@Override
 	void clear() {
+		generation++;
+		if (running != null)
+			running.cancel(false);
+		running = null;
 		locations.clear();
 		fireTableDataChanged();
 
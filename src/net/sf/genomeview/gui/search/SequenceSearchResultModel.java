@@ -5,18 +5,20 @@ package net.sf.genomeview.gui.search;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 
 import javax.swing.JOptionPane;
-import javax.swing.table.AbstractTableModel;
+import javax.swing.SwingUtilities;
 
-import net.sf.genomeview.BufferSeq;
 import net.sf.genomeview.data.Model;
 import net.sf.genomeview.gui.MessageManager;
+import net.sf.genomeview.gui.search.ChunkedSearch.Match;
 import net.sf.genomeview.gui.search.SearchDialog.SequenceType;
 import net.sf.jannot.AminoAcidMapping;
+import net.sf.jannot.Entry;
 import net.sf.jannot.Location;
 import net.sf.jannot.Strand;
-import net.sf.jannot.utils.SequenceTools;
 
 import com.eaio.stringsearch.BoyerMooreHorspoolRaita;
 import com.eaio.stringsearch.ShiftOrMismatches;
@@ -96,6 +98,10 @@ class SequenceSearchResultModel extends AbstractSearchResultModel {
 		return false;
 	}
 
+	/* The running search and its number, only used on the event thread */
+	private ForkJoinTask<?> running = null;
+	private int generation = 0;
+
 	/**
 	 * Search this particular sequence and populate the model with the results.
 	 * 
@@ -104,174 +110,87 @@ class SequenceSearchResultModel extends AbstractSearchResultModel {
 	 * @param text
 	 */
 	void search(final Model model, String pattern, final int mismatch, final SequenceType type) {
-		locations.clear();
+		clear();
 		model.clearHighlights();
 		final byte[] bytePattern = pattern.toUpperCase().getBytes();
+		final Object processed;
+		try {
+			if (mismatch == 0)
+				processed = new BoyerMooreHorspoolRaita().processBytes(bytePattern);
+			else
+				processed = new ShiftOrMismatches().processBytes(bytePattern, mismatch);
+		} catch (IllegalArgumentException ie) {
+			JOptionPane.showMessageDialog(model.getGUIManager().getParent(),
+					MessageManager.getString("searchsequenceresult.too_many_mismatches_warn"),
+					MessageManager.getString("searchsequenceresult.too_many_mismatches"), JOptionPane.WARNING_MESSAGE);
+			return;
+		}
 
-		new Thread(new Runnable() {
+		ChunkedSearch.Finder finder = new ChunkedSearch.Finder() {
 
 			@Override
-			public void run() {
-				try {
-					switch (type) {
-					case Nucleotide:
-						performNucleotideSearch();
-						break;
-					case AminoAcid:
-						performAminoAcidSearch();
-					}
-				} catch (IllegalArgumentException ie) {
-					JOptionPane
-							.showMessageDialog(
-									model.getGUIManager().getParent(),
-									MessageManager.getString("searchsequenceresult.too_many_mismatches_warn"), MessageManager.getString("searchsequenceresult.too_many_mismatches"),
-									JOptionPane.WARNING_MESSAGE);
-				}
-
+			public int span() {
+				return bytePattern.length;
 			}
 
-			private void performAminoAcidSearch() {
-				// byte[] byteSequence =
-				// model.getSelectedEntry().sequence().getSequence().toUpperCase().getBytes();
-				byte[] byteSequence = new BufferSeq(model.vlm.getSelectedEntry().sequence()).toString().toUpperCase()
-						.getBytes();
-				byte[] translation = translate(byteSequence, 0);
-				forwardSearch(translation, 0);
-				translation = translate(byteSequence, 1);
-				forwardSearch(translation, 1);
-				translation = translate(byteSequence, 2);
-				forwardSearch(translation, 2);
-
-				reverseArray(byteSequence);
-				for (int i = 0; i < byteSequence.length; i++) {
-					byteSequence[i] = (byte) SequenceTools.complement((char) byteSequence[i]);
-				}
-
-				translation = translate(byteSequence, 0);
-				reverseSearch(translation, 0);
-				translation = translate(byteSequence, 1);
-				reverseSearch(translation, 1);
-				translation = translate(byteSequence, 2);
-				reverseSearch(translation, 2);
-			}
-
-			private byte[] translate(byte[] seq, int offset) {
-				byte[] out = new byte[seq.length / 3];
-				for (int i = 0; i < out.length && 3 * i + offset + 2 < seq.length; i++) {
-					AminoAcidMapping aamap = model.getAAMapping(model.vlm.getSelectedEntry());
-					out[i] = (byte) aamap.get("" + (char) seq[3 * i + offset] + (char) seq[3 * i + offset + 1]
-							+ (char) seq[3 * i + offset + 2]);
-					// System.out.println((char)out[i]);
-				}
-				return out;
-			}
-
-			private void forwardSearch(byte[] byteSequence, int offset) {
-
+			@Override
+			public void find(byte[] text, int length, int limit, List<int[]> out) {
 				BoyerMooreHorspoolRaita bm = new BoyerMooreHorspoolRaita();
-
 				ShiftOrMismatches som = new ShiftOrMismatches();
-
-				/* Search forward strand */
-				int[] lastPos = { 0, 0 };
-				do {
+				int pos = 0;
+				while (pos < limit) {
 					if (mismatch == 0)
-						lastPos[0] = bm.searchBytes(byteSequence, lastPos[0], byteSequence.length, bytePattern);
+						pos = bm.searchBytes(text, pos, length, bytePattern, processed);
 					else
-						lastPos = som.searchBytes(byteSequence, lastPos[0], byteSequence.length, bytePattern, mismatch);
-
-					if (lastPos[0] >= 0) {
-
-						lastPos[0]++;
-						Location l = null;
-						switch (type) {
-						case Nucleotide:
-							l = new Location(lastPos[0], lastPos[0] + bytePattern.length);
-							break;
-						case AminoAcid:
-							l = new Location(lastPos[0] * 3 + offset - 2, lastPos[0] * 3 + bytePattern.length * 3
-									+ offset - 2);
-							break;
-						}
-
-						locations.add(new StrandedLocation(Strand.FORWARD, l));
-						model.addHighlight(l, Color.cyan, Strand.FORWARD);
-						fireTableDataChanged();
-
-					}
-
-				} while (lastPos[0] >= 0);
-			}
-
-			private void performNucleotideSearch() {
-				// byte[] byteSequence =
-				// model.getSelectedEntry().sequence().getSequence().toUpperCase().getBytes();
-				byte[] byteSequence = new BufferSeq(model.vlm.getSelectedEntry().sequence()).toString().toUpperCase()
-						.getBytes();
-
-				forwardSearch(byteSequence, 0);
-				reverseArray(byteSequence);
-				for (int i = 0; i < byteSequence.length; i++) {
-					byteSequence[i] = (byte) SequenceTools.complement((char) byteSequence[i]);
-				}
-				reverseSearch(byteSequence, 0);
-
-			}
-
-			private void reverseArray(byte[] array) {
-				if (array == null) {
-					return;
-				}
-				int i = 0;
-				int j = array.length - 1;
-				byte tmp;
-				while (j > i) {
-					tmp = array[j];
-					array[j] = array[i];
-					array[i] = tmp;
-					j--;
-					i++;
+						pos = som.searchBytes(text, pos, length, bytePattern, processed, mismatch)[0];
+					if (pos < 0 || pos >= limit)
+						break;
+					out.add(new int[] { pos, pos + bytePattern.length });
+					pos++;
 				}
 			}
+		};
+		Entry entry = model.vlm.getSelectedEntry();
+		AminoAcidMapping aamap = type == SequenceType.AminoAcid ? model.getAAMapping(entry) : null;
+		final int current = generation;
+		running = ChunkedSearch.search(entry.sequence(), aamap, finder, new ChunkedSearch.Listener() {
 
-			private void reverseSearch(byte[] byteSequence, int offset) {
-				BoyerMooreHorspoolRaita bm = new BoyerMooreHorspoolRaita();
-
-				ShiftOrMismatches som = new ShiftOrMismatches();
-				/* Search reverse strand */
-				int lastPos[] = { 0, 0 };
-				do {
-					if (mismatch == 0)
-						lastPos[0] = bm.searchBytes(byteSequence, lastPos[0], byteSequence.length, bytePattern);
-					else
-						lastPos = som.searchBytes(byteSequence, lastPos[0], byteSequence.length, bytePattern, mismatch);
-
-					if (lastPos[0] >= 0) {
-						Location l = null;
-						switch (type) {
-						case Nucleotide:
-							l = new Location(byteSequence.length - lastPos[0] + 1, byteSequence.length
-									- (lastPos[0] + bytePattern.length) + 1);
-							break;
-						case AminoAcid:
-							l = new Location(byteSequence.length * 3 - lastPos[0] * 3 + 2 - offset, byteSequence.length
-									* 3 - (lastPos[0] * 3 + bytePattern.length * 3) + 2 - offset);
-							break;
-
-						}
-
-						locations.add(new StrandedLocation(Strand.REVERSE, l));
-						model.addHighlight(l, Color.magenta, Strand.REVERSE);
-						lastPos[0]++;
-						fireTableDataChanged();
-
+			@Override
+			public void found(final List<Match> matches) {
+				SwingUtilities.invokeLater(new Runnable() {
+
+					@Override
+					public void run() {
+						if (generation != current)
+							return;
+						add(matches);
 					}
+				});
+			}
 
-				} while (lastPos[0] >= 0);
-
+			@Override
+			public void done() {
 			}
+		});
+	}
 
-		}).start();
+	/* Adds a batch of matches to the table and the highlights */
+	private void add(List<Match> matches) {
+		List<Location> forward = new ArrayList<Location>();
+		List<Location> reverse = new ArrayList<Location>();
+		int first = locations.size();
+		for (Match m : matches) {
+			locations.add(new StrandedLocation(m.strand, m.location));
+			if (m.strand == Strand.FORWARD)
+				forward.add(m.location);
+			else
+				reverse.add(m.location);
+		}
+		if (!forward.isEmpty())
+			model.addHighlights(forward, Color.cyan, Strand.FORWARD);
+		if (!reverse.isEmpty())
+			model.addHighlights(reverse, Color.magenta, Strand.REVERSE);
+		fireTableRowsInserted(first, locations.size() - 1);
 	}
 
 	Location getLocation(int index) {
@@ -280,6 +199,10 @@ class SequenceSearchResultModel extends AbstractSearchResultModel {
 
 	@Override
 	void clear() {
+		generation++;
+		if (running != null)
+			running.cancel(false);
+		running = null;
 		locations.clear();
 		fireTableDataChanged();
 
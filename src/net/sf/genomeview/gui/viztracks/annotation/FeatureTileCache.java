@@ -0,0 +1,454 @@
+/**
+ * %HEADER%
+ */
+package net.sf.genomeview.gui.viztracks.annotation;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.sf.genomeview.data.AnnotationModel.RegionUpdate;
+import net.sf.genomeview.data.GenomeViewScheduler;
+import net.sf.genomeview.data.Task;
+import net.sf.jannot.Location;
+import net.sf.jannot.Type;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.abeel.concurrency.DaemonThreadFactory;
+
+/**
+ * Pre-rendered image tiles of an annotation track.
+ *
+ * At every scale the genome is cut in tiles of a fixed number of pixels, so
+ * panning draws the tiles that were already rendered and only the tiles that
+ * scroll into view are new. Tiles are rendered on a background thread and the
+ * track is repainted when they are ready. Edits of the annotation only
+ * invalidate the tiles that depend on the edited region, those are drawn as
+ * they were until their replacement is ready.
+ *
+ * The style holds everything other than the scale that changes what a tile
+ * looks like, tiles of another style are not reused.
+ *
+ * Each cache is bounded in bytes, and all caches together share one budget
+ * that is set with {@link #setSharedMaxBytes(long)}. Both evict the least
+ * recently used tiles first, the shared budget across all tracks. A cache that
+ * is cleared keeps no tiles anymore.
+ *
+ * @author Thomas Abeel
+ *
+ */
+abstract class FeatureTileCache<S> implements Observer {
+
+	private static final Logger log = LoggerFactory.getLogger(FeatureTileCache.class.getCanonicalName());
+
+	static final int TILE_WIDTH = 256;
+
+	/* Pixel coordinates handed to Java2D are kept within this range */
+	private static final int CLAMP = 1 << 20;
+
+	private static final ExecutorService renderer = Executors.newFixedThreadPool(Runtime.getRuntime()
+			.availableProcessors(), new DaemonThreadFactory());
+
+	/**
+	 * A location that was drawn in a tile, in pixels relative to the top left
+	 * of the tile.
+	 */
+	static class Placed {
+		final Location location;
+		final Rectangle rect;
+
+		Placed(Location location, Rectangle rect) {
+			this.location = location;
+			this.rect = rect;
+		}
+	}
+
+	static class Tile {
+		final long index;
+		/* Null when there is nothing in the tile */
+		final BufferedImage image;
+		final int rows;
+		/* The genome region the content of this tile depends on */
+		final int from, to;
+		/* Ordered per feature, the locations of a feature are consecutive */
+		final List<Placed> placed;
+		volatile boolean stale = false;
+
+		Tile(long index, BufferedImage image, int rows, int from, int to, List<Placed> placed) {
+			this.index = index;
+			this.image = image;
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+			this.placed = placed;
+		}
+
+		int bytes() {
+			return 64 + (image == null ? 0 : image.getWidth() * image.getHeight() * 4) + placed.size() * 64;
+		}
+	}
+
+	private static final class Key {
+		private final double scale;
+		private final Object style;
+		private final long index;
+
+		Key(double scale, Object style, long index) {
+			this.scale = scale;
+			this.style = style;
+			this.index = index;
+		}
+
+		@Override
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(scale);
+			return (((int) (bits ^ (bits >>> 32))) * 31 + style.hashCode()) * 31 + (int) (index ^ (index >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return index == k.index && scale == k.scale && style.equals(k.style);
+		}
+	}
+
+	/* Where a tile in the shared budget is cached */
+	private static final class Owner {
+		private final WeakReference<FeatureTileCache<?>> cache;
+		private final Key key;
+
+		Owner(FeatureTileCache<?> cache, Key key) {
+			this.cache = new WeakReference<FeatureTileCache<?>>(cache);
+			this.key = key;
+		}
+	}
+
+	/* Tiles of all caches in least recently used order */
+	private static final LinkedHashMap<Tile, Owner> all = new LinkedHashMap<Tile, Owner>(64, 0.75f, true);
+	private static long sharedMaxBytes = 64L * 1024 * 1024;
+	private static long sharedBytes = 0;
+
+	/**
+	 * Sets the maximum size of the tiles of all caches together.
+	 */
+	static void setSharedMaxBytes(long max) {
+		synchronized (all) {
+			sharedMaxBytes = Math.max(0, max);
+		}
+		evictShared();
+	}
+
+	/**
+	 * @return size in bytes of the tiles of all caches
+	 */
+	static long sharedBytes() {
+		synchronized (all) {
+			return sharedBytes;
+		}
+	}
+
+	private final LinkedHashMap<Key, Tile> cache = new LinkedHashMap<Key, Tile>(64, 0.75f, true);
+	private long bytes = 0;
+	private final long maxBytes;
+	/* No tiles are added after the cache is cleared */
+	private boolean cleared = false;
+
+	/* Tiles that are queued or being rendered */
+	private final Set<Key> pending = new HashSet<Key>();
+	/* Tiles that are visible or right next to the visible ones */
+	private final Set<Key> wanted = new HashSet<Key>();
+	/* Incremented on every invalidation */
+	private int generation = 0;
+
+	FeatureTileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Renders a tile, called on a background thread.
+	 *
+	 * @return the tile, or null when it could not be rendered now
+	 */
+	protected abstract Tile render(long index, double scale, S style);
+
+	/**
+	 * Called on a background thread when tiles are ready to be painted.
+	 */
+	protected abstract void repaint();
+
+	/**
+	 * @return whether edits of this type change what is in the tiles
+	 */
+	protected abstract boolean shows(Type type);
+
+	/**
+	 * The pixel coordinate of a genome position at a scale, the left of the
+	 * genome is at 0.
+	 */
+	static long world(int pos, double scale) {
+		return (long) Math.floor(pos * scale);
+	}
+
+	/**
+	 * The pixel coordinate of a genome position relative to the left of a tile.
+	 */
+	static int local(int pos, double scale, long x0) {
+		return (int) Math.max(-CLAMP, Math.min(CLAMP, world(pos, scale) - x0));
+	}
+
+	/**
+	 * The genome position at a pixel coordinate.
+	 */
+	static int genome(long x, double scale) {
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.floor(x / scale)));
+	}
+
+	/**
+	 * The index of the tile that contains a pixel coordinate.
+	 */
+	static long tile(long x) {
+		return x >= 0 ? x / TILE_WIDTH : (x - TILE_WIDTH + 1) / TILE_WIDTH;
+	}
+
+	/**
+	 * Returns the tiles that cover the visible region, from left to right. The
+	 * first tile is painted at <code>first * TILE_WIDTH - world(visible.start,
+	 * scale)</code>. Tiles that are not ready yet are null, stale tiles are
+	 * returned and rendered again.
+	 */
+	synchronized Tile[] get(Location visible, double width, S style) {
+		double scale = width / visible.length();
+		long first = tile(world(visible.start, scale));
+		long last = tile(world(visible.end + 1, scale) - 1);
+		Tile[] out = new Tile[(int) (last - first + 1)];
+		wanted.clear();
+		/* One more tile on each side, to be ready for panning */
+		for (long i = first - 1; i <= last + 1; i++) {
+			Key k = new Key(scale, style, i);
+			wanted.add(k);
+			Tile t = cache.get(k);
+			if (t == null || t.stale)
+				schedule(k);
+			if (t != null) {
+				synchronized (all) {
+					all.get(t);
+				}
+			}
+			if (i >= first && i <= last)
+				out[(int) (i - first)] = t;
+		}
+		return out;
+	}
+
+	/**
+	 * The data source tiles are read from when it is slow to query, like an
+	 * indexed file. Tiles of such a source are fetched by the
+	 * {@link GenomeViewScheduler} on the queue of the source, otherwise they
+	 * are rendered on a pool of their own.
+	 *
+	 * @return the source, or null when it is in memory
+	 */
+	protected Object source() {
+		return null;
+	}
+
+	private void schedule(final Key k) {
+		if (!pending.add(k))
+			return;
+		final Runnable job = new Runnable() {
+
+			@Override
+			public void run() {
+				int started;
+				synchronized (FeatureTileCache.this) {
+					if (!wanted.contains(k)) {
+						pending.remove(k);
+						return;
+					}
+					started = generation;
+				}
+				Tile t = null;
+				try {
+					@SuppressWarnings("unchecked")
+					S style = (S) k.style;
+					t = render(k.index, k.scale, style);
+				} catch (RuntimeException e) {
+					/* Features were edited while we were drawing them */
+					log.debug("Could not render tile " + k.index, e);
+				}
+				synchronized (FeatureTileCache.this) {
+					pending.remove(k);
+					if (t == null || cleared)
+						return;
+					if (generation != started)
+						t.stale = true;
+					put(k, t);
+				}
+				evictShared();
+				repaint();
+			}
+
+		};
+		Object source = source();
+		if (source == null) {
+			renderer.submit(job);
+			return;
+		}
+		long x0 = k.index * TILE_WIDTH;
+		Location region = new Location(genome(x0, k.scale), genome(x0 + TILE_WIDTH, k.scale));
+		GenomeViewScheduler.submit(new Task(region, source) {
+
+			@Override
+			public void run() {
+				job.run();
+			}
+
+			/* Tiles that scrolled far away are requested again when needed */
+			@Override
+			public void cancel() {
+				if (!isAborted())
+					abort();
+				synchronized (FeatureTileCache.this) {
+					pending.remove(k);
+				}
+			}
+		});
+	}
+
+	private void put(Key k, Tile t) {
+		Tile old = cache.put(k, t);
+		if (old != null) {
+			bytes -= old.bytes();
+			unshare(old);
+		}
+		bytes += t.bytes();
+		synchronized (all) {
+			all.put(t, new Owner(this, k));
+			sharedBytes += t.bytes();
+		}
+		Iterator<Tile> it = cache.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Tile evicted = it.next();
+			bytes -= evicted.bytes();
+			it.remove();
+			unshare(evicted);
+		}
+	}
+
+	private static void unshare(Tile t) {
+		synchronized (all) {
+			if (all.remove(t) != null)
+				sharedBytes -= t.bytes();
+		}
+	}
+
+	/*
+	 * Removes the least recently used tiles of all caches until they fit in
+	 * the shared budget. The tiles are taken from the shared list first and
+	 * then from their caches, so no two locks of caches are held at once.
+	 */
+	private static void evictShared() {
+		List<Tile> tiles = new ArrayList<Tile>();
+		List<Owner> owners = new ArrayList<Owner>();
+		synchronized (all) {
+			Iterator<Map.Entry<Tile, Owner>> it = all.entrySet().iterator();
+			while (sharedBytes > sharedMaxBytes && it.hasNext()) {
+				Map.Entry<Tile, Owner> e = it.next();
+				sharedBytes -= e.getKey().bytes();
+				tiles.add(e.getKey());
+				owners.add(e.getValue());
+				it.remove();
+			}
+		}
+		for (int i = 0; i < tiles.size(); i++) {
+			FeatureTileCache<?> owner = owners.get(i).cache.get();
+			if (owner != null)
+				owner.drop(owners.get(i).key, tiles.get(i));
+		}
+	}
+
+	/* Removes a tile that was evicted from the shared budget */
+	private synchronized void drop(Key k, Tile t) {
+		if (cache.get(k) == t) {
+			cache.remove(k);
+			bytes -= t.bytes();
+		}
+	}
+
+	/**
+	 * Drops all tiles, tiles that are being rendered are not kept either.
+	 */
+	synchronized void clear() {
+		cleared = true;
+		for (Tile t : cache.values())
+			unshare(t);
+		cache.clear();
+		bytes = 0;
+		wanted.clear();
+	}
+
+	/**
+	 * Marks the tiles that depend on a genome region as stale.
+	 */
+	synchronized void invalidate(int start, int end) {
+		generation++;
+		for (Tile t : cache.values())
+			if (t.from <= end && t.to >= start)
+				t.stale = true;
+	}
+
+	synchronized void invalidateAll() {
+		generation++;
+		for (Tile t : cache.values())
+			t.stale = true;
+	}
+
+	synchronized int size() {
+		return cache.size();
+	}
+
+	@Override
+	public void update(Observable o, Object arg) {
+		if (arg instanceof RegionUpdate) {
+			RegionUpdate ru = (RegionUpdate) arg;
+			if (shows(ru.type))
+				invalidate(ru.start, ru.end);
+		} else if (arg instanceof Type) {
+			if (shows((Type) arg))
+				invalidateAll();
+		}
+	}
+
+	/**
+	 * Groups the placed locations of each feature, in the order they were
+	 * drawn.
+	 */
+	static List<List<Placed>> perFeature(List<Placed> placed) {
+		List<List<Placed>> out = new ArrayList<List<Placed>>();
+		List<Placed> current = null;
+		for (Placed p : placed) {
+			if (current == null || current.get(0).location.getParent() != p.location.getParent()) {
+				current = new ArrayList<Placed>();
+				out.add(current);
+			}
+			current.add(p);
+		}
+		return out;
+	}
+
+}
@@ -26,10 +26,15 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Observable;
@@ -53,11 +58,13 @@ import net.sf.genomeview.core.ColorGradient;
 import net.sf.genomeview.core.Colors;
 import net.sf.genomeview.core.Configuration;
 import net.sf.genomeview.data.Model;
+import net.sf.genomeview.data.provider.Status;
 import net.sf.genomeview.gui.Convert;
 import net.sf.genomeview.gui.MessageManager;
 import net.sf.genomeview.gui.Mouse;
 import net.sf.genomeview.gui.components.CollisionMap;
 import net.sf.genomeview.gui.components.DoubleJSlider;
+import net.sf.genomeview.gui.components.LineLayout;
 import net.sf.genomeview.gui.config.BooleanConfig;
 import net.sf.genomeview.gui.config.ColorConfig;
 import net.sf.genomeview.gui.viztracks.GeneEvidenceLabel.FillMode;
@@ -65,6 +72,7 @@ import net.sf.genomeview.gui.viztracks.Track;
 import net.sf.genomeview.gui.viztracks.TrackCommunicationModel;
 import net.sf.genomeview.gui.viztracks.TrackConfig;
 import net.sf.genomeview.gui.viztracks.annotation.FeatureTrack.FeatureTrackModel;
+import net.sf.jannot.Entry;
 import net.sf.jannot.Feature;
 import net.sf.jannot.FeatureAnnotation;
 import net.sf.jannot.Location;
@@ -290,6 +298,7 @@ public class FeatureTrack extends Track {
 	}
 
 	private CollisionMap hitmap;
+	private Tiles tiles;
 	final private FeatureTrackConfig ftc;
 	private FeatureTrackModel ftm;
 
@@ -311,9 +320,19 @@ public class FeatureTrack extends Track {
 		floatingWindow = new FeatureInfoWindow(ftc);
 
 		ftm = new FeatureTrackModel((FeatureAnnotation) entry.get(ftc.type()));
+		tiles = new Tiles();
+		model.annotationModel().addObserver(tiles);
 
 	}
 
+	/* The track is removed, it should not be kept alive by the annotation model */
+	@Override
+	public void clear() {
+		model.annotationModel().deleteObserver(tiles);
+		model.annotationModel().deleteObserver(ftm);
+		tiles.clear();
+	}
+
 	class FeatureTrackModel implements Observer {
 		private double minScore, maxScore;
 		private HashSet<String> qualifierKeys;
@@ -323,7 +342,7 @@ public class FeatureTrack extends Track {
 
 		}
 
-		private void init() {
+		private synchronized void init() {
 			minScore = Double.POSITIVE_INFINITY;
 			maxScore = Double.NEGATIVE_INFINITY;
 			qualifierKeys = new HashSet<String>();
@@ -336,7 +355,7 @@ public class FeatureTrack extends Track {
 
 		}
 
-		void update(Feature f) {
+		synchronized void update(Feature f) {
 			if (f.getScore() > maxScore)
 				maxScore = f.getScore();
 			if (f.getScore() < minScore)
@@ -344,39 +363,277 @@ public class FeatureTrack extends Track {
 			qualifierKeys.addAll(f.getQualifiersKeys());
 		}
 
-		public double getMaxScore() {
+		public synchronized double getMaxScore() {
 			return maxScore;
 		}
 
-		public double getMinScore() {
+		public synchronized double getMinScore() {
 			return minScore;
 		}
 
 		@Override
 		public void update(Observable o, Object arg) {
-			assert (arg instanceof Type);
-			if (ftc.type() == (Type) arg)
+			/* Region updates are handled by the tiles */
+			if (ftc.type() == arg)
 				init();
 
 		}
 
-		public Set<String> qualifierKeys() {
-			return qualifierKeys;
+		public synchronized boolean hasQualifier(String key) {
+			return qualifierKeys.contains(key);
+		}
+
+	}
+
+	/**
+	 * Everything besides the scale that changes how the features are drawn.
+	 */
+	private static final class FeatureStyle {
+		private final boolean collapsed, forceLabels, gradient;
+		private final int lineThickness, closenessOverlap;
+		private final double range, threshold;
+		private final Color color;
+
+		FeatureStyle(boolean collapsed, boolean forceLabels, boolean gradient, int lineThickness, int closenessOverlap,
+				double range, double threshold, Color color) {
+			this.collapsed = collapsed;
+			this.forceLabels = forceLabels;
+			this.gradient = gradient;
+			this.lineThickness = lineThickness;
+			this.closenessOverlap = closenessOverlap;
+			this.range = range;
+			this.threshold = threshold;
+			this.color = color;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(new Object[] { collapsed, forceLabels, gradient, lineThickness, closenessOverlap,
+					range, threshold, color });
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof FeatureStyle))
+				return false;
+			FeatureStyle s = (FeatureStyle) o;
+			return collapsed == s.collapsed && forceLabels == s.forceLabels && gradient == s.gradient
+					&& lineThickness == s.lineThickness && closenessOverlap == s.closenessOverlap
+					&& Double.compare(range, s.range) == 0 && Double.compare(threshold, s.threshold) == 0
+					&& color.equals(s.color);
+		}
+	}
+
+	/* Pixels left of a tile of which the features are drawn too, for labels */
+	private static final int MARGIN = 400;
+
+	/* The furthest to look left of a tile for a gap to start the layout */
+	private static final int MAX_LAYOUT = 32 * FeatureTileCache.TILE_WIDTH;
+
+	private static final Comparator<Feature> byStart = new Comparator<Feature>() {
+
+		@Override
+		public int compare(Feature o1, Feature o2) {
+			return o1.start() < o2.start() ? -1 : (o1.start() == o2.start() ? 0 : 1);
+		}
+	};
+
+	private class Tiles extends FeatureTileCache<FeatureStyle> {
+
+		Tiles() {
+			super(Configuration.getInt("track:tileCacheSize") * 1024L * 1024L);
+			setSharedMaxBytes(Configuration.getInt("track:tileCacheTotalSize") * 1024L * 1024L);
+		}
+
+		@Override
+		protected Tile render(long index, double scale, FeatureStyle style) {
+			return renderTile(index, scale, style);
+		}
+
+		@Override
+		protected void repaint() {
+			model.refresh();
+		}
+
+		@Override
+		protected boolean shows(Type type) {
+			return type == ftc.type();
+		}
+
+		/* Indexed files are read on the scheduler */
+		@Override
+		protected Object source() {
+			Object annot = entry.get(ftc.type());
+			return annot instanceof MemoryFeatureAnnotation ? null : annot;
 		}
+	}
 
+	private List<Feature> features(FeatureAnnotation annot, int start, int end, double threshold) {
+		List<Feature> out = new ArrayList<Feature>();
+		for (Feature rf : annot.get(start, end)) {
+			ftm.update(rf);
+			/* Skip feature that do not satisfy threshold filter */
+			if (rf.getScore() > threshold)
+				out.add(rf);
+		}
+		Collections.sort(out, byStart);
+		return out;
 	}
 
+	/**
+	 * Draws the features of one tile.
+	 * 
+	 * Features are put on the first line where they do not overlap with
+	 * features more to the left. To have every tile agree on the line of a
+	 * feature, the layout starts at the last place left of the tile where
+	 * no feature is, as if it was done for the whole sequence.
+	 */
+	private FeatureTileCache.Tile renderTile(long index, double scale, FeatureStyle style) {
+		FeatureAnnotation annot = (FeatureAnnotation) entry.get(ftc.type());
+		long x0 = index * FeatureTileCache.TILE_WIDTH;
+		long drawX = x0 - MARGIN;
+		int to = FeatureTileCache.genome(x0 + FeatureTileCache.TILE_WIDTH + MARGIN, scale) + 1;
+		int closeness = style.closenessOverlap;
+
+		List<Feature> list;
+		int from;
+		int gap = -1;
+		long margin = style.collapsed ? 0 : FeatureTileCache.TILE_WIDTH;
+		while (true) {
+			from = FeatureTileCache.genome(drawX - margin, scale);
+			list = features(annot, from, to, style.threshold);
+			if (style.collapsed) {
+				gap = 0;
+				break;
+			}
+			long maxEnd = FeatureTileCache.world(from, scale) + closeness;
+			int k = 0;
+			for (; k < list.size(); k++) {
+				Feature rf = list.get(k);
+				long rx = FeatureTileCache.world(rf.start(), scale) - closeness;
+				if (rx > drawX)
+					break;
+				if (maxEnd <= rx)
+					gap = k;
+				maxEnd = Math.max(maxEnd, FeatureTileCache.world(rf.end() + 1, scale) + closeness);
+			}
+			if (k == list.size() && maxEnd <= drawX)
+				gap = k;
+			if (gap >= 0 || margin >= MAX_LAYOUT)
+				break;
+			margin *= 2;
+		}
+		/* Very dense, lines may not match with the neighbouring tiles */
+		if (gap < 0)
+			gap = 0;
+
+		int lineThickness = style.lineThickness;
+		int[] line = new int[list.size()];
+		LineLayout layout = new LineLayout();
+		for (int k = gap; k < list.size(); k++) {
+			Feature rf = list.get(k);
+			long rx = FeatureTileCache.world(rf.start(), scale) - closeness;
+			long rEnd = FeatureTileCache.world(rf.end() + 1, scale) + closeness;
+			if (!style.collapsed)
+				line[k] = layout.add(rx, rEnd);
+		}
+		int lines = Math.max(1, layout.lines());
+
+		List<FeatureTileCache.Placed> placed = new ArrayList<FeatureTileCache.Placed>();
+		if (gap == list.size())
+			return new FeatureTileCache.Tile(index, null, lines, from, to, placed);
+
+		BufferedImage image = new BufferedImage(FeatureTileCache.TILE_WIDTH, lines * lineThickness,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		Font labelFont = new Font("SansSerif", Font.PLAIN, 10);
+		for (int k = gap; k < list.size(); k++) {
+			Feature rf = list.get(k);
+			int thisLine = line[k];
+
+			Color c = style.color;
+			String color = rf.getColor();
+			if (color != null) {
+				c = Colors.decodeColor(color);
+			}
+			if (style.gradient && style.range > 0.00001)
+				c = ftc.getColor(rf.getScore() / style.range);
+
+			g.setColor(c);
+			int x1 = FeatureTileCache.local(rf.start(), scale, x0);
+			int x2 = FeatureTileCache.local(rf.end() + 1, scale, x0);
+
+			Location[] loc = rf.location();
+
+			/* Draw rectangles that are the features */
+			ArrayList<Rectangle> rectList = new ArrayList<Rectangle>();
+			for (Location l : loc) {
+				int subX1 = FeatureTileCache.local(l.start(), scale, x0);
+				int subX2 = FeatureTileCache.local(l.end() + 1, scale, x0);
+				Rectangle rec = new Rectangle(subX1, thisLine * lineThickness, subX2 - subX1, lineThickness - 5);
+				placed.add(new FeatureTileCache.Placed(l, rec));
+				rectList.add(rec);
+			}
+
+			drawRects(g, rectList, FillMode.FILL);
+			g.setColor(c.darker());
+			drawRects(g, rectList, FillMode.DRAW);
+
+			/* Put triangle */
+			int trianglehalf = (lineThickness - 5) / 2;
+			switch (rf.strand()) {
+			case REVERSE:// reverse arrow
+				g.drawLine(x1, thisLine * lineThickness, x1 - trianglehalf, thisLine * lineThickness + trianglehalf);
+				g.drawLine(x1 - trianglehalf, thisLine * lineThickness + trianglehalf, x1, thisLine * lineThickness + lineThickness - 5);
+				break;
+			case FORWARD:// forward arrow
+				g.drawLine(x2, thisLine * lineThickness, x2 + trianglehalf, thisLine * lineThickness + trianglehalf);
+				g.drawLine(x2 + trianglehalf, thisLine * lineThickness + trianglehalf, x2, thisLine * lineThickness + lineThickness - 5);
+				break;
+			default:// do nothing
+				break;
+
+			}
+
+			/*
+			 * If the first location takes more than 100 px, we draw name of
+			 * the feature in it
+			 */
+			if (style.forceLabels || x2 - x1 > 100) {
+				int a = FeatureTileCache.local(loc[0].start(), scale, x0);
+				int b = FeatureTileCache.local(loc[0].end() + 1, scale, x0);
+				if (style.forceLabels || b - a > 100) {
+					g.setColor(c.darker().darker().darker());
+					g.setFont(labelFont);
+					g.drawString(FeatureUtils.displayName(rf), a + 5, thisLine * lineThickness + 9);
+				}
+
+			}
+		}
+		g.dispose();
+		return new FeatureTileCache.Tile(index, image, lines, from, to, placed);
+	}
+
+	/* Height of the track when none of the tiles is ready yet */
+	private int lastHeight = 0;
+
+	/*
+	 * The track as it was painted the last time all tiles were ready, painted
+	 * in place of the tiles that are still loading.
+	 */
+	private BufferedImage lastFrame = null;
+	private Location lastFrameLocation = null;
+	private Entry lastFrameEntry = null;
+	private double lastFrameScale;
+
 	@Override
 	public int paintTrack(Graphics2D g, int yOffset, double width, JViewport view, TrackCommunicationModel tcm) {
-		boolean forceLabels = Configuration.getBoolean("track:forceFeatureLabels");
-		boolean collision = false;
 		hitmap.clear();
 		Location visible = model.vlm.getAnnotationLocationVisible();
-		// List<Feature> types = entry.annotation.getByType(type,);
-		// FeatureAnnotation annot = entry.getAnnotation(type);
 		FeatureAnnotation annot = (FeatureAnnotation) entry.get(ftc.type());
+		model.annotationModel().watch(ftc.type(), annot);
 
-		if (ftm.qualifierKeys().contains("color") || ftm.qualifierKeys().contains("colour"))
+		if (ftm.hasQualifier("color") || ftm.hasQualifier("colour"))
 			ftc.setColorQualifierEnabled(true);
 		/* If there are proper scores, enable color gradient */
 		if (ftm.getMaxScore() - ftm.getMinScore() > 0.00001) {
@@ -389,153 +646,143 @@ public class FeatureTrack extends Track {
 		boolean manyFeature = false;
 		int estimate = annot.getEstimateCount(visible);
 		if (estimate > 25 * Configuration.getInt("annotationview:maximumNoVisibleFeatures")) {
-
 			g.setColor(Color.BLACK);
 			g.drawString(ftc.type() + ": " + MessageManager.getString("featuretrack.too_many_to_display_warn"), 10, yOffset + 10);
-			return 20 + 5;
+			paintDensity(g, annot, visible, yOffset + 14, width);
+			return 14 + DENSITY_HEIGHT + 5;
 		} else if (estimate > Configuration.getInt("annotationview:maximumNoVisibleFeatures")) {
 			manyFeature = true;
 		}
-		Iterable<Feature> list = annot.get(visible.start, visible.end);
-		g.translate(0, yOffset + 2);
-		CollisionMap fullBlockMap = new CollisionMap(model);
 
 		int lineThickness = Configuration.getInt("evidenceLineHeight");
-
+		FeatureStyle style = new FeatureStyle(config.isCollapsed() || manyFeature,
+				Configuration.getBoolean("track:forceFeatureLabels"), ftc.isScoreColorGradient(), lineThickness,
+				Configuration.getInt("closenessOverlap"), ftm.getMaxScore() - ftm.getMinScore(), ftc.getThreshold(),
+				Configuration.getColor("TYPE_" + ftc.type()));
+
+		double scale = width / visible.length();
+		long origin = FeatureTileCache.world(visible.start, scale);
+		FeatureTileCache.Tile[] row = tiles.get(visible, width, style);
+		if (lastFrameEntry != entry)
+			lastFrame = null;
+
+		Set<Location> selected = model.selectionModel().getLocationSelection();
+		g.translate(0, yOffset + 2);
 		int lines = 0;
-
-		for (Feature rf : list) {
-			// if(!(annot instanceof MemoryFeatureAnnotation))
-			ftm.update(rf);
-
-			/* Skip feature that do not satisfy threshold filter */
-			if (rf.getScore() <= ftc.getThreshold())
+		boolean ready = false;
+		List<Status> loading = new ArrayList<Status>();
+		for (int i = 0; i < row.length; i++) {
+			FeatureTileCache.Tile t = row[i];
+			if (t == null) {
+				long x0 = (FeatureTileCache.tile(origin) + i) * FeatureTileCache.TILE_WIDTH;
+				paintLastFrame(g, (int) (x0 - origin), scale, origin);
+				loading.add(new Status(false, true, false, FeatureTileCache.genome(x0, scale), FeatureTileCache.genome(x0
+						+ FeatureTileCache.TILE_WIDTH, scale)));
 				continue;
-			int thisLine = 0;
-
-			Color c = Configuration.getColor("TYPE_" + rf.type());
-			// if (ftc.isColorQualifier() && rf.getColor() != null) {
-			String color = rf.getColor();
-			if (color != null) {
-				c = Colors.decodeColor(color);
 			}
-			// }
-			if (ftc.isScoreColorGradient()) {
-				double range = ftm.getMaxScore() - ftm.getMinScore();
-				if (range > 0.00001)
-					c = ftc.getColor(rf.getScore() / range);
-			}
-
-			g.setColor(c);
-			int x1 = Convert.translateGenomeToScreen(rf.start(), model.vlm.getAnnotationLocationVisible(), width);
-			int x2 = Convert.translateGenomeToScreen(rf.end() + 1, model.vlm.getAnnotationLocationVisible(), width);
-
-			// TODO is this not always the case?
-			if (x2 > 0) {
-
-				int maxX = x2;
-
-				/*
-				 * How close can items be together before they are considered
-				 * overlapping?
-				 */
-				int closenessOverlap = Configuration.getInt("closenessOverlap");
-				Rectangle r = new Rectangle(x1 - closenessOverlap, thisLine * lineThickness, maxX - x1 + 2 * closenessOverlap, lineThickness);
-
-				if (!config.isCollapsed() && !manyFeature) {
-					// only when the blocks should be tiled, do we need to
-					// determine an empty place.
-					if (!collision)
-						collision = fullBlockMap.collision(r);
-					while (fullBlockMap.collision(r)) {
-						thisLine++;
-
-						if (thisLine > lines)
-							lines = thisLine;
-						r = new Rectangle(x1 - closenessOverlap, thisLine * lineThickness, maxX - x1 + 2 * closenessOverlap, lineThickness);
-					}
-				}
-				fullBlockMap.addLocation(r, null);
-				/*
-				 * Create one or more rectangles, in order not to have to
-				 * reproduce them on every drawing occasion. Make sure they are
-				 * ordered from left to right.
-				 */
-				Location[] loc = rf.location();
-
-				/* Draw rectangles that are the features */
+			ready = true;
+			lines = Math.max(lines, t.rows);
+			int x = (int) (t.index * FeatureTileCache.TILE_WIDTH - origin);
+			if (t.image != null)
+				g.drawImage(t.image, x, 0, null);
+			for (List<FeatureTileCache.Placed> feature : FeatureTileCache.perFeature(t.placed)) {
 				ArrayList<Rectangle> rectList = new ArrayList<Rectangle>();
-				for (Location l : loc) {
-
-					int subX1 = Convert.translateGenomeToScreen(l.start(), model.vlm.getAnnotationLocationVisible(), width);
-					int subX2 = Convert.translateGenomeToScreen(l.end() + 1, model.vlm.getAnnotationLocationVisible(), width);
-					Rectangle rec = new Rectangle(subX1, thisLine * lineThickness, subX2 - subX1, lineThickness - 5);
+				boolean isSelected = false;
+				for (FeatureTileCache.Placed p : feature) {
+					Rectangle r = new Rectangle(p.rect);
+					r.translate(x, 0);
 					/* Add this rectangle to the location hits */
-					hitmap.addLocation(rec, l);
-					rectList.add(rec);
-
-				}
-
-				drawRects(g, rectList, FillMode.FILL);
-				Color backColor = g.getColor();
-				g.setColor(g.getColor().darker());
-				drawRects(g, rectList, FillMode.DRAW);
-
-				/* Put triangle */
-				int trianglehalf = (lineThickness - 5) / 2;
-				switch (rf.strand()) {
-				case REVERSE:// reverse arrow
-					g.drawLine(x1, thisLine * lineThickness, x1 - trianglehalf, thisLine * lineThickness + trianglehalf);
-					g.drawLine(x1 - trianglehalf, thisLine * lineThickness + trianglehalf, x1, thisLine * lineThickness + lineThickness - 5);
-					break;
-				case FORWARD:// forward arrow
-					g.drawLine(x2, thisLine * lineThickness, x2 + trianglehalf, thisLine * lineThickness + trianglehalf);
-					g.drawLine(x2 + trianglehalf, thisLine * lineThickness + trianglehalf, x2, thisLine * lineThickness + lineThickness - 5);
-					break;
-				default:// do nothing
-					break;
-
+					hitmap.addLocation(r, p.location);
+					rectList.add(r);
+					isSelected |= selected.contains(p.location);
 				}
-
-				g.setColor(backColor);
-
-				// Set<Feature> selected = model.getFeatureSelection();
-				Set<Location> intersection = new HashSet<Location>();
-				for (Location l : loc)
-					intersection.add(l);
-				intersection.retainAll(model.selectionModel().getLocationSelection());
-
-				if (intersection.size() > 0) {
+				if (isSelected) {
 					g.setColor(Color.BLACK);
 					drawRects(g, rectList, FillMode.DRAW);
-
 				}
+			}
+		}
+		g.translate(0, -yOffset - 2);
 
-				/*
-				 * If the first location takes more than 50 px, we draw name of
-				 * the feature in it
-				 */
-				if (forceLabels || x2 - x1 > 100) {
-					int a = Convert.translateGenomeToScreen(loc[0].start(), model.vlm.getAnnotationLocationVisible(), width);
-					int b = Convert.translateGenomeToScreen(loc[0].end() + 1, model.vlm.getAnnotationLocationVisible(), width);
-					if (forceLabels || b - a > 100) {
-						Font resetFont = g.getFont();
-						g.setColor(c.darker().darker().darker());
-						g.setFont(new Font("SansSerif", Font.PLAIN, 10));
-						g.drawString(FeatureUtils.displayName(rf), a + 5, thisLine * lineThickness + 9);
-						g.setFont(resetFont);
-					}
+		if (ready)
+			lastHeight = lines * lineThickness + 4;
+		int height = lastHeight > 0 ? lastHeight : lineThickness + 4;
+		if (loading.isEmpty() && movedFrom(visible, scale, origin, width))
+			keepFrame(row, visible, width, origin, lines * lineThickness);
+		else if (tiles.source() != null)
+			paintStatus(g, loading, yOffset, height, visible, width);
+		return height;
 
-				}
+	}
 
-			}
+	private static final int DENSITY_HEIGHT = 10;
+
+	/*
+	 * Heat map of the number of features per few pixels, for views that have
+	 * too many features to draw.
+	 */
+	private void paintDensity(Graphics2D g, FeatureAnnotation annot, Location visible, int y, double width) {
+		int parts = Math.max(1, (int) width / 2);
+		float[] density = annot.getDensity(visible, parts);
+		float max = 0;
+		for (float d : density)
+			max = Math.max(max, d);
+		if (max <= 0)
+			return;
+		Color c = Configuration.getColor("TYPE_" + ftc.type());
+		for (int i = 0; i < parts; i++) {
+			if (density[i] <= 0)
+				continue;
+			/* Square root to still see regions with few features */
+			int alpha = 40 + (int) (215 * Math.sqrt(density[i] / max));
+			g.setColor(new Color(c.getRed(), c.getGreen(), c.getBlue(), alpha));
+			int x1 = (int) (i * width / parts);
+			int x2 = (int) ((i + 1) * width / parts);
+			g.fillRect(x1, y, x2 - x1, DENSITY_HEIGHT);
 		}
+	}
 
-		g.translate(0, -yOffset - 2);
-		return (lines + 1) * lineThickness + 4;
+	/* Draws the last complete frame in the place of a tile that is not ready */
+	private void paintLastFrame(Graphics2D g, int x, double scale, long origin) {
+		if (lastFrame == null)
+			return;
+		Shape clip = g.getClip();
+		g.clipRect(x, 0, FeatureTileCache.TILE_WIDTH, lastFrame.getHeight());
+		/* The frame is stretched to the current scale */
+		int x1 = (int) (FeatureTileCache.world(lastFrameLocation.start, scale) - origin);
+		int x2 = x1 + (int) (lastFrame.getWidth() * scale / lastFrameScale);
+		g.drawImage(lastFrame, x1, 0, x2, lastFrame.getHeight(), 0, 0, lastFrame.getWidth(), lastFrame.getHeight(),
+				null);
+		g.setClip(clip);
+	}
 
-		// }
+	/*
+	 * Whether the view changed enough to keep a new frame, not on every step
+	 * of panning.
+	 */
+	private boolean movedFrom(Location visible, double scale, long origin, double width) {
+		if (lastFrame == null || lastFrameEntry != entry)
+			return true;
+		if (scale != lastFrameScale)
+			return true;
+		return Math.abs(FeatureTileCache.world(lastFrameLocation.start, scale) - origin) > width / 2;
+	}
 
+	private void keepFrame(FeatureTileCache.Tile[] row, Location visible, double width, long origin, int height) {
+		if (width < 1 || height < 1) {
+			lastFrame = null;
+			return;
+		}
+		BufferedImage frame = new BufferedImage((int) width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = frame.createGraphics();
+		for (FeatureTileCache.Tile t : row)
+			if (t.image != null)
+				g.drawImage(t.image, (int) (t.index * FeatureTileCache.TILE_WIDTH - origin), 0, null);
+		g.dispose();
+		lastFrame = frame;
+		lastFrameLocation = visible;
+		lastFrameEntry = entry;
+		lastFrameScale = width / visible.length();
 	}
 
 	/**
@@ -29,8 +29,11 @@ import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.font.GlyphVector;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 import javax.swing.JViewport;
 
@@ -45,6 +48,7 @@ import net.sf.genomeview.gui.Mouse;
 import net.sf.genomeview.gui.components.CollisionMap;
 import net.sf.genomeview.gui.viztracks.Track;
 import net.sf.genomeview.gui.viztracks.TrackCommunicationModel;
+import net.sf.jannot.Entry;
 import net.sf.jannot.Feature;
 import net.sf.jannot.FeatureAnnotation;
 import net.sf.jannot.Location;
@@ -73,6 +77,8 @@ public class StructureTrack extends Track {
 
 		collisionMap = new CollisionMap(model);
 		stm = (StructureTrackModel) config;
+		tiles = new Tiles();
+		model.annotationModel().addObserver(tiles);
 		// this.addMouseListener(this);
 		// this.addMouseMotionListener(this);
 		// model.addObserver(this);
@@ -428,13 +434,13 @@ public class StructureTrack extends Track {
 
 			// char aa;
 			char aa;
-			String codon;
+			boolean start;
 			if (forward) {
 				aa = bs.getAminoAcid(i, model.getAAMapping());
-				codon = bs.getCodon(i);
+				start = bs.isStart(i, model.getAAMapping());
 			} else {
 				aa = bs.getReverseAminoAcid(i, model.getAAMapping());
-				codon = bs.getReverseCodon(i);
+				start = bs.isReverseStart(i, model.getAAMapping());
 			}
 
 			/* draw amino acid box */
@@ -453,10 +459,10 @@ public class StructureTrack extends Track {
 				g.fillRect(x, y + yOffset, aa_width == 0 ? 1 : aa_width, lineHeight);
 			}
 
-			if (Configuration.getBoolean("colorStartCodons") && model.getAAMapping().isStart(codon)) {
+			if (Configuration.getBoolean("colorStartCodons") && start) {
 				g.setColor(Configuration.getAminoAcidColor('M'));
 				if (!Configuration.getBoolean("general:onlyMethionineAsStart")
-						|| model.getAAMapping().get(codon) == 'M')
+						|| aa == 'M')
 					g.fillRect(x, y + yOffset, aa_width == 0 ? 1 : aa_width, lineHeight);
 			}
 
@@ -503,27 +509,139 @@ public class StructureTrack extends Track {
 
 	}
 
+	/**
+	 * Everything besides the scale that changes how the CDS are drawn.
+	 */
+	private static final class CDSStyle {
+		private final Entry entry;
+		private final List<Type> types;
+		private final Color color;
+
+		CDSStyle(Entry entry, List<Type> types, Color color) {
+			this.entry = entry;
+			this.types = types;
+			this.color = color;
+		}
+
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(entry) * 31 + types.hashCode()) * 31 + color.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof CDSStyle))
+				return false;
+			CDSStyle s = (CDSStyle) o;
+			return entry == s.entry && types.equals(s.types) && color.equals(s.color);
+		}
+	}
+
+	private class Tiles extends FeatureTileCache<CDSStyle> {
+
+		Tiles() {
+			super(Configuration.getInt("track:tileCacheSize") * 1024L * 1024L);
+		}
+
+		@Override
+		protected Tile render(long index, double scale, CDSStyle style) {
+			return renderTile(index, scale, style);
+		}
+
+		@Override
+		protected void repaint() {
+			model.refresh();
+		}
+
+		@Override
+		protected boolean shows(Type type) {
+			return true;
+		}
+	}
+
+	private Tiles tiles;
+
+	private FeatureTileCache.Tile renderTile(long index, double scale, CDSStyle style) {
+		long x0 = index * FeatureTileCache.TILE_WIDTH;
+		/* Lines between the boxes can cross the whole tile */
+		int from = FeatureTileCache.genome(x0 - 1, scale);
+		int to = FeatureTileCache.genome(x0 + FeatureTileCache.TILE_WIDTH + 1, scale) + 1;
+		List<FeatureTileCache.Placed> placed = new ArrayList<FeatureTileCache.Placed>();
+		BufferedImage image = null;
+		Graphics2D g = null;
+		for (Type type : style.types) {
+			FeatureAnnotation annot = (FeatureAnnotation) style.entry.get(type);
+			if (annot == null)
+				continue;
+			for (Feature rf : annot.get(from, to)) {
+				if (image == null) {
+					image = new BufferedImage(FeatureTileCache.TILE_WIDTH, 8 * lineHeight + tickHeight,
+							BufferedImage.TYPE_INT_ARGB);
+					g = image.createGraphics();
+				}
+				renderCDS(g, rf, scale, x0, style.color, placed);
+			}
+		}
+		if (g != null)
+			g.dispose();
+		return new FeatureTileCache.Tile(index, image, 1, from, to, placed);
+	}
+
 	private void paintCDS(Graphics2D g, int yOffset) {
 		int y = lineHeight - 2;
+		Location l = model.vlm.getAnnotationLocationVisible();
+		List<Type> types = new ArrayList<Type>();
 		for (Type type : Type.values()) {
 			if (stm.isTypeVisible(type)) {
-				Location l = model.vlm.getAnnotationLocationVisible();
-				FeatureAnnotation annot = (FeatureAnnotation) model.vlm.getSelectedEntry().get(type);
+				FeatureAnnotation annot = (FeatureAnnotation) entry.get(type);
 				if (annot != null) {
-					Iterable<Feature> trackData = annot.get(l.start, l.end);
+					model.annotationModel().watch(type, annot);
 					if (annot.getEstimateCount(l) <= Configuration.getInt("structureview:maximumNoVisibleFeatures")) {
-						for (Feature rf : trackData) {
-							g.setColor(Color.BLACK);
-							renderCDS(g, rf, yOffset);
-
-						}
+						types.add(type);
 					} else {
+						g.setColor(Color.BLACK);
 						g.drawString(type + ": Too many structures to paint, please zoom in", 2, yOffset+y+3*lineHeight);
 						y += lineHeight;
 					}
 				}
 			}
 		}
+		if (types.isEmpty())
+			return;
+
+		double scale = screenWidth / l.length();
+		long origin = FeatureTileCache.world(l.start, scale);
+		FeatureTileCache.Tile[] row = tiles.get(l, screenWidth, new CDSStyle(entry, types, Configuration.getColor("TYPE_CDS")));
+		Set<Location> selectedLocations = model.selectionModel().getLocationSelection();
+		Set<Feature> selectedFeatures = model.selectionModel().getFeatureSelection();
+		for (FeatureTileCache.Tile t : row) {
+			if (t == null)
+				continue;
+			int x = (int) (t.index * FeatureTileCache.TILE_WIDTH - origin);
+			if (t.image != null)
+				g.drawImage(t.image, x, yOffset, null);
+			for (FeatureTileCache.Placed p : t.placed) {
+				Rectangle r = new Rectangle(p.rect);
+				r.translate(x, 0);
+				collisionMap.addLocation(r, p.location);
+				/* Selected locations have bold outline and orange background */
+				if (selectedLocations.contains(p.location)) {
+					r.translate(0, yOffset);
+					g.setStroke(new BasicStroke(2.0f));
+					g.setColor(Color.BLACK);
+					g.draw(r);
+					g.setStroke(new BasicStroke(1.0f));
+					g.setColor(new Color(1f, 0.5f, 0, 0.5f));
+					g.fill(r);
+				}
+				/* Selected features have colored background */
+				else if (selectedFeatures.contains(p.location.getParent())) {
+					r.translate(0, yOffset);
+					g.setColor(new Color(0, 0, 1, 0.5f));
+					g.fill(r);
+				}
+			}
+		}
 
 	}
 
@@ -551,21 +669,23 @@ public class StructureTrack extends Track {
 	 * | reverse frame 2       |
 	 * +-----------------------+
 	 * </code>
+	 * 
+	 * Selections are drawn on top of the tiles by paintCDS.
 	 */
-	private void renderCDS(Graphics2D g, Feature rf, int yOffset) {
+	private void renderCDS(Graphics2D g, Feature rf, double scale, long x0, Color cdsColor,
+			List<FeatureTileCache.Placed> placed) {
 		int middle = 4 * lineHeight + tickHeight / 2;
-		boolean featureSelected = model.selectionModel().getFeatureSelection().contains(rf);
+		Color fill = new Color(cdsColor.getRed(), cdsColor.getGreen(), cdsColor.getBlue(), 20);
 		Location last = null;
 		int lastY = 0;
-		// for (Location l : rf.location()) {
-
-		for (int i = 0; i < rf.location().length; i++) {
-			Location l = rf.location()[i];
+		Location[] locations = rf.location();
+		for (int i = 0; i < locations.length; i++) {
+			Location l = locations[i];
 			int drawFrame = getDrawFrame(i, l, rf);
 			/* Start of the block */
-			int lmin = Convert.translateGenomeToScreen(l.start(), model.vlm.getAnnotationLocationVisible(), screenWidth);
+			int lmin = FeatureTileCache.local(l.start(), scale, x0);
 			/* End of the block */
-			int lmax = Convert.translateGenomeToScreen(l.end() + 1, model.vlm.getAnnotationLocationVisible(), screenWidth);
+			int lmax = FeatureTileCache.local(l.end() + 1, scale, x0);
 			/* Horizontal position */
 			int hor;
 			if (rf.strand() == Strand.REVERSE)
@@ -574,44 +694,24 @@ public class StructureTrack extends Track {
 				hor = middle - lineHeight - (drawFrame * lineHeight) - tickHeight / 2;
 			int height = lineHeight;
 			/* Create box */
-			Rectangle r = new Rectangle(lmin, hor + yOffset, lmax - lmin, height);
+			Rectangle r = new Rectangle(lmin, hor, lmax - lmin, height);
 			/* Draw box */
-			Color cdsColor = Configuration.getColor("TYPE_CDS");
-			g.setColor(new Color(cdsColor.getRed(), cdsColor.getGreen(), cdsColor.getBlue(), 20));
+			g.setColor(fill);
 			g.fill(r);
 			/* Draw black box outline */
 			g.setColor(Color.BLACK);
 			g.draw(r);
-			boolean locationSelected = model.selectionModel().getLocationSelection().contains(l);
-			/* Selected locations have bold outline and orange background */
-			if (locationSelected) {
-				g.setStroke(new BasicStroke(2.0f));
-				g.setColor(Color.BLACK);
-				g.draw(r);
-				g.setStroke(new BasicStroke(1.0f));
-				g.setColor(new Color(1f, 0.5f, 0, 0.5f));
-				g.fill(r);
-			}
-			/* Selected features have colored background */
-			else if (featureSelected) {
-				g.setColor(new Color(0, 0, 1, 0.5f));
-				g.fill(r);
-			}
 			/* Draw line between boxes */
 			if (last != null) {
-				int lastX = Convert.translateGenomeToScreen(last.end() + 1, model.vlm.getAnnotationLocationVisible(),
-						screenWidth);
-				int currentX = Convert.translateGenomeToScreen(l.start(), model.vlm.getAnnotationLocationVisible(),
-						screenWidth);
+				int lastX = FeatureTileCache.local(last.end() + 1, scale, x0);
+				int currentX = FeatureTileCache.local(l.start(), scale, x0);
 				int currentY = hor + height / 2;
 				int maxY = Math.min(currentY, lastY) - height / 2;
 				int middleX = (lastX + currentX) / 2;
-				g.setColor(Color.BLACK);
-				g.drawLine(lastX, lastY + yOffset, middleX, maxY + yOffset);
-				g.drawLine(middleX, maxY + yOffset, currentX, currentY + yOffset);
+				g.drawLine(lastX, lastY, middleX, maxY);
+				g.drawLine(middleX, maxY, currentX, currentY);
 			}
-			r.y -= yOffset;
-			collisionMap.addLocation(r, l);
+			placed.add(new FeatureTileCache.Placed(l, r));
 			last = l;
 			lastY = hor + height / 2;
 		}
@@ -310,14 +310,8 @@ public class MultipleAlignmentTrack2 extends Track {
 					// char[] ref =
 					// entry.sequence().getSubSequence(visible.start,
 					// visible.end + 1).toCharArray();
-					Iterable<Character> bufferedSeq = entry.sequence().get(visible.start, visible.end + 1);
-
 					ref = new char[visible.length()];
-
-					int idx = 0;
-					for (char c : bufferedSeq) {
-						ref[idx++] = c;
-					}
+					entry.sequence().get(visible.start, visible.end + 1, ref, 0);
 				}
 
 				int line = 1;
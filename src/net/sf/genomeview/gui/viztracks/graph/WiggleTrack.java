@@ -7,6 +7,7 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.geom.GeneralPath;
 import org.slf4j.Logger;
@@ -18,6 +19,7 @@ import javax.swing.JLabel;
 import javax.swing.JPopupMenu;
 import javax.swing.JViewport;
 import javax.swing.JWindow;
+import javax.swing.Timer;
 import javax.swing.border.Border;
 
 import net.sf.genomeview.core.Colors;
@@ -29,6 +31,7 @@ import net.sf.genomeview.gui.viztracks.Track;
 import net.sf.genomeview.gui.viztracks.TrackCommunicationModel;
 import net.sf.jannot.DataKey;
 import net.sf.jannot.Location;
+import net.sf.jannot.wiggle.Envelope;
 import net.sf.jannot.wiggle.Graph;
 
 /**
@@ -162,6 +165,7 @@ public class WiggleTrack extends Track {
 	public WiggleTrack(DataKey key, Model model, boolean b) {
 		super(key, model, b, true);
 		// this.name = name;
+		repainter.setRepeats(false);
 	}
 
 	// public WiggleTrack(DataKey key, Data data) {
@@ -187,6 +191,14 @@ public class WiggleTrack extends Track {
 	private int plotType = 0;
 	private double screenWidth;
 
+	private final Timer repainter = new Timer(250, new ActionListener() {
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			model.refresh();
+		}
+	});
+
 	@Override
 	public int paintTrack(Graphics2D g, int yOffset, double screenWidth,
 			JViewport view,TrackCommunicationModel tcm) {
@@ -223,32 +235,26 @@ public class WiggleTrack extends Track {
 				scaleIndex++;
 			}
 
-			int start = currentVisible.start / scale * scale;
+			/* Zero based and aligned on the bins of the graph */
+			int start = (currentVisible.start - 1) / scale * scale;
 			int end = ((currentVisible.end / scale) + 1) * scale;
 
-			float[] f = graph.get(start - 1, end, scaleIndex);
+			Envelope envelope = graph.getEnvelope(start, end, scaleIndex);
+			/* Paint again when the graph has been summarized */
+			if (envelope.isPartial())
+				repainter.restart();
+			float[] f = envelope.mean;
+
+			/* Range of the values in each bin, behind the line of the means */
+			if (scale > 1 && plotType == 0 && !config.isCollapsed())
+				paintEnvelope(g, envelope, start, scale, yOffset, graphLineHeigh, min, max);
 
 			int lastX = 0;
 			GeneralPath conservationGP = new GeneralPath();
 			for (int i = 0; i < f.length; i++) {
-				int x = Convert.translateGenomeToScreen(start + i * scale,
+				int x = Convert.translateGenomeToScreen(start + 1 + i * scale,
 						currentVisible, screenWidth);
-				double val = f[i];
-
-				if (val > graph.max())
-					val = graph.max();
-
-				if (logScaled) {
-					double logrange = log2(max + 1)
-							- log2(min + 1);
-					val -= log2(min + 1);
-					val = log2(val + 1);
-					val /= logrange;
-				} else {
-					double range = max - min;
-					val -= min;
-					val /= range;
-				}
+				double val = normalize(f[i], min, max);
 
 				if (!config.isCollapsed()) {
 					/* Draw lines */
@@ -287,4 +293,47 @@ public class WiggleTrack extends Track {
 		return graphLineHeigh;
 
 	}
+
+	/* Scales a value to [0,1], values above the maximum are cut off */
+	private double normalize(double val, double min, double max) {
+		if (val > max)
+			val = max;
+		if (logScaled) {
+			double logrange = log2(max + 1) - log2(min + 1);
+			val -= log2(min + 1);
+			val = log2(val + 1);
+			val /= logrange;
+		} else {
+			double range = max - min;
+			val -= min;
+			val /= range;
+		}
+		return val;
+	}
+
+	private static final Color ENVELOPE = new Color(0, 0, 0, 50);
+
+	/* Fills the area between the minimum and maximum of every bin */
+	private void paintEnvelope(Graphics2D g, Envelope envelope, int start, int scale, int yOffset, int height,
+			double min, double max) {
+		int n = envelope.size();
+		if (n == 0)
+			return;
+		GeneralPath gp = new GeneralPath();
+		for (int i = 0; i < n; i++) {
+			int x = Convert.translateGenomeToScreen(start + 1 + i * scale, currentVisible, screenWidth);
+			double y = yOffset + (1 - normalize(envelope.max[i], min, max)) * (height - 4) + 2;
+			if (i == 0)
+				gp.moveTo(x, y);
+			else
+				gp.lineTo(x, y);
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			int x = Convert.translateGenomeToScreen(start + 1 + i * scale, currentVisible, screenWidth);
+			gp.lineTo(x, yOffset + (1 - normalize(envelope.min[i], min, max)) * (height - 4) + 2);
+		}
+		gp.closePath();
+		g.setColor(ENVELOPE);
+		g.fill(gp);
+	}
 }
@@ -24,7 +24,7 @@ import net.sf.genomeview.data.provider.Status;
 import net.sf.genomeview.gui.Convert;
 import net.sf.genomeview.gui.MessageManager;
 import net.sf.jannot.Location;
-import net.sf.jannot.pileup.Pile;
+import net.sf.jannot.pileup.PileBlock;
 import net.sf.jannot.refseq.Sequence;
 import net.sf.jannot.tdf.ReadType;
 
@@ -33,7 +33,7 @@ import net.sf.jannot.tdf.ReadType;
  * @author Thomas Abeel
  * 
  */
-class BarChartBuffer implements VizBuffer, DataCallback<Pile> {
+class BarChartBuffer implements VizBuffer, DataCallback<PileBlock> {
 	/* Data for pileupgraph barchart */
 	private double[][] detailedRects = null;
 
@@ -65,18 +65,17 @@ class BarChartBuffer implements VizBuffer, DataCallback<Pile> {
 		// System.out.println("Halt!");
 	}
 
-	private void initArray(Pile p, int length) {
+	private void initArray(PileBlock pb, int length) {
 		if (visible.length() < MAX_WIDTH) {
 			exact = true;
-			detailedRects = new double[p.getValueCount()][visible.length()];
+			detailedRects = new double[pb.valueCount()][visible.length()];
 		} else {
-			detailedRects = new double[p.getValueCount()][(int) MAX_WIDTH];
+			detailedRects = new double[pb.valueCount()][(int) MAX_WIDTH];
 		}
 
 	}
 
-	private void count(NucCounter nc, Pile p, Location visible) {
-		byte[] reads = p.getBases();
+	private void count(NucCounter nc, byte[] reads, int start, Location visible) {
 		for (int i = 0; i < reads.length; i++) {
 			try {
 				char c = (char) reads[i];
@@ -90,7 +89,7 @@ class BarChartBuffer implements VizBuffer, DataCallback<Pile> {
 				}
 				/* Might have jumped past the end */
 				if (i < reads.length) {
-					nc.count((char) reads[i], p.start() - visible.start);
+					nc.count((char) reads[i], start - visible.start);
 				}
 			} catch (NumberFormatException ne) {
 				log.warn( "Pileup parser failed on line: " + new String(reads), ne);
@@ -615,7 +614,7 @@ class BarChartBuffer implements VizBuffer, DataCallback<Pile> {
 	}
 
 	@Override
-	public void dataReady(Location dataLocation, List<Pile> itt) {
+	public void dataReady(Location dataLocation, List<PileBlock> itt) {
 		// FIXME add check on dataLocation to make sure this is the right data
 		double factor = MAX_WIDTH / visible.length();
 		if (exact)
@@ -627,74 +626,74 @@ class BarChartBuffer implements VizBuffer, DataCallback<Pile> {
 		else
 			nc = null;
 
-		for (Pile p : new NoFailIterable<Pile>(itt)) {
-			if (p == null) {
-				System.out.println("Null pile");
+		double[] norm = null;
+		if (ptm.isNormalizationAvailable() && ptm.isNormalizeMean())
+			norm = ptm.normalizationEngine.value();
+
+		for (PileBlock pb : new NoFailIterable<PileBlock>(itt)) {
+			if (pb == null) {
+				log.debug("Null pile block");
 				continue;
 			}
+			if (pb.size() == 0)
+				continue;
 			if (detailedRects == null)
-				initArray(p, visible.length());
+				initArray(pb, visible.length());
 
-			if (p.start() + p.getLength() < visible.start || p.start() > visible.end) {
+			int[] starts = pb.starts();
+			int[] lengths = pb.lengths();
+			int valueCount = Math.min(pb.valueCount(), detailedRects.length);
+			for (int k = 0; k < pb.size(); k++) {
+				int startPos = starts[k];
+				int endPos = startPos + lengths[k];
+				if (endPos < visible.start || startPos > visible.end) {
 
-				continue;
-			}
+					continue;
+				}
 
-			if (nc != null && p.getBases() != null) {
-				count(nc, p, visible);
+				if (nc != null && pb.bases(k) != null) {
+					count(nc, pb.bases(k), startPos, visible);
 
-			}
+				}
 
-			pileWidth = p.getLength();
-			int startPos = p.start();
-			int endPos = p.end();
+				pileWidth = lengths[k];
 
-			int startIdx = (int) ((startPos - visible.start) * factor);
-			int endIdx = (int) ((endPos - visible.start) * factor);
-			if (exact) {
-				startIdx = startPos - visible.start;
-				endIdx = endPos - visible.start;
-			}
+				int startIdx = (int) ((startPos - visible.start) * factor);
+				int endIdx = (int) ((endPos - visible.start) * factor);
+				if (exact) {
+					startIdx = startPos - visible.start;
+					endIdx = endPos - visible.start;
+				}
 
-			// if(p.getTotal()>0)
-			// System.out.println("Pile: \t"+startPos+"\t"+startIdx+"\t"+endPos+"\t"+endIdx+"\t"+p.getTotal());
-			for (int i = startIdx; i <= endIdx; i++) {
-				if (i >= 0 && i < detailedRects[0].length) {
-					// float fcov = p.getFCoverage();
-					// float rcov = p.getRCoverage();
-					// int pos=i - visible.start;
-					for (int j = 0; j < p.getValueCount(); j++) {
-						double val = p.getValue(j);
-						if (ptm.isNormalizationAvailable() && ptm.isNormalizeMean() && ptm.normalizationEngine.value() != null) {
-							val /= ptm.normalizationEngine.value()[j];
+				double coverage = pb.total(k);
+				if (norm != null)
+					coverage /= norm[0];
+
+				for (int i = startIdx; i <= endIdx; i++) {
+					if (i >= 0 && i < detailedRects[0].length) {
+						for (int j = 0; j < valueCount; j++) {
+							double val = pb.value(j, k);
+							if (norm != null)
+								val /= norm[j];
+
+							/* Visualize min-max */
+							if (val > 0 && val > detailedRects[j][i])
+								detailedRects[j][i] = val;
+							if (val < 0 && val < detailedRects[j][i])
+								detailedRects[j][i] = val;
 						}
 
-						/* Visualize min-max */
-						if (val > 0 && val > detailedRects[j][i])
-							detailedRects[j][i] = val;
-						if (val < 0 && val < detailedRects[j][i])
-							detailedRects[j][i] = val;
-						// System.out.println("Inserted: " +
-						// detailedRects[j][i]);
-					}
-					// detailedRects[1][i] = rcov;
-					// covValues[0][i] = fcov;
-					// covValues[1][i] = rcov;
+						ptm.getTrackCommunication().updateLocalPileupMax(coverage, visible);
 
-					double coverage = p.getTotal();
-					if (ptm.isNormalizationAvailable() && ptm.isNormalizeMean() && ptm.normalizationEngine.value() != null) {
-						coverage /= ptm.normalizationEngine.value()[0];
+						if (coverage > localMaxPile)
+							localMaxPile = coverage;
+						if (coverage < localMinPile)
+							localMinPile = coverage;
 					}
-					ptm.getTrackCommunication().updateLocalPileupMax(coverage, visible);
-
-					if (coverage > localMaxPile)
-						localMaxPile = coverage;
-					if (coverage < localMinPile)
-						localMinPile = coverage;
 				}
-			}
 
+			}
 		}
 		model.refresh();
 	}
-}
+}
\ No newline at end of file
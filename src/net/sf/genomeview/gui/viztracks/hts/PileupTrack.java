@@ -72,6 +72,11 @@ public class PileupTrack extends Track {
 
 	private PileupTooltip tooltip;
 
+	@Override
+	public void clear() {
+		provider.close();
+	}
+
 	@Override
 	public boolean mouseExited(int x, int y, MouseEvent source) {
 		tooltip.setVisible(false);
@@ -52,7 +52,7 @@ import net.sf.genomeview.gui.viztracks.TrackConfig;
 import net.sf.jannot.Data;
 import net.sf.jannot.DataKey;
 import net.sf.jannot.Location;
-import net.sf.jannot.pileup.Pile;
+import net.sf.jannot.pileup.PileBlock;
 import net.sf.jannot.pileup.PileNormalization;
 import net.sf.jannot.refseq.Sequence;
 
@@ -354,16 +354,19 @@ public class PileupTrackConfig extends TrackConfig {
 						model.messageModel().setStatusBarMessage(MessageManager.getString("pileuptrack.calculating_normalization"));
 						// model.getSelectedEntry().get(dataKey).get();
 
-						Data<Pile> dp = (Data<Pile>) model.vlm.getSelectedEntry().get(dataKey);
+						Data<PileBlock> dp = (Data<PileBlock>) model.vlm.getSelectedEntry().get(dataKey);
 						double[] sum = null;
 						int count = 0;
-						for (Pile p : dp.get()) {
+						for (PileBlock pb : dp.get()) {
 							if (sum == null) {
-								sum = new double[p.getValueCount()];
+								sum = new double[pb.valueCount()];
 							}
-							for (int i = 0; i < p.getValueCount(); i++)
-								sum[i] += p.getValue(i);
-							count++;
+							for (int i = 0; i < sum.length && i < pb.valueCount(); i++) {
+								float[] values = pb.values(i);
+								for (int k = 0; k < pb.size(); k++)
+									sum[i] += values[k];
+							}
+							count += pb.size();
 
 						}
 						for (int i = 0; i < sum.length; i++)
@@ -3,13 +3,15 @@
  */
 package net.sf.genomeview.gui.viztracks.hts;
 
-import net.sf.samtools.SAMRecord;
+import net.sf.jannot.shortread.ReadStore;
 /**
  * 
  * @author Thomas Abeel
  *
  */
 class ShortReadInsertion {
-	SAMRecord esr;
+	ReadStore reads;
+	/* Index of the read in reads */
+	int read;
 	int start, len;
 }
\ No newline at end of file
@@ -30,7 +30,7 @@ import net.sf.genomeview.gui.viztracks.Track;
 import net.sf.genomeview.gui.viztracks.TrackCommunicationModel;
 import net.sf.jannot.DataKey;
 import net.sf.jannot.Location;
-import net.sf.samtools.SAMRecord;
+import net.sf.jannot.shortread.ReadStore;
 
 /**
  * 
@@ -78,9 +78,8 @@ public class ShortReadTrack extends Track {
 
 			if (sri != null) {
 				text.append(MessageManager.getString("shortreadtrack.insertion") + " ");
-				byte[] bases = sri.esr.getReadBases();
 				for (int i = sri.start; i < sri.start + sri.len; i++) {
-					text.append((char) bases[i]);
+					text.append((char) sri.reads.base(sri.read, i));
 				}
 				text.append("<br/>");
 			}
@@ -115,25 +114,25 @@ public class ShortReadTrack extends Track {
 			pack();
 		}
 
-		public void set(MouseEvent e, SAMRecord sr) {
+		public void set(MouseEvent e, ReadStore reads, Integer sr) {
 			if (sr == null)
 				return;
 			StringBuffer text = new StringBuffer();
 			text.append("<html>");
 
 			if (sr != null) {
-				text.append(MessageManager.getString("shortreadtrack.name") + " " + sr.getReadName() + "<br/>");
-				text.append(MessageManager.getString("shortreadtrack.len") + " " + sr.getReadLength() + "<br/>");
-				text.append(MessageManager.getString("shortreadtrack.cigar") + " " + sr.getCigarString() + "<br/>");
-				text.append(MessageManager.getString("shortreadtrack.sequence") + " " + rerun(sr.getReadString()) + "<br/>");
-				text.append(MessageManager.getString("shortreadtrack.paired") + " " + sr.getReadPairedFlag() + "<br/>");
-				if (sr.getReadPairedFlag()) {
-					if (!sr.getMateUnmappedFlag())
-						text.append(MessageManager.getString("shortreadtrack.mate") + " " + sr.getMateReferenceName() + ":" + sr.getMateAlignmentStart()
+				text.append(MessageManager.getString("shortreadtrack.name") + " " + reads.name(sr) + "<br/>");
+				text.append(MessageManager.getString("shortreadtrack.len") + " " + reads.readLength(sr) + "<br/>");
+				text.append(MessageManager.getString("shortreadtrack.cigar") + " " + reads.cigarString(sr) + "<br/>");
+				text.append(MessageManager.getString("shortreadtrack.sequence") + " " + rerun(reads.readString(sr)) + "<br/>");
+				text.append(MessageManager.getString("shortreadtrack.paired") + " " + reads.isPaired(sr) + "<br/>");
+				if (reads.isPaired(sr)) {
+					if (!reads.isMateUnmapped(sr))
+						text.append(MessageManager.getString("shortreadtrack.mate") + " " + reads.mateReferenceName(sr) + ":" + reads.mateStart(sr)
 								+ "<br/>");
 					else
 						text.append(MessageManager.getString("shortreadtrack.mate_missing") + "<br/>");
-					text.append(MessageManager.getString("shortreadtrack.second") + " " + sr.getFirstOfPairFlag());
+					text.append(MessageManager.getString("shortreadtrack.second") + " " + reads.isFirstOfPair(sr));
 				}
 				// text.append("<br/>");
 			}
@@ -214,11 +213,12 @@ public class ShortReadTrack extends Track {
 
 		// System.out.println("Click: " + x + " " + y);
 		if (source.getClickCount() > 1) {
-			for (java.util.Map.Entry<Rectangle, SAMRecord> e : render.meta().hitMap.entrySet()) {
+			srtRender.RenderingMetaData meta = render.meta();
+			ReadStore reads = meta.reads;
+			for (java.util.Map.Entry<Rectangle, Integer> e : meta.hitMap.entrySet()) {
 				if (e.getKey().contains(x, y)) {
-					System.out.println("2*Click: " + e.getValue());
-					if (e.getValue().getReadPairedFlag() && !e.getValue().getMateUnmappedFlag())
-						model.vlm.center(e.getValue().getMateAlignmentStart());
+					if (reads.isPaired(e.getValue()) && !reads.isMateUnmapped(e.getValue()))
+						model.vlm.center(reads.mateStart(e.getValue()));
 				}
 			}
 		} else {
@@ -257,10 +257,12 @@ public class ShortReadTrack extends Track {
 			}
 			//
 			// System.out.println("Moved: " + x + " " + y);
-			for (java.util.Map.Entry<Rectangle, SAMRecord> e : render.meta().hitMap.entrySet()) {
+			srtRender.RenderingMetaData meta = render.meta();
+			ReadStore reads = meta.reads;
+			for (java.util.Map.Entry<Rectangle, Integer> e : meta.hitMap.entrySet()) {
 				if (e.getKey().contains(x, y)) {
 					// System.out.println("Prijs: " + e.getValue());
-					readinfo.set(source, e.getValue());
+					readinfo.set(source, reads, e.getValue());
 				}
 			}
 			//
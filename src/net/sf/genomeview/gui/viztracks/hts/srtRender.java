@@ -30,35 +30,37 @@ import net.sf.jannot.DataKey;
 import net.sf.jannot.Entry;
 import net.sf.jannot.Location;
 import net.sf.jannot.shortread.BAMreads;
-import net.sf.jannot.shortread.ShortReadTools;
-import net.sf.samtools.CigarElement;
+import net.sf.jannot.shortread.ReadStore;
 import net.sf.samtools.CigarOperator;
-import net.sf.samtools.SAMRecord;
 
 /**
  * 
  * @author Thomas Abeel
  * 
  */
-public class srtRender implements Observer, DataCallback<SAMRecord> {
+public class srtRender implements Observer, DataCallback<ReadStore> {
 
 	class RenderingMetaData {
 		/* Keeps track of the short-read insertions */
 		Map<Rectangle, ShortReadInsertion> paintedBlocks = new HashMap<Rectangle, ShortReadInsertion>();
 
+		/* The reads that were painted */
+		ReadStore reads = new ReadStore(0, null);
 		/*
-		 * Mapping of all painted reads, at least in detailed mode
+		 * Mapping of all painted reads to their index in reads, at least in
+		 * detailed mode
 		 */
-		HashMap<Rectangle, SAMRecord> hitMap = new HashMap<Rectangle, SAMRecord>();
+		HashMap<Rectangle, Integer> hitMap = new HashMap<Rectangle, Integer>();
 		/*
 		 * Buffer that will contain the visible reference sequence as soon as it
 		 * has been used to paint mismatches
 		 */
 		char[] seqBuffer = null;
+		/* Reused for the reference aligned bases of each read */
+		byte[] readBuffer = null;
 	}
 
 	private RenderingMetaData meta = new RenderingMetaData();
-	private org.broad.LRUCache<SAMRecord, Integer> rowCache = new org.broad.LRUCache<SAMRecord, Integer>(50000);
 
 	private Model model;
 	private ShortReadProvider provider;
@@ -74,11 +76,10 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 
 	}
 
-	private int[][] splice(SAMRecord rf) {
-		List<CigarElement> list = rf.getCigar().getCigarElements();
+	private int[][] splice(ReadStore reads, int rf) {
 		int len = 0;
-		for (CigarElement ce : list) {
-			if (ce.getOperator() == CigarOperator.N) {
+		for (int k = 0; k < reads.cigarLength(rf); k++) {
+			if (reads.cigarOperator(rf, k) == CigarOperator.N) {
 				len++;
 			}
 
@@ -86,24 +87,24 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 		int[][] out = new int[2][len];
 		int idx = 0;
 		int pos = 0;
-		for (CigarElement ce : list) {
-			switch (ce.getOperator()) {
+		for (int k = 0; k < reads.cigarLength(rf); k++) {
+			switch (reads.cigarOperator(rf, k)) {
 			case I:
-				// pos+=ce.getLength();
+				// pos+=reads.cigarOperatorLength(rf, k);
 				// System.out.println("I: "+pos);
 				break;
 			case N:
 				out[0][idx] = pos;
-				pos += +ce.getLength();
+				pos += +reads.cigarOperatorLength(rf, k);
 				out[1][idx] = pos;
 				idx++;
 				break;
 			case D:
 				// System.out.println("D: "+pos);
-				pos += ce.getLength();
+				pos += reads.cigarOperatorLength(rf, k);
 				break;
 			case M:
-				pos += ce.getLength();
+				pos += reads.cigarOperatorLength(rf, k);
 				break;
 			case S:
 				// //out[pos] = readBases[superPos];
@@ -129,8 +130,10 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 	// class srtDataCallback implements DataCallback<SAMRecord>{
 
 	@Override
-	public void dataReady(Location currentVisible, List<SAMRecord> reads) {
+	public void dataReady(Location currentVisible, List<ReadStore> data) {
 		RenderingMetaData newMeta = new RenderingMetaData();
+		ReadStore reads = data.get(0);
+		newMeta.reads = reads;
 		int maxReads = Configuration.getInt("shortread:maxReads");
 
 		int maxStack = Configuration.getInt("shortread:maxStack");
@@ -185,7 +188,7 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 		int visibleReadCount = 0;
 
 		try {
-			for (SAMRecord one : reads) {
+			for (int one = 0; one < reads.size(); one++) {
 
 				/*
 				 * If the current location doesn't correspond to the actual
@@ -197,10 +200,10 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 
 				}
 
-				if (enablePairing && one.getReadPairedFlag() && ShortReadTools.isSecondInPair(one)) {
-					if (provider.getFirstRead(one) == null) {
+				if (enablePairing && reads.isPaired(one) && reads.isSecondOfPair(one)) {
+					if (reads.mate(one) == -1) {
 						// System.out.println("First read not found");
-					} else if (!one.getMateUnmappedFlag()) {
+					} else if (!reads.isMateUnmapped(one)) {
 
 						continue;
 					}
@@ -234,41 +237,41 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 				// currentVisible, screenWidth);
 				// if (x2 > 0) {
 				/* Find empty line */
-				int pos = one.getAlignmentStart() - currentVisible.start;
+				int pos = reads.start(one) - currentVisible.start;
 
 				int line = tilingCounter.getFreeLine(pos);
 
 				/* Paint read or read pair */
 				// boolean differentReference=true;
 				if (line < maxStack) {
-					int clearStart = one.getAlignmentStart();
-					int clearEnd = one.getAlignmentEnd();
-					SAMRecord two = null;
+					int clearStart = reads.start(one);
+					int clearEnd = reads.end(one);
+					int two = -1;
 					/* Modify empty space finder for paired reads */
 					if (enablePairing) {
 						// ShortReadTools esr = (ShortReadTools) one;
-						if (ShortReadTools.isPaired(one) && ShortReadTools.isFirstInPair(one)) {
-							two = provider.getSecondRead(one);
+						if (reads.isPaired(one) && reads.isFirstOfPair(one)) {
+							two = reads.mate(one);
 
 						}
 						// if (two != null) {
-						if (ShortReadTools.isPaired(one) && !one.getMateUnmappedFlag() && one.getReferenceIndex() == one.getMateReferenceIndex()
-								&& one.getMateReferenceIndex() != -1) {
+						if (reads.isPaired(one) && !reads.isMateUnmapped(one) && reads.reference(one) == reads.mateReference(one)
+								&& reads.mateReference(one) != -1) {
 							// if (two == null)
 							// System.out.println("Mate missing: " +
 							// one.getMateAlignmentStart());
 							// if (two.getAlignmentStart() <
 							// one.getAlignmentStart()) {
-							if (one.getMateAlignmentStart() < one.getAlignmentStart()) {
-								pos = one.getMateAlignmentStart() - currentVisible.start;
+							if (reads.mateStart(one) < reads.start(one)) {
+								pos = reads.mateStart(one) - currentVisible.start;
 								line = tilingCounter.getFreeLine(pos);
 								if (line >= maxStack) {
 									stackExceeded = true;
 									continue;
 								}
-								clearStart = one.getMateAlignmentStart();
+								clearStart = reads.mateStart(one);
 							} else {
-								clearEnd = one.getMateAlignmentStart() + one.getReadLength();
+								clearEnd = reads.mateStart(one) + reads.readLength(one);
 							}
 						}
 
@@ -277,11 +280,11 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 					int yRec = line * readLineHeight;
 
 					/* paired read - calculate connection coordinates */
-					if (enablePairing && ShortReadTools.isPaired(one) && !one.getMateUnmappedFlag() && one.getReferenceIndex() == one.getMateReferenceIndex()
-							&& one.getMateReferenceIndex() != -1) {
+					if (enablePairing && reads.isPaired(one) && !reads.isMateUnmapped(one) && reads.reference(one) == reads.mateReference(one)
+							&& reads.mateReference(one) != -1) {
 						int subX1, subX2;
-						subX1 = Convert.translateGenomeToScreen(one.getAlignmentEnd(), currentVisible, screenWidth);
-						subX2 = Convert.translateGenomeToScreen(one.getMateAlignmentStart(), currentVisible, screenWidth);
+						subX1 = Convert.translateGenomeToScreen(reads.end(one), currentVisible, screenWidth);
+						subX2 = Convert.translateGenomeToScreen(reads.mateStart(one), currentVisible, screenWidth);
 
 						g.setColor(srtc.color(ReadColor.PAIRING));
 						g.drawLine(subX1, yRec + (readLineHeight / 2) + yOffset, subX2, yOffset + yRec + readLineHeight / 2);
@@ -290,13 +293,13 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 						lines = line;
 					g.translate(0, yOffset);
 
-					boolean paintOne = paintRead(g, one, yRec, screenWidth, readLineHeight, entry, null, yOffset, newMeta);
+					boolean paintOne = paintRead(g, reads, one, yRec, screenWidth, readLineHeight, entry, -1, yOffset, newMeta);
 					boolean paintTwo = false;
 					if (paintOne)
 						visibleReadCount++;
-					if (two != null) {
+					if (two != -1) {
 
-						paintTwo = paintRead(g, two, yRec, screenWidth, readLineHeight, entry, one, yOffset, newMeta);
+						paintTwo = paintRead(g, reads, two, yRec, screenWidth, readLineHeight, entry, one, yOffset, newMeta);
 						if (paintTwo)
 							visibleReadCount++;
 					}
@@ -392,19 +395,21 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 	 * Returns true if the read was actually painted.
 	 * 
 	 * @param g
+	 * @param reads
 	 * @param rf
+	 *            index of the read in reads
 	 * @param yRec
 	 * @param screenWidth
 	 * @param readLineHeight
 	 * @param entry
 	 * @param otherRead
-	 *            the other read in the pair, this should only be set for the
-	 *            second read, and should be null for the first read.
+	 *            index of the other read in the pair, this should only be set
+	 *            for the second read, and should be -1 for the first read.
 	 * @param newHitMap
 	 * @param newPaintedBlocks
 	 * @return Returns true if the read was actually painted, false if it wasn't
 	 */
-	private boolean paintRead(Graphics2D g, SAMRecord rf, int yRec, double screenWidth, int readLineHeight, Entry entry, SAMRecord otherRead, double yOff,
+	private boolean paintRead(Graphics2D g, ReadStore reads, int rf, int yRec, double screenWidth, int readLineHeight, Entry entry, int otherRead, double yOff,
 			RenderingMetaData newMeta) {
 		Location annotationVisible = model.vlm.getVisibleLocation();
 		/* If outside vertical view, return immediately */
@@ -420,8 +425,8 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 		// }
 
 		// System.out.print(",");
-		int subX1 = Convert.translateGenomeToScreen(rf.getAlignmentStart(), annotationVisible, screenWidth);
-		int subX2 = Convert.translateGenomeToScreen(rf.getAlignmentEnd() + 1, annotationVisible, screenWidth);
+		int subX1 = Convert.translateGenomeToScreen(reads.start(rf), annotationVisible, screenWidth);
+		int subX2 = Convert.translateGenomeToScreen(reads.end(rf) + 1, annotationVisible, screenWidth);
 		// System.out.println(rf.getAlignmentBlocks().size());
 		// System.out.println(rf.getAlignmentBlocks().get(0).)
 		// System.out.println("Start-End: "+rf.getAlignmentStart()+" "+rf.getAlignmentEnd()+"\t"+rf.getUnclippedStart()+"\t"+rf.getUnclippedEnd());
@@ -431,20 +436,18 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 
 		lastX = subX2;
 		ReadColor c = null;
-		if (ShortReadTools.isPaired(rf) && !rf.getMateUnmappedFlag() && rf.getReferenceIndex().intValue() != rf.getMateReferenceIndex().intValue()
-				&& rf.getMateReferenceIndex() != -1) {
-			System.out.println("Different indices: " + rf.getReferenceIndex() + "\t" + rf.getMateReferenceIndex());
+		if (reads.isPaired(rf) && !reads.isMateUnmapped(rf) && reads.reference(rf) != reads.mateReference(rf) && reads.mateReference(rf) != -1) {
 			c = ReadColor.MATE_DIFFERENT_CHROMOSOME;
-		} else if (rf.getReadPairedFlag()) {
-			if (rf.getFirstOfPairFlag()) {
-				if (rf.getReadNegativeStrandFlag()) {
+		} else if (reads.isPaired(rf)) {
+			if (reads.isFirstOfPair(rf)) {
+				if (reads.isNegativeStrand(rf)) {
 					c = ReadColor.REVERSE_SENSE;
 				} else {
 					c = ReadColor.FORWARD_ANTISENSE;
 				}
 
 			} else {
-				if (rf.getReadNegativeStrandFlag()) {
+				if (reads.isNegativeStrand(rf)) {
 					c = ReadColor.REVERSE_ANTISENSE;
 				} else {
 					c = ReadColor.FORWARD_SENSE;
@@ -452,7 +455,7 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 				}
 			}
 		} else {
-			if (rf.getReadNegativeStrandFlag()) {
+			if (reads.isNegativeStrand(rf)) {
 				c = ReadColor.REVERSE_SENSE;
 			} else {
 				c = ReadColor.FORWARD_SENSE;
@@ -470,22 +473,22 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 			System.err.println("This happens!");
 		}
 
-		int qual = rf.getMappingQuality();
+		int qual = reads.mappingQuality(rf);
 		g.setColor(srtc.gradient(c).getColor(qual));
 
 		Rectangle r = new Rectangle(subX1, yRec, subX2 - subX1 + 1, readLineHeight - 1);
 		g.fill(r);
 		g.setColor(srtc.color(c));
-		if (rf.getReadPairedFlag() && rf.getMateUnmappedFlag())
+		if (reads.isPaired(rf) && reads.isMateUnmapped(rf))
 			g.setColor(srtc.color(ReadColor.MISSING_MATE));
 		g.setStroke(new BasicStroke(2));
 		g.drawRect(subX1, yRec + 1, subX2 - subX1, readLineHeight - 3);
 		g.setStroke(new BasicStroke(1));
 		g.setColor(srtc.color(c));
 
-		if (otherRead != null) {
-			int subOtherX1 = Convert.translateGenomeToScreen(otherRead.getAlignmentStart(), annotationVisible, screenWidth);
-			int subOtherX2 = Convert.translateGenomeToScreen(otherRead.getAlignmentEnd() + 1, annotationVisible, screenWidth);
+		if (otherRead != -1) {
+			int subOtherX1 = Convert.translateGenomeToScreen(reads.start(otherRead), annotationVisible, screenWidth);
+			int subOtherX2 = Convert.translateGenomeToScreen(reads.end(otherRead) + 1, annotationVisible, screenWidth);
 			Location l1 = new Location(subOtherX1, subOtherX2);
 			Location l2 = new Location(subX1, subX2);
 
@@ -519,23 +522,20 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 				return true;
 			if (newMeta.seqBuffer == null) {
 
-				Iterable<Character> bufferedSeq = entry.sequence().get(annotationVisible.start, annotationVisible.end + 1);
-
 				newMeta.seqBuffer = new char[annotationVisible.length() + 1];
-				int idx = 0;
-				for (char cc : bufferedSeq) {
-					newMeta.seqBuffer[idx++] = cc;
-				}
+				entry.sequence().get(annotationVisible.start, annotationVisible.end + 1, newMeta.seqBuffer, 0);
 
 			}
-			byte[] readNts = ShortReadTools.construct(rf);
-			for (int j = rf.getAlignmentStart(); j <= rf.getAlignmentEnd(); j++) {
+			newMeta.readBuffer = reads.construct(rf, newMeta.readBuffer);
+			byte[] readNts = newMeta.readBuffer;
+			int rfStart = reads.start(rf);
+			for (int j = rfStart; j <= reads.end(rf); j++) {
 				if (j > annotationVisible.end || j < annotationVisible.start)
 					continue;
 				// FIXME Speed-up by putting code here...
 				// char readNt = ShortReadTools.getNucleotide(rf, j
 				// - rf.getAlignmentStart() + 1);
-				char readNt = (char) readNts[j - rf.getAlignmentStart()];
+				char readNt = (char) readNts[j - rfStart];
 				// char refNt = entry.sequence.getNucleotide(j);
 
 				char refNt = newMeta.seqBuffer[j - annotationVisible.start];
@@ -587,10 +587,12 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 			skip.add(CigarOperator.SOFT_CLIP);
 			skip.add(CigarOperator.H);
 			skip.add(CigarOperator.S);
-			for (CigarElement ce : rf.getCigar().getCigarElements()) {
-				if (ce.getOperator() == CigarOperator.I) {
-					double tx1 = Convert.translateGenomeToScreen(rf.getAlignmentStart() + pos, annotationVisible, screenWidth);
-					if (ce.getLength() % 3 == 0)
+			for (int k = 0; k < reads.cigarLength(rf); k++) {
+				CigarOperator op = reads.cigarOperator(rf, k);
+				int opLength = reads.cigarOperatorLength(rf, k);
+				if (op == CigarOperator.I) {
+					double tx1 = Convert.translateGenomeToScreen(rfStart + pos, annotationVisible, screenWidth);
+					if (opLength % 3 == 0)
 						g.setColor(Color.GRAY);
 					else
 						g.setColor(Color.BLACK);
@@ -600,23 +602,24 @@ public class srtRender implements Observer, DataCallback<SAMRecord> {
 					rec.x--;
 					rec.width += 2;
 					ShortReadInsertion in = new ShortReadInsertion();
-					in.esr = rf;
+					in.reads = reads;
+					in.read = rf;
 					in.start = pos;
-					in.len = ce.getLength();
+					in.len = opLength;
 					newMeta.paintedBlocks.put(rec, in);
 				} else {
-					if (!skip.contains(ce.getOperator()))
-						pos += ce.getLength();
+					if (!skip.contains(op))
+						pos += opLength;
 				}
 				// if(!skip.contains(ce.getOperator()))
 				// esrPos += ce.getLength();
 			}
 		} else {
 
-			int[][] locs = splice(rf);
+			int[][] locs = splice(reads, rf);
 			for (int i = 0; i < locs[0].length; i++) {
-				int lx1 = Convert.translateGenomeToScreen(rf.getAlignmentStart() + locs[0][i], annotationVisible, screenWidth);
-				int lx2 = Convert.translateGenomeToScreen(rf.getAlignmentStart() + locs[1][i], annotationVisible, screenWidth);
+				int lx1 = Convert.translateGenomeToScreen(reads.start(rf) + locs[0][i], annotationVisible, screenWidth);
+				int lx2 = Convert.translateGenomeToScreen(reads.start(rf) + locs[1][i], annotationVisible, screenWidth);
 				g.setColor(srtc.color(ReadColor.SPLICING));
 				g.fillRect(lx1, yRec, lx2 - lx1, readLineHeight - 1);
 			}
@@ -4,30 +4,22 @@
 package net.sf.genomeview.gui.viztracks.variation;
 
 import java.awt.Color;
-import java.awt.Font;
 import java.awt.Graphics2D;
-import java.awt.Rectangle;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 
 import javax.swing.JViewport;
 
-import net.sf.genomeview.core.Colors;
-import net.sf.genomeview.core.Configuration;
 import net.sf.genomeview.data.Model;
+import net.sf.genomeview.data.provider.DataCallback;
+import net.sf.genomeview.data.provider.RegionProvider;
 import net.sf.genomeview.gui.Convert;
-import net.sf.genomeview.gui.components.CollisionMap;
-import net.sf.genomeview.gui.viztracks.GeneEvidenceLabel.FillMode;
 import net.sf.genomeview.gui.viztracks.Track;
 import net.sf.genomeview.gui.viztracks.TrackCommunicationModel;
 import net.sf.genomeview.gui.viztracks.TrackConfig;
 import net.sf.jannot.Data;
 import net.sf.jannot.DataKey;
-import net.sf.jannot.Feature;
 import net.sf.jannot.Location;
 import net.sf.jannot.Type;
-import net.sf.jannot.tabix.VCFWrapper;
 import net.sf.jannot.variation.Allele;
 import net.sf.jannot.variation.Variation;
 
@@ -48,34 +40,82 @@ public class VariationTrack extends Track {
 
 	private VariationTrackConfig vtc;
 
+	/* Variations of a region, painted until the next region is ready */
+	private static class Frame {
+		private final Location location;
+		private final List<Variation> variations;
+
+		Frame(Location location, List<Variation> variations) {
+			this.location = location;
+			this.variations = variations;
+		}
+	}
+
+	private RegionProvider<Variation> provider = null;
+	private volatile Frame frame = null;
+	/* The region that was last requested */
+	private Location requested = null;
+
 	public VariationTrack(Model model, Type key) {
 		super(key, model, true, new VariationTrackConfig(model, key));
 		vtc = (VariationTrackConfig) config;
 	}
 
+	/*
+	 * Requests the variations around the visible region, unless the last
+	 * request already covers it. Half a screen is added on both sides, so
+	 * panning a bit does not need new data.
+	 */
+	@SuppressWarnings("unchecked")
+	private void request(Location visible) {
+		Data<Variation> data = (Data<Variation>) entry.get(dataKey);
+		if (provider == null || provider.source() != data) {
+			provider = new RegionProvider<Variation>(data);
+			frame = null;
+			requested = null;
+		}
+		if (requested != null && requested.start <= visible.start && requested.end >= visible.end)
+			return;
+		int margin = visible.length() / 2;
+		requested = new Location(Math.max(1, visible.start - margin), visible.end + margin);
+		provider.get(requested.start, requested.end, new DataCallback<Variation>() {
+
+			@Override
+			public void dataReady(Location l, List<Variation> it) {
+				frame = new Frame(l, it);
+				model.refresh();
+			}
+		});
+	}
+
 	@Override
 	protected int paintTrack(Graphics2D g, int yOffset, double width, JViewport view, TrackCommunicationModel tcm) {
 		Location visible = model.vlm.getAnnotationLocationVisible();
+		request(visible);
 
-		Iterable<Variation> data = (Iterable<Variation>) entry.get(dataKey).get(visible.start, visible.end);
-		g.setColor(Color.BLUE);
-		for (Variation v : data) {
-			int coordinate = v.start();
-			int x1 = Convert.translateGenomeToScreen(coordinate, model.vlm.getAnnotationLocationVisible(), width);
-			int w = Convert.translateGenomeToScreen(coordinate + 1, model.vlm.getAnnotationLocationVisible(), width) - x1;
-			if(w<1)
-				w=1;
-			for (Allele a : v.alleles()) {
-				//float freq = a.alternativeFrequency();
-				if(a.reference().length()>a.alternative().length())
-					g.setColor(Color.RED);
-				else if(a.reference().length()<a.alternative().length())
-					g.setColor(Color.BLACK);
-				else
-					g.setColor(Color.CYAN);
-					g.fillRect(x1, yOffset, w, (int)(40/*freq*/));
+		Frame current = frame;
+		if (current != null) {
+			for (Variation v : current.variations) {
+				int coordinate = v.start();
+				if (coordinate < visible.start || coordinate > visible.end)
+					continue;
+				int x1 = Convert.translateGenomeToScreen(coordinate, visible, width);
+				int w = Convert.translateGenomeToScreen(coordinate + 1, visible, width) - x1;
+				if (w < 1)
+					w = 1;
+				for (Allele a : v.alleles()) {
+					// float freq = a.alternativeFrequency();
+					if (a.reference().length() > a.alternative().length())
+						g.setColor(Color.RED);
+					else if (a.reference().length() < a.alternative().length())
+						g.setColor(Color.BLACK);
+					else
+						g.setColor(Color.CYAN);
+					g.fillRect(x1, yOffset, w, (int) (40/* freq */));
+				}
 			}
 		}
+		paintStatus(g, provider.getStatus(), yOffset, 40, visible, width);
 
 		return 40;
 
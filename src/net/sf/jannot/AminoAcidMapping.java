@@ -5,6 +5,7 @@ package net.sf.jannot;
 
 import java.util.HashMap;
 
+import net.sf.jannot.refseq.Sequence;
 import be.abeel.io.LineIterator;
 import be.abeel.util.DefaultHashMap;
 
@@ -34,6 +35,12 @@ public enum AminoAcidMapping {
 	/* Maps codons to whether they are valid starts */
 	private HashMap<String, Boolean> startmap = new DefaultHashMap<String, Boolean>(
 			Boolean.FALSE);
+	/*
+	 * Amino acid and start flag for each codon, indexed by the two bit codes
+	 * of the nucleotides, see Sequence.twoBit(byte).
+	 */
+	private char[] table = new char[64];
+	private boolean[] startTable = new boolean[64];
 	/*
 	 * The full name of a genetic code. This is the first line in the
 	 * description file, if one is present.
@@ -60,6 +67,11 @@ public enum AminoAcidMapping {
 			mapping.put("" + base1[i] + base2[i] + base3[i], aa[i]);
 			if (start[i] != '-')
 				startmap.put("" + base1[i] + base2[i] + base3[i], true);
+			int code = index((byte) base1[i], (byte) base2[i], (byte) base3[i]);
+			if (code >= 0) {
+				table[code] = aa[i];
+				startTable[code] = start[i] != '-';
+			}
 		}
 		try {
 			it = new LineIterator(AminoAcidMapping.class
@@ -108,6 +120,48 @@ public enum AminoAcidMapping {
 		return startmap.get(codon.toLowerCase());
 	}
 
+	private static int index(byte n1, byte n2, byte n3) {
+		int c1 = Sequence.twoBit(n1);
+		int c2 = Sequence.twoBit(n2);
+		int c3 = Sequence.twoBit(n3);
+		if ((c1 | c2 | c3) < 0)
+			return -1;
+		return c1 << 4 | c2 << 2 | c3;
+	}
+
+	/**
+	 * Translates a single codon given as three nucleotides. This is the same as
+	 * {@link #get(String)}, but does not allocate.
+	 */
+	public char get(byte n1, byte n2, byte n3) {
+		int code = index(n1, n2, n3);
+		return code < 0 ? 'X' : table[code];
+	}
+
+	public char get(char n1, char n2, char n3) {
+		return get((byte) n1, (byte) n2, (byte) n3);
+	}
+
+	public boolean isStart(char n1, char n2, char n3) {
+		int code = index((byte) n1, (byte) n2, (byte) n3);
+		return code >= 0 && startTable[code];
+	}
+
+	/**
+	 * Translates the codons in nucleotides, starting at offset, and writes
+	 * the amino acids to out. Incomplete codons at the end are ignored.
+	 * 
+	 * @return the number of amino acids written
+	 */
+	public int translate(byte[] nucleotides, int offset, int length, byte[] out, int outOffset) {
+		int codons = length / 3;
+		for (int i = 0; i < codons; i++) {
+			int p = offset + 3 * i;
+			out[outOffset + i] = (byte) get(nucleotides[p], nucleotides[p + 1], nucleotides[p + 2]);
+		}
+		return codons;
+	}
+
 	public boolean isStop(char aa) {
 		return aa=='*';
 	}
@@ -11,4 +11,10 @@ public interface DensityEstimate {
 
 	public int getEstimateCount(Location l);
 	public int getMaximumCoordinate();
+
+	/**
+	 * Divides the location in a number of equal parts and estimates the number
+	 * of features that start in each part.
+	 */
+	public float[] getDensity(Location l, int parts);
 }
@@ -0,0 +1,138 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot;
+
+import java.util.Arrays;
+
+/**
+ * Number of features per region of a sequence, counted at the start of each
+ * feature, at several resolutions.
+ *
+ * The finest level has bins of 2^shift nucleotides and every next level has
+ * bins that are four times larger. A count over a region sums the whole bins
+ * it covers, taking at most three bins per side from each level before moving
+ * to the next, so it takes about the same time for any region. Only the two
+ * finest bins at the borders of the region that are partially covered are
+ * counted in proportion to their overlap, so a count is exact when the region
+ * starts and ends on borders of the finest bins.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class DensityHistogram {
+
+	private static final int LEVELS = 8;
+
+	private final int shift;
+
+	private final int[][] levels = new int[LEVELS][];
+
+	/**
+	 * @param shift
+	 *            the finest bins are 2^shift nucleotides
+	 */
+	public DensityHistogram(int shift) {
+		this.shift = shift;
+		for (int i = 0; i < LEVELS; i++)
+			levels[i] = new int[16];
+	}
+
+	/**
+	 * @return the number of nucleotides in the bins of the finest level
+	 */
+	public int binSize() {
+		return 1 << shift;
+	}
+
+	private int shift(int level) {
+		return shift + 2 * level;
+	}
+
+	/**
+	 * Adds a number of features that start at a position, use a negative
+	 * number to remove them.
+	 */
+	public synchronized void add(int position, int count) {
+		position = Math.max(0, position);
+		for (int level = 0; level < LEVELS; level++) {
+			int bin = position >>> shift(level);
+			if (bin >= levels[level].length)
+				levels[level] = Arrays.copyOf(levels[level], Math.max(bin + 1, 2 * levels[level].length));
+			levels[level][bin] += count;
+		}
+	}
+
+	/**
+	 * Sets the number of features in the finest bin that contains the
+	 * position.
+	 */
+	public synchronized void set(int position, int count) {
+		position = Math.max(0, position);
+		int bin = position >>> shift;
+		int old = bin < levels[0].length ? levels[0][bin] : 0;
+		add(position, count - old);
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < LEVELS; i++)
+			levels[i] = new int[16];
+	}
+
+	/**
+	 * @return the number of features that start in [start,end]
+	 */
+	public synchronized int count(int start, int end) {
+		return (int) Math.round(sum(start, end + 1L));
+	}
+
+	/**
+	 * Divides [start,end] in a number of equal parts and counts the features
+	 * that start in each of them.
+	 */
+	public synchronized float[] density(int start, int end, int parts) {
+		float[] out = new float[parts];
+		double length = end + 1.0 - start;
+		for (int i = 0; i < parts; i++)
+			out[i] = (float) sum(start + (long) (i * length / parts), start + (long) ((i + 1) * length / parts));
+		return out;
+	}
+
+	/* Features that start in [from,to[ */
+	private double sum(long from, long to) {
+		from = Math.max(0, from);
+		if (to <= from)
+			return 0;
+		long size = 1L << shift;
+		/* Whole bins of the finest level are [a,b[ */
+		long a = (from + size - 1) >> shift;
+		long b = to >> shift;
+		if (a > b)
+			return bin(0, b) * (double) (to - from) / size;
+		double out = 0;
+		if (from < a << shift)
+			out += bin(0, a - 1) * (double) ((a << shift) - from) / size;
+		if (to > b << shift)
+			out += bin(0, b) * (double) (to - (b << shift)) / size;
+		for (int level = 0; a < b; level++) {
+			if (level == LEVELS - 1) {
+				b = Math.min(b, levels[level].length);
+				for (long i = a; i < b; i++)
+					out += levels[level][(int) i];
+				break;
+			}
+			while (a < b && (a & 3) != 0)
+				out += bin(level, a++);
+			while (a < b && (b & 3) != 0)
+				out += bin(level, --b);
+			a >>= 2;
+			b >>= 2;
+		}
+		return out;
+	}
+
+	private int bin(int level, long bin) {
+		return bin < levels[level].length ? levels[level][(int) bin] : 0;
+	}
+
+}
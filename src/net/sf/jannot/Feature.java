@@ -114,9 +114,23 @@ public class Feature implements Comparable<Feature>, Located {
 		location = null;
 		phase = null;
 		singleLocation = l;
+		int oldStart = fStart;
+		int oldEnd = fEnd;
 		fStart = l.start();
 		fEnd = l.end();
 		singleLocation.setParent(this);
+		moved(oldStart, oldEnd);
+	}
+
+	/*
+	 * The annotation this feature belongs to, it keeps an index on the
+	 * coordinates of its features and tells others about the changes.
+	 */
+	MemoryFeatureAnnotation owner = null;
+
+	private void moved(int oldStart, int oldEnd) {
+		if (owner != null)
+			owner.moved(this, oldStart, oldEnd);
 	}
 
 	public void setLocation(Location[] l) {
@@ -220,8 +234,11 @@ public class Feature implements Comparable<Feature>, Located {
 			if (l.end() > fEnd)
 				fEnd = l.end();
 		}
+		int oldStart = this.fStart;
+		int oldEnd = this.fEnd;
 		this.fStart = fStart;
 		this.fEnd = fEnd;
+		moved(oldStart, oldEnd);
 
 		int currentPhase = 0;
 		if (strand == Strand.FORWARD) {
@@ -396,13 +413,17 @@ public class Feature implements Comparable<Feature>, Located {
 
 		@Override
 		public void doChange() {
-			super.getFeature().strand = to;
+			Feature f = super.getFeature();
+			f.strand = to;
+			f.moved(f.fStart, f.fEnd);
 
 		}
 
 		@Override
 		public void undoChange() {
-			super.getFeature().strand = from;
+			Feature f = super.getFeature();
+			f.strand = from;
+			f.moved(f.fStart, f.fEnd);
 
 		}
 
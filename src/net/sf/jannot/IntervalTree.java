@@ -0,0 +1,245 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index for {@link Located} items that supports overlap queries in O(log N +
+ * k) and insertion and removal in O(log N).
+ *
+ * The index is a treap ordered on start coordinate, each node is augmented
+ * with the maximum end coordinate in its subtree so that branches that can not
+ * contain overlapping items are skipped.
+ *
+ * The coordinates of an item are recorded when it is added. When the
+ * coordinates of an item change, it has to be removed with its old
+ * coordinates and added again.
+ *
+ * Not thread-safe.
+ *
+ * @author Thomas Abeel
+ *
+ * @param <T>
+ *            type of the indexed items
+ */
+public class IntervalTree<T extends Located> {
+
+	private static class Node<T> {
+		private final T item;
+		private final int start;
+		private final int end;
+		private final int priority;
+		private int maxEnd;
+		private Node<T> left, right;
+
+		Node(T item, int start, int end, int priority) {
+			this.item = item;
+			this.start = start;
+			this.end = end;
+			this.priority = priority;
+			this.maxEnd = end;
+		}
+
+		void update() {
+			int m = end;
+			if (left != null && left.maxEnd > m)
+				m = left.maxEnd;
+			if (right != null && right.maxEnd > m)
+				m = right.maxEnd;
+			maxEnd = m;
+		}
+	}
+
+	private Node<T> root = null;
+	private int size = 0;
+	/* State of the xorshift generator for node priorities */
+	private int seed = 0x2545F491;
+	/* Set by remove when the item was found */
+	private boolean removed;
+
+	private int nextPriority() {
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return seed;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		root = null;
+		size = 0;
+	}
+
+	/**
+	 * Adds an item with its current coordinates.
+	 */
+	public void add(T item) {
+		root = insert(root, new Node<T>(item, item.start(), item.end(), nextPriority()));
+		size++;
+	}
+
+	private Node<T> insert(Node<T> node, Node<T> n) {
+		if (node == null)
+			return n;
+		if (n.start < node.start) {
+			node.left = insert(node.left, n);
+			if (node.left.priority > node.priority)
+				node = rotateRight(node);
+		} else {
+			node.right = insert(node.right, n);
+			if (node.right.priority > node.priority)
+				node = rotateLeft(node);
+		}
+		node.update();
+		return node;
+	}
+
+	private Node<T> rotateRight(Node<T> node) {
+		Node<T> l = node.left;
+		node.left = l.right;
+		l.right = node;
+		node.update();
+		l.update();
+		return l;
+	}
+
+	private Node<T> rotateLeft(Node<T> node) {
+		Node<T> r = node.right;
+		node.right = r.left;
+		r.left = node;
+		node.update();
+		r.update();
+		return r;
+	}
+
+	/**
+	 * Removes an item that was added with its current coordinates.
+	 *
+	 * @return true if the item was found
+	 */
+	public boolean remove(T item) {
+		return remove(item, item.start());
+	}
+
+	/**
+	 * Removes an item that was added when its start coordinate was start.
+	 *
+	 * @return true if the item was found
+	 */
+	public boolean remove(T item, int start) {
+		removed = false;
+		root = delete(root, item, start);
+		if (removed)
+			size--;
+		return removed;
+	}
+
+	/*
+	 * Items with equal start coordinate can end up on both sides of a node
+	 * after rotations, so both subtrees are searched for those.
+	 */
+	private Node<T> delete(Node<T> node, T item, int start) {
+		if (node == null)
+			return null;
+		if (start < node.start) {
+			node.left = delete(node.left, item, start);
+		} else if (start > node.start) {
+			node.right = delete(node.right, item, start);
+		} else if (node.item == item) {
+			removed = true;
+			return merge(node.left, node.right);
+		} else {
+			node.left = delete(node.left, item, start);
+			if (!removed)
+				node.right = delete(node.right, item, start);
+		}
+		node.update();
+		return node;
+	}
+
+	private Node<T> merge(Node<T> a, Node<T> b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			a.update();
+			return a;
+		} else {
+			b.left = merge(a, b.left);
+			b.update();
+			return b;
+		}
+	}
+
+	/**
+	 * Returns all items that overlap [start,end], sorted on start coordinate.
+	 */
+	public List<T> query(int start, int end) {
+		List<T> out = new ArrayList<T>();
+		query(root, start, end, out);
+		return out;
+	}
+
+	/**
+	 * Adds all items that overlap [start,end] to out, sorted on start
+	 * coordinate.
+	 */
+	public void query(int start, int end, List<T> out) {
+		query(root, start, end, out);
+	}
+
+	private void query(Node<T> node, int start, int end, List<T> out) {
+		if (node == null || node.maxEnd < start)
+			return;
+		query(node.left, start, end, out);
+		if (node.start > end)
+			return;
+		if (node.end >= start)
+			out.add(node.item);
+		query(node.right, start, end, out);
+	}
+
+	/**
+	 * Returns the number of items that overlap [start,end].
+	 */
+	public int count(int start, int end) {
+		return count(root, start, end);
+	}
+
+	private int count(Node<T> node, int start, int end) {
+		if (node == null || node.maxEnd < start)
+			return 0;
+		int c = count(node.left, start, end);
+		if (node.start > end)
+			return c;
+		if (node.end >= start)
+			c++;
+		return c + count(node.right, start, end);
+	}
+
+	/**
+	 * Returns the number of items that start in [start,end].
+	 */
+	public int countStarts(int start, int end) {
+		return countStarts(root, start, end);
+	}
+
+	private int countStarts(Node<T> node, int start, int end) {
+		if (node == null)
+			return 0;
+		if (node.start < start)
+			return countStarts(node.right, start, end);
+		if (node.start > end)
+			return countStarts(node.left, start, end);
+		return 1 + countStarts(node.left, start, end) + countStarts(node.right, start, end);
+	}
+
+}
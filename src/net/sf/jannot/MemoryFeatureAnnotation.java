@@ -3,11 +3,44 @@
  */
 package net.sf.jannot;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /* Represents the annotation of a single type */
 
 public class MemoryFeatureAnnotation extends MemoryListData<Feature> implements FeatureAnnotation {
 
+	/**
+	 * Is told which region of the annotation changed when features are added,
+	 * removed or edited.
+	 */
+	public interface RegionListener {
+		/**
+		 * Called with the lock of the annotation held, implementations should
+		 * return quickly.
+		 */
+		void regionChanged(MemoryFeatureAnnotation annotation, int start, int end);
+	}
+
+	private CopyOnWriteArrayList<RegionListener> listeners = new CopyOnWriteArrayList<RegionListener>();
+
+	public void addRegionListener(RegionListener l) {
+		listeners.addIfAbsent(l);
+	}
+
+	public void removeRegionListener(RegionListener l) {
+		listeners.remove(l);
+	}
+
+	private void changed(int start, int end) {
+		for (RegionListener l : listeners)
+			l.regionChanged(this, start, end);
+	}
+
 	/* All data that is kept in memory, these get added manually */
 	// private MemoryListData<Feature> memoryData = new
 	// MemoryListData<Feature>();
@@ -20,8 +53,8 @@ public class MemoryFeatureAnnotation extends MemoryListData<Feature> implements
 	 * @see net.sf.jannot.Data#get(int, int)
 	 */
 	@Override
-	public Iterable<Feature> get(int start, int end) {
-		return new LocatedListIterable<Feature>(this, new Location(start, end));
+	public synchronized Iterable<Feature> get(int start, int end) {
+		return index.query(start, end);
 
 		// return memoryData.get();
 	}
@@ -36,28 +69,26 @@ public class MemoryFeatureAnnotation extends MemoryListData<Feature> implements
 		return super.get();
 	}
 
-	private double minStart = Integer.MAX_VALUE;
 	private double maxEnd = 0;
 
 	private String label = null;
 
+	/*
+	 * Index on the feature coordinates, features notify this annotation when
+	 * their coordinates change so it stays up to date.
+	 */
+	private IntervalTree<Feature> index = new IntervalTree<Feature>();
+
+	/* Number of features per region, kept up to date like the index */
+	private DensityHistogram density = new DensityHistogram(12);
+
 	/**
 	 * @param f
 	 * @return
 	 */
 	public synchronized boolean add(Feature f) {
-		if (label == null)
-			label = f.type().toString();
 		super.add(f);
-//		qualifierKeys.addAll(f.getQualifiersKeys());
-		if (f.start() < minStart)
-			minStart = f.start();
-		if (f.end() > maxEnd)
-			maxEnd = f.end();
-//		if (f.getScore() > maxScore)
-//			maxScore = f.getScore();
-//		if (f.getScore() < minScore)
-//			minScore = f.getScore();
+		indexed(f);
 		return true;
 	}
 
@@ -65,8 +96,152 @@ public class MemoryFeatureAnnotation extends MemoryListData<Feature> implements
 	 * @param f
 	 */
 	public synchronized void remove(Feature f) {
-		super.remove(f);
+		if (super.remove(f))
+			unindexed(f);
+
+	}
+
+	/*
+	 * All mutators of the list are overridden, so the index and density stay
+	 * in sync with the list.
+	 */
+
+	@Override
+	public synchronized boolean remove(Object o) {
+		if (!(o instanceof Feature) || !contains(o))
+			return false;
+		remove((Feature) o);
+		return true;
+	}
+
+	@Override
+	public synchronized Feature remove(int i) {
+		Feature f = super.remove(i);
+		unindexed(f);
+		return f;
+	}
+
+	@Override
+	public synchronized void add(int i, Feature f) {
+		super.add(i, f);
+		indexed(f);
+	}
+
+	@Override
+	public synchronized Feature set(int i, Feature f) {
+		Feature old = super.set(i, f);
+		unindexed(old);
+		indexed(f);
+		return old;
+	}
+
+	@Override
+	public synchronized boolean addAll(Collection<? extends Feature> c) {
+		for (Feature f : c)
+			add(f);
+		return c.size() > 0;
+	}
 
+	@Override
+	public synchronized boolean addAll(int i, Collection<? extends Feature> c) {
+		for (Feature f : c)
+			add(i++, f);
+		return c.size() > 0;
+	}
+
+	@Override
+	public synchronized boolean removeAll(Collection<?> c) {
+		return removeMatching(c, true);
+	}
+
+	@Override
+	public synchronized boolean retainAll(Collection<?> c) {
+		return removeMatching(c, false);
+	}
+
+	/* Removes the features that are in c or that are not in c */
+	private boolean removeMatching(Collection<?> c, boolean in) {
+		boolean modified = false;
+		/* The iterator removes through remove(int) */
+		for (Iterator<Feature> it = iterator(); it.hasNext();) {
+			if (c.contains(it.next()) == in) {
+				it.remove();
+				modified = true;
+			}
+		}
+		return modified;
+	}
+
+	@Override
+	protected synchronized void removeRange(int from, int to) {
+		List<Feature> gone = new ArrayList<Feature>(super.subList(from, to));
+		super.removeRange(from, to);
+		for (Feature f : gone)
+			unindexed(f);
+	}
+
+	/**
+	 * The view can not be modified, as changes to it would bypass the index.
+	 */
+	@Override
+	public List<Feature> subList(int from, int to) {
+		return Collections.unmodifiableList(super.subList(from, to));
+	}
+
+	@Override
+	public synchronized void clear() {
+		for (Feature f : this)
+			if (f.owner == this)
+				f.owner = null;
+		super.clear();
+		index.clear();
+		density.clear();
+		changed(Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	/* Adds a feature that was added to the list to the index */
+	private void indexed(Feature f) {
+		if (label == null)
+			label = f.type().toString();
+		index.add(f);
+		density.add(f.start(), 1);
+		f.owner = this;
+		if (f.end() > maxEnd)
+			maxEnd = f.end();
+		changed(f.start(), f.end());
+	}
+
+	/* Removes a feature that was removed from the list from the index */
+	private void unindexed(Feature f) {
+		index.remove(f);
+		density.add(f.start(), -1);
+		if (f.owner == this)
+			f.owner = null;
+		changed(f.start(), f.end());
+	}
+
+	/**
+	 * Called by a feature in this annotation when its locations or strand
+	 * changed.
+	 * 
+	 * @param f
+	 *            the feature
+	 * @param oldStart
+	 *            start coordinate before the change
+	 * @param oldEnd
+	 *            end coordinate before the change
+	 */
+	synchronized void moved(Feature f, int oldStart, int oldEnd) {
+		if (oldStart != f.start() || oldEnd != f.end()) {
+			if (index.remove(f, oldStart)) {
+				index.add(f);
+				density.add(oldStart, -1);
+				density.add(f.start(), 1);
+			}
+			if (f.end() > maxEnd)
+				maxEnd = f.end();
+		}
+		changed(Math.min(oldStart, f.start()), Math.max(oldEnd, f.end()));
 	}
 
 	/**
@@ -99,17 +274,32 @@ public class MemoryFeatureAnnotation extends MemoryListData<Feature> implements
 	 * 
 	 * @see
 	 * net.sf.jannot.DensityEstimate#getEstimateCount(net.sf.jannot.Location)
+	 * 
+	 * The count is exact: the whole bins of the density are summed and the
+	 * features in the partially covered bins at the borders are counted on
+	 * the index.
 	 */
 	@Override
-	public int getEstimateCount(Location l) {
-		if(cachedCount()<200)
-			return 0;
-		double d = cachedCount() / (maxEnd - minStart);
-		
-		int estMemory = (int) (l.length() * d);
-	
-		return estMemory;
+	public synchronized int getEstimateCount(Location l) {
+		int start = Math.max(0, l.start);
+		long size = density.binSize();
+		long first = (start + size - 1) / size * size;
+		long last = (l.end + 1L) / size * size;
+		if (first >= last)
+			return index.countStarts(start, l.end);
+		return density.count((int) first, (int) (last - 1)) + index.countStarts(start, (int) first - 1)
+				+ index.countStarts((int) last, l.end);
+	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.sf.jannot.DensityEstimate#getDensity(net.sf.jannot.Location,
+	 * int)
+	 */
+	@Override
+	public float[] getDensity(Location l, int parts) {
+		return density.density(l.start, l.end, parts);
 	}
 
 	/*
@@ -3,13 +3,12 @@
  */
 package net.sf.jannot.bigwig;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.logging.Logger;
 
 import net.sf.jannot.Data;
-import net.sf.jannot.pileup.Pile;
+import net.sf.jannot.pileup.PileBlock;
 import net.sf.jannot.pileup.PileNormalization;
-import net.sf.jannot.pileup.PileTools;
 
 import org.broad.igv.bbfile.BBFileReader;
 import org.broad.igv.bbfile.BBZoomLevelHeader;
@@ -23,7 +22,7 @@ import org.broad.igv.bbfile.ZoomLevelIterator;
  * @author Thomas Abeel
  * 
  */
-public class BigWigData implements Data<Pile>, PileNormalization {
+public class BigWigData implements Data<PileBlock>, PileNormalization {
 
 	private Logger log = Logger.getLogger(BigWigData.class.getCanonicalName());
 	private String chr;
@@ -108,7 +107,7 @@ public class BigWigData implements Data<Pile>, PileNormalization {
 	 * @see net.sf.jannot.Data#get(int, int)
 	 */
 	@Override
-	public Iterable<Pile> get(int start, int end) {
+	public Iterable<PileBlock> get(int start, int end) {
 		// if(size<0)
 		// setSize();
 		// int tmpSize = size;
@@ -130,7 +129,7 @@ public class BigWigData implements Data<Pile>, PileNormalization {
 
 		// TDFDataset data = tr.getDataset(chr, zoom, wf);
 		
-		ArrayList<Pile> out = new ArrayList<Pile>();
+		PileBlock out = new PileBlock(1, 1024);
 		
 		if(idx>0)
 			fillZoom(out,start,end,idx);
@@ -158,44 +157,38 @@ public class BigWigData implements Data<Pile>, PileNormalization {
 		// }
 		//
 		// }
-		return out;
+		return Collections.singletonList(out);
 
 	}
 
-	private void fillZoom(ArrayList<Pile> out, int start, int end,int zoom) {
+	private void fillZoom(PileBlock out, int start, int end,int zoom) {
 		ZoomLevelIterator zlIter = tr.getZoomLevelIterator(zoom,chr, start, chr, end, false);
 		while (zlIter.hasNext()) {
 			ZoomDataRecord rec = zlIter.next();
 			int n = rec.getBasesCovered();
 			if (n > 0) {
-				Pile tmp=PileTools.create(rec.getChromStart(), rec.getMeanVal());
-//				DoublePile tmp = new DoublePile(rec.getChromStart(), rec.getMeanVal(), 0, null);
-				tmp.setLength(rec.getChromEnd() - rec.getChromStart());
+				out.add(rec.getChromStart(), rec.getChromEnd() - rec.getChromStart(), rec.getMeanVal());
 //				System.out.println("Base covered = " + n);
 //				double mean = rec.getSumData() / n;
 //				System.out.println(rec.getChromName() + "\t" + rec.getChromStart() + "\t" + rec.getChromEnd() + "\t"
 //						+ mean);
-				out.add(tmp);
 			}
 
 		}
 		
 	}
 
-	private void fillWig(ArrayList<Pile> out, int start, int end) {
+	private void fillWig(PileBlock out, int start, int end) {
 		BigWigIterator zlIter = tr.getBigWigIterator( chr, start, chr, end, false);
 		while (zlIter.hasNext()) {
 			WigItem rec = zlIter.next();
 			int n = rec.getEndBase()-rec.getStartBase();//.getBasesCovered();
 			if (n > 0) {
-//				DoublePile tmp = new DoublePile(rec.getStartBase(),rec.getWigValue(), 0, null);
-				Pile tmp=PileTools.create(rec.getStartBase(),rec.getWigValue());
-				tmp.setLength(n);
+				out.add(rec.getStartBase(), n, rec.getWigValue());
 //				System.out.println("Base covered = " + n);
 //				double mean = rec.getSumData() / n;
 //				System.out.println(rec.getChromName() + "\t" + rec.getChromStart() + "\t" + rec.getChromEnd() + "\t"
 //						+ mean);
-				out.add(tmp);
 			}
 
 		}
@@ -214,7 +207,7 @@ public class BigWigData implements Data<Pile>, PileNormalization {
 	 * @see net.sf.jannot.Data#get()
 	 */
 	@Override
-	public Iterable<Pile> get() {
+	public Iterable<PileBlock> get() {
 		return get(1, size);
 	}
 
@@ -38,7 +38,7 @@ public abstract class Parser {
 	public static Parser[] parsers(Object source) {
 		return new Parser[] { GFF3, new BEDParser(source.toString()), EMBL, new GTFParser(), new BlastM8Parser(), new FindPeaksParser(), new GeneMarkParser(),
 				new MaqSNPParser(), new TransTermHPParser(), new TRNAscanParser(), new EMBLParser(), new FastaParser(), new GenbankParser(), new PTTParser(),
-				new TBLParser(),new VCFParser(source.toString()),new WiggleParser() };
+				new TBLParser(),new VCFParser(source.toString()),new WiggleParser(source) };
 	}
 
 	public Parser(DataKey dataKey) {
@@ -145,7 +145,7 @@ public abstract class Parser {
 		// System.out.println("Detect: " + line);
 		if (nonCommentLine.startsWith("track")) {
 			if (nonCommentLine.startsWith("track type=wiggle_0")) {
-				return new WiggleParser();
+				return new WiggleParser(source);
 			} else if (nonCommentLine.startsWith("track type=bedGraph")) {
 				return new BedGraphParser(new StringKey(source.toString()));
 			} else {
@@ -3,38 +3,114 @@
  */
 package net.sf.jannot.parser;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import net.sf.jannot.Entry;
 import net.sf.jannot.EntrySet;
 import net.sf.jannot.StringKey;
-import net.sf.jannot.wiggle.TroveArrayWiggle;
+import net.sf.jannot.wiggle.DiskArrayWiggle;
+import atk.util.MD5Tools;
 import be.abeel.io.LineIterator;
 /**
- * 
+ *
+ * Values are written to a {@link DiskArrayWiggle} per track and sequence.
+ * When the data comes from a local file, the wiggles are kept in the cache
+ * directory and opened again the next time the same file is loaded, as long
+ * as the file and the lengths of its sequences did not change. Older versions
+ * of a file are removed when it is loaded again, and the least recently used
+ * files are removed when the directory grows beyond the cache size.
+ *
  * @author Thomas
  *
  */
 public class WiggleParser extends Parser {
 
+	/**
+	 * Directory for the wiggles of local files, null to only use temporary
+	 * files.
+	 */
+	public static File cacheDir = new File(System.getProperty("user.home") + "/.genomeview/wiggle");
+
+	/**
+	 * Maximum number of bytes of the wiggles in the cache directory, the
+	 * least recently used ones are removed first.
+	 */
+	public static long cacheSize = 4L * 1024 * 1024 * 1024;
+
+	private static Logger log = Logger.getLogger(WiggleParser.class.getCanonicalName());
+
+	private final Object source;
+
 	public WiggleParser() {
+		this(null);
+	}
+
+	/**
+	 * @param source
+	 *            the file or URL the data is read from
+	 */
+	public WiggleParser(Object source) {
 		super(null);
+		this.source = source;
 	}
 
+	/* Collects runs of consecutive values to write them at once */
+	private static class Writer {
+		private final DiskArrayWiggle daw;
+		private final float[] buffer = new float[1 << 16];
+		private int start = 0;
+		private int n = 0;
+
+		Writer(DiskArrayWiggle daw) {
+			this.daw = daw;
+		}
+
+		void set(int position, float value) {
+			if (n > 0 && (position != start + n || n == buffer.length))
+				flush();
+			if (n == 0)
+				start = position;
+			buffer[n++] = value;
+		}
+
+		void flush() {
+			daw.put(start, buffer, 0, n);
+			n = 0;
+		}
+	}
+
+	/* The wiggles that were stored for the source, one per line */
+	private List<String> stored = new ArrayList<String>();
+
 	@Override
 	public EntrySet parse(InputStream is, EntrySet set) {
 		try {
 			if (set == null)
 				set = new EntrySet();
+			if (reopen(set))
+				return set;
+			discard();
 			LineIterator it = new LineIterator(is);
 			it.setSkipComments(true);
 			it.setCommentIdentifier("#");
 			it.addCommentIdentifier("browser ");
 
 			// FloatArrayList values = new FloatArrayList();
-			TroveArrayWiggle daw = null;
+			Writer daw = null;
 			boolean variable = false;
 			int step = 0;
 			int span = 1;
@@ -45,6 +121,8 @@ public class WiggleParser extends Parser {
 			for (String line : it) {
 				//System.out.println("Parsing: "+line);
 				if (line.startsWith("track")) {
+					add(e, name, daw);
+					daw = null;
 					Map<String,String>lineMap=BEDTools.parseTrack(line);
 					name = lineMap.get("name");
 					String chr=lineMap.get("chrom");
@@ -66,7 +144,7 @@ public class WiggleParser extends Parser {
 						}
 						if (kv[0].equals("chrom")) {
 							e = set.getOrCreateEntry(kv[1].trim());
-							daw = new TroveArrayWiggle(e.getMaximumLength());
+							daw = create(e);
 
 						}
 
@@ -90,20 +168,20 @@ public class WiggleParser extends Parser {
 							start = Integer.parseInt(kv[1]);
 						if (kv[0].equals("chrom")) {
 							e = set.getOrCreateEntry(kv[1].trim());
-							daw = new TroveArrayWiggle(e.getMaximumLength());
+							daw = create(e);
 						}
 					}
 				} else if (variable) {
 					String[] arr = line.split("[ \t]+");
 					int s = Integer.parseInt(arr[0]);
 					double val = Double.parseDouble(arr[1]);
-					
+
 					for (int i = s; i < s + span; i++) {
 						daw.set(i, (float) val);
 					}
 				} else {
 					double val = Double.parseDouble(line);
-					
+
 					for (int i = start + stepOffset; i < start + stepOffset + span; i++) {
 						daw.set(i, (float) val);
 					}
@@ -111,30 +189,182 @@ public class WiggleParser extends Parser {
 				}
 			}
 			add(e, name, daw);
+			store();
 		} catch (IOException ioex) {
 			throw new RuntimeException(ioex);
 		}
 
-		
+
 		return set;
 	}
 
+	/* The stored wiggles of all versions of a local file start with this */
+	private String prefix() {
+		if (cacheDir == null || cacheSize <= 0 || !(source instanceof File))
+			return null;
+		return MD5Tools.md5(((File) source).getAbsolutePath()) + ".";
+	}
+
+	/* The name of the stored wiggles of a local file that did not change */
+	private String key() {
+		String prefix = prefix();
+		if (prefix == null)
+			return null;
+		File f = (File) source;
+		return prefix + MD5Tools.md5(f.length() + "\t" + f.lastModified());
+	}
+
+	/* Removes the stored wiggles of older or unusable versions of the file */
+	private void discard() {
+		String prefix = prefix();
+		File[] files = prefix == null ? null : cacheDir.listFiles();
+		if (files == null)
+			return;
+		for (File f : files)
+			if (f.getName().startsWith(prefix) && !f.delete())
+				log.warning("Could not remove stored wiggle " + f);
+	}
+
+	/**
+	 * Deletes the least recently used wiggles until the directory fits in the
+	 * cache size. The wiggles of a file version are removed together, the
+	 * ones of the file that is loaded are kept.
+	 */
+	private static synchronized void evict(String keep) {
+		File[] files = cacheDir.listFiles();
+		if (files == null)
+			return;
+		final Map<String, long[]> versions = new HashMap<String, long[]>();
+		long total = 0;
+		for (File f : files) {
+			String version = version(f);
+			if (version == null)
+				continue;
+			long[] v = versions.get(version);
+			if (v == null)
+				versions.put(version, v = new long[2]);
+			v[0] += f.length();
+			v[1] = Math.max(v[1], f.lastModified());
+			total += f.length();
+		}
+		if (total <= cacheSize)
+			return;
+		List<String> order = new ArrayList<String>(versions.keySet());
+		Collections.sort(order, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Long.compare(versions.get(a)[1], versions.get(b)[1]);
+			}
+		});
+		for (int i = 0; i < order.size() && total > cacheSize; i++) {
+			if (order.get(i).equals(keep))
+				continue;
+			for (File f : files)
+				if (order.get(i).equals(version(f)) && !f.delete())
+					log.warning("Could not remove stored wiggle " + f);
+			total -= versions.get(order.get(i))[0];
+		}
+	}
+
+	/* The path and version part of the name of a stored wiggle */
+	private static String version(File f) {
+		String name = f.getName();
+		int dot = name.indexOf('.');
+		int second = dot < 0 ? -1 : name.indexOf('.', dot + 1);
+		return second < 0 ? null : name.substring(0, second);
+	}
+
+	private DiskArrayWiggle lastCreated = null;
+
+	private Writer create(Entry e) throws IOException {
+		String key = key();
+		if (key != null && (cacheDir.exists() || cacheDir.mkdirs()))
+			lastCreated = new DiskArrayWiggle(new File(cacheDir, key + "." + stored.size() + ".wig"),
+					e.getMaximumLength());
+		else
+			lastCreated = new DiskArrayWiggle(e.getMaximumLength());
+		return new Writer(lastCreated);
+	}
+
 	/**
 	 * @param e
 	 * @param name
 	 * @param daw
 	 */
-	private void add(Entry e, String name, TroveArrayWiggle daw) {
+	private void add(Entry e, String name, Writer daw) {
 		/* Add the previous one */
 		if (daw != null) {
-			daw.init();
-			e.add(new StringKey(name), daw);
-			
-			daw = null;
+			daw.flush();
+			daw.daw.finish();
+			e.add(new StringKey(name), daw.daw);
+			if (daw.daw == lastCreated)
+				stored.add(e.getID() + "\t" + name + "\t" + daw.daw.size());
+			lastCreated = null;
 		}
 
 	}
 
-	
+	/* Lists the stored wiggles, they are only used once the list exists */
+	private void store() {
+		String key = key();
+		if (key == null || stored.isEmpty())
+			return;
+		File tmp = new File(cacheDir, key + ".tmp");
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(tmp));
+			for (String s : stored)
+				out.println(s);
+			out.close();
+			File index = new File(cacheDir, key + ".wigs");
+			index.delete();
+			if (!tmp.renameTo(index))
+				log.warning("Could not store wiggle index " + index);
+			evict(key);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Could not store wiggle index " + tmp, e);
+		}
+	}
+
+	/* Opens the wiggles that were stored the last time the file was loaded */
+	private boolean reopen(EntrySet set) {
+		String key = key();
+		if (key == null)
+			return false;
+		File index = new File(cacheDir, key + ".wigs");
+		if (!index.exists())
+			return false;
+		List<String[]> lines = new ArrayList<String[]>();
+		List<DiskArrayWiggle> wiggles = new ArrayList<DiskArrayWiggle>();
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(index));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					String[] arr = line.split("\t");
+					DiskArrayWiggle daw = DiskArrayWiggle.open(new File(cacheDir, key + "." + lines.size() + ".wig"));
+					/* Wiggles made for sequences of another length are loaded again */
+					Entry e = set.getEntry(arr[0]);
+					int length = e == null ? 0 : e.getMaximumLength();
+					if (daw == null || daw.size() != Long.parseLong(arr[2]) || daw.size() != length)
+						return false;
+					lines.add(arr);
+					wiggles.add(daw);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Could not open stored wiggles of " + source, e);
+			return false;
+		} catch (RuntimeException e) {
+			log.log(Level.WARNING, "Could not open stored wiggles of " + source, e);
+			return false;
+		}
+		/* Marks the wiggles as used, for the eviction */
+		index.setLastModified(System.currentTimeMillis());
+		for (int i = 0; i < lines.size(); i++)
+			set.getOrCreateEntry(lines.get(i)[0]).add(new StringKey(lines.get(i)[1]), wiggles.get(i));
+		return true;
+	}
 
 }
@@ -0,0 +1,319 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.picard;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import net.sf.samtools.seekablestream.SeekableBufferedStream;
+import net.sf.samtools.seekablestream.SeekableStream;
+import be.abeel.concurrency.DaemonThreadFactory;
+
+/**
+ * Reads the lines of a BGZF compressed file that start in a list of chunks.
+ * Chunks are given as virtual file offsets, as found in tabix indices.
+ *
+ * The compressed blocks are read on the calling thread and inflated in
+ * parallel on a shared pool, while the calling thread splits the blocks that
+ * are already inflated in lines. A limited number of blocks is inflated ahead
+ * of the lines that are being processed.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class BGZFLineReader {
+
+	/**
+	 * Receives the lines that are read.
+	 */
+	public interface LineHandler {
+		/**
+		 * Called for each line, without the line terminator. The buffer is
+		 * only valid during the call.
+		 *
+		 * @return false to skip the remainder of the current chunk
+		 */
+		public boolean line(byte[] buffer, int offset, int length) throws IOException;
+	}
+
+	private static final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime()
+			.availableProcessors(), new DaemonThreadFactory());
+
+	/* Inflaters are expensive to create, each pool thread keeps one */
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	private static final int HEADER = 18;
+	private static final int FOOTER = 8;
+	private static final int MAX_BLOCK = 64 * 1024;
+
+	/* Number of blocks that are inflated ahead of the one being split */
+	private final int ahead = 2 * Runtime.getRuntime().availableProcessors();
+
+	private final SeekableStream in;
+
+	/* Blocks that have been submitted for inflation, in file order */
+	private final ArrayDeque<Block> queue = new ArrayDeque<Block>();
+
+	/* Chunks that are being read and the chunk the producer is working on */
+	private long[] starts, ends;
+	private int nChunks;
+	private int produceChunk;
+	/* Compressed address of the next block to submit */
+	private long produceAddress;
+
+	/* Current line, can span several blocks */
+	private byte[] line = new byte[1024];
+	private int lineLength;
+
+	public BGZFLineReader(SeekableStream in) {
+		this.in = new SeekableBufferedStream(in);
+	}
+
+	private static class Block {
+		private final int chunk;
+		private final long address;
+		private final int compressedSize;
+		private final Future<byte[]> data;
+
+		Block(int chunk, long address, int compressedSize, Future<byte[]> data) {
+			this.chunk = chunk;
+			this.address = address;
+			this.compressedSize = compressedSize;
+			this.data = data;
+		}
+	}
+
+	private static class Inflate implements Callable<byte[]> {
+		private final byte[] compressed;
+
+		Inflate(byte[] compressed) {
+			this.compressed = compressed;
+		}
+
+		@Override
+		public byte[] call() throws DataFormatException {
+			int n = compressed.length;
+			int size = (compressed[n - 4] & 0xFF) | (compressed[n - 3] & 0xFF) << 8 | (compressed[n - 2] & 0xFF) << 16
+					| (compressed[n - 1] & 0xFF) << 24;
+			byte[] out = new byte[size];
+			Inflater inflater = inflaters.get();
+			inflater.reset();
+			inflater.setInput(compressed, HEADER, n - HEADER - FOOTER);
+			int done = 0;
+			while (done < size) {
+				int r = inflater.inflate(out, done, size - done);
+				if (r == 0 && (inflater.finished() || inflater.needsInput()))
+					throw new DataFormatException("Truncated BGZF block");
+				done += r;
+			}
+			return out;
+		}
+	}
+
+	/**
+	 * Reads the lines that start in each of the chunks [starts[i],ends[i][.
+	 * Chunks have to be sorted and must not overlap.
+	 */
+	public void read(long[] starts, long[] ends, int n, LineHandler handler) throws IOException {
+		this.starts = starts;
+		this.ends = ends;
+		this.nChunks = n;
+		this.produceChunk = 0;
+		this.produceAddress = n > 0 ? starts[0] >>> 16 : 0;
+		queue.clear();
+		try {
+			for (int i = 0; i < n; i++)
+				readChunk(i, handler);
+		} finally {
+			for (Block b : queue)
+				b.data.cancel(false);
+			queue.clear();
+		}
+	}
+
+	private void readChunk(int chunk, LineHandler handler) throws IOException {
+		long vEnd = ends[chunk];
+		int skip = (int) (starts[chunk] & 0xFFFF);
+		lineLength = 0;
+		/* Virtual offset of the start of the current line */
+		long lineStart = -1;
+		Block block = next(chunk, -1);
+		while (block != null) {
+			byte[] data = get(block);
+			int i = skip;
+			while (i < data.length) {
+				if (lineStart < 0) {
+					lineStart = block.address << 16 | i;
+					if (lineStart >= vEnd) {
+						skipChunk(chunk);
+						return;
+					}
+				}
+				int nl = i;
+				while (nl < data.length && data[nl] != '\n')
+					nl++;
+				if (nl == data.length) {
+					/* Line continues in the next block */
+					append(data, i, nl - i);
+					break;
+				}
+				boolean more;
+				if (lineLength == 0) {
+					/* Line is completely in this block, no need to copy */
+					more = emit(handler, data, i, nl - i);
+				} else {
+					append(data, i, nl - i);
+					more = emit(handler, line, 0, lineLength);
+					lineLength = 0;
+				}
+				lineStart = -1;
+				i = nl + 1;
+				if (!more) {
+					skipChunk(chunk);
+					return;
+				}
+			}
+			skip = 0;
+			block = next(chunk, block.address + block.compressedSize);
+		}
+		/* Last line without terminator */
+		if (lineLength > 0)
+			emit(handler, line, 0, lineLength);
+	}
+
+	private boolean emit(LineHandler handler, byte[] buffer, int offset, int length) throws IOException {
+		if (length > 0 && buffer[offset + length - 1] == '\r')
+			length--;
+		return handler.line(buffer, offset, length);
+	}
+
+	private void append(byte[] buffer, int offset, int length) {
+		if (lineLength + length > line.length) {
+			byte[] tmp = new byte[Math.max(line.length * 2, lineLength + length)];
+			System.arraycopy(line, 0, tmp, 0, lineLength);
+			line = tmp;
+		}
+		System.arraycopy(buffer, offset, line, lineLength, length);
+		lineLength += length;
+	}
+
+	private byte[] get(Block b) throws IOException {
+		try {
+			return b.data.get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/* Drops the blocks that were read ahead for a chunk that is done */
+	private void skipChunk(int chunk) {
+		while (!queue.isEmpty() && queue.peekFirst().chunk == chunk)
+			queue.pollFirst().data.cancel(false);
+		if (produceChunk == chunk) {
+			produceChunk++;
+			if (produceChunk < nChunks)
+				produceAddress = starts[produceChunk] >>> 16;
+		}
+	}
+
+	/**
+	 * Returns the next block for a chunk. The first block of a chunk is
+	 * requested with address -1, the following blocks with their address.
+	 * Blocks after the end of a chunk are only read when a line continues
+	 * into them.
+	 *
+	 * @return null at the end of the file
+	 */
+	private Block next(int chunk, long address) throws IOException {
+		/* Blocks read ahead for chunks that ended at the end of the file */
+		while (!queue.isEmpty() && queue.peekFirst().chunk < chunk)
+			queue.pollFirst().data.cancel(false);
+		fill();
+		Block b = queue.peekFirst();
+		if (b != null && b.chunk == chunk && (address < 0 || b.address == address))
+			return queue.pollFirst();
+		if (address < 0)
+			address = starts[chunk] >>> 16;
+		/* Continuation past the end of the chunk, read it directly */
+		return submit(chunk, address);
+	}
+
+	/* Submits blocks until enough are in flight */
+	private void fill() throws IOException {
+		while (queue.size() < ahead && produceChunk < nChunks) {
+			if (produceAddress > ends[produceChunk] >>> 16) {
+				produceChunk++;
+				if (produceChunk < nChunks)
+					produceAddress = starts[produceChunk] >>> 16;
+				continue;
+			}
+			Block b = submit(produceChunk, produceAddress);
+			if (b == null) {
+				produceChunk = nChunks;
+				break;
+			}
+			queue.addLast(b);
+			produceAddress += b.compressedSize;
+		}
+	}
+
+	private byte[] header = new byte[HEADER];
+	/* Position of the stream, seeking discards its buffer */
+	private long position = -1;
+
+	private Block submit(int chunk, long address) throws IOException {
+		if (address != position)
+			in.seek(address);
+		position = -1;
+		int r = readFully(header, 0, HEADER);
+		if (r == 0)
+			return null;
+		if (r < HEADER)
+			throw new EOFException("Truncated BGZF header at " + address + " in " + in.getSource());
+		if ((header[0] & 0xFF) != 31 || (header[1] & 0xFF) != 139 || header[3] != 4)
+			throw new IOException("Not a BGZF block at " + address + " in " + in.getSource());
+		int size = ((header[16] & 0xFF) | (header[17] & 0xFF) << 8) + 1;
+		if (size < HEADER + FOOTER || size > MAX_BLOCK)
+			throw new IOException("Invalid BGZF block size " + size + " at " + address);
+		byte[] compressed = new byte[size];
+		System.arraycopy(header, 0, compressed, 0, HEADER);
+		if (readFully(compressed, HEADER, size - HEADER) < size - HEADER)
+			throw new EOFException("Truncated BGZF block at " + address + " in " + in.getSource());
+		position = address + size;
+		return new Block(chunk, address, size, pool.submit(new Inflate(compressed)));
+	}
+
+	private int readFully(byte[] buffer, int offset, int length) throws IOException {
+		int done = 0;
+		while (done < length) {
+			int r = in.read(buffer, offset + done, length - done);
+			if (r < 0)
+				break;
+			done += r;
+		}
+		return done;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
@@ -6,159 +6,223 @@ package net.sf.jannot.picard;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.jannot.Cleaner;
 import net.sf.jannot.exception.ReadFailedException;
-
-import net.sf.samtools.seekablestream.SeekableHTTPStream;
 import net.sf.samtools.seekablestream.SeekableStream;
+import be.abeel.concurrency.DaemonThreadFactory;
 import be.abeel.net.URIFactory;
 
 /**
+ * Seekable stream over HTTP that keeps everything it downloads in a
+ * temporary file.
+ *
+ * The file is divided in blocks. Missing blocks that are needed for a read
+ * are downloaded with a single range request for each run of adjacent
+ * blocks. Downloads run on a shared pool, so several readers can wait for
+ * different blocks at the same time. After each read, a few blocks are
+ * downloaded ahead in the direction in which the reads are moving.
+ *
  * @author Thomas Abeel
  */
 public class SeekableFileCachedHTTPStream extends net.sf.samtools.seekablestream.SeekableHTTPStream {
 
-	private Logger log = Logger.getLogger(SeekableFileCachedHTTPStream.class.getCanonicalName());
+	private static Logger log = Logger.getLogger(SeekableFileCachedHTTPStream.class.getCanonicalName());
 
-	class Cache {
-		private ArrayList<Integer> blocks = new ArrayList<Integer>();
+	/* Downloads of all streams */
+	private static final ExecutorService pool = Executors.newFixedThreadPool(8, new DaemonThreadFactory());
 
-		private void updateBlocks(long pos, int length) {
-			blocks.clear();
-			long startBlock = pos / BLOCKSIZE;
-			while (startBlock * BLOCKSIZE < pos + length) {
-				blocks.add((int) startBlock);
-				startBlock++;
+	class Cache {
+		private final URL url;
+		private final long length;
+		private final int blockSize;
+		private final File bufferFile;
+		private final RandomAccessFile raf;
+		/* Positional reads and writes on the channel can be used concurrently */
+		private final FileChannel channel;
+
+		/* Blocks that are in the buffer file */
+		private final BitSet retrievedBlocks = new BitSet();
+		/* Downloads that are running or queued, by block */
+		private final HashMap<Integer, Future<Void>> pending = new HashMap<Integer, Future<Void>>();
+		/* First block of the previous read, to determine the direction */
+		private int lastBlock = -1;
+
+		private Cache(URL url, long length, int blockSize) throws IOException {
+			this.url = url;
+			this.length = length;
+			this.blockSize = blockSize;
+			log.fine("Reported size " + length + " for " + url);
+			bufferFile = File.createTempFile("GenomeView.urlbuffer", ".tmp");
+			bufferFile.deleteOnExit();
+			/* No synchronous writes, the buffer does not need to survive a crash */
+			raf = new RandomAccessFile(bufferFile, "rw");
+			channel = raf.getChannel();
+			Cleaner.register(raf, bufferFile);
+		}
 
-			}
+		private int lastBlock() {
+			return (int) ((length - 1) / blockSize);
 		}
 
-		private File[] bufferFiles;
-		private RandomAccessFile[] rafs;
-		// private URL url;
-		private SeekableHTTPStream urlstream;
-
-		private Cache(URL url) throws IOException, ReadFailedException {
-			urlstream = new SeekableHTTPStream(url);
-			long len=urlstream.length();
-			log.fine("Reported size "+len +" for "+url);
-			bufferFiles = new File[1+(int) (len / (BLOCKSIZE * BLOCKSPERFILE))];
-			rafs = new RandomAccessFile[bufferFiles.length];
-			
-			log.fine("Creating "+bufferFiles.length+" HTTP cache files for "+url);
-			for (int i = 0; i < bufferFiles.length; i++) {
-				bufferFiles[i] = File.createTempFile("GenomeView.urlbuffer", ".tmp." + i);
-				bufferFiles[i].deleteOnExit();
-				rafs[i] = new RandomAccessFile(bufferFiles[i], "rwd");
-				Cleaner.register(rafs[i], bufferFiles[i]);
-			}
+		/**
+		 * Downloads the blocks [first,last] with one request and stores them in
+		 * the buffer file.
+		 */
+		private class Download implements Callable<Void> {
+			private final int first, last;
 
-			retrievedBlocks = new BitSet();
+			Download(int first, int last) {
+				this.first = first;
+				this.last = last;
+			}
 
+			@Override
+			public Void call() throws IOException {
+				try {
+					long start = (long) first * blockSize;
+					long end = Math.min(length, (long) (last + 1) * blockSize);
+					log.log(Level.FINE, "getting blocks " + first + "-" + last + " of " + url);
+					byte[] buffer = fetch(start, (int) (end - start));
+					ByteBuffer bb = ByteBuffer.wrap(buffer);
+					long pos = start;
+					while (bb.hasRemaining())
+						pos += channel.write(bb, pos);
+					synchronized (Cache.this) {
+						retrievedBlocks.set(first, last + 1);
+					}
+					return null;
+				} catch (IOException e) {
+					log.log(Level.SEVERE, "Exception during retrieval of blocks " + first + "-" + last + ", url=" + url, e);
+					throw e;
+				} finally {
+					synchronized (Cache.this) {
+						for (int i = first; i <= last; i++)
+							pending.remove(i);
+					}
+				}
+			}
 		}
 
-		private synchronized void retrieve(long block) throws IOException {
+		/* Range request for [start,start+len[ */
+		private byte[] fetch(long start, int len) throws IOException {
+			URLConnection conn = url.openConnection();
+			conn.setRequestProperty("Range", "bytes=" + start + "-" + (start + len - 1));
+			InputStream is = conn.getInputStream();
 			try {
-				log.log(Level.FINE,"getting block " + block);
-				/* Download block data */
-				urlstream.seek(block * BLOCKSIZE);
-				byte[] buffer = new byte[BLOCKSIZE];
-				urlstream.read(buffer, 0, BLOCKSIZE);
-
-				/* Cache */
-				rafs[(int) (block / BLOCKSPERFILE)].seek((block % BLOCKSPERFILE) * BLOCKSIZE);
-				rafs[(int) (block / BLOCKSPERFILE)].write(buffer);
-				retrievedBlocks.set((int) block);
-
-			} catch (Exception e) {
-				log.log(Level.SEVERE, "Exception during retrieval rafs.len="+rafs.length+", url="+urlstream.getSource(), e);
-
+				/* Servers that ignore the range send the whole file */
+				if (conn instanceof HttpURLConnection
+						&& ((HttpURLConnection) conn).getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+					long skip = start;
+					while (skip > 0) {
+						long s = is.skip(skip);
+						if (s <= 0)
+							throw new EOFException("Could not skip to " + start + " in " + url);
+						skip -= s;
+					}
+				}
+				byte[] buffer = new byte[len];
+				int n = 0;
+				while (n < len) {
+					int r = is.read(buffer, n, len - n);
+					if (r < 0)
+						throw new EOFException("Download of " + url + " ended at " + (start + n));
+					n += r;
+				}
+				return buffer;
+			} finally {
+				is.close();
 			}
 		}
 
-		private BitSet retrievedBlocks = null;
-
-		// private RandomAccessFile raf;
+		/*
+		 * Starts downloads for the missing blocks in [first,last], adjacent
+		 * blocks are combined in a single request. Futures of all blocks that
+		 * are not yet available are added to wait.
+		 */
+		private void request(int first, int last, List<Future<Void>> wait) {
+			first = Math.max(0, first);
+			last = Math.min(lastBlock(), last);
+			int b = first;
+			while (b <= last) {
+				if (retrievedBlocks.get(b)) {
+					b++;
+					continue;
+				}
+				Future<Void> f = pending.get(b);
+				if (f == null) {
+					int end = b;
+					while (end < last && end - b + 1 < MAX_RUN && !retrievedBlocks.get(end + 1)
+							&& !pending.containsKey(end + 1))
+						end++;
+					f = pool.submit(new Download(b, end));
+					for (int i = b; i <= end; i++)
+						pending.put(i, f);
+				}
+				if (wait != null && !wait.contains(f))
+					wait.add(f);
+				b++;
+			}
+		}
 
-		public synchronized int read(long position, byte[] buffer, int offset, int length) throws IOException {
+		public int read(long position, byte[] buffer, int offset, int length) throws IOException {
 			if (offset < 0 || length < 0 || (offset + length) > buffer.length) {
 				throw new IndexOutOfBoundsException();
 			}
-			updateBlocks(position, length);
-			/* Check whether all blocks we need are cached */
-			for (int block : blocks) {
-				if (!retrievedBlocks.get(block)) {
-					retrieve(block);
-				}
-			}
-
-			/* Total bytes read */
-			int n = 0;
-
-			/* First file in which we need to read something */
-			long startFile = position / (BLOCKSIZE * BLOCKSPERFILE);
-
-			/* Last file in which we need to read something */
-			long endFile = (position + length) / (BLOCKSIZE * BLOCKSPERFILE);
-
-			/* First file */
-			RandomAccessFile workingRaf = rafs[(int) startFile];
-			position = position - (startFile * BLOCKSIZE * BLOCKSPERFILE);
-			workingRaf.seek(position);
-
-			/* Available bytes in first file */
-			long avail = BLOCKSIZE * BLOCKSPERFILE - position;
-			if (avail > length)
-				avail = length;
-
-			// /--> read first chunk
-			while (n < avail) {
-				int count = workingRaf.read(buffer, offset + n, (int) (avail - n));
-				if (count < 0) {
-					throw new EOFException();
-				}
-				n += count;
+			if (position >= this.length)
+				return -1;
+			length = (int) Math.min(length, this.length - position);
+			if (length == 0)
+				return 0;
+			int first = (int) (position / blockSize);
+			int last = (int) ((position + length - 1) / blockSize);
+			List<Future<Void>> wait = new ArrayList<Future<Void>>();
+			synchronized (this) {
+				request(first, last, wait);
+				if (lastBlock >= 0 && first > lastBlock)
+					request(last + 1, last + READ_AHEAD, null);
+				else if (lastBlock >= 0 && first < lastBlock)
+					request(first - READ_AHEAD, first - 1, null);
+				lastBlock = first;
 			}
-
-			/* Middle files */
-			for (long i = startFile + 1; i < endFile; i++) {
-				avail=BLOCKSIZE*BLOCKSPERFILE;
-				workingRaf = rafs[(int) i];
-				workingRaf.seek(0);
-				while (n < avail ) {
-					int count = workingRaf.read(buffer, offset + n, (int) (avail - n));
-					if (count < 0) {
-						throw new EOFException();
-					}
-					n += count;
+			for (Future<Void> f : wait) {
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				} catch (ExecutionException e) {
+					throw new IOException(e.getCause());
 				}
 			}
-
-			/* Last file */
-			if (startFile < endFile) {
-				workingRaf = rafs[(int) endFile];
-				workingRaf.seek(0);
-				while (n < length) {
-					workingRaf = rafs[(int) endFile];
-					workingRaf.seek(0);
-					int count = workingRaf.read(buffer, offset + n, length - n);
-					if (count < 0) {
-						throw new EOFException();
-					}
-					n += count;
-				}
+			ByteBuffer bb = ByteBuffer.wrap(buffer, offset, length);
+			long pos = position;
+			while (bb.hasRemaining()) {
+				int r = channel.read(bb, pos);
+				if (r < 0)
+					throw new EOFException();
+				pos += r;
 			}
-
-			return n;
+			return length;
 		}
 
 	}
@@ -167,13 +231,18 @@ public class SeekableFileCachedHTTPStream extends net.sf.samtools.seekablestream
 
 	private Cache cache;
 	private static final int BLOCKSIZE = 256 * 1024;
-	/* Each file contains n number of blocks */
-	private static final int BLOCKSPERFILE = 40;
+	/* Maximum number of blocks in a single request */
+	private static final int MAX_RUN = 32;
+	/* Number of blocks that are downloaded ahead */
+	private static final int READ_AHEAD = 4;
 
 	public SeekableFileCachedHTTPStream(URL url) throws IOException, ReadFailedException {
-		super(url);
-		cache = new Cache(url);
+		this(url, BLOCKSIZE);
+	}
 
+	SeekableFileCachedHTTPStream(URL url, int blockSize) throws IOException {
+		super(url);
+		cache = new Cache(url, super.length(), blockSize);
 	}
 
 	private SeekableFileCachedHTTPStream(URL url, Cache c) {
@@ -185,22 +254,40 @@ public class SeekableFileCachedHTTPStream extends net.sf.samtools.seekablestream
 		this.position = position;
 	}
 
-	public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+	@Override
+	public long position() {
+		return position;
+	}
+
+	@Override
+	public boolean eof() {
+		return position >= cache.length;
+	}
+
+	public int read(byte[] buffer, int offset, int length) throws IOException {
 		int n = cache.read(position, buffer, offset, length);
-		position += n;
+		if (n > 0)
+			position += n;
 		return n;
 
 	}
 
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		if (read(b, 0, 1) <= 0)
+			return -1;
+		return b[0] & 0xFF;
+	}
+
 	/**
 	 * Closes this SeekableFileCachedHTTPStream and its entire lineage.
-	 * 
+	 *
 	 * @throws IOException
 	 */
 	public void closeAll() {
 		try {
-			for (RandomAccessFile raf : cache.rafs)
-				raf.close();
+			cache.raf.close();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -0,0 +1,282 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.pileup;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A run of piles stored column wise. Pile i covers [start[i],start[i]+length[i][
+ * and has valueCount() values, value j is in values[j][i].
+ *
+ * Coverage sources return their data as blocks, so a query does not create
+ * an object for every interval. The arrays returned by {@link #starts()},
+ * {@link #lengths()} and {@link #values(int)} may be longer than
+ * {@link #size()}, only the first size() entries are valid.
+ *
+ * Code that still works with {@link Pile} objects can use {@link #pile(int)}
+ * or {@link #piles(Iterable)}.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public final class PileBlock {
+
+	private int size = 0;
+	private int[] start;
+	private int[] length;
+	private float[][] values;
+	/* Bases of the pileup format, only allocated when used */
+	private byte[][] bases = null;
+
+	public PileBlock(int valueCount) {
+		this(valueCount, 16);
+	}
+
+	public PileBlock(int valueCount, int capacity) {
+		capacity = Math.max(1, capacity);
+		start = new int[capacity];
+		length = new int[capacity];
+		values = new float[valueCount][capacity];
+	}
+
+	/**
+	 * Wraps existing arrays, the arrays are not copied.
+	 */
+	public PileBlock(int[] start, int[] length, float[][] values, int size) {
+		this.start = start;
+		this.length = length;
+		this.values = values;
+		this.size = size;
+	}
+
+	private void ensureCapacity(int n) {
+		if (n <= start.length)
+			return;
+		int capacity = Math.max(n, start.length * 2);
+		start = Arrays.copyOf(start, capacity);
+		length = Arrays.copyOf(length, capacity);
+		for (int j = 0; j < values.length; j++)
+			values[j] = Arrays.copyOf(values[j], capacity);
+		if (bases != null)
+			bases = Arrays.copyOf(bases, capacity);
+	}
+
+	/**
+	 * Adds a pile with all values zero.
+	 *
+	 * @return the index of the new pile
+	 */
+	public int add(int start, int length) {
+		ensureCapacity(size + 1);
+		this.start[size] = start;
+		this.length[size] = length;
+		for (int j = 0; j < values.length; j++)
+			values[j][size] = 0;
+		if (bases != null)
+			bases[size] = null;
+		return size++;
+	}
+
+	public int add(int start, int length, float value) {
+		int i = add(start, length);
+		values[0][i] = value;
+		return i;
+	}
+
+	public int add(int start, int length, float value0, float value1) {
+		int i = add(start, length);
+		values[0][i] = value0;
+		values[1][i] = value1;
+		return i;
+	}
+
+	/**
+	 * Adds a single position of a pileup file. The reads are counted as
+	 * forward and reverse coverage and kept as the bases of the pile.
+	 */
+	public int addReads(int pos, byte[] reads) {
+		int i = add(pos, 1);
+		float fcoverage = 0;
+		float rcoverage = 0;
+		for (int k = 0; k < reads.length; k++) {
+			byte c = reads[k];
+			if (c == '^')
+				k++;
+			else if (c == '-' || c == '+') {
+				int jump = reads[++k];
+				if (jump >= '0' && jump <= '9')
+					k += jump - '0';
+			} else if (c == '.' || c == 'A' || c == 'C' || c == 'G' || c == 'T' || c == 'N') {
+				fcoverage++;
+			} else if (c == ',' || c == 'a' || c == 'c' || c == 'g' || c == 't' || c == 'n') {
+				rcoverage++;
+			}
+		}
+		values[0][i] = fcoverage;
+		if (values.length > 1)
+			values[1][i] = rcoverage;
+		setBases(i, reads);
+		return i;
+	}
+
+	public void set(int i, int column, float value) {
+		values[column][i] = value;
+	}
+
+	public void setBases(int i, byte[] reads) {
+		if (bases == null)
+			bases = new byte[start.length][];
+		bases[i] = reads;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int valueCount() {
+		return values.length;
+	}
+
+	public int start(int i) {
+		return start[i];
+	}
+
+	public int length(int i) {
+		return length[i];
+	}
+
+	public int end(int i) {
+		return start[i] + length[i];
+	}
+
+	public float value(int column, int i) {
+		return values[column][i];
+	}
+
+	public float total(int i) {
+		float sum = 0;
+		for (int j = 0; j < values.length; j++)
+			sum += values[j][i];
+		return sum;
+	}
+
+	/**
+	 * @return the bases of the pile, or <code>null</code> when the format
+	 *         does not have base information
+	 */
+	public byte[] bases(int i) {
+		return bases == null ? null : bases[i];
+	}
+
+	public int[] starts() {
+		return start;
+	}
+
+	public int[] lengths() {
+		return length;
+	}
+
+	public float[] values(int column) {
+		return values[column];
+	}
+
+	/**
+	 * @return the largest total of a pile in this block, or zero when the
+	 *         block is empty
+	 */
+	public float maxTotal() {
+		float max = 0;
+		for (int i = 0; i < size; i++) {
+			float t = total(i);
+			if (t > max)
+				max = t;
+		}
+		return max;
+	}
+
+	/**
+	 * Creates a pile object for a single entry.
+	 */
+	public Pile pile(int i) {
+		Pile p;
+		byte[] b = bases(i);
+		if (b != null && values.length == 2) {
+			p = new ReadDetailPile(start[i], values[0][i], values[1][i], b);
+		} else {
+			float[] arr = new float[values.length];
+			for (int j = 0; j < arr.length; j++)
+				arr[j] = values[j][i];
+			p = PileTools.create(start[i], arr);
+		}
+		p.setLength(length[i]);
+		return p;
+	}
+
+	/**
+	 * Collects piles in a block.
+	 */
+	public static PileBlock of(Iterable<? extends Pile> piles) {
+		PileBlock out = null;
+		for (Pile p : piles) {
+			if (p == null)
+				continue;
+			if (out == null)
+				out = new PileBlock(p.getValueCount());
+			int i = out.add(p.start(), p.getLength());
+			for (int j = 0; j < out.values.length; j++)
+				out.values[j][i] = p.getValue(j);
+			if (p.getBases() != null)
+				out.setBases(i, p.getBases());
+		}
+		return out == null ? new PileBlock(1, 1) : out;
+	}
+
+	/**
+	 * Adapter for code that works with pile objects, the piles are created
+	 * while iterating.
+	 */
+	public static Iterable<Pile> piles(final Iterable<PileBlock> blocks) {
+		return new Iterable<Pile>() {
+
+			@Override
+			public Iterator<Pile> iterator() {
+				return new Iterator<Pile>() {
+					private Iterator<PileBlock> it = blocks.iterator();
+					private PileBlock current = null;
+					private int idx = 0;
+
+					@Override
+					public boolean hasNext() {
+						while (current == null || idx >= current.size()) {
+							if (!it.hasNext())
+								return false;
+							current = it.next();
+							idx = 0;
+						}
+						return true;
+					}
+
+					@Override
+					public Pile next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						return current.pile(idx++);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "PileBlock[" + size + " piles, " + values.length + " values]";
+	}
+}
@@ -40,29 +40,9 @@ public class ReadDetailPile extends DoublePile {
 	 *            read data
 	 */
 	public static ReadDetailPile create(int pos, byte[] reads) {
-		float rcoverage = 0;
-		float fcoverage = 0;
-		for (int i = 0; i < reads.length; i++) {
-			byte c = reads[i];
-			if (c == '^')
-				i++;
-			else if (c == '-' || c == '+') {
-				int jump = reads[++i];
-				try {
-					i += Integer.parseInt("" + (char) jump);
-				} catch (NumberFormatException ne) {
-					System.err.println("NFE: " + pos);
-				}
-			} else if (c == '.' || c == 'A' || c == 'C' || c == 'G' || c == 'T' || c == 'N') {
-				fcoverage++;
-			} else if (c == ',' || c == 'a' || c == 'c' || c == 'g' || c == 't' || c == 'n') {
-				rcoverage++;
-			} else {
-				// System.err.println("PILE: unknown char: "+(char)c);
-			}
-
-		}
-		return new ReadDetailPile(pos, fcoverage, rcoverage, reads);
+		PileBlock block = new PileBlock(2, 1);
+		block.addReads(pos, reads);
+		return new ReadDetailPile(pos, block.value(0, 0), block.value(1, 0), reads);
 	}
 
 	
@@ -3,28 +3,35 @@
  */
 package net.sf.jannot.refseq;
 
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 import net.sf.jannot.refseq.FaidxIndex.IndexEntry;
 import net.sf.samtools.seekablestream.SeekableStream;
 
 
 /**
- * 
+ * Sequence in a FASTA file that is indexed with samtools faidx. The index
+ * provides the layout of the lines, the bytes are read from a
+ * {@link FastaContent}.
+ *
  * @author Thomas Abeel
  *
  */
 public class FaidxData extends Sequence {
 
 
-	private SeekableStream data = null;
+	private FastaContent data = null;
 	private IndexEntry idx;
 
-	
+
 	/**
 	 * @param index
 	 * @param content
 	 * @param name
 	 */
-	public FaidxData(FaidxIndex index, SeekableStream content, String name) {
+	public FaidxData(FaidxIndex index, FastaContent content, String name) {
 
 		this.data = content;
 		this.idx = index.get(name);
@@ -32,15 +39,141 @@ public class FaidxData extends Sequence {
 
 	}
 
+	/**
+	 * Reads the sequence from a stream through a block cache.
+	 */
+	public FaidxData(FaidxIndex index, SeekableStream content, String name) {
+		this(index, FastaContent.cache(content), name);
+	}
+
+	@Override
+	public Iterable<Character> get(final int start, final int end) {
+		return new Iterable<Character>() {
+			@Override
+			public Iterator<Character> iterator() {
+				return new BulkIterator(start, end);
+			}
+		};
+	}
+
+	/*
+	 * Iterates over a range by copying blocks of nucleotides with the bulk
+	 * method.
+	 */
+	private class BulkIterator implements Iterator<Character> {
+		private final byte[] buffer = new byte[1024];
+		private int bufferStart, bufferEnd;
+		private int position;
+		private final int end;
+
+		BulkIterator(int start, int end) {
+			this.position = start;
+			this.end = end;
+			this.bufferStart = start;
+			this.bufferEnd = start;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position < end;
+		}
+
+		@Override
+		public Character next() {
+			if (position >= end)
+				throw new NoSuchElementException();
+			if (position >= bufferEnd) {
+				bufferStart = position;
+				bufferEnd = Math.min(end, position + buffer.length);
+				FaidxData.this.get(bufferStart, bufferEnd, buffer, 0);
+			}
+			return (char) buffer[position++ - bufferStart];
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Remove not supported for FaidxData.");
+		}
+	}
+
+	/* Nucleotides that are read from the file at once */
+	private static final int BLOCK = 1 << 16;
+
+	/* Raw file content of a block, reused between requests */
+	private static final ThreadLocal<byte[]> raw = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[0];
+		}
+	};
+
+	/*
+	 * Reads the lines that cover the range in blocks and copies the
+	 * nucleotides, skipping the line terminators.
+	 */
 	@Override
-	public Iterable<Character> get(int start, int end) {
-		return new FaixDataIterable(data, start, end-1, idx.start, idx.len, idx.lineLen, idx.byteLen);
+	public void get(int start, int end, byte[] out, int offset) {
+		/* Positions before the sequence */
+		while (start < end && start < 1) {
+			out[offset++] = '_';
+			start++;
+		}
+		int last = (int) Math.min(end - 1, idx.len);
+		while (start <= last) {
+			int to = Math.min(last, start + BLOCK - 1);
+			copy(start, to, out, offset);
+			offset += to - start + 1;
+			start = to + 1;
+		}
+		/* Positions after the sequence */
+		while (start < end) {
+			out[offset++] = '_';
+			start++;
+		}
+	}
+
+	/* Copies the nucleotides [start,last] with a single read */
+	private void copy(int start, int last, byte[] out, int offset) {
+		long from = filePosition(start);
+		int n = (int) (filePosition(last) + 1 - from);
+		/* Bounded by the block size and the line layout */
+		byte[] buf = raw.get();
+		if (buf.length < n) {
+			buf = new byte[n];
+			raw.set(buf);
+		}
+		try {
+			data.read(from, buf, 0, n);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		int col = (int) ((start - 1) % idx.lineLen);
+		int rawIdx = 0;
+		int remaining = last - start + 1;
+		while (remaining > 0) {
+			int len = (int) Math.min(idx.lineLen - col, remaining);
+			for (int i = 0; i < len; i++) {
+				byte b = buf[rawIdx++];
+				if (b >= 'a' && b <= 'z')
+					b += 'A' - 'a';
+				out[offset++] = b;
+			}
+			remaining -= len;
+			/* Skip line terminator */
+			rawIdx += idx.byteLen - idx.lineLen;
+			col = 0;
+		}
+	}
+
+	private long filePosition(int position) {
+		position--;
+		long lines = position / idx.lineLen;
+		return idx.start + lines * idx.byteLen + position - lines * idx.lineLen;
 	}
 
 	@Override
 	public Iterable<Character> get() {
 		return get(1,(int)(idx.len+1));
-		//return new FaixDataIterable(data, 1, (int) this.len, this.start, this.len, this.lineLen, this.byteLen);
 	}
 
 	@Override
@@ -0,0 +1,213 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.refseq;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.samtools.seekablestream.SeekableStream;
+
+/**
+ * Random access to the raw bytes of a FASTA file, as used by
+ * {@link FaidxData}. The layout of the file is described by the
+ * {@link FaidxIndex}, this class only provides the bytes.
+ *
+ * Local files are memory mapped, all sequences and tracks that use the same
+ * file share a single mapping. Other files are read through a block cache on
+ * top of a {@link SeekableStream}.
+ *
+ * All implementations are thread-safe.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public abstract class FastaContent {
+
+	/**
+	 * Copies length bytes starting at position in the file to out.
+	 */
+	public abstract void read(long position, byte[] out, int offset, int length) throws IOException;
+
+	/**
+	 * Size of the file in bytes.
+	 */
+	public abstract long length();
+
+	/* Mappings that are in use, keyed on the canonical path of the file */
+	private static final HashMap<String, WeakReference<Mapped>> mapped = new HashMap<String, WeakReference<Mapped>>();
+
+	/**
+	 * Returns a memory mapped view of a local file. Files that are already
+	 * mapped and have not been modified since are shared.
+	 */
+	public static FastaContent map(File file) throws IOException {
+		String key = file.getCanonicalPath();
+		synchronized (mapped) {
+			WeakReference<Mapped> ref = mapped.get(key);
+			Mapped m = ref == null ? null : ref.get();
+			if (m == null || m.length() != file.length() || m.lastModified != file.lastModified()) {
+				m = new Mapped(file, Mapped.SEGMENT);
+				mapped.put(key, new WeakReference<Mapped>(m));
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * Returns a view of a stream that keeps recently used blocks in memory.
+	 */
+	public static FastaContent cache(SeekableStream stream) {
+		return new BlockCached(stream, BlockCached.BLOCKSIZE, BlockCached.BLOCKS);
+	}
+
+	/**
+	 * File that is mapped in segments, as a single mapping is limited to 2 GB.
+	 */
+	static class Mapped extends FastaContent {
+		static final int SEGMENT = 1 << 30;
+
+		private final ByteBuffer[] segments;
+		private final int segmentSize;
+		private final long length;
+		private final long lastModified;
+		private final String path;
+
+		Mapped(File file, int segmentSize) throws IOException {
+			this.segmentSize = segmentSize;
+			this.path = file.toString();
+			this.lastModified = file.lastModified();
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel fc = raf.getChannel();
+				length = fc.size();
+				segments = new ByteBuffer[(int) ((length + segmentSize - 1) / segmentSize)];
+				for (int i = 0; i < segments.length; i++) {
+					long pos = (long) i * segmentSize;
+					MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(segmentSize, length - pos));
+					segments[i] = mbb;
+				}
+			} finally {
+				/* Mappings stay valid after the channel is closed */
+				raf.close();
+			}
+		}
+
+		@Override
+		public void read(long position, byte[] out, int offset, int length) throws IOException {
+			if (position + length > this.length)
+				throw new EOFException("Read beyond end of file: " + (position + length) + ">" + this.length);
+			while (length > 0) {
+				int seg = (int) (position / segmentSize);
+				int segPos = (int) (position - (long) seg * segmentSize);
+				int len = Math.min(length, segmentSize - segPos);
+				/* Duplicates have their own position, so readers do not interfere */
+				ByteBuffer bb = segments[seg].duplicate();
+				bb.position(segPos);
+				bb.get(out, offset, len);
+				position += len;
+				offset += len;
+				length -= len;
+			}
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+
+		@Override
+		public String toString() {
+			return path;
+		}
+	}
+
+	/**
+	 * Stream with a least recently used cache of fixed size blocks.
+	 */
+	static class BlockCached extends FastaContent {
+		static final int BLOCKSIZE = 64 * 1024;
+		static final int BLOCKS = 256;
+
+		private final SeekableStream stream;
+		private final int blockSize;
+		private final int maxBlocks;
+		private final long length;
+		private final LinkedHashMap<Long, byte[]> blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+
+		BlockCached(SeekableStream stream, int blockSize, int maxBlocks) {
+			this.stream = stream;
+			this.blockSize = blockSize;
+			this.maxBlocks = maxBlocks;
+			this.length = stream.length();
+		}
+
+		@Override
+		public synchronized void read(long position, byte[] out, int offset, int length) throws IOException {
+			while (length > 0) {
+				long block = position / blockSize;
+				int blockPos = (int) (position - block * blockSize);
+				byte[] data = block(block);
+				int len = Math.min(length, data.length - blockPos);
+				if (len <= 0)
+					throw new EOFException("Read beyond end of " + stream.getSource());
+				System.arraycopy(data, blockPos, out, offset, len);
+				position += len;
+				offset += len;
+				length -= len;
+			}
+		}
+
+		private byte[] block(long block) throws IOException {
+			byte[] data = blocks.get(block);
+			if (data != null)
+				return data;
+			long start = block * blockSize;
+			int size = blockSize;
+			if (this.length > 0)
+				size = (int) Math.max(0, Math.min(blockSize, this.length - start));
+			data = new byte[size];
+			stream.seek(start);
+			int read = 0;
+			while (read < size) {
+				int r = stream.read(data, read, size - read);
+				if (r < 0)
+					break;
+				read += r;
+			}
+			if (read < size) {
+				byte[] tmp = new byte[read];
+				System.arraycopy(data, 0, tmp, 0, read);
+				data = tmp;
+			}
+			blocks.put(block, data);
+			Iterator<Map.Entry<Long, byte[]>> it = blocks.entrySet().iterator();
+			while (blocks.size() > maxBlocks) {
+				it.next();
+				it.remove();
+			}
+			return data;
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+
+		@Override
+		public String toString() {
+			return stream.getSource();
+		}
+	}
+
+}
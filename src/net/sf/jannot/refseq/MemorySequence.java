@@ -325,6 +325,35 @@ public class MemorySequence extends Sequence {
 
 	}
 
+	/* Upper case nucleotide for each code, as returned by decode */
+	private static final byte[] DECODE = "ACGTN-__________".getBytes();
+
+	@Override
+	public void get(int start, int end, byte[] out, int offset) {
+		byte[] elements = sequence.elements();
+		for (int pos = start - 1; pos < end - 1; pos++) {
+			if (pos < 0 || pos >= size) {
+				out[offset++] = '_';
+			} else {
+				int current = elements[pos >> 1];
+				out[offset++] = DECODE[(pos & 1) == 1 ? (current >> 4) & 15 : current & 15];
+			}
+		}
+	}
+
+	@Override
+	public void get(int start, int end, char[] out, int offset) {
+		byte[] elements = sequence.elements();
+		for (int pos = start - 1; pos < end - 1; pos++) {
+			if (pos < 0 || pos >= size) {
+				out[offset++] = '_';
+			} else {
+				int current = elements[pos >> 1];
+				out[offset++] = (char) DECODE[(pos & 1) == 1 ? (current >> 4) & 15 : current & 15];
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -3,8 +3,18 @@
  */
 package net.sf.jannot.refseq;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import net.sf.jannot.Data;
 /**
+ * Nucleotide sequence.
+ * 
+ * Besides the {@link Iterable} based access of {@link Data}, sequences provide
+ * bulk access that copies a range into a caller supplied array or buffer.
+ * These methods do not allocate per nucleotide and should be used for
+ * rendering, translation and searching. Nucleotides are upper case,
+ * positions outside the sequence are returned as '_'.
  * 
  * @author Thomas Abeel
  *
@@ -45,6 +55,115 @@ public abstract class Sequence implements Data<Character> {
 	@Override
 	public abstract Iterable<Character> get();
 	
+	/**
+	 * Copies [start,end[ to out, starting at offset. The coordinates are one
+	 * based.
+	 * 
+	 * The default implementation iterates over get(start,end), subclasses
+	 * should override this with a more efficient implementation.
+	 */
+	public void get(int start, int end, byte[] out, int offset) {
+		int idx = offset;
+		for (char c : get(start, end))
+			out[idx++] = (byte) c;
+	}
+
+	/* Scratch space for the conversions between the different bulk methods */
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[8192];
+		}
+	};
+
+	/**
+	 * Copies [start,end[ to out, starting at offset. The coordinates are one
+	 * based.
+	 */
+	public void get(int start, int end, char[] out, int offset) {
+		byte[] buf = scratch.get();
+		for (int pos = start; pos < end; pos += buf.length) {
+			int len = Math.min(buf.length, end - pos);
+			get(pos, pos + len, buf, 0);
+			for (int i = 0; i < len; i++)
+				out[offset++] = (char) buf[i];
+		}
+	}
+
+	/**
+	 * Copies [start,end[ to the buffer, starting at its current position. The
+	 * position of the buffer is advanced. The coordinates are one based.
+	 */
+	public void get(int start, int end, ByteBuffer out) {
+		if (out.hasArray()) {
+			get(start, end, out.array(), out.arrayOffset() + out.position());
+			out.position(out.position() + end - start);
+			return;
+		}
+		byte[] buf = scratch.get();
+		for (int pos = start; pos < end; pos += buf.length) {
+			int len = Math.min(buf.length, end - pos);
+			get(pos, pos + len, buf, 0);
+			out.put(buf, 0, len);
+		}
+	}
+
+	/**
+	 * Two bit code of each nucleotide, A=0, C=1, G=2 and T=3. Other values
+	 * are -1.
+	 */
+	private static final byte[] TWOBIT = new byte[256];
+	static {
+		Arrays.fill(TWOBIT, (byte) -1);
+		TWOBIT['A'] = TWOBIT['a'] = 0;
+		TWOBIT['C'] = TWOBIT['c'] = 1;
+		TWOBIT['G'] = TWOBIT['g'] = 2;
+		TWOBIT['T'] = TWOBIT['t'] = TWOBIT['U'] = TWOBIT['u'] = 3;
+	}
+
+	/**
+	 * Returns the two bit code of a nucleotide: A=0, C=1, G=2 and T=3, -1 for
+	 * everything else.
+	 */
+	public static int twoBit(byte nucleotide) {
+		return TWOBIT[nucleotide & 0xFF];
+	}
+
+	/**
+	 * Packs [start,end[ in two bits per nucleotide, 32 nucleotides per long.
+	 * Nucleotide i of the range is stored in bits[i / 32] at bit 2 * (i % 32).
+	 * Positions that do not contain A, C, G or T are stored as A and, when
+	 * ambiguous is not null, flagged in ambiguous[i / 64] at bit i % 64.
+	 * 
+	 * The arrays need to be large enough, they are overwritten for the range.
+	 * 
+	 * @return the number of positions that are not A, C, G or T
+	 */
+	public int get2Bit(int start, int end, long[] bits, long[] ambiguous) {
+		int n = end - start;
+		Arrays.fill(bits, 0, (n + 31) >>> 5, 0L);
+		if (ambiguous != null)
+			Arrays.fill(ambiguous, 0, (n + 63) >>> 6, 0L);
+		byte[] buf = scratch.get();
+		int count = 0;
+		int i = 0;
+		for (int pos = start; pos < end; pos += buf.length) {
+			int len = Math.min(buf.length, end - pos);
+			get(pos, pos + len, buf, 0);
+			for (int k = 0; k < len; k++, i++) {
+				int code = TWOBIT[buf[k] & 0xFF];
+				if (code < 0) {
+					count++;
+					if (ambiguous != null)
+						ambiguous[i >>> 6] |= 1L << (i & 63);
+				} else {
+					bits[i >>> 5] |= ((long) code) << ((i & 31) << 1);
+				}
+			}
+		}
+		return count;
+	}
+
 	/**
 	 * Coordinates are 1-based, cover [start,end[
 	 * @param start
@@ -59,11 +178,9 @@ public abstract class Sequence implements Data<Character> {
 	 * @return
 	 */
 	public String stringRepresentation(){
-		StringBuffer out=new StringBuffer(size());
-		for(Character c:get()){
-			out.append(c);
-		}
-		return out.toString();
+		char[] out = new char[size()];
+		get(1, size() + 1, out, 0);
+		return new String(out);
 	}
 
 }
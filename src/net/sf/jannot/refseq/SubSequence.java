@@ -33,6 +33,16 @@ public class SubSequence extends Sequence {
 		return seq.get(start + this.start, end);
 	}
 
+	@Override
+	public void get(int start, int end, byte[] out, int offset) {
+		seq.get(start + this.start - 1, end + this.start - 1, out, offset);
+	}
+
+	@Override
+	public void get(int start, int end, char[] out, int offset) {
+		seq.get(start + this.start - 1, end + this.start - 1, out, offset);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
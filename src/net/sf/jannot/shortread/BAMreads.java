@@ -3,10 +3,7 @@
  */
 package net.sf.jannot.shortread;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.logging.Logger;
 
 import net.sf.jannot.Entry;
@@ -26,66 +23,33 @@ public class BAMreads extends ReadGroup implements Iterable<SAMRecord> {
 
 	private String key;
 
-	private synchronized Iterable<SAMRecord> get(Location r) {
-		return qFast( r);
-
-	}
-
 	/* qFast */
-	private List<SAMRecord> qFastBuffer = new ArrayList<SAMRecord>();
+	private ReadStore qFastBuffer = new ReadStore();
 	private Location qFastBufferLocation = new Location(-5, -5);
-	private HashMap<String, SAMRecord> qFastFirst = new HashMap<String, SAMRecord>();
-	private HashMap<String, SAMRecord> qFastSecond = new HashMap<String, SAMRecord>();
 	private int qFastMaxPairedLenght;
 
 	private Logger log=Logger.getLogger(BAMreads.class.getCanonicalName());
 	
-	private synchronized Iterable<SAMRecord> qFast(Location r) {
+	private synchronized ReadStore qFast(Location r) {
 		if (r.start() != qFastBufferLocation.start() || r.end() != qFastBufferLocation.end()) {
-			qFastBuffer.clear();
-			qFastFirst.clear();
-			qFastSecond.clear();
-			//System.out.println("QFAST");
-			int start = r.start() - 500;
-			int end = r.end() + 500;
-			CloseableIterator<SAMRecord> it = cqr.query(key, start, end, false);
 			if(cqr==null||key==null)
 			log.warning("NullPointerDetected: key="+key+"\tcqr="+cqr);
-			while (it.hasNext()) {
-				try {
-					SAMRecord tmp = it.next();
-					int aStart = tmp.getAlignmentStart();
-					int aEnd = tmp.getAlignmentEnd();
-					if (aStart == 0 || aEnd == 0)
-						continue;
-					if ((aEnd - aStart + 1) > maxLenght)
-						maxLenght = (aEnd - aStart + 1);
-					qFastBuffer.add(tmp);
-					// byte[] seq = tmp.getReadBases();
-					// if (complete(seq)) {
-					// ExtendedShortRead esr = new ExtendedShortRead(tmp);
-					// qFastBuffer.add(esr);
-					String name = tmp.getReadName();
-					if (ShortReadTools.isPaired(tmp) && tmp.getFirstOfPairFlag())
-						qFastFirst.put(name, tmp);
-					if (ShortReadTools.isPaired(tmp) && tmp.getSecondOfPairFlag())
-						qFastSecond.put(name, tmp);
-
-					if (qFastFirst.containsKey(name) && qFastSecond.containsKey(name)) {
-						int len = Math.max(qFastFirst.get(name).getAlignmentEnd()
-								- qFastSecond.get(name).getAlignmentStart() + 1, qFastSecond.get(name)
-								.getAlignmentEnd() - qFastFirst.get(name).getAlignmentStart() + 1);
-						if (len > qFastMaxPairedLenght)
-							qFastMaxPairedLenght = len;
-					}
-
-				} catch (RuntimeException ex) {
-					System.err.println(key);
-
+			int start = r.start() - 500;
+			int end = r.end() + 500;
+			ReadStore reads = cqr.query(key, start, end);
+			for (int i = 0; i < reads.size(); i++) {
+				int len = reads.end(i) - reads.start(i) + 1;
+				if (len > maxLenght)
+					maxLenght = len;
+				int mate = reads.mate(i);
+				if (mate > i) {
+					int pair = Math.max(reads.end(mate), reads.end(i)) - Math.min(reads.start(mate), reads.start(i)) + 1;
+					if (pair > qFastMaxPairedLenght)
+						qFastMaxPairedLenght = pair;
 				}
 			}
+			qFastBuffer = reads;
 			qFastBufferLocation = r;
-			it.close();
 		}
 
 		return qFastBuffer;
@@ -97,9 +61,18 @@ public class BAMreads extends ReadGroup implements Iterable<SAMRecord> {
 
 	private int maxLenght = 0;
 
+	@Override
+	public ReadStore getReads(int start, int end) {
+		return qFast(new Location(start, end));
+	}
+
+	/**
+	 * Reads are retrieved directly from the file, use
+	 * {@link #getReads(int, int)} for cached access.
+	 */
 	@Override
 	public Iterable<SAMRecord> get(int start, int end) {
-		return get(new Location(start, end));
+		return cqr.records(key, start, end);
 	}
 
 	@Override
@@ -201,28 +174,4 @@ public class BAMreads extends ReadGroup implements Iterable<SAMRecord> {
 	public int readLength() {
 		return maxLenght;
 	}
-
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see
-	 * net.sf.jannot.shortread.ReadGroup#getSecondRead(net.sf.samtools.SAMRecord
-	 * )
-	 */
-	@Override
-	public SAMRecord getSecondRead(SAMRecord one) {
-		return qFastSecond.get(one.getReadName());
-	}
-
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see
-	 * net.sf.jannot.shortread.ReadGroup#getSecondRead(net.sf.samtools.SAMRecord
-	 * )
-	 */
-	@Override
-	public SAMRecord getFirstRead(SAMRecord second) {
-		return qFastFirst.get(second.getReadName());
-	}
 }
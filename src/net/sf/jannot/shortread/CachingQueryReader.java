@@ -21,20 +21,23 @@
  */
 package net.sf.jannot.shortread;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.WeakHashMap;
 import java.util.logging.Logger;
 
 import net.sf.jannot.source.SAMDataSource;
+import net.sf.jannot.source.cache.TileCache;
 import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
 import net.sf.samtools.util.CloseableIterator;
-import be.abeel.util.LRUCache;
+import net.sf.samtools.util.RuntimeIOException;
 
 /**
  * A wrapper for {@link SAMDataSource} that supports query by interval and is
- * cached
+ * cached. Reads are kept in compact {@link ReadStore} blocks rather than as
+ * {@link SAMRecord} objects.
  * 
  * @author jrobinso
  * @author Thomas Abeel
@@ -42,15 +45,15 @@ import be.abeel.util.LRUCache;
 public class CachingQueryReader {
 
 	private static Logger log = Logger.getLogger(CachingQueryReader.class.getCanonicalName());
-	private String cachedChr = "";
-	private static int maxTileCount = 30;
-	private int tileSize = 8000;
+	/* Memory budget for the cached reads of a single file */
+	private static long maxCacheBytes = 128 * 1024 * 1024;
 	private SAMDataSource ds;
-	private LRUCache<Integer, Tile> cache;
+	private TileCache<ReadStore> cache;
+	private List<String> referenceNames = new ArrayList<String>();
 
 	private static WeakHashMap<SAMDataSource, CachingQueryReader> wmap = new WeakHashMap<SAMDataSource, CachingQueryReader>();
 
-	public static CachingQueryReader create(SAMDataSource ds) {
+	public static synchronized CachingQueryReader create(SAMDataSource ds) {
 		if (wmap.get(ds) == null)
 			wmap.put(ds, new CachingQueryReader(ds));
 		return wmap.get(ds);
@@ -58,7 +61,20 @@ public class CachingQueryReader {
 
 	private CachingQueryReader(SAMDataSource ds) {
 		this.ds = ds;
-		cache = new LRUCache<Integer, Tile>(maxTileCount);
+		for (SAMSequenceRecord ssr : ds.getReader().getFileHeader().getSequenceDictionary().getSequences())
+			referenceNames.add(ssr.getSequenceName());
+		cache = new TileCache<ReadStore>(new SAMLoader(), maxCacheBytes);
+	}
+
+	/**
+	 * Sets the memory budget for the read cache of files that are opened
+	 * afterwards.
+	 * 
+	 * @param bytes
+	 *            maximum estimated size of the cached reads per file
+	 */
+	public static void setMaximumCacheSize(long bytes) {
+		maxCacheBytes = bytes;
 	}
 
 	//
@@ -67,128 +83,126 @@ public class CachingQueryReader {
 		return ds.getReader().iterator();
 	}
 
-	private EmptyIterator<SAMRecord> empty = new EmptyIterator<SAMRecord>();
-
-	public CloseableIterator<SAMRecord> query(String sequence, int start, int end, boolean contained) {
-
-		int startTile = (start + 1) / getTileSize(sequence);
-		int endTile = end / getTileSize(sequence); // <= inclusive
-		List<Tile> tiles = getTiles(sequence, startTile, endTile);
-
-		if (tiles.size() == 0) {
-			return empty;
-		}
-
-		// Count total # of records
-		int recordCount = tiles.get(0).getOverlappingRecords().size();
-		for (Tile t : tiles) {
-			recordCount += t.getContainedRecords().size();
-		}
-
-		List<SAMRecord> alignments = new ArrayList<SAMRecord>(recordCount);
-		alignments.addAll(tiles.get(0).getOverlappingRecords());
-		for (Tile t : tiles) {
-			alignments.addAll(t.getContainedRecords());
+	/**
+	 * Returns all reads that overlap [start,end]. Mates of reads that are both
+	 * in the region are linked.
+	 */
+	public ReadStore query(String sequence, int start, int end) {
+		List<ReadStore> blocks;
+		try {
+			blocks = cache.query(sequence, start, end);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		int count = 0;
+		for (ReadStore b : blocks)
+			count += b.size();
+		ReadStore out = new ReadStore(count, referenceNames);
+		for (ReadStore b : blocks) {
+			for (int i = 0; i < b.size(); i++) {
+				if (b.end(i) >= start && b.start(i) <= end)
+					out.add(b, i);
+			}
 		}
-		return new TiledIterator(start, end, alignments);
+		out.linkMates();
+		return out;
 	}
 
-	private List<Tile> getTiles(String seq, int startTile, int endTile) {
-
-		if (!seq.equals(cachedChr)) {
-			cache = new LRUCache<Integer, Tile>(maxTileCount);
-			cachedChr = seq;
-		}
-
-		List<Tile> tiles = new ArrayList<Tile>(endTile - startTile + 1);
-		List<Tile> tilesToLoad = new ArrayList<Tile>(endTile - startTile + 1);
-
-		int tileSize = getTileSize(seq);
-		for (int t = startTile; t <= endTile; t++) {
-			Tile tile = cache.get(t);
-
-			if (tile == null) {
-				int start = t * tileSize;
-				int end = start + tileSize;
-
-				tile = new Tile(t, start, end);
-				cache.put(t, tile);
-			}
-
-			tiles.add(tile);
-
-			// The current tile is loaded, load any preceding tiles we have
-			// pending
-			if (tile.isLoaded()) {
-				if (tilesToLoad.size() > 0) {
-					loadTiles(seq, tilesToLoad);
-				}
-				tilesToLoad.clear();
-			} else {
-				tilesToLoad.add(tile);
+	/**
+	 * Returns the reads that overlap [start,end] as {@link SAMRecord}s. This
+	 * bypasses the cache.
+	 */
+	public List<SAMRecord> records(String sequence, int start, int end) {
+		List<SAMRecord> out = new ArrayList<SAMRecord>();
+		synchronized (ds) {
+			CloseableIterator<SAMRecord> iter = ds.getReader().query(sequence, start, end, false);
+			try {
+				while (iter.hasNext())
+					out.add(iter.next());
+			} finally {
+				iter.close();
 			}
 		}
-
-		if (tilesToLoad.size() > 0) {
-			loadTiles(seq, tilesToLoad);
-		}
-
-		return tiles;
+		return out;
 	}
 
-	private void loadTiles(String seq, List<Tile> tiles) {
-
-		int start = tiles.get(0).start;
-		int end = tiles.get(tiles.size() - 1).end;
-		CloseableIterator<SAMRecord> iter = null;
-
-		// log.debug("Loading : " + start + " - " + end);
-		int alignmentCount = 0;
-		// long t0 = System.currentTimeMillis();
-		try {
-			iter = ds.getReader().query(seq, start, end, false);
-
-			int tileSize = getTileSize(seq);
-			while (iter.hasNext()) {
-				SAMRecord record = iter.next();
-
-				// Range of tile indices that this alignment contributes to.
-				int aStart = record.getAlignmentStart();
-				int aEnd = record.getAlignmentEnd();// record.getEnd();
-				int idx0 = Math.max(0, (aStart - start) / tileSize);
-				int idx1 = Math.min(tiles.size() - 1, (record.getAlignmentEnd() - start) / tileSize);
-
-				// Loop over tiles this read overlaps
-				for (int i = idx0; i <= idx1; i++) {
-					Tile t = tiles.get(i);
-					// FIXME aEnd???
-					if ((aStart >= t.start) && (aStart < t.end)) {
-						t.containedRecords.add(record);
-					} else if ((aEnd >= t.start) && (aStart < t.start)) {
-						t.overlappingRecords.add(record);
+	/*
+	 * Reads are grouped in one block per tile, with an additional block for
+	 * the reads that start before the requested range. The extent of a block
+	 * is that of the reads it contains, so the cache files it under the tile
+	 * the block starts in and every tile its reads overlap.
+	 */
+	private class SAMLoader extends TileCache.Loader<ReadStore> {
+
+		@Override
+		public List<ReadStore> load(String seq, int start, int end) {
+			int tileSize = tileSize(seq);
+			List<ReadStore> out = new ArrayList<ReadStore>();
+			ReadStore pre = null;
+			ReadStore current = null;
+			int currentTile = -1;
+			CloseableIterator<SAMRecord> iter = null;
+			synchronized (ds) {
+				try {
+					iter = ds.getReader().query(seq, start, end, false);
+					while (iter.hasNext()) {
+						SAMRecord r = iter.next();
+						int aStart = r.getAlignmentStart();
+						if (aStart == 0 || r.getAlignmentEnd() == 0)
+							continue;
+						if (aStart < start) {
+							if (pre == null)
+								pre = new ReadStore(256, referenceNames);
+							pre.add(r);
+							continue;
+						}
+						int tile = (aStart - start) / tileSize;
+						if (tile != currentTile) {
+							current = new ReadStore(256, referenceNames);
+							out.add(current);
+							currentTile = tile;
+						}
+						current.add(r);
+					}
+				} finally {
+					if (iter != null) {
+						iter.close();
 					}
 				}
-
-				alignmentCount++;
-//				if (alignmentCount % 5000 == 0) {
-//					// IGVMainFrame.getInstance().setStatusBarMessage("Reads loaded: "
-//					// + alignmentCount);
-//				}
 			}
+			if (pre != null)
+				out.add(0, pre);
+			for (ReadStore b : out)
+				b.trim();
+			return out;
+		}
 
-			for (Tile t : tiles) {
-				t.setLoaded(true);
-			}
+		@Override
+		public int start(ReadStore block) {
+			int min = Integer.MAX_VALUE;
+			for (int i = 0; i < block.size(); i++)
+				min = Math.min(min, block.start(i));
+			return min;
+		}
 
-			// double dt = (System.currentTimeMillis() - t0) / 1000.0;
-			// log.debug("Loaded " + alignmentCount + " in " + dt);
+		@Override
+		public int end(ReadStore block) {
+			int max = 0;
+			for (int i = 0; i < block.size(); i++)
+				max = Math.max(max, block.end(i));
+			return max;
+		}
 
-		} finally {
-			if (iter != null) {
-				iter.close();
-			}
-			// IGVMainFrame.getInstance().resetStatusMessage();
+		@Override
+		public long size(ReadStore block) {
+			return block.bytes();
 		}
+
+		@Override
+		public int tileSize(String chr) {
+			return getTileSize(chr);
+		}
+
 	}
 
 	/**
@@ -198,163 +212,10 @@ public class CachingQueryReader {
 		if (chr.equals("M") || chr.equals("chrM") || chr.equals("MT") || chr.equals("chrMT")) {
 			return 100;
 		} else {
-			return tileSize;
+			return 8000;
 		}
 	}
 
-	static class Tile {
-
-		private boolean loaded = false;
-		private List<SAMRecord> containedRecords;
-		private int end;
-		private List<SAMRecord> overlappingRecords;
-		private int start;
-		private int tileNumber;
-
-		Tile(int tileNumber, int start, int end) {
-			this.tileNumber = tileNumber;
-			this.start = start;
-			this.end = end;
-			containedRecords = new ArrayList<SAMRecord>(16000);
-			overlappingRecords = new ArrayList<SAMRecord>();
-		}
-
-		/**
-		 * @return the tileNumber
-		 */
-		public int getTileNumber() {
-			return tileNumber;
-		}
-
-		/**
-		 * @param tileNumber
-		 *            the tileNumber to set
-		 */
-		public void setTileNumber(int tileNumber) {
-			this.tileNumber = tileNumber;
-		}
-
-		/**
-		 * @return the start
-		 */
-		public int getStart() {
-			return start;
-		}
-
-		/**
-		 * @param start
-		 *            the start to set
-		 */
-		public void setStart(int start) {
-			this.start = start;
-		}
-
-		/**
-		 * @return the containedRecords
-		 */
-		public List<SAMRecord> getContainedRecords() {
-			return containedRecords;
-		}
-
-		/**
-		 * @param containedRecords
-		 *            the containedRecords to set
-		 */
-		public void setContainedRecords(List<SAMRecord> containedRecords) {
-			this.containedRecords = containedRecords;
-		}
-
-		/**
-		 * @return the overlappingRecords
-		 */
-		public List<SAMRecord> getOverlappingRecords() {
-			return overlappingRecords;
-		}
-
-		/**
-		 * @param overlappingRecords
-		 *            the overlappingRecords to set
-		 */
-		public void setOverlappingRecords(List<SAMRecord> overlappingRecords) {
-			this.overlappingRecords = overlappingRecords;
-		}
-
-		/**
-		 * @return the loaded
-		 */
-		public boolean isLoaded() {
-			return loaded;
-		}
-
-		/**
-		 * @param loaded
-		 *            the loaded to set
-		 */
-		public void setLoaded(boolean loaded) {
-			this.loaded = loaded;
-		}
-	}
-
-	public class TiledIterator implements CloseableIterator<SAMRecord> {
-
-		int tileIdx = 0;
-		Iterator<SAMRecord> currentSamIterator;
-		int end;
-		SAMRecord nextRecord;
-		int start;
-		List<SAMRecord> alignments;
-
-		TiledIterator(int start, int end, List<SAMRecord> alignments) {
-			this.alignments = alignments;
-			this.start = start;
-			this.end = end;
-			currentSamIterator = alignments.iterator();
-			advanceToFirstRecord();
-		}
-
-		public void close() {
-			// No-op
-		}
-
-		public boolean hasNext() {
-			return nextRecord != null;
-		}
-
-		public SAMRecord next() {
-			SAMRecord ret = nextRecord;
-
-			advanceToNextRecord();
-
-			return ret;
-		}
-
-		public void remove() {
-			// ignored
-		}
-
-		private void advanceToFirstRecord() {
-			advanceToNextRecord();
-		}
-
-		private void advanceToNextRecord() {
-			advance();
-
-			while ((nextRecord != null) && (nextRecord.getAlignmentEnd() < start)) {
-				advance();
-			}
-		}
-
-		private void advance() {
-			if (currentSamIterator.hasNext()) {
-				nextRecord = currentSamIterator.next();
-				if (nextRecord.getAlignmentStart() > end) {
-					nextRecord = null;
-				}
-			} else {
-				nextRecord = null;
-			}
-		}
-	}
 }
 // ~ Formatted by Jindent --- http://www.jindent.com
 
@@ -191,28 +191,4 @@ public class MemoryReadSet extends ReadGroup {
 	public Iterable<SAMRecord> get() {
 		return set;
 	}
-
-	/* (non-Javadoc)
-	 * @see net.sf.jannot.shortread.ReadGroup#getSecondRead(net.sf.samtools.SAMRecord)
-	 */
-	@Override
-	public SAMRecord getSecondRead(SAMRecord one) {
-		
-		//XXX This is broken
-		//FIXME  This is broken
-		// TODO Auto-generated method stub
-		return null;
-	}
-	
-	/* (non-Javadoc)
-	 * @see net.sf.jannot.shortread.ReadGroup#getSecondRead(net.sf.samtools.SAMRecord)
-	 */
-	@Override
-	public SAMRecord getFirstRead(SAMRecord one) {
-		
-		//XXX This is broken
-		//FIXME  This is broken
-		// TODO Auto-generated method stub
-		return null;
-	}
 }
\ No newline at end of file
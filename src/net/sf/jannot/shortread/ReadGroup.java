@@ -21,14 +21,20 @@ public abstract class ReadGroup implements Data<SAMRecord> {
 	public abstract int readLength();
 
 	/**
+	 * Returns the reads that overlap [start,end] in compact form. Mates that
+	 * are both present are linked, see {@link ReadStore#mate(int)}.
 	 * 
-	 * Get the second read in a mate-pair.
-	 * 
-	 * @param one
-	 *            the read for which to find the mate
-	 * @return the mate
+	 * The default implementation copies the result of get(start,end).
 	 */
-	public abstract SAMRecord getSecondRead(SAMRecord one);
+	public ReadStore getReads(int start, int end) {
+		ReadStore out = new ReadStore();
+		for (SAMRecord r : get(start, end)) {
+			if (r.getAlignmentEnd() >= start && r.getAlignmentStart() <= end)
+				out.add(r);
+		}
+		out.linkMates();
+		return out;
+	}
 
 	/**
 	 * Returns the maximum length of a pair of reads.
@@ -46,10 +52,4 @@ public abstract class ReadGroup implements Data<SAMRecord> {
 		return false;
 	}
 
-	/**
-	 * @param second
-	 * @return
-	 */
-	public abstract SAMRecord getFirstRead(SAMRecord second) ;
-
 }
@@ -0,0 +1,464 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.shortread;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Column oriented storage for aligned reads.
+ *
+ * Instead of keeping a {@link SAMRecord} object per read, all fields that are
+ * needed for visualization are stored in primitive arrays. Bases are packed
+ * two per byte, CIGAR operations are packed in a single int each and read
+ * names are kept as bytes with a 64 bit hash to find mates.
+ *
+ * Reads are referred to by their index in the store, they are kept in the
+ * order in which they were added. The store is not thread-safe while it is
+ * being filled, but can be read concurrently once complete.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class ReadStore {
+
+	/* BAM encoding of bases in four bits */
+	private static final byte[] CODE2BASE = "=ACMGRSVTWYHKDBN".getBytes();
+	private static final byte[] BASE2CODE = new byte[256];
+	static {
+		Arrays.fill(BASE2CODE, (byte) 15);
+		for (int i = 0; i < CODE2BASE.length; i++) {
+			BASE2CODE[CODE2BASE[i]] = (byte) i;
+			BASE2CODE[Character.toLowerCase(CODE2BASE[i])] = (byte) i;
+		}
+	}
+
+	private static final CigarOperator[] OPERATORS = CigarOperator.values();
+
+	private int size = 0;
+
+	private int[] start;
+	private int[] end;
+	private int[] flags;
+	private byte[] mapq;
+	private int[] mateStart;
+	private int[] reference;
+	private int[] mateReference;
+	private int[] readLength;
+	private long[] nameHash;
+	private int[] mate;
+
+	/* Variable length data, the entries for read i are at [offset[i],offset[i+1][ */
+	private int[] cigarOffset;
+	private int[] cigar;
+	private int cigarSize = 0;
+	private int[] baseOffset;
+	private byte[] bases;
+	private int baseSize = 0;
+	private int[] nameOffset;
+	private byte[] names;
+	private int nameSize = 0;
+
+	private List<String> referenceNames;
+
+	private boolean matesLinked = false;
+
+	public ReadStore() {
+		this(1024, null);
+	}
+
+	/**
+	 *
+	 * @param capacity
+	 *            initial number of reads this store can hold
+	 * @param referenceNames
+	 *            names of the reference sequences, used to resolve mate
+	 *            references. May be null.
+	 */
+	public ReadStore(int capacity, List<String> referenceNames) {
+		if (capacity < 16)
+			capacity = 16;
+		this.referenceNames = referenceNames;
+		start = new int[capacity];
+		end = new int[capacity];
+		flags = new int[capacity];
+		mapq = new byte[capacity];
+		mateStart = new int[capacity];
+		reference = new int[capacity];
+		mateReference = new int[capacity];
+		readLength = new int[capacity];
+		nameHash = new long[capacity];
+		cigarOffset = new int[capacity + 1];
+		baseOffset = new int[capacity + 1];
+		nameOffset = new int[capacity + 1];
+		cigar = new int[capacity];
+		bases = new byte[capacity * 50];
+		names = new byte[capacity * 20];
+	}
+
+	private void ensureCapacity(int reads) {
+		if (reads <= start.length)
+			return;
+		int n = Math.max(reads, start.length * 3 / 2 + 1);
+		start = Arrays.copyOf(start, n);
+		end = Arrays.copyOf(end, n);
+		flags = Arrays.copyOf(flags, n);
+		mapq = Arrays.copyOf(mapq, n);
+		mateStart = Arrays.copyOf(mateStart, n);
+		reference = Arrays.copyOf(reference, n);
+		mateReference = Arrays.copyOf(mateReference, n);
+		readLength = Arrays.copyOf(readLength, n);
+		nameHash = Arrays.copyOf(nameHash, n);
+		cigarOffset = Arrays.copyOf(cigarOffset, n + 1);
+		baseOffset = Arrays.copyOf(baseOffset, n + 1);
+		nameOffset = Arrays.copyOf(nameOffset, n + 1);
+	}
+
+	private static int[] grow(int[] arr, int needed) {
+		if (needed <= arr.length)
+			return arr;
+		return Arrays.copyOf(arr, Math.max(needed, arr.length * 3 / 2 + 1));
+	}
+
+	private static byte[] grow(byte[] arr, int needed) {
+		if (needed <= arr.length)
+			return arr;
+		return Arrays.copyOf(arr, Math.max(needed, arr.length * 3 / 2 + 1));
+	}
+
+	/**
+	 * Adds a read to the store.
+	 *
+	 * @param r
+	 *            the read
+	 * @return index of the read in this store
+	 */
+	public int add(SAMRecord r) {
+		int i = size;
+		ensureCapacity(i + 1);
+		start[i] = r.getAlignmentStart();
+		end[i] = r.getAlignmentEnd();
+		flags[i] = r.getFlags();
+		mapq[i] = (byte) Math.min(255, r.getMappingQuality());
+		mateStart[i] = r.getMateAlignmentStart();
+		reference[i] = r.getReferenceIndex();
+		mateReference[i] = r.getMateReferenceIndex();
+
+		List<net.sf.samtools.CigarElement> ces = r.getCigar().getCigarElements();
+		cigar = grow(cigar, cigarSize + ces.size());
+		for (net.sf.samtools.CigarElement ce : ces)
+			cigar[cigarSize++] = ce.getLength() << 4 | ce.getOperator().ordinal();
+		cigarOffset[i + 1] = cigarSize;
+
+		byte[] rb = r.getReadBases();
+		readLength[i] = rb.length;
+		bases = grow(bases, baseSize + (rb.length + 1) / 2);
+		for (int k = 0; k < rb.length; k += 2) {
+			int hi = BASE2CODE[rb[k] & 0xFF];
+			int lo = k + 1 < rb.length ? BASE2CODE[rb[k + 1] & 0xFF] : 0;
+			bases[baseSize++] = (byte) (hi << 4 | lo);
+		}
+		baseOffset[i + 1] = baseSize;
+
+		String name = r.getReadName();
+		names = grow(names, nameSize + name.length());
+		long hash = 1125899906842597L;
+		for (int k = 0; k < name.length(); k++) {
+			char c = name.charAt(k);
+			names[nameSize++] = (byte) c;
+			hash = 31 * hash + c;
+		}
+		nameOffset[i + 1] = nameSize;
+		nameHash[i] = hash;
+
+		size++;
+		matesLinked = false;
+		return i;
+	}
+
+	/**
+	 * Copies a read from another store to this one.
+	 *
+	 * @return index of the read in this store
+	 */
+	public int add(ReadStore o, int j) {
+		int i = size;
+		ensureCapacity(i + 1);
+		start[i] = o.start[j];
+		end[i] = o.end[j];
+		flags[i] = o.flags[j];
+		mapq[i] = o.mapq[j];
+		mateStart[i] = o.mateStart[j];
+		reference[i] = o.reference[j];
+		mateReference[i] = o.mateReference[j];
+		readLength[i] = o.readLength[j];
+		nameHash[i] = o.nameHash[j];
+
+		int len = o.cigarOffset[j + 1] - o.cigarOffset[j];
+		cigar = grow(cigar, cigarSize + len);
+		System.arraycopy(o.cigar, o.cigarOffset[j], cigar, cigarSize, len);
+		cigarSize += len;
+		cigarOffset[i + 1] = cigarSize;
+
+		len = o.baseOffset[j + 1] - o.baseOffset[j];
+		bases = grow(bases, baseSize + len);
+		System.arraycopy(o.bases, o.baseOffset[j], bases, baseSize, len);
+		baseSize += len;
+		baseOffset[i + 1] = baseSize;
+
+		len = o.nameOffset[j + 1] - o.nameOffset[j];
+		names = grow(names, nameSize + len);
+		System.arraycopy(o.names, o.nameOffset[j], names, nameSize, len);
+		nameSize += len;
+		nameOffset[i + 1] = nameSize;
+
+		if (referenceNames == null)
+			referenceNames = o.referenceNames;
+		size++;
+		matesLinked = false;
+		return i;
+	}
+
+	/**
+	 * Releases unused capacity.
+	 */
+	public void trim() {
+		int n = size;
+		start = Arrays.copyOf(start, n);
+		end = Arrays.copyOf(end, n);
+		flags = Arrays.copyOf(flags, n);
+		mapq = Arrays.copyOf(mapq, n);
+		mateStart = Arrays.copyOf(mateStart, n);
+		reference = Arrays.copyOf(reference, n);
+		mateReference = Arrays.copyOf(mateReference, n);
+		readLength = Arrays.copyOf(readLength, n);
+		nameHash = Arrays.copyOf(nameHash, n);
+		cigarOffset = Arrays.copyOf(cigarOffset, n + 1);
+		baseOffset = Arrays.copyOf(baseOffset, n + 1);
+		nameOffset = Arrays.copyOf(nameOffset, n + 1);
+		cigar = Arrays.copyOf(cigar, cigarSize);
+		bases = Arrays.copyOf(bases, baseSize);
+		names = Arrays.copyOf(names, nameSize);
+		if (mate != null)
+			mate = Arrays.copyOf(mate, n);
+	}
+
+	/**
+	 * Pairs up the first and second reads of each pair that is present in
+	 * this store. Uses an open addressing table on the read name hashes.
+	 */
+	public void linkMates() {
+		if (matesLinked)
+			return;
+		mate = new int[size];
+		Arrays.fill(mate, -1);
+		int cap = Integer.highestOneBit(Math.max(16, size * 2)) << 1;
+		int mask = cap - 1;
+		int[] table = new int[cap];
+		Arrays.fill(table, -1);
+		for (int i = 0; i < size; i++) {
+			if (!isPaired(i))
+				continue;
+			int slot = (int) (nameHash[i] ^ (nameHash[i] >>> 32)) & mask;
+			while (true) {
+				int j = table[slot];
+				if (j == -1) {
+					table[slot] = i;
+					break;
+				}
+				if (mate[j] == -1 && isFirstOfPair(j) != isFirstOfPair(i) && sameName(i, j)) {
+					mate[i] = j;
+					mate[j] = i;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+		matesLinked = true;
+	}
+
+	private boolean sameName(int i, int j) {
+		if (nameHash[i] != nameHash[j])
+			return false;
+		int li = nameOffset[i + 1] - nameOffset[i];
+		int lj = nameOffset[j + 1] - nameOffset[j];
+		if (li != lj)
+			return false;
+		for (int k = 0; k < li; k++)
+			if (names[nameOffset[i] + k] != names[nameOffset[j] + k])
+				return false;
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int start(int i) {
+		return start[i];
+	}
+
+	public int end(int i) {
+		return end[i];
+	}
+
+	public int flags(int i) {
+		return flags[i];
+	}
+
+	public boolean isPaired(int i) {
+		return (flags[i] & 0x1) != 0;
+	}
+
+	public boolean isMateUnmapped(int i) {
+		return (flags[i] & 0x8) != 0;
+	}
+
+	public boolean isNegativeStrand(int i) {
+		return (flags[i] & 0x10) != 0;
+	}
+
+	public boolean isFirstOfPair(int i) {
+		return (flags[i] & 0x40) != 0;
+	}
+
+	public boolean isSecondOfPair(int i) {
+		return (flags[i] & 0x80) != 0;
+	}
+
+	public int mappingQuality(int i) {
+		return mapq[i] & 0xFF;
+	}
+
+	public int mateStart(int i) {
+		return mateStart[i];
+	}
+
+	public int reference(int i) {
+		return reference[i];
+	}
+
+	public int mateReference(int i) {
+		return mateReference[i];
+	}
+
+	/**
+	 * @return name of the reference sequence the mate of read i maps to, or
+	 *         null when it is unknown.
+	 */
+	public String mateReferenceName(int i) {
+		int ref = mateReference[i];
+		if (referenceNames == null || ref < 0 || ref >= referenceNames.size())
+			return null;
+		return referenceNames.get(ref);
+	}
+
+	public int readLength(int i) {
+		return readLength[i];
+	}
+
+	/**
+	 * @return index of the mate of read i in this store, or -1 if it is not
+	 *         present.
+	 */
+	public int mate(int i) {
+		linkMates();
+		return mate[i];
+	}
+
+	public String name(int i) {
+		return new String(names, nameOffset[i], nameOffset[i + 1] - nameOffset[i]);
+	}
+
+	public int cigarLength(int i) {
+		return cigarOffset[i + 1] - cigarOffset[i];
+	}
+
+	public CigarOperator cigarOperator(int i, int k) {
+		return OPERATORS[cigar[cigarOffset[i] + k] & 0xF];
+	}
+
+	public int cigarOperatorLength(int i, int k) {
+		return cigar[cigarOffset[i] + k] >>> 4;
+	}
+
+	public String cigarString(int i) {
+		StringBuffer out = new StringBuffer();
+		for (int k = 0; k < cigarLength(i); k++)
+			out.append(cigarOperatorLength(i, k)).append((char) CigarOperator.enumToCharacter(cigarOperator(i, k)));
+		return out.toString();
+	}
+
+	/**
+	 * Returns base k of read i.
+	 */
+	public byte base(int i, int k) {
+		int b = bases[baseOffset[i] + k / 2];
+		return CODE2BASE[(k & 1) == 0 ? (b >> 4) & 0xF : b & 0xF];
+	}
+
+	public String readString(int i) {
+		char[] out = new char[readLength[i]];
+		for (int k = 0; k < out.length; k++)
+			out[k] = (char) base(i, k);
+		return new String(out);
+	}
+
+	/**
+	 * Builds the read as it aligns to the reference, see
+	 * {@link ShortReadTools#construct(SAMRecord)}. The result is written in
+	 * out, which is reallocated when it is too small.
+	 *
+	 * @return the array that contains the constructed read, the first
+	 *         end(i)-start(i)+1 positions are valid.
+	 */
+	public byte[] construct(int i, byte[] out) {
+		int len = end[i] - start[i] + 1;
+		if (out == null || out.length < len)
+			out = new byte[len];
+		int pos = 0;
+		int superPos = 0;
+		boolean hasBases = readLength[i] > 0;
+		for (int k = 0; k < cigarLength(i); k++) {
+			int l = cigarOperatorLength(i, k);
+			switch (cigarOperator(i, k)) {
+			case I:
+			case S:
+				superPos += l;
+				break;
+			case N:
+				Arrays.fill(out, pos, Math.min(len, pos + l), (byte) '_');
+				pos += l;
+				break;
+			case D:
+				Arrays.fill(out, pos, Math.min(len, pos + l), (byte) '-');
+				pos += l;
+				break;
+			case M:
+			case EQ:
+			case X:
+				for (int m = 0; m < l && pos < len; m++) {
+					out[pos++] = hasBases && superPos < readLength[i] ? base(i, superPos) : (byte) 'M';
+					superPos++;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @return estimate of the memory used by this store, in bytes
+	 */
+	public long bytes() {
+		return 4L * (start.length * 9 + cigarOffset.length * 3 + cigar.length) + mapq.length + bases.length
+				+ names.length + (mate == null ? 0 : 4L * mate.length) + 200;
+	}
+
+}
@@ -18,9 +18,7 @@ import net.sf.jannot.exception.ReadFailedException;
 import net.sf.jannot.picard.SeekableFileCachedHTTPStream;
 import net.sf.jannot.refseq.FaidxData;
 import net.sf.jannot.refseq.FaidxIndex;
-import net.sf.samtools.seekablestream.SeekableFileStream;
-import net.sf.samtools.seekablestream.SeekableStream;
-import be.abeel.net.URIFactory;
+import net.sf.jannot.refseq.FastaContent;
 
 /**
  * 
@@ -29,7 +27,7 @@ import be.abeel.net.URIFactory;
  */
 public class IndexedFastaDataSource extends DataSource {
 
-	private SeekableStream content;
+	private FastaContent content;
 	private Locator index;
 	private Locator data;
 
@@ -45,10 +43,11 @@ public class IndexedFastaDataSource extends DataSource {
 	public IndexedFastaDataSource(Locator data, Locator index) throws MalformedURLException, IOException,
 			ReadFailedException, URISyntaxException {
 		super(data);
+		/* Local files are mapped and shared with other sources of the same file */
 		if (data.isURL())
-			content = new SeekableFileCachedHTTPStream(data.url());
+			content = FastaContent.cache(new SeekableFileCachedHTTPStream(data.url()));
 		else
-			content = new SeekableFileStream(data.file());
+			content = FastaContent.map(data.file());
 		this.index = index;
 		this.data = data;
 
@@ -0,0 +1,439 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.source.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache for records of an indexed file that are retrieved by genomic region.
+ *
+ * Each sequence is divided in tiles of a fixed size. A query loads the missing
+ * tiles in as few requests to the underlying file as possible and keeps them
+ * in memory. Tiles of different sequences are kept at the same time. Each
+ * cache is bounded by the estimated size in bytes of the records it holds, and
+ * all caches together share one budget that is set with
+ * {@link #setSharedMaxBytes(long)}. Both evict the least recently used tiles
+ * first, the shared budget across all files.
+ *
+ * All methods are thread-safe. Loading is done while holding the lock of the
+ * cache, as most underlying readers can not be used concurrently anyway. When
+ * the loader is {@link Loader#isConcurrent()}, tiles are loaded without the
+ * lock and queries for other tiles run at the same time, a query that needs a
+ * tile that is being loaded waits for it. Tiles of other caches are evicted
+ * after the lock is released.
+ *
+ * @author Thomas Abeel
+ *
+ * @param <T>
+ *            type of record
+ */
+public class TileCache<T> {
+
+	/**
+	 * Provides access to the underlying file for a {@link TileCache}.
+	 *
+	 * @param <T>
+	 *            type of record
+	 */
+	public static abstract class Loader<T> {
+		/**
+		 * Loads all records on a sequence that overlap [start,end].
+		 */
+		public abstract List<T> load(String seq, int start, int end) throws IOException;
+
+		public abstract int start(T record);
+
+		public abstract int end(T record);
+
+		/**
+		 * Estimated memory use in bytes of a record.
+		 */
+		public abstract long size(T record);
+
+		/**
+		 * Tile size to use for a sequence.
+		 */
+		public int tileSize(String seq) {
+			return 8000;
+		}
+
+		/**
+		 * @return true when {@link #load(String, int, int)} can be called by
+		 *         several threads at the same time
+		 */
+		public boolean isConcurrent() {
+			return false;
+		}
+	}
+
+	private static class Key {
+		private final String seq;
+		private final int tile;
+
+		Key(String seq, int tile) {
+			this.seq = seq;
+			this.tile = tile;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * seq.hashCode() + tile;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return k.tile == tile && k.seq.equals(seq);
+		}
+	}
+
+	private static class Tile<T> {
+		private final Key key;
+		private final int start;
+		private final int end;
+		private boolean loaded = false;
+		/* A query is loading this tile, only used by concurrent loaders */
+		private boolean loading = false;
+		/* Records that start in this tile */
+		private final List<T> contained = new ArrayList<T>();
+		/* Records that start before this tile, but overlap with it */
+		private final List<T> overlapping = new ArrayList<T>();
+		private long bytes = 0;
+		/* Bytes counted in the shared budget, guarded by the shared lock */
+		private long shared = 0;
+
+		Tile(Key key, int start, int end) {
+			this.key = key;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/* Estimated overhead of an empty tile */
+	private static final long TILE_OVERHEAD = 128;
+
+	/*
+	 * Tiles of all caches in least recently used order, with their cache. The
+	 * cache of a file that is closed can be collected, its tiles are dropped
+	 * when they are evicted.
+	 */
+	private static final LinkedHashMap<Tile<?>, WeakReference<TileCache<?>>> all = new LinkedHashMap<Tile<?>, WeakReference<TileCache<?>>>(
+			16, 0.75f, true);
+	private static long sharedMaxBytes = 256L * 1024 * 1024;
+	private static long sharedBytes = 0;
+
+	/**
+	 * Sets the maximum estimated size of the records of all caches together.
+	 */
+	public static void setSharedMaxBytes(long max) {
+		synchronized (all) {
+			sharedMaxBytes = Math.max(0, max);
+		}
+		evictShared();
+	}
+
+	/**
+	 * @return estimated size in bytes of the records of all caches
+	 */
+	public static long sharedBytes() {
+		synchronized (all) {
+			return sharedBytes;
+		}
+	}
+
+	private final Loader<T> loader;
+	private final long maxBytes;
+	private long bytes = 0;
+	private final LinkedHashMap<Key, Tile<T>> cache = new LinkedHashMap<Key, Tile<T>>(16, 0.75f, true);
+
+	/**
+	 * @param loader
+	 *            provides the records
+	 * @param maxBytes
+	 *            maximum estimated size of all cached records
+	 */
+	public TileCache(Loader<T> loader, long maxBytes) {
+		this.loader = loader;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns all records that overlap with the tiles covering [start,end].
+	 * Every record is returned once, sorted on start coordinate when the loader
+	 * provides them sorted. Records outside [start,end] may be included, it is
+	 * up to the caller to filter them.
+	 */
+	public List<T> query(String seq, int start, int end) throws IOException {
+		try {
+			return loader.isConcurrent() ? queryConcurrent(seq, start, end) : queryTiles(seq, start, end);
+		} finally {
+			evictShared();
+		}
+	}
+
+	private synchronized List<T> queryTiles(String seq, int start, int end) throws IOException {
+		int tileSize = loader.tileSize(seq);
+		int startTile = Math.max(0, (start + 1) / tileSize);
+		int endTile = Math.max(startTile, end / tileSize);
+		return records(getTiles(seq, startTile, endTile, tileSize));
+	}
+
+	/*
+	 * Claims the tiles that nobody loads yet, loads them without holding the
+	 * lock and waits for the tiles that other queries are loading. When one of
+	 * those fails, its tiles are claimed again.
+	 */
+	private List<T> queryConcurrent(String seq, int start, int end) throws IOException {
+		int tileSize = loader.tileSize(seq);
+		int startTile = Math.max(0, (start + 1) / tileSize);
+		int endTile = Math.max(startTile, end / tileSize);
+		List<Tile<T>> tiles = null;
+		while (true) {
+			List<List<Tile<T>>> runs;
+			synchronized (this) {
+				if (tiles == null)
+					tiles = lookup(seq, startTile, endTile, tileSize);
+				runs = claim(tiles);
+				if (runs.isEmpty()) {
+					boolean pending = false;
+					for (Tile<T> t : tiles)
+						pending |= !t.loaded;
+					if (!pending) {
+						evict();
+						return records(tiles);
+					}
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting for a tile");
+					}
+					continue;
+				}
+			}
+			for (List<Tile<T>> run : runs) {
+				boolean done = false;
+				try {
+					List<T> loaded = loader.load(seq, run.get(0).start, run.get(run.size() - 1).end);
+					synchronized (this) {
+						fill(run, loaded, tileSize);
+						notifyAll();
+					}
+					done = true;
+				} finally {
+					if (!done) {
+						synchronized (this) {
+							for (Tile<T> t : run)
+								t.loading = false;
+							notifyAll();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/* The tiles of a range, tiles that are not cached yet are created empty */
+	private List<Tile<T>> lookup(String seq, int startTile, int endTile, int tileSize) {
+		List<Tile<T>> tiles = new ArrayList<Tile<T>>(endTile - startTile + 1);
+		for (int t = startTile; t <= endTile; t++) {
+			Key key = new Key(seq, t);
+			Tile<T> tile = cache.get(key);
+			if (tile == null) {
+				tile = new Tile<T>(key, t * tileSize, (t + 1) * tileSize);
+				cache.put(key, tile);
+				bytes += TILE_OVERHEAD;
+				share(tile, TILE_OVERHEAD);
+			} else {
+				synchronized (all) {
+					all.get(tile);
+				}
+			}
+			tiles.add(tile);
+		}
+		return tiles;
+	}
+
+	/* Marks the tiles that need loading, in runs of consecutive tiles */
+	private List<List<Tile<T>>> claim(List<Tile<T>> tiles) {
+		List<List<Tile<T>>> runs = new ArrayList<List<Tile<T>>>();
+		List<Tile<T>> run = null;
+		for (Tile<T> t : tiles) {
+			if (t.loaded || t.loading) {
+				run = null;
+				continue;
+			}
+			t.loading = true;
+			if (run == null) {
+				run = new ArrayList<Tile<T>>();
+				runs.add(run);
+			}
+			run.add(t);
+		}
+		return runs;
+	}
+
+	private List<T> records(List<Tile<T>> tiles) {
+		int count = tiles.get(0).overlapping.size();
+		for (Tile<T> t : tiles)
+			count += t.contained.size();
+		List<T> out = new ArrayList<T>(count);
+		out.addAll(tiles.get(0).overlapping);
+		for (Tile<T> t : tiles)
+			out.addAll(t.contained);
+		return out;
+	}
+
+	private List<Tile<T>> getTiles(String seq, int startTile, int endTile, int tileSize) throws IOException {
+		List<Tile<T>> tiles = lookup(seq, startTile, endTile, tileSize);
+		List<Tile<T>> tilesToLoad = new ArrayList<Tile<T>>(endTile - startTile + 1);
+		for (Tile<T> tile : tiles) {
+			/*
+			 * The current tile is loaded, load any preceding tiles we have
+			 * pending
+			 */
+			if (tile.loaded) {
+				if (tilesToLoad.size() > 0)
+					load(seq, tilesToLoad, tileSize);
+				tilesToLoad.clear();
+			} else {
+				tilesToLoad.add(tile);
+			}
+		}
+		if (tilesToLoad.size() > 0)
+			load(seq, tilesToLoad, tileSize);
+		evict();
+		return tiles;
+	}
+
+	private void load(String seq, List<Tile<T>> tiles, int tileSize) throws IOException {
+		fill(tiles, loader.load(seq, tiles.get(0).start, tiles.get(tiles.size() - 1).end), tileSize);
+	}
+
+	/*
+	 * Divides the records of consecutive tiles over the tiles. A tile that was
+	 * evicted while it was loading is not counted anymore.
+	 */
+	private void fill(List<Tile<T>> tiles, List<T> records, int tileSize) {
+		int start = tiles.get(0).start;
+		for (T record : records) {
+			int aStart = loader.start(record);
+			int aEnd = loader.end(record);
+			long size = loader.size(record);
+			/* Range of tile indices that this record contributes to. */
+			int idx0 = Math.max(0, (aStart - start) / tileSize);
+			int idx1 = Math.min(tiles.size() - 1, (aEnd - start) / tileSize);
+			for (int i = idx0; i <= idx1; i++) {
+				Tile<T> t = tiles.get(i);
+				if (aStart >= t.start && aStart < t.end) {
+					t.contained.add(record);
+					t.bytes += size;
+				} else if (aEnd >= t.start && aStart < t.start) {
+					t.overlapping.add(record);
+					/* Only a reference */
+					t.bytes += 8;
+				}
+			}
+		}
+		for (Tile<T> t : tiles) {
+			t.loaded = true;
+			t.loading = false;
+			if (cache.get(t.key) == t) {
+				bytes += t.bytes;
+				share(t, t.bytes + TILE_OVERHEAD);
+			}
+		}
+	}
+
+	/*
+	 * Tiles that are in use by a query stay reachable through the list that is
+	 * returned, so they can safely be removed from the cache.
+	 */
+	private void evict() {
+		Iterator<Tile<T>> it = cache.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Tile<T> t = it.next();
+			bytes -= t.bytes + TILE_OVERHEAD;
+			it.remove();
+			unshare(t);
+		}
+	}
+
+	/* Counts a tile in the shared budget with its current size */
+	private void share(Tile<T> tile, long size) {
+		synchronized (all) {
+			if (tile.shared == 0)
+				all.put(tile, new WeakReference<TileCache<?>>(this));
+			else if (!all.containsKey(tile))
+				/* Evicted while it was loading */
+				return;
+			sharedBytes += size - tile.shared;
+			tile.shared = size;
+		}
+	}
+
+	private static void unshare(Tile<?> tile) {
+		synchronized (all) {
+			if (all.remove(tile) != null)
+				sharedBytes -= tile.shared;
+		}
+	}
+
+	/*
+	 * Removes the least recently used tiles of all caches until they fit in
+	 * the shared budget. The tiles are taken from the shared list first and
+	 * then from their caches, so no two locks of caches are held at once.
+	 */
+	private static void evictShared() {
+		List<Tile<?>> tiles = new ArrayList<Tile<?>>();
+		List<WeakReference<TileCache<?>>> owners = new ArrayList<WeakReference<TileCache<?>>>();
+		synchronized (all) {
+			Iterator<Map.Entry<Tile<?>, WeakReference<TileCache<?>>>> it = all.entrySet().iterator();
+			while (sharedBytes > sharedMaxBytes && it.hasNext()) {
+				Map.Entry<Tile<?>, WeakReference<TileCache<?>>> e = it.next();
+				sharedBytes -= e.getKey().shared;
+				tiles.add(e.getKey());
+				owners.add(e.getValue());
+				it.remove();
+			}
+		}
+		for (int i = 0; i < tiles.size(); i++) {
+			TileCache<?> owner = owners.get(i).get();
+			if (owner != null)
+				owner.drop(tiles.get(i));
+		}
+	}
+
+	/* Removes a tile that was evicted from the shared budget */
+	private synchronized void drop(Tile<?> tile) {
+		if (cache.get(tile.key) == tile) {
+			cache.remove(tile.key);
+			bytes -= tile.bytes + TILE_OVERHEAD;
+		}
+	}
+
+	/**
+	 * @return estimated size in bytes of the cached records
+	 */
+	public synchronized long bytes() {
+		return bytes;
+	}
+
+	public synchronized void clear() {
+		for (Tile<T> t : cache.values())
+			unshare(t);
+		cache.clear();
+		bytes = 0;
+	}
+
+}
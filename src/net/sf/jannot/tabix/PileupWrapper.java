@@ -5,12 +5,12 @@ package net.sf.jannot.tabix;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Collections;
 
-import net.sf.jannot.pileup.DoublePile;
+import net.sf.jannot.pileup.PileBlock;
 import net.sf.jannot.pileup.PileNormalization;
-import net.sf.jannot.tabix.codec.PileupCodec;
 
-public class PileupWrapper extends TabixWrapper<DoublePile> implements PileNormalization {
+public class PileupWrapper extends TabixWrapper<PileBlock> implements PileNormalization {
 
 	PileupWrapper(String key, IndexedFeatureFile data, TabIndex idx) {
 		super(key, data, idx);
@@ -22,9 +22,12 @@ public class PileupWrapper extends TabixWrapper<DoublePile> implements PileNorma
 	 * @see net.sf.jannot.Data#get(int, int)
 	 */
 	@Override
-	public Iterable<DoublePile> get(int start, int end) {
+	public Iterable<PileBlock> get(int start, int end) {
 		try {
-			return new PileupCodec(data.query(key, start, end));
+			PileBlock out = new PileBlock(2, 1024);
+			for (TabixLine line : data.query(key, start, end))
+				out.addReads(line.getInt(1), line.getBytes(4));
+			return Collections.singletonList(out);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -5,13 +5,12 @@ package net.sf.jannot.tabix;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Collections;
 
-import net.sf.jannot.pileup.DoublePile;
-import net.sf.jannot.pileup.Pile;
+import net.sf.jannot.pileup.PileBlock;
 import net.sf.jannot.pileup.PileNormalization;
-import net.sf.jannot.tabix.codec.SWigCodec;
 
-public class SWigWrapper extends TabixWrapper<Pile> implements PileNormalization {
+public class SWigWrapper extends TabixWrapper<PileBlock> implements PileNormalization {
 
 	SWigWrapper(String key, IndexedFeatureFile data, TabIndex idx) {
 		super(key, data, idx);
@@ -23,9 +22,12 @@ public class SWigWrapper extends TabixWrapper<Pile> implements PileNormalization
 	 * @see net.sf.jannot.Data#get(int, int)
 	 */
 	@Override
-	public Iterable<Pile> get(int start, int end) {
+	public Iterable<PileBlock> get(int start, int end) {
 		try {
-			return new SWigCodec(data.query(key, start, end));
+			PileBlock out = new PileBlock(2, 1024);
+			for (TabixLine line : data.query(key, start, end))
+				out.add(line.getInt(1), 1, line.getInt(2), line.getInt(3));
+			return Collections.singletonList(out);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
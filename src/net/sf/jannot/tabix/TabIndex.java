@@ -0,0 +1,385 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.tabix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ *
+ * Organized content of an index file
+ *
+ * The binning index of each sequence is stored in primitive arrays: the bin
+ * numbers in sorted order and the chunks of all bins one after the other, so
+ * that a lookup is a binary search and no objects are needed per bin or per
+ * chunk.
+ *
+ * @author Thomas Abeel
+ *
+ */
+class TabIndex {
+
+	/**
+	 * File identifier magic. Should be \1
+	 */
+	String magic;
+
+	/**
+	 * Preset mask (for db specific settings?)
+	 */
+	long preset;
+
+	/**
+	 * Column number with sequence name
+	 */
+	long sc;
+	/**
+	 * Column number with starting nt
+	 */
+	long bc;
+	/**
+	 * Column number with ending nt
+	 */
+	long ec;
+
+	/**
+	 * Defines the character for meta information. Comment lines, normally set
+	 * to '#'
+	 */
+	char meta;
+
+	/**
+	 * Sequence list
+	 */
+	List<String> names = new ArrayList<String>();
+
+	private final HashMap<String, Integer> tids = new HashMap<String, Integer>();
+
+	/*
+	 * Bytes of the names and an open addressing table with the index of each
+	 * name plus one, to look up names of lines without making a String.
+	 */
+	private byte[][] nameBytes;
+	private int[] nameSlots;
+
+	/**
+	 * Sorted bin numbers, one array per sequence.
+	 */
+	private int[][] bins;
+
+	/**
+	 * Chunks of bin i of a sequence are at indices binOffset[i] up to
+	 * binOffset[i+1] in chunkStart and chunkEnd.
+	 */
+	private int[][] binOffset;
+
+	/**
+	 * Virtual file offsets of the start and end of all chunks, one array per
+	 * sequence.
+	 */
+	private long[][] chunkStart, chunkEnd;
+
+	/**
+	 * Linear indexes, one per sequence
+	 */
+	long[][] linIndex;
+
+	static final int TAD_LIDX_SHIFT = 14;
+
+	/* Offset of the first bin and shift of each level of the binning scheme */
+	private static final int[] LEVEL_OFFSET = { 0, 1, 9, 73, 585, 4681 };
+	private static final int[] LEVEL_SHIFT = { 29, 26, 23, 20, 17, 14 };
+
+	/**
+	 * Reads a decompressed index.
+	 */
+	static TabIndex read(InputStream in) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(1 << 16);
+		byte[] buffer = new byte[1 << 16];
+		int r;
+		while ((r = in.read(buffer)) >= 0)
+			bos.write(buffer, 0, r);
+		ByteBuffer bb = ByteBuffer.wrap(bos.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		return new TabIndex(bb);
+	}
+
+	private TabIndex(ByteBuffer bb) {
+		// read magic
+		byte[] buffer = new byte[4];
+		bb.get(buffer);
+		magic = new String(buffer);
+
+		// read number of sequences
+		int n = bb.getInt();
+
+		// read header info
+		preset = uint(bb);
+		sc = uint(bb);
+		bc = uint(bb);
+		ec = uint(bb);
+		meta = (char) uint(bb);
+
+		// skip line
+		uint(bb);
+
+		// parse names, they are separated by zero bytes
+		buffer = new byte[bb.getInt()];
+		bb.get(buffer);
+		int from = 0;
+		for (int i = 0; i < buffer.length; i++) {
+			if (buffer[i] == 0) {
+				String name = new String(buffer, from, i - from);
+				tids.put(name, names.size());
+				names.add(name);
+				from = i + 1;
+			}
+		}
+		nameBytes = new byte[names.size()][];
+		nameSlots = new int[Integer.highestOneBit(Math.max(1, names.size())) * 4];
+		from = 0;
+		for (int i = 0, tid = 0; i < buffer.length; i++) {
+			if (buffer[i] == 0) {
+				nameBytes[tid] = Arrays.copyOfRange(buffer, from, i);
+				int slot = hash(buffer, from, i - from) & (nameSlots.length - 1);
+				while (nameSlots[slot] != 0)
+					slot = (slot + 1) & (nameSlots.length - 1);
+				nameSlots[slot] = ++tid;
+				from = i + 1;
+			}
+		}
+
+		bins = new int[n][];
+		binOffset = new int[n][];
+		chunkStart = new long[n][];
+		chunkEnd = new long[n][];
+		linIndex = new long[n][];
+		for (int i = 0; i < n; i++) {
+			int nBins = bb.getInt();
+			int[] binIds = new int[nBins];
+			int[] filePos = new int[nBins];
+			int[] counts = new int[nBins];
+			int total = 0;
+			/* First pass over the bins to find out how many chunks there are */
+			for (int j = 0; j < nBins; j++) {
+				binIds[j] = bb.getInt();
+				counts[j] = bb.getInt();
+				filePos[j] = bb.position();
+				total += counts[j];
+				bb.position(bb.position() + 16 * counts[j]);
+			}
+			/* Bins are not sorted in the file */
+			long[] order = new long[nBins];
+			for (int j = 0; j < nBins; j++)
+				order[j] = (long) binIds[j] << 32 | j;
+			Arrays.sort(order);
+
+			int[] sortedBins = new int[nBins];
+			int[] offsets = new int[nBins + 1];
+			long[] starts = new long[total];
+			long[] ends = new long[total];
+			int c = 0;
+			int end = bb.position();
+			for (int j = 0; j < nBins; j++) {
+				int idx = (int) order[j];
+				sortedBins[j] = binIds[idx];
+				offsets[j] = c;
+				bb.position(filePos[idx]);
+				for (int k = 0; k < counts[idx]; k++) {
+					starts[c] = bb.getLong();
+					ends[c] = bb.getLong();
+					c++;
+				}
+			}
+			offsets[nBins] = c;
+			bb.position(end);
+			bins[i] = sortedBins;
+			binOffset[i] = offsets;
+			chunkStart[i] = starts;
+			chunkEnd[i] = ends;
+
+			long[] lin = new long[bb.getInt()];
+			for (int j = 0; j < lin.length; j++)
+				lin[j] = bb.getLong();
+			linIndex[i] = lin;
+		}
+	}
+
+	private static long uint(ByteBuffer bb) {
+		return bb.getInt() & 0xFFFFFFFFL;
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * @return the index of a sequence, or -1 when the sequence is not in the
+	 *         index
+	 */
+	int tid(String name) {
+		Integer tid = tids.get(name);
+		return tid == null ? -1 : tid;
+	}
+
+	/**
+	 * @return the virtual file offset where the records of a sequence end
+	 */
+	long end(int tid) {
+		long out = 0;
+		for (long e : chunkEnd[tid])
+			out = Math.max(out, e);
+		return out;
+	}
+
+	/**
+	 * @return the index of the sequence with the name in buffer[offset,
+	 *         offset+length[, or -1 when the sequence is not in the index
+	 */
+	int tid(byte[] buffer, int offset, int length) {
+		int slot = hash(buffer, offset, length) & (nameSlots.length - 1);
+		for (int tid; (tid = nameSlots[slot]) != 0; slot = (slot + 1) & (nameSlots.length - 1)) {
+			byte[] name = nameBytes[tid - 1];
+			if (name.length != length)
+				continue;
+			int i = 0;
+			while (i < length && name[i] == buffer[offset + i])
+				i++;
+			if (i == length)
+				return tid - 1;
+		}
+		return -1;
+	}
+
+	private static int hash(byte[] buffer, int offset, int length) {
+		int h = 0;
+		for (int i = offset; i < offset + length; i++)
+			h = 31 * h + buffer[i];
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the chunks that may contain records overlapping [beg,end[, as
+	 * two arrays with the start and end virtual file offsets. Chunks are
+	 * sorted and merged as in the tabix C implementation.
+	 *
+	 * Bins are enumerated per level of the binning scheme, every level is a
+	 * contiguous range of bin numbers that is looked up in the sorted bins, so
+	 * no list of bins is constructed.
+	 */
+	long[][] chunks(int tid, int beg, int end) {
+		long[] lin = linIndex[tid];
+		long minOff = (beg >> TAD_LIDX_SHIFT >= lin.length) ? 0 : lin[beg >> TAD_LIDX_SHIFT];
+		/* Count the chunks first, so the result is allocated once */
+		int n = collect(tid, beg, end - 1, minOff, null, null);
+		long[] starts = new long[n];
+		long[] ends = new long[n];
+		if (n == 0)
+			return new long[][] { starts, ends };
+		collect(tid, beg, end - 1, minOff, starts, ends);
+		return merge(starts, ends);
+	}
+
+	/*
+	 * Visits the chunks of all bins overlapping [beg,end] that end after
+	 * minOff, and copies them when the arrays are not null.
+	 */
+	private int collect(int tid, int beg, int end, long minOff, long[] starts, long[] ends) {
+		int[] bins = this.bins[tid];
+		int[] offsets = binOffset[tid];
+		long[] cStart = chunkStart[tid];
+		long[] cEnd = chunkEnd[tid];
+		int c = 0;
+		for (int level = 0; level < LEVEL_OFFSET.length; level++) {
+			int first = LEVEL_OFFSET[level] + (beg >>> LEVEL_SHIFT[level]);
+			int last = LEVEL_OFFSET[level] + (end >>> LEVEL_SHIFT[level]);
+			int b = Arrays.binarySearch(bins, first);
+			if (b < 0)
+				b = -b - 1;
+			for (; b < bins.length && bins[b] <= last; b++) {
+				for (int k = offsets[b]; k < offsets[b + 1]; k++) {
+					if (cEnd[k] > minOff) {
+						if (starts != null) {
+							starts[c] = cStart[k];
+							ends[c] = cEnd[k];
+						}
+						c++;
+					}
+				}
+			}
+		}
+		return c;
+	}
+
+	private static long[][] merge(long[] starts, long[] ends) {
+		sort(starts, ends, 0, starts.length - 1);
+		// resolve completely contained adjacent blocks
+		int i, l;
+		for (i = 1, l = 0; i < starts.length; ++i) {
+			if (ends[l] < ends[i]) {
+				++l;
+				starts[l] = starts[i];
+				ends[l] = ends[i];
+			}
+		}
+		int n = l + 1;
+		// resolve overlaps between adjacent blocks; this may happen due to the
+		// merge in indexing
+		for (i = 1; i < n; ++i) {
+			if (ends[i - 1] >= starts[i])
+				ends[i - 1] = starts[i];
+		}
+		// merge adjacent blocks
+		for (i = 1, l = 0; i < n; ++i) {
+			if (ends[l] >>> 16 == starts[i] >>> 16) {
+				ends[l] = ends[i];
+			} else {
+				++l;
+				starts[l] = starts[i];
+				ends[l] = ends[i];
+			}
+		}
+		n = l + 1;
+		return new long[][] { Arrays.copyOf(starts, n), Arrays.copyOf(ends, n) };
+	}
+
+	/* Sorts both arrays on the values in starts */
+	private static void sort(long[] starts, long[] ends, int lo, int hi) {
+		while (lo < hi) {
+			long pivot = starts[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (starts[i] < pivot)
+					i++;
+				while (starts[j] > pivot)
+					j--;
+				if (i <= j) {
+					long t = starts[i];
+					starts[i] = starts[j];
+					starts[j] = t;
+					t = ends[i];
+					ends[i] = ends[j];
+					ends[j] = t;
+					i++;
+					j--;
+				}
+			}
+			/* Recurse into the smaller part */
+			if (j - lo < hi - i) {
+				sort(starts, ends, lo, j);
+				lo = i;
+			} else {
+				sort(starts, ends, i, hi);
+				hi = j;
+			}
+		}
+	}
+
+}
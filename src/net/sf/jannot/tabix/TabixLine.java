@@ -3,142 +3,139 @@
  */
 package net.sf.jannot.tabix;
 
-import java.util.ArrayList;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
- * 
+ * A line of a tabix indexed file, kept as the bytes of the line with the
+ * offsets of its fields.
+ *
+ * Only the sequence, begin and end are decoded when the line is read, other
+ * fields become a String when a codec asks for them. Integer fields are
+ * parsed straight from the bytes.
+ *
  * @author Thomas Abeel
- * 
+ *
  */
 public class TabixLine {
-	// /* Buffer for individual columns */
-	private ArrayList<String> buffer = new ArrayList<String>();
-	// /* Buffer for current column */
-	// private StringBuffer current = new StringBuffer();
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final byte[] bytes;
+	/* Start of every field, followed by the length of the line plus one */
+	private final int[] fields;
+
 	int tid;
 	public int beg;
 	public int end;
-	// private int bin;
 	/* Indicates comment lines or other useless lines, like empty ones */
 	boolean meta = false;
-	private String line;
 
-	// private String[] payload;
+	private TabixLine(byte[] bytes, int[] fields) {
+		this.bytes = bytes;
+		this.fields = fields;
+	}
+
+	/**
+	 * Splits a line of the decompressed data, the bytes are copied so the
+	 * buffer can be reused.
+	 */
+	static TabixLine parse(TabIndex idx, byte[] buffer, int offset, int length, byte split) {
+		byte[] bytes = Arrays.copyOfRange(buffer, offset, offset + length);
+		int n = 1;
+		for (byte b : bytes)
+			if (b == split)
+				n++;
+		int[] fields = new int[n + 1];
+		for (int i = 0, f = 1; i < bytes.length; i++)
+			if (bytes[i] == split)
+				fields[f++] = i + 1;
+		fields[n] = bytes.length + 1;
+		TabixLine out = new TabixLine(bytes, fields);
+		/* Handle empty lines */
+		if (length == 0 || n < Math.max(idx.sc, Math.max(idx.bc, idx.ec))) {
+			out.meta = true;
+			return out;
+		}
+		int sc = (int) idx.sc - 1;
+		out.tid = idx.tid(bytes, fields[sc], out.fieldLength(sc));
+		out.beg = out.getInt((int) idx.bc - 1);
+		if (idx.ec > 0)
+			out.end = out.getInt((int) idx.ec - 1);
+		else
+			out.end = out.beg;
+		return out;
+	}
 
 	public String line() {
-		return line;
+		return new String(bytes, UTF8);
 	}
 
 	public String get(int idx) {
-		return buffer.get(idx);
+		return new String(bytes, fields[idx], fieldLength(idx), UTF8);
 	}
 
-	public int getInt(int idx) {
-		return Integer.parseInt(get(idx));
+	/**
+	 * @return a copy of the bytes of a field
+	 */
+	public byte[] getBytes(int idx) {
+		return Arrays.copyOfRange(bytes, fields[idx], fields[idx + 1] - 1);
 	}
 
-	public double getDouble(int idx) {
-		return Double.parseDouble(get(idx));
+	/**
+	 * @return the first character of a field, or 0 when the field is empty
+	 */
+	public char firstChar(int idx) {
+		return fieldLength(idx) == 0 ? 0 : (char) (bytes[fields[idx]] & 0xFF);
 	}
 
-	// private int ti_reg2bin(int beg, int end) {
-	// --end;
-	// if (beg >>> 14 == end >>> 14)
-	// return 4681 + (beg >>> 14);
-	// if (beg >>> 17 == end >>> 17)
-	// return 585 + (beg >>> 17);
-	// if (beg >>> 20 == end >>> 20)
-	// return 73 + (beg >>> 20);
-	// if (beg >>> 23 == end >>> 23)
-	// return 9 + (beg >>> 23);
-	// if (beg >>> 26 == end >>> 26)
-	// return 1 + (beg >>> 26);
-	// return 0;
-	// }
-
-	// /**
-	// * Add one single character to the column that's currently being read.
-	// *
-	// * @param c
-	// */
-	// public void add(char c) {
-	// current.append(c);
-	// }
-
-	// /**
-	// * Set the current column to the given string and jump to next column.
-	// *
-	// * @param col
-	// */
-	// public void setColumn(String col){
-	// buffer.add(col);
-	// current = new StringBuffer();
-	// }
-
-	// /**
-	// * Go to the next column
-	// *
-	// */
-	// public void next() {
-	// buffer.add(current.toString());
-	// current = new StringBuffer();
-	//
-	// }
-
-	public void parse(TabIndex idx, char split) {
-		// /* Make sure to add last column */
-		// buffer.add(current.toString());
-		// current=null;
-		/* Handle empty lines */
-		if (line.length() == 0) {
-			this.meta = true;
-			return;
-		}
-		StringBuffer tmp = new StringBuffer();
-		for (int i = 0; i < line.length(); i++) {
-			char c = line.charAt(i);
-			if (c == split) {
-				buffer.add(tmp.toString());
-				tmp = new StringBuffer();
-			} else {
-				tmp.append(c);
-
-			}
+	public int fieldLength(int idx) {
+		return fields[idx + 1] - 1 - fields[idx];
+	}
 
+	public int getInt(int idx) {
+		int from = fields[idx];
+		int to = fields[idx + 1] - 1;
+		boolean negative = from < to && bytes[from] == '-';
+		int i = negative || (from < to && bytes[from] == '+') ? from + 1 : from;
+		if (i == to)
+			throw new NumberFormatException("For input string: \"" + get(idx) + "\"");
+		/* Accumulate negatively so Integer.MIN_VALUE fits */
+		int out = 0;
+		for (; i < to; i++) {
+			int d = bytes[i] - '0';
+			if (d < 0 || d > 9 || out < (Integer.MIN_VALUE + d) / 10)
+				throw new NumberFormatException("For input string: \"" + get(idx) + "\"");
+			out = out * 10 - d;
 		}
+		if (negative)
+			return out;
+		if (out == Integer.MIN_VALUE)
+			throw new NumberFormatException("For input string: \"" + get(idx) + "\"");
+		return -out;
+	}
 
-		buffer.add(tmp.toString());
-		
-		this.tid = idx.names.indexOf(buffer.get((int) idx.sc - 1));
-		this.beg = Integer.parseInt(buffer.get((int) idx.bc - 1).toString());
-		if(idx.ec>0)
-			this.end = Integer.parseInt(buffer.get((int) idx.ec - 1).toString());
-		else
-			this.end=beg;
-		// this.bin = ti_reg2bin(this.beg, this.end);
-		// payload=buffer.toArray(new String[0]);
-		// buffer=null;
+	public double getDouble(int idx) {
+		return Double.parseDouble(get(idx));
 	}
 
 	/**
-	 * @return
+	 * @return the number of fields
 	 */
 	public int length() {
-		return buffer.size();
+		return fields.length - 1;
 	}
 
 	/**
-	 * @param line
+	 * @return estimate of the memory used by this line in bytes
 	 */
-	public void setLine(String line) {
-		this.line = line;
+	long size() {
+		return bytes.length + 4 * fields.length + 80;
+	}
 
+	@Override
+	public String toString() {
+		return line();
 	}
 
-	// /**
-	// * @return
-	// */
-	// public String[] getPayload() {
-	// return payload;
-	// }
-}
\ No newline at end of file
+}
@@ -6,13 +6,13 @@ package net.sf.jannot.tabix;
 import net.sf.jannot.Data;
 import net.sf.jannot.DensityEstimate;
 import net.sf.jannot.Location;
+import net.sf.jannot.source.Locator;
 
 public abstract class TabixWrapper<T> implements Data<T>, DensityEstimate {
 
 	public boolean canSave(){
 		return false;
 	}
-	private static final int RECORDSIZE = 12;
 	protected String key;
 	protected IndexedFeatureFile data;
 	protected TabIndex idx;
@@ -26,6 +26,20 @@ public abstract class TabixWrapper<T> implements Data<T>, DensityEstimate {
 		
 	}
 	
+	/**
+	 * @return the data file this wrapper reads from
+	 */
+	public Locator locator() {
+		return data.locator();
+	}
+
+	/**
+	 * @return the name of the sequence in the data file
+	 */
+	public String sequence() {
+		return key;
+	}
+
 	TabixWrapper(String key, IndexedFeatureFile data, TabIndex idx) {
 		this.data = data;
 		this.key = key;
@@ -51,21 +65,18 @@ public abstract class TabixWrapper<T> implements Data<T>, DensityEstimate {
 	 */
 	@Override
 	public int getEstimateCount(Location l) {
-		int tid = idx.names.indexOf(key);
-		long max = 0;
-		long min = Long.MAX_VALUE;
-		for (int i = 0; i < idx.linIndex[tid].size(); i++) {
-			long val = idx.linIndex[tid].get(i) >> 16;
-			if (val > 0 && val < min)
-				min = val;
-			if (val > max)
-				max = val;
-		}
-
-		double fraction = l.length() / (double) getMaximumCoordinate();
-		int estimate = (int) (fraction * (max - min) / RECORDSIZE);
-		return estimate;
+		return data.density(idx.tid(key)).count(l.start, l.end);
+	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see net.sf.jannot.DensityEstimate#getDensity(net.sf.jannot.Location,
+	 * int)
+	 */
+	@Override
+	public float[] getDensity(Location l, int parts) {
+		return data.density(idx.tid(key)).density(l.start, l.end, parts);
 	}
 
 	/*
@@ -75,8 +86,8 @@ public abstract class TabixWrapper<T> implements Data<T>, DensityEstimate {
 	 */
 	@Override
 	public int getMaximumCoordinate() {
-		int tid = idx.names.indexOf(key);
-		return idx.linIndex[tid].size() * 16 * 1024;
+		int tid = idx.tid(key);
+		return idx.linIndex[tid].length * 16 * 1024;
 	}
 
 }
\ No newline at end of file
@@ -60,7 +60,7 @@ public class GFFCodec extends Codec<Feature> {
 				SortedSet<Location> tmp = new TreeSet<Location>();
 				tmp.add(l);
 				f.setLocation(tmp);
-				char strand = line.get(6).charAt(0);
+				char strand = line.firstChar(6);
 				switch (strand) {
 				case '-':
 					f.setStrand(Strand.REVERSE);
@@ -76,9 +76,8 @@ public class GFFCodec extends Codec<Feature> {
 				// f.addQualifier(new Qualifier("seqid", arr[0]));
 				f.addQualifier("source", line.get(1));
 				f.setType(Type.get(line.get(2)));
-				String five = line.get(5);
-				if (!(five.length() == 1 && five.charAt(0) == '.') && five.length() != 0)
-					f.setScore(Double.parseDouble(five));
+				if (!(line.fieldLength(5) == 1 && line.firstChar(5) == '.') && line.fieldLength(5) != 0)
+					f.setScore(line.getDouble(5));
 				if (line.length() > 8) {
 					String[] attributes = line.get(8).split(";");
 					for (String s : attributes) {
@@ -3,16 +3,15 @@
  */
 package net.sf.jannot.tdf;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.jannot.Data;
-import net.sf.jannot.pileup.Pile;
+import net.sf.jannot.pileup.PileBlock;
 import net.sf.jannot.pileup.PileNormalization;
-import net.sf.jannot.pileup.PileTools;
 import net.sf.jannot.tdf.TDFData.TrackType;
 
 import org.broad.igv.tdf.TDFDataset;
@@ -24,7 +23,7 @@ import org.broad.igv.track.WindowFunction;
  * @author Thomas Abeel
  * 
  */
-public class TDFData implements Data<Pile>, PileNormalization {
+public class TDFData implements Data<PileBlock>, PileNormalization {
 
 	private Logger log = Logger.getLogger(TDFData.class.getCanonicalName());
 	private String chr;
@@ -89,7 +88,7 @@ public class TDFData implements Data<Pile>, PileNormalization {
 	 * @see net.sf.jannot.Data#get(int, int)
 	 */
 	@Override
-	public Iterable<Pile> get(int start, int end) {
+	public Iterable<PileBlock> get(int start, int end) {
 		log.log(Level.FINEST, "TDF query: " + start + "\t" + end);
 		if (size < 0) {
 			TDFDataset data = tr.getDataset(chr, 0, wf);
@@ -112,26 +111,28 @@ public class TDFData implements Data<Pile>, PileNormalization {
 
 		TDFDataset data = tr.getDataset(chr, zoom, wf);
 		
-		ArrayList<Pile> out = new ArrayList<Pile>();
+		PileBlock out = null;
 		for (TDFTile tft : data.getTiles(start, end)) {
+			int values = tft.noValues();
+			if (out == null)
+				out = new PileBlock(values, tft.getSize());
 			for (int i = 0; i < tft.getSize(); i++) {
-				float[] arr = new float[tft.noValues()];
-				for (int j = 0; j < tft.noValues(); j++) {
-					arr[j] = tft.getValue(j, i);
-					if (Float.isNaN(arr[j]) || Float.isInfinite(arr[j]))
-						arr[j] = 0;
-				}
 				int s = tft.getStartPosition(i);
 				int e = tft.getEndPosition(i);
 				if (e >= start && s <= end) {
-					Pile tmp = PileTools.create(s, arr);
-					tmp.setLength(e - s);
-					out.add(tmp);
+					int idx = out.add(s, e - s);
+					for (int j = 0; j < values && j < out.valueCount(); j++) {
+						float v = tft.getValue(j, i);
+						if (!Float.isNaN(v) && !Float.isInfinite(v))
+							out.set(idx, j, v);
+					}
 				}
 			}
 
 		}
-		return out;
+		if (out == null)
+			return Collections.emptyList();
+		return Collections.singletonList(out);
 
 	}
 
@@ -141,7 +142,7 @@ public class TDFData implements Data<Pile>, PileNormalization {
 	 * @see net.sf.jannot.Data#get()
 	 */
 	@Override
-	public Iterable<Pile> get() {
+	public Iterable<PileBlock> get() {
 		return get(1, size);
 	}
 
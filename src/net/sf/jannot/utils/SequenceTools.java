@@ -3,7 +3,7 @@
  */
 package net.sf.jannot.utils;
 
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.SortedSet;
 
 import net.sf.jannot.AminoAcidMapping;
@@ -45,36 +45,20 @@ public class SequenceTools {
 
 
 	public static String translate(Sequence dna, AminoAcidMapping mapping) {
-		char[] output = new char[(int)Math.ceil(dna.size() / 3.0)];
-		Iterator<Character>it=dna.get().iterator();
-		int index=0;
-		while(it.hasNext()){
-			String codon=nextCodon(it);
-			output[index++] = mapping.get(codon);
-		}
+		int size = dna.size();
+		char[] output = new char[(int)Math.ceil(size / 3.0)];
+		/* Incomplete codons at the end are padded with n, which translates to X */
+		byte[] nts = new byte[output.length * 3];
+		Arrays.fill(nts, size, nts.length, (byte) 'n');
+		dna.get(1, size + 1, nts, 0);
+		for (int i = 0; i < output.length; i++)
+			output[i] = mapping.get(nts[3 * i], nts[3 * i + 1], nts[3 * i + 2]);
 		return new String(output);
 	}
 
 
 
 
-	/**
-	 * @param it
-	 * @return
-	 */
-	private static String nextCodon(Iterator<Character> it) {
-		char[]tmp=new char[]{'n','n','n'};
-		if(it.hasNext())
-			tmp[0]=it.next();
-		if(it.hasNext())
-			tmp[1]=it.next();
-		if(it.hasNext())
-			tmp[2]=it.next();
-		return new String(tmp);
-	}
-
-
-
 	public static Sequence extractSequence(Sequence seq, Feature feat) {
 		//System.out.println("SQ:"+seq);
 		StringBuffer out = new StringBuffer();
@@ -82,16 +66,9 @@ public class SequenceTools {
 
 		
 		for (int j = 0; j < arr.length; j++) {
-			StringBuffer x=new StringBuffer();
-			Iterable<Character> cc = seq.get(arr[j].start, arr[j].end+1);
-			for (Character c : cc) {
-				out.append(c);
-				x.append(c);
-				
-			}
-			//System.out.println("exon: "+x.toString());
-			
-
+			char[] exon = new char[arr[j].length()];
+			seq.get(arr[j].start, arr[j].end + 1, exon, 0);
+			out.append(exon);
 		}
 		Sequence sq = new MemorySequence(out);
 		if (feat.strand() == Strand.REVERSE)
@@ -109,11 +86,12 @@ public class SequenceTools {
 	 * @return
 	 */
 	public static Sequence reverseComplement(Sequence sequence) {
-		StringBuffer buffer = new StringBuffer(sequence.size());
-		for(char c:sequence.get()){
-			buffer.append(SequenceTools.complement(c));
-		}
-		buffer.reverse();
+		int size = sequence.size();
+		char[] nts = new char[size];
+		sequence.get(1, size + 1, nts, 0);
+		StringBuffer buffer = new StringBuffer(size);
+		for (int i = size - 1; i >= 0; i--)
+			buffer.append(SequenceTools.complement(nts[i]));
 		return new MemorySequence(buffer);
 	}
 
@@ -3,8 +3,15 @@
  */
 package net.sf.jannot.wiggle;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import net.sf.jannot.utils.ArrayIterable;
 
+import be.abeel.concurrency.DaemonThreadFactory;
+
 /**
  * 
  * @author Thomas Abeel
@@ -16,45 +23,102 @@ public abstract class AbstractWiggle implements Graph, Query {
 		return "wiggle";
 	}
 	
-	private FloatCache buffer5 = null;
+	private static Logger log = Logger.getLogger(AbstractWiggle.class.getCanonicalName());
+
+	/* Builds the pyramids, so queries do not wait for them */
+	private static final ExecutorService builder = Executors.newSingleThreadExecutor(new DaemonThreadFactory());
+
+	/* Values that a query reads from the source while the pyramid is built */
+	static final int PREVIEW = 1 << 20;
+
+	private Query source = null;
+
+	/* Built in the background on the first query that needs it */
+	private volatile Pyramid pyramid = null;
+	private volatile boolean building = false;
+	/* Incremented on every change, a pyramid of an older version is dropped */
+	private int version = 0;
 
 	private int lastStart=-1,lastEnd=-1,lastRes=-1;
-	private float[]last=null;
+	private Envelope last=null;
 	@Override
 	public float[] get(int start, int end, int resolutionIndex) {
-		if(buffer5==null)
+		return getEnvelope(start, end, resolutionIndex).mean;
+	}
+
+	/**
+	 * While the pyramid for coarse resolutions is built, the envelope is
+	 * sampled from the source and {@link Envelope#isPartial()} is true.
+	 */
+	@Override
+	public synchronized Envelope getEnvelope(int start, int end, int resolutionIndex) {
+		if(source==null)
 			throw new RuntimeException("Wiggle needs to be initialized!");
 		if(lastStart==start&&lastEnd==end&&lastRes==resolutionIndex)
 			return last;
-		if (resolutionIndex < 5) {
-			last = getRawRange(start, end);
-
-		} else {
-			last = buffer5.getRawRange(start, end);
-			resolutionIndex -= 5;
-
-		}
-		while (resolutionIndex > 0) {
-			last = merge(last);
-			resolutionIndex--;
+		long scale = 1L << resolutionIndex;
+		Envelope out;
+		if (resolutionIndex < Pyramid.BASE)
+			out = Pyramid.read(source, start, end, scale);
+		else if (pyramid != null)
+			out = pyramid.get(start, end, scale);
+		else {
+			build();
+			out = Pyramid.sample(source, start, end, scale, PREVIEW);
+			if (out.isPartial())
+				return out;
 		}
+		last = out;
+		lastStart = start;
+		lastEnd = end;
+		lastRes = resolutionIndex;
 		return last;
 
 	}
 
-	private float[] merge(float[] ds) {
-		float[] out = new float[(ds.length + 1) / 2];
-		double max = 0;
-		for (int i = 0; i < ds.length - 1; i += 2) {
-			out[i / 2] = (ds[i] + ds[i + 1]) / 2;
-			if (out[i / 2] > max)
-				max = out[i / 2];
+	/* Starts building the pyramid of the current values, guarded by this */
+	private void build() {
+		if (building)
+			return;
+		building = true;
+		final Query values = source;
+		final int built = version;
+		builder.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				Pyramid p = null;
+				try {
+					p = new Pyramid(values);
+				} catch (RuntimeException e) {
+					log.log(Level.WARNING, "Could not summarize " + label(), e);
+				}
+				synchronized (AbstractWiggle.this) {
+					if (built != version)
+						return;
+					/* A failed build is not retried until the values change */
+					pyramid = p;
+					building = p == null;
+					last = null;
+					lastRes = -1;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Has to be called when values change after the wiggle was initialized.
+	 */
+	protected void changed() {
+		if (pyramid != null || building || last != null) {
+			synchronized (this) {
+				version++;
+				pyramid = null;
+				building = false;
+				last = null;
+				lastRes = -1;
+			}
 		}
-		if (ds.length % 2 == 1)
-			out[out.length - 1] = ds[ds.length - 1];
-		// for (int i = 0; i < out.length; i++)
-		// out[i] /= max;
-		return out;
 	}
 
 //	@Override
@@ -73,8 +137,8 @@ public abstract class AbstractWiggle implements Graph, Query {
 	public abstract long size();
 
 	public void init(Query source) {
-		buffer5=new FloatCache(source);
-		
+		this.source = source;
+		changed();
 	}
 	
 	
@@ -3,62 +3,211 @@
  */
 package net.sf.jannot.wiggle;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Iterator;
 
-import net.sf.jannot.picard.BinaryBlob;
+import net.sf.jannot.Cleaner;
 
 /**
  * 
  * Make wiggle
  * 
- * Fill it with setMethod
+ * Fill it with set or put
  * 
- * Initialize with init();
+ * Initialize with finish();
+ * 
+ * The values are kept in a single memory mapped file, after a header with the
+ * size, minimum and maximum. The file is created sparse, so only the regions
+ * that get values take disk space. A wiggle in a file that was finished can be
+ * opened again without reading the values.
  * 
  * @author Thomas Abeel
  * 
  */
 public class DiskArrayWiggle extends AbstractWiggle implements Iterable<Float> {
 
-	// private float[] buffer;
-	// private String name;
+	private static final int MAGIC = 0x47565767;
+
+	/* Bytes before the values, keeps them aligned on pages */
+	private static final int HEADER = 4096;
+
+	/* Values per mapped segment, a mapping cannot be larger than 2 GB */
+	private static final int SEGMENT = 1 << 28;
+
 	private float min = Float.POSITIVE_INFINITY;
 	private float max = Float.NEGATIVE_INFINITY;
-	// private FloatBuffer fb = null;
-	// private int size;
 
-	private BinaryBlob blob = null;
-	private int size;
+	private final int size;
+	private final boolean temporary;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] mapped;
+	private final FloatBuffer[] segments;
 
+	/**
+	 * Creates a wiggle in a temporary file that is removed on exit.
+	 */
 	public DiskArrayWiggle(int size) throws IOException {
-		this.size=size;
-		System.out.println("Mapping: " + size * 4);
-		blob = new BinaryBlob(size * 4);
-		System.out.println("Mapping successfull!");
+		this(temporary(), size, true);
+	}
+
+	/**
+	 * Creates a wiggle in a file, existing content is overwritten.
+	 */
+	public DiskArrayWiggle(File file, int size) throws IOException {
+		this(file, size, false);
+	}
 
+	private static File temporary() throws IOException {
+		File file = File.createTempFile("GenomeView.wiggle", ".tmp");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private DiskArrayWiggle(File file, int size, boolean temporary) throws IOException {
+		this(file, size, true, temporary);
+		header.putInt(0, MAGIC);
+		header.putInt(4, size);
+		header.putInt(16, 0);
+	}
+
+	private DiskArrayWiggle(File file, int size, boolean create, boolean temporary) throws IOException {
+		this.size = size;
+		this.temporary = temporary;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (create) {
+				/* Both calls only change the length, nothing is written */
+				raf.setLength(0);
+				raf.setLength(HEADER + 4L * size);
+			}
+			FileChannel channel = raf.getChannel();
+			header = channel.map(MapMode.READ_WRITE, 0, HEADER);
+			mapped = new MappedByteBuffer[(int) ((size + (long) SEGMENT - 1) / SEGMENT)];
+			segments = new FloatBuffer[mapped.length];
+			for (int i = 0; i < segments.length; i++) {
+				long from = (long) i * SEGMENT;
+				long length = Math.min(SEGMENT, size - from);
+				mapped[i] = channel.map(MapMode.READ_WRITE, HEADER + 4 * from, 4 * length);
+				segments[i] = mapped[i].asFloatBuffer();
+			}
+		} finally {
+			/* Mappings stay valid after closing */
+			if (temporary)
+				Cleaner.register(raf, file);
+			else
+				raf.close();
+		}
+	}
+
+	/**
+	 * Opens a wiggle that was finished in a file.
+	 * 
+	 * @return the wiggle, or null when the file does not hold a finished
+	 *         wiggle
+	 */
+	public static DiskArrayWiggle open(File file) throws IOException {
+		if (file.length() < HEADER)
+			return null;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		int size;
+		float min, max;
+		try {
+			if (raf.readInt() != MAGIC)
+				return null;
+			size = raf.readInt();
+			min = raf.readFloat();
+			max = raf.readFloat();
+			if (raf.readInt() != 1 || file.length() != HEADER + 4L * size)
+				return null;
+		} finally {
+			raf.close();
+		}
+		DiskArrayWiggle out = new DiskArrayWiggle(file, size, false, false);
+		out.min = min;
+		out.max = max;
+		out.init();
+		return out;
 	}
 
 	/**
-	 * Zero based coordinate
+	 * Zero based coordinate, positions outside the wiggle are ignored.
 	 * 
 	 * @param position
 	 * @param value
 	 */
 	public void set(int position, float value) {
-
+		if (position < 0 || position >= size)
+			return;
 		if (value > max)
 			max = value;
 		if (value < min)
 			min = value;
-		try {
-			blob.putFloat(position * 4, value);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		changed();
+		segments[position / SEGMENT].put(position % SEGMENT, value);
+	}
+
+	/**
+	 * Writes len values starting from a zero based position, values outside
+	 * the wiggle are ignored.
+	 */
+	public void put(int start, float[] values, int offset, int len) {
+		for (int i = offset; i < offset + len; i++) {
+			if (values[i] > max)
+				max = values[i];
+			if (values[i] < min)
+				min = values[i];
+		}
+		changed();
+		int from = Math.max(0, start);
+		int to = (int) Math.min(size, (long) start + len);
+		while (from < to) {
+			FloatBuffer fb = segments[from / SEGMENT].duplicate();
+			int n = Math.min(to - from, SEGMENT - from % SEGMENT);
+			fb.position(from % SEGMENT);
+			fb.put(values, offset + from - start, n);
+			from += n;
 		}
 	}
 
+	/**
+	 * Reads len values starting from a zero based position, positions outside
+	 * the wiggle are 0.
+	 */
+	public void get(int start, float[] out, int offset, int len) {
+		int from = Math.max(0, start);
+		int to = (int) Math.min(size, (long) start + len);
+		while (from < to) {
+			FloatBuffer fb = segments[from / SEGMENT].duplicate();
+			int n = Math.min(to - from, SEGMENT - from % SEGMENT);
+			fb.position(from % SEGMENT);
+			fb.get(out, offset + from - start, n);
+			from += n;
+		}
+	}
+
+	/**
+	 * Stores the minimum and maximum with the values, so the file can be
+	 * opened again, and initializes the wiggle.
+	 */
+	public void finish() {
+		header.putFloat(8, min);
+		header.putFloat(12, max);
+		if (!temporary) {
+			/* The values have to be on disk before the header says so */
+			for (MappedByteBuffer mbb : mapped)
+				mbb.force();
+			header.putInt(16, 1);
+			header.force();
+		}
+		init();
+	}
+
 	public void init() {
 		super.init(this);
 	}
@@ -74,20 +223,7 @@ public class DiskArrayWiggle extends AbstractWiggle implements Iterable<Float> {
 		if (start >= size)
 			return new float[0];
 		float[] out = new float[end - start];
-		int len = out.length;
-		if (start + len > size)
-			len = size - start;
-		if (start < 0)
-			start = 0;
-		for(int i=start;i<end;i++)
-			try {
-				out[i-start]=blob.getFloat(i*4);
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-//		blob.getFloat(out, start, len);
-		// System.arraycopy(fb.capacity(), start, out, 0, len);
+		get(start, out, 0, out.length);
 		return out;
 	}
 
@@ -103,7 +239,7 @@ public class DiskArrayWiggle extends AbstractWiggle implements Iterable<Float> {
 
 	@Override
 	public long size() {
-		return size;// / 4;
+		return size;
 	}
 
 	/**
@@ -113,13 +249,9 @@ public class DiskArrayWiggle extends AbstractWiggle implements Iterable<Float> {
 	 */
 	@Override
 	public float value(int pos) {
-		try {
-			return blob.getFloat(4 * (pos - 1));
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}// buffer[pos - 1];
-		return -1;
+		if (pos < 1 || pos > size)
+			return 0;
+		return segments[(pos - 1) / SEGMENT].get((pos - 1) % SEGMENT);
 	}
 
 	/*
@@ -0,0 +1,41 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.wiggle;
+
+/**
+ * Minimum, maximum and mean of the values in consecutive bins of a graph.
+ * Bins without values have 0 for all three. A partial envelope summarizes
+ * only part of the values of each bin.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class Envelope {
+
+	public final float[] min;
+	public final float[] max;
+	public final float[] mean;
+
+	private final boolean partial;
+
+	Envelope(int bins) {
+		this(bins, false);
+	}
+
+	Envelope(int bins, boolean partial) {
+		min = new float[bins];
+		max = new float[bins];
+		mean = new float[bins];
+		this.partial = partial;
+	}
+
+	public boolean isPartial() {
+		return partial;
+	}
+
+	public int size() {
+		return mean.length;
+	}
+
+}
@@ -28,6 +28,12 @@ public interface Graph extends Data<Float>{
 	 */
 	public float[] get(int start, int end, int resolutionIndex);
 
+	/**
+	 * Like {@link #get(int, int, int)}, with the minimum and maximum of each
+	 * bin next to the mean.
+	 */
+	public Envelope getEnvelope(int start, int end, int resolutionIndex);
+
 	public float min();
 
 	public float max();
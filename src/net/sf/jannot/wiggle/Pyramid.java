@@ -0,0 +1,262 @@
+/**
+ * %HEADER%
+ */
+package net.sf.jannot.wiggle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Minimum, maximum and mean of the values of a graph in bins of every power
+ * of two from 2^BASE up to the whole graph.
+ *
+ * Bins at level i hold 2^(BASE+i) values and combine two bins of level i-1.
+ * Bins that are smaller than 2^BASE values are read from the source, so a
+ * query reads at most 2^BASE values and a few bins per bin that it returns.
+ * The lowest levels are built in parallel, one task per range of 2^CHUNK
+ * values.
+ *
+ * @author Thomas Abeel
+ *
+ */
+class Pyramid {
+
+	/* Values in the bins of the lowest level */
+	static final int BASE = 6;
+
+	/* Values per task of the build */
+	private static final int CHUNK = 22;
+
+	/* Values that are read from the source at once */
+	private static final int READ = 1 << 16;
+
+	private static final ForkJoinPool pool = new ForkJoinPool();
+
+	private final Query source;
+	private final long size;
+
+	/* Indexed on level and bin */
+	private final float[][] min, max, mean;
+
+	Pyramid(Query source) {
+		this.source = source;
+		this.size = source.size();
+		int levels = 1;
+		while ((1L << (BASE + levels - 1)) < size)
+			levels++;
+		min = new float[levels][];
+		max = new float[levels][];
+		mean = new float[levels][];
+		for (int i = 0; i < levels; i++) {
+			int bins = (int) ((size + (1L << (BASE + i)) - 1) >> (BASE + i));
+			min[i] = new float[bins];
+			max[i] = new float[bins];
+			mean[i] = new float[bins];
+		}
+		final List<Build> tasks = new ArrayList<Build>();
+		for (long from = 0; from < size; from += 1L << CHUNK)
+			tasks.add(new Build(from, Math.min(size, from + (1L << CHUNK))));
+		pool.invoke(new RecursiveAction() {
+
+			private static final long serialVersionUID = -1862604392394712186L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		for (int level = CHUNK - BASE + 1; level < levels; level++)
+			combine(level, 0, mean[level].length);
+	}
+
+	/* Number of values in a bin, the last bin of each level may be smaller */
+	private long length(int level, long bin) {
+		int shift = BASE + level;
+		return Math.min(size, (bin + 1) << shift) - (bin << shift);
+	}
+
+	/* Fills bins [first,end[ of a level from the level below */
+	private void combine(int level, long first, long end) {
+		Summary s = new Summary();
+		for (long bin = first; bin < end; bin++) {
+			s.clear();
+			for (long child = 2 * bin; child < Math.min(2 * bin + 2, mean[level - 1].length); child++)
+				s.add(min[level - 1][(int) child], max[level - 1][(int) child], mean[level - 1][(int) child],
+						length(level - 1, child));
+			s.write(min[level], max[level], mean[level], (int) bin);
+		}
+	}
+
+	private class Build extends RecursiveAction {
+
+		private static final long serialVersionUID = 5049218707001245427L;
+
+		private final long from, to;
+
+		Build(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			Summary s = new Summary();
+			for (long p = from; p < to; p += READ) {
+				int n = (int) Math.min(READ, to - p);
+				float[] values = source.getRawRange((int) p, (int) p + n);
+				for (int i = 0; i < n; i += 1 << BASE) {
+					s.clear();
+					s.add(values, i, Math.min(n, i + (1 << BASE)));
+					s.write(min[0], max[0], mean[0], (int) ((p + i) >> BASE));
+				}
+			}
+			for (int level = 1; level <= CHUNK - BASE && level < mean.length; level++)
+				combine(level, from >> (BASE + level), ((to - 1) >> (BASE + level)) + 1);
+		}
+	}
+
+	/**
+	 * Summarizes the values of [start,end[ in bins of scale values, starting
+	 * from start.
+	 */
+	Envelope get(int start, int end, long scale) {
+		Envelope out = new Envelope(bins(start, end, scale));
+		long unit = 1L << BASE;
+		Summary s = new Summary();
+		for (int i = 0; i < out.size(); i++) {
+			long a = Math.max(0, start + i * scale);
+			long b = Math.min(Math.min(size, end), start + (i + 1) * scale);
+			s.clear();
+			if (a < b) {
+				long lo = (a + unit - 1) / unit * unit;
+				long hi = b / unit * unit;
+				if (lo >= hi) {
+					read(s, a, b);
+				} else {
+					if (a < lo)
+						read(s, a, lo);
+					add(s, lo, hi);
+					if (hi < b)
+						read(s, hi, b);
+				}
+			}
+			s.write(out.min, out.max, out.mean, i);
+		}
+		return out;
+	}
+
+	private void read(Summary s, long from, long to) {
+		float[] values = source.getRawRange((int) from, (int) to);
+		s.add(values, 0, values.length);
+	}
+
+	/* Adds the largest bins that cover [from,to[, both multiples of 2^BASE */
+	private void add(Summary s, long from, long to) {
+		while (from < to) {
+			int level = 0;
+			while (level + 1 < mean.length && from % (1L << (BASE + level + 1)) == 0
+					&& from + (1L << (BASE + level + 1)) <= to)
+				level++;
+			int bin = (int) (from >> (BASE + level));
+			s.add(min[level][bin], max[level][bin], mean[level][bin], length(level, bin));
+			from += 1L << (BASE + level);
+		}
+	}
+
+	/**
+	 * Summarizes [start,end[ in bins of scale values straight from the source,
+	 * for scales that are smaller than the pyramid.
+	 */
+	static Envelope read(Query source, int start, int end, long scale) {
+		Envelope out = new Envelope(bins(start, end, scale));
+		int from = Math.max(0, start);
+		int to = (int) Math.min(source.size(), end);
+		float[] values = from < to ? source.getRawRange(from, to) : new float[0];
+		Summary s = new Summary();
+		for (int i = 0; i < out.size(); i++) {
+			long a = Math.max(from, start + i * scale);
+			long b = Math.min(to, start + (i + 1) * scale);
+			s.clear();
+			if (a < b)
+				s.add(values, (int) (a - from), (int) (b - from));
+			s.write(out.min, out.max, out.mean, i);
+		}
+		return out;
+	}
+
+	/**
+	 * Like {@link #read(Query, int, int, long)}, but reads at most limit
+	 * values. When [start,end[ has more values, each bin is summarized from
+	 * the values at its start and the envelope is partial.
+	 */
+	static Envelope sample(Query source, int start, int end, long scale, int limit) {
+		int from = Math.max(0, start);
+		int to = (int) Math.min(source.size(), end);
+		if (to - (long) from <= limit)
+			return read(source, start, end, scale);
+		Envelope out = new Envelope(bins(start, end, scale), true);
+		long per = Math.max(1, limit / out.size());
+		Summary s = new Summary();
+		for (int i = 0; i < out.size(); i++) {
+			long a = Math.max(from, start + i * scale);
+			long b = Math.min(Math.min(to, start + (i + 1) * scale), a + per);
+			s.clear();
+			if (a < b) {
+				float[] values = source.getRawRange((int) a, (int) b);
+				s.add(values, 0, values.length);
+			}
+			s.write(out.min, out.max, out.mean, i);
+		}
+		return out;
+	}
+
+	private static int bins(int start, int end, long scale) {
+		return end <= start ? 0 : (int) ((end - (long) start + scale - 1) / scale);
+	}
+
+	/* Running minimum, maximum and sum */
+	private static class Summary {
+		private float min, max;
+		private double sum;
+		private long count;
+
+		void clear() {
+			min = Float.POSITIVE_INFINITY;
+			max = Float.NEGATIVE_INFINITY;
+			sum = 0;
+			count = 0;
+		}
+
+		void add(float[] values, int from, int to) {
+			for (int i = from; i < to; i++) {
+				float v = values[i];
+				if (v < min)
+					min = v;
+				if (v > max)
+					max = v;
+				sum += v;
+			}
+			count += to - from;
+		}
+
+		void add(float min, float max, float mean, long n) {
+			if (min < this.min)
+				this.min = min;
+			if (max > this.max)
+				this.max = max;
+			sum += mean * (double) n;
+			count += n;
+		}
+
+		void write(float[] mins, float[] maxs, float[] means, int i) {
+			if (count == 0)
+				return;
+			mins[i] = min;
+			maxs[i] = max;
+			means[i] = (float) (sum / count);
+		}
+	}
+
+}
@@ -8,7 +8,6 @@ import gnu.trove.map.hash.TIntFloatHashMap;
 import java.io.IOException;
 import java.util.Iterator;
 
-import net.sf.jannot.picard.BinaryBlob;
 
 /**
  * 
@@ -53,6 +52,7 @@ public class TroveArrayWiggle extends AbstractWiggle implements Iterable<Float>
 			max = value;
 		if (value < min)
 			min = value;
+		changed();
 		// try {
 		blob.put(position, value);
 		// } catch (IOException e) {
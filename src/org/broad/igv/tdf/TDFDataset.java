@@ -29,7 +29,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import org.broad.LRUCache;
 import org.broad.igv.util.StringUtils;
 
 
@@ -51,7 +50,6 @@ public class TDFDataset extends TDFEntity {
     long[] tilePositions;
     int[] tileSizes;
     int nTiles;
-    LRUCache<String, TDFTile> cache = new LRUCache(20);
     // TODO -- refactor this dependency out
     TDFReader reader;
 
@@ -132,17 +130,9 @@ public class TDFDataset extends TDFEntity {
     }
 
     // TDFTile computeTile(TDFDataset ds, int t, List<LocusScore> scores, String chr)
-    public synchronized TDFTile getTile(int t) {
-        String key = getName() + "_" + t;
-
-        TDFTile tile = null;
-        if (!cache.containsKey(key)) {
-            tile = reader.readTile(this, t);
-            cache.put(key, tile);
-        } else {
-            tile = cache.get(key);
-        }
-        return tile;
+    public TDFTile getTile(int t) {
+        // Decoded tiles are cached by the reader
+        return reader.readTile(this, t);
     }
     /**
 	 * @return
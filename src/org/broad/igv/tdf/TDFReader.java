@@ -18,10 +18,16 @@
 
 package org.broad.igv.tdf;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -29,18 +35,26 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 
+import net.sf.samtools.seekablestream.SeekableFileStream;
 import net.sf.samtools.seekablestream.SeekableStream;
 
-import org.broad.LRUCache;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.StringUtils;
 
 /**
+ * Reader for TDF files.
+ * 
+ * The reader is shared by all tracks of a file and can be used from several
+ * threads at once. Local files are read with positional reads on a file
+ * channel, other streams are locked only while the bytes are read. Decoded
+ * tiles are kept in the {@link TDFTileCache} that is shared by all readers.
+ * 
  * @author jrobinso
  * @author Thomas Abeel
  */
@@ -53,6 +67,10 @@ public class TDFReader {
 	static Map<String, TDFReader> readerCache = new HashMap();
 
 	private SeekableStream seekableStream = null;
+	/* Positional reads for local files, null for other streams */
+	private volatile FileChannel channel = null;
+	private RandomAccessFile raf = null;
+	private boolean closed = false;
 	private int version;
 	private int maxZoom = -1;
 	private Map<String, IndexEntry> datasetIndex;
@@ -60,8 +78,8 @@ public class TDFReader {
 	private String trackType;
 	private String trackLine;
 	private String[] trackNames;
-	private LRUCache<String, TDFGroup> groupCache = new LRUCache(20);
-	private LRUCache<String, TDFDataset> datasetCache = new LRUCache(20);
+	private ConcurrentHashMap<String, TDFGroup> groupCache = new ConcurrentHashMap<String, TDFGroup>();
+	private ConcurrentHashMap<String, TDFDataset> datasetCache = new ConcurrentHashMap<String, TDFDataset>();
 
 	private Map<WindowFunction, Double> valueCache = new HashMap();
 	private List<WindowFunction> windowFunctions;
@@ -71,7 +89,7 @@ public class TDFReader {
 
 	// private String path;
 
-	public static TDFReader getReader(SeekableStream locator) throws URISyntaxException {
+	public static synchronized TDFReader getReader(SeekableStream locator) throws URISyntaxException {
 
 		TDFReader reader = readerCache.get(locator.getSource());
 		if (reader == null) {
@@ -85,6 +103,10 @@ public class TDFReader {
 		this.seekableStream = locator;
 		this.locator = locator.getSource();
 		try {
+			if (locator instanceof SeekableFileStream) {
+				raf = new RandomAccessFile(new File(this.locator), "r");
+				channel = raf.getChannel();
+			}
 			readHeader();
 
 		} catch (IOException ex) {
@@ -96,13 +118,20 @@ public class TDFReader {
 	public void close() {
 		try {
 			seekableStream.close();
-			readerCache.remove(locator);
+			synchronized (this) {
+				closed = true;
+				if (raf != null)
+					raf.close();
+			}
+			synchronized (TDFReader.class) {
+				readerCache.remove(locator);
+			}
+			TDFTileCache.remove(locator);
 			datasetCache.clear();
-			datasetCache = null;
 			groupCache.clear();
-			groupCache = null;
-			valueCache.clear();
-			valueCache = null;
+			synchronized (this) {
+				valueCache.clear();
+			}
 		} catch (IOException e) {
 			log.log(Level.SEVERE, "Error closing reader for: " + locator, e);
 		}
@@ -244,10 +273,11 @@ public class TDFReader {
 		return ds;
 	}
 
-	public synchronized TDFDataset getDataset(String name) {
+	public TDFDataset getDataset(String name) {
 
-		if (datasetCache.containsKey(name)) {
-			return datasetCache.get(name);
+		TDFDataset cached = datasetCache.get(name);
+		if (cached != null) {
+			return cached;
 		}
 
 		try {
@@ -264,8 +294,9 @@ public class TDFReader {
 				byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
 
 				TDFDataset ds = new TDFDataset(name, byteBuffer, this);
-				datasetCache.put(name, ds);
-				return ds;
+				/* Another thread may have read it in the mean time */
+				TDFDataset other = datasetCache.putIfAbsent(name, ds);
+				return other != null ? other : ds;
 			} else {
 				return null;
 			}
@@ -284,9 +315,10 @@ public class TDFReader {
 		return groupIndex.keySet();
 	}
 
-	public synchronized TDFGroup getGroup(String name) {
-		if (groupCache.containsKey(name)) {
-			return groupCache.get(name);
+	public TDFGroup getGroup(String name) {
+		TDFGroup cached = groupCache.get(name);
+		if (cached != null) {
+			return cached;
 		}
 
 		try {
@@ -303,9 +335,9 @@ public class TDFReader {
 
 			TDFGroup group = new TDFGroup(name, byteBuffer);
 
-			groupCache.put(name, group);
+			TDFGroup other = groupCache.putIfAbsent(name, group);
 
-			return group;
+			return other != null ? other : group;
 
 		} catch (IOException ex) {
 			log.log(Level.SEVERE, "Error reading group: " + name, ex);
@@ -315,7 +347,7 @@ public class TDFReader {
 
 	// TODO -- move to dataset class
 
-	public synchronized TDFTile readTile(TDFDataset ds, int tileNumber) {
+	public TDFTile readTile(TDFDataset ds, int tileNumber) {
 
 		try {
 			if (tileNumber >= ds.tilePositions.length) {
@@ -331,6 +363,11 @@ public class TDFReader {
 				return null;
 			}
 
+			TDFTile cached = TDFTileCache.get(locator, ds.getName(), tileNumber);
+			if (cached != null) {
+				return cached;
+			}
+
 			int nBytes = ds.tileSizes[tileNumber];
 			// fis.seek(position);
 			// byte[] buffer = new byte[nBytes];
@@ -341,7 +378,9 @@ public class TDFReader {
 
 			}
 
-			return TileFactory.createTile(buffer, trackNames.length);
+			TDFTile tile = TileFactory.createTile(buffer, trackNames.length);
+			TDFTileCache.put(locator, ds.getName(), tileNumber, tile, buffer.length);
+			return tile;
 		} catch (Exception ex) {
 			String tileName = ds.getName() + "[" + tileNumber + "]";
 			log.log(Level.SEVERE, "Error reading data tile: " + tileName, ex);
@@ -377,7 +416,7 @@ public class TDFReader {
 		return trackNames;
 	}
 
-	private Double getValue(WindowFunction wf) {
+	private synchronized Double getValue(WindowFunction wf) {
 		if (!valueCache.containsKey(wf)) {
 			TDFGroup rootGroup = getGroup("/");
 			String maxString = rootGroup.getAttribute(wf.getDisplayName());
@@ -425,13 +464,51 @@ public class TDFReader {
 	}
 
 	public byte[] readBytes(long position, int nBytes) throws IOException {
-		// System.out.println("Seeking: " + position);
-		seekableStream.seek(position);
 		byte[] buffer = new byte[nBytes];
-		seekableStream.read(buffer, 0, nBytes);
+		FileChannel c = channel;
+		if (c != null) {
+			ByteBuffer bb = ByteBuffer.wrap(buffer);
+			while (bb.hasRemaining()) {
+				try {
+					if (c.read(bb, position + bb.position()) < 0)
+						throw new EOFException("Unexpected end of file: " + locator);
+				} catch (ClosedChannelException e) {
+					/*
+					 * An interrupt of any thread reading the channel closes
+					 * it for all of them. The interrupted read fails, the
+					 * others continue on a new channel.
+					 */
+					c = reopen(c);
+					if (c == null || e instanceof ClosedByInterruptException)
+						throw e;
+				}
+			}
+			return buffer;
+		}
+		synchronized (seekableStream) {
+			seekableStream.seek(position);
+			int read = 0;
+			while (read < nBytes) {
+				int r = seekableStream.read(buffer, read, nBytes - read);
+				if (r < 0)
+					throw new EOFException("Unexpected end of file: " + locator);
+				read += r;
+			}
+		}
 		return buffer;
 	}
 
+	/* Opens the file again when the channel was closed by an interrupt */
+	private synchronized FileChannel reopen(FileChannel old) throws IOException {
+		if (closed)
+			return null;
+		if (channel == old) {
+			raf = new RandomAccessFile(new File(locator), "r");
+			channel = raf.getChannel();
+		}
+		return channel;
+	}
+
 	/**
 	 * @return the windowFunctions
 	 */
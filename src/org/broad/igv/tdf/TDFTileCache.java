@@ -0,0 +1,116 @@
+/**
+ * %HEADER%
+ */
+package org.broad.igv.tdf;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded tiles of all open TDF files, so scrolling back and forth does not
+ * read and decompress the same tiles again.
+ *
+ * The cache is bounded by the decompressed size of the tiles and drops the
+ * least recently used ones first. The lock is only held to look up and
+ * insert tiles, reading and decoding happens outside of it.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class TDFTileCache {
+
+	private static final class Key {
+		private final String file;
+		private final String dataset;
+		private final int tile;
+
+		Key(String file, String dataset, int tile) {
+			this.file = file;
+			this.dataset = dataset;
+			this.tile = tile;
+		}
+
+		@Override
+		public int hashCode() {
+			return (file.hashCode() * 31 + dataset.hashCode()) * 31 + tile;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return tile == k.tile && dataset.equals(k.dataset) && file.equals(k.file);
+		}
+	}
+
+	private static final class Value {
+		private final TDFTile tile;
+		private final int bytes;
+
+		Value(TDFTile tile, int bytes) {
+			this.tile = tile;
+			this.bytes = bytes;
+		}
+	}
+
+	private static long maxBytes = 64L * 1024 * 1024;
+	private static long bytes = 0;
+	private static final LinkedHashMap<Key, Value> cache = new LinkedHashMap<Key, Value>(64, 0.75f, true);
+
+	/**
+	 * Sets the maximum total size of the cached tiles, 0 disables the cache.
+	 */
+	public static synchronized void setMaxBytes(long max) {
+		maxBytes = Math.max(0, max);
+		evict();
+	}
+
+	static synchronized long size() {
+		return bytes;
+	}
+
+	/**
+	 * @return the tile, or null when it is not in the cache
+	 */
+	static synchronized TDFTile get(String file, String dataset, int tile) {
+		Value v = cache.get(new Key(file, dataset, tile));
+		return v == null ? null : v.tile;
+	}
+
+	/**
+	 * @param size
+	 *            the decompressed size of the tile
+	 */
+	static synchronized void put(String file, String dataset, int tile, TDFTile value, int size) {
+		Value old = cache.put(new Key(file, dataset, tile), new Value(value, size));
+		if (old != null)
+			bytes -= old.bytes;
+		bytes += size;
+		evict();
+	}
+
+	/**
+	 * Removes all tiles of a file.
+	 */
+	static synchronized void remove(String file) {
+		Iterator<Map.Entry<Key, Value>> it = cache.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Value> e = it.next();
+			if (e.getKey().file.equals(file)) {
+				bytes -= e.getValue().bytes;
+				it.remove();
+			}
+		}
+	}
+
+	private static void evict() {
+		Iterator<Value> it = cache.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().bytes;
+			it.remove();
+		}
+	}
+
+}
@@ -32,6 +32,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,11 +42,20 @@ import org.broad.igv.tdf.TDFWriter.IndexEntry;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.CompressionUtils;
 
+import be.abeel.concurrency.DaemonThreadFactory;
+
 /**
  * Assumptions
  * <p/>
  * Little endian is used throughout Strings are null terminated ascii (single
  * byte
+ * <p/>
+ * Tiles can be written synchronously with {@link #writeTile} or handed off
+ * with {@link #submitTile}, which serializes and compresses them on a shared
+ * pool. Submitted tiles are appended to the file in the order they are
+ * finished, the tile positions in the dataset index make the order
+ * irrelevant to the reader. {@link #closeFile()} waits for all submitted
+ * tiles.
  * 
  * @author Thomas Abeel
  * @author jrobinso
@@ -63,6 +75,14 @@ public class TDFWriter {
 	private long indexPositionPosition;
 	private boolean compressed;
 
+	/* Shared by all writers, encoding tiles is pure CPU work */
+	private static final ExecutorService encoders = Executors.newFixedThreadPool(Runtime.getRuntime()
+			.availableProcessors(), new DaemonThreadFactory());
+	/* Maximum number of submitted tiles that are not written yet */
+	private static final int MAX_PENDING = 64;
+	private final Semaphore pending = new Semaphore(MAX_PENDING);
+	private volatile IOException failure = null;
+
 	public TDFWriter(File f, String genomeId, String trackType, String trackLine, String[] trackNames,
 			Collection<WindowFunction> windowFunctions, boolean compressed) {
 
@@ -173,10 +193,19 @@ public class TDFWriter {
 
 	/**
 	 * Write out the group and dataset index and close the underlying file.
+	 * When a tile or the index could not be written, the partial file is
+	 * deleted so it is never mistaken for a complete one.
+	 * 
+	 * @throws IOException
+	 *             the first error that occurred while writing the file
 	 */
-	public void closeFile() {
+	public void closeFile() throws IOException {
 
+		pending.acquireUninterruptibly(MAX_PENDING);
+		pending.release(MAX_PENDING);
 		try {
+			if (failure != null)
+				throw failure;
 			writeDatasets();
 			writeGroups();
 
@@ -189,26 +218,32 @@ public class TDFWriter {
 			writeIndexPosition(indexPosition, nbytes);
 
 		} catch (IOException ex) {
-			log.log(Level.SEVERE, "Error closing file");
+			log.log(Level.SEVERE, "Error writing " + file + ", deleting partial file", ex);
+			try {
+				fos.close();
+			} catch (IOException e) {
+				log.log(Level.FINE, "Error closing " + file, e);
+			}
+			if (!file.delete())
+				log.warning("Could not delete partial file " + file);
+			throw ex;
 		}
 	}
 
-	private void writeIndexPosition(long indexPosition, int nbytes) {
+	private void writeIndexPosition(long indexPosition, int nbytes) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
 		try {
-			RandomAccessFile raf = new RandomAccessFile(file, "rw");
 			raf.getChannel().position(indexPositionPosition);
 
-			System.out.println("Index position position: "+indexPositionPosition);
-			System.out.println("Index position: "+indexPosition);
-			System.out.println("nBytes: "+nbytes);
+			log.fine("Index position position: " + indexPositionPosition + ", index position: " + indexPosition
+					+ ", nBytes: " + nbytes);
 			// Write as little endian
 			BufferedByteWriter buffer = new BufferedByteWriter();
 			buffer.putLong(indexPosition);
 			buffer.putInt(nbytes);
 			raf.write(buffer.getBytes());
+		} finally {
 			raf.close();
-		} catch (IOException ex) {
-			ex.printStackTrace();
 		}
 	}
 
@@ -232,7 +267,7 @@ public class TDFWriter {
 		return group;
 	}
 
-	public TDFDataset createDataset(String name, TDFDataset.DataType dataType, int tileWidth, int nTiles) {
+	public synchronized TDFDataset createDataset(String name, TDFDataset.DataType dataType, int tileWidth, int nTiles) {
 
 		if (datasetCache.containsKey(name)) {
 			throw new RuntimeException("Dataset: " + name + " already exists");
@@ -243,51 +278,88 @@ public class TDFWriter {
 		return ds;
 	}
 
-	// Note this will only work for "fixed step" format. Others need location
-	// arrays
-	// Tile layout
-
-	public void writeTile(String dsId, int tileNumber, TDFTile tile) throws IOException {
-
+	private synchronized TDFDataset dataset(String dsId) {
 		TDFDataset dataset = datasetCache.get(dsId);
 		if (dataset == null) {
 			throw new java.lang.NoSuchFieldError("Dataset: " + dsId + " doese not exist.  "
 					+ "Call createDataset first");
 		}
-		long pos = bytesWritten;
+		return dataset;
+	}
 
-		if (tileNumber < dataset.tilePositions.length) {
-			dataset.tilePositions[tileNumber] = pos;
+	// Note this will only work for "fixed step" format. Others need location
+	// arrays
+	// Tile layout
 
-			// Write the tile contents to a byte buffer first, so we can
-			// optionally gzip it
+	public void writeTile(String dsId, int tileNumber, TDFTile tile) throws IOException {
 
-			BufferedByteWriter buffer = new BufferedByteWriter();
-			tile.writeTo(buffer);
+		TDFDataset dataset = dataset(dsId);
+		if (checkTileNumber(dataset, tileNumber))
+			append(dataset, tileNumber, encode(tile));
+	}
 
-			byte[] bytes = buffer.getBytes();
-			if (compressed) {
-				bytes = CompressionUtils.compress(bytes);
+	/**
+	 * Writes a tile in the background. The tile must not be modified after
+	 * it is submitted. Blocks when too many tiles are waiting to be written.
+	 * 
+	 * @throws IOException
+	 *             when writing a previously submitted tile failed
+	 */
+	public void submitTile(String dsId, final int tileNumber, final TDFTile tile) throws IOException {
+		if (failure != null)
+			throw failure;
+		final TDFDataset dataset = dataset(dsId);
+		if (!checkTileNumber(dataset, tileNumber))
+			return;
+		pending.acquireUninterruptibly();
+		encoders.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					append(dataset, tileNumber, encode(tile));
+				} catch (IOException e) {
+					failure = e;
+				} finally {
+					pending.release();
+				}
 			}
+		});
 
-			write(bytes);
-			int nBytes = bytes.length;
+	}
 
-			// tile.writeTo(fos);
-			// int nBytes = (int) (fos.bytesWritten() - pos); // bytes.length;
+	private boolean checkTileNumber(TDFDataset dataset, int tileNumber) {
+		if (tileNumber < dataset.tilePositions.length)
+			return true;
+		// The occasional tile number == tile array size is expected, but
+		// tile
+		// numbers larger than that are not
+		if (tileNumber > dataset.tilePositions.length) {
+			System.out.println("Unexpected tile number: " + tileNumber + " (max of " + dataset.tilePositions.length
+					+ " expected).");
+		}
+		return false;
+	}
 
-			dataset.tileSizes[tileNumber] = nBytes;
-		} else {
-			// The occasional tile number == tile array size is expected, but
-			// tile
-			// numbers larger than that are not
-			if (tileNumber > dataset.tilePositions.length) {
-				System.out.println("Unexpected tile number: " + tileNumber + " (max of " + dataset.tilePositions.length
-						+ " expected).");
-			}
+	/**
+	 * Write the tile contents to a byte buffer first, so we can optionally
+	 * gzip it
+	 */
+	private byte[] encode(TDFTile tile) throws IOException {
+		BufferedByteWriter buffer = new BufferedByteWriter();
+		tile.writeTo(buffer);
 
+		byte[] bytes = buffer.getBytes();
+		if (compressed) {
+			bytes = CompressionUtils.compress(bytes);
 		}
+		return bytes;
+	}
 
+	private synchronized void append(TDFDataset dataset, int tileNumber, byte[] bytes) throws IOException {
+		dataset.tilePositions[tileNumber] = bytesWritten;
+		write(bytes);
+		dataset.tileSizes[tileNumber] = bytes.length;
 	}
 
 	private void writeGroups() throws IOException {
@@ -0,0 +1,237 @@
+/**
+ * %HEADER%
+ */
+package org.broad.igv.tools;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Feeds the data of a TDF conversion to the raw data and zoom levels of the
+ * current chromosome.
+ *
+ * The parser calls {@link #addData} on its own thread. In parallel mode the
+ * data is collected in batches and every level is fed by its own thread, so
+ * the levels are accumulated at the same time while the parser goes on. Each
+ * level sees the data in the original order and is closed after its last
+ * data point, the same as in sequential mode.
+ *
+ * The data arrays are copied, the parser may reuse them.
+ *
+ * @author Thomas Abeel
+ *
+ */
+public class LevelPipeline {
+
+	/**
+	 * One level of a TDF file, only ever called from a single thread.
+	 */
+	public interface Level {
+		void addData(int start, int end, float[] data, String name);
+
+		void close();
+	}
+
+	private static final int BATCH_SIZE = 4096;
+	/* Batches a level may lag behind the parser */
+	private static final int QUEUE_SIZE = 16;
+
+	private static class Batch {
+		private final Level[] levels;
+		private final int[] start;
+		private final int[] end;
+		private final float[][] data;
+		private final String[] name;
+		private int size = 0;
+		/* Close the levels after this batch */
+		private boolean close = false;
+
+		Batch(Level[] levels, int capacity) {
+			this.levels = levels;
+			start = new int[capacity];
+			end = new int[capacity];
+			data = new float[capacity][];
+			name = new String[capacity];
+		}
+
+		boolean isFull() {
+			return size == start.length;
+		}
+
+		void add(int s, int e, float[] d, String n) {
+			start[size] = s;
+			end[size] = e;
+			data[size] = d;
+			name[size] = n;
+			size++;
+		}
+
+		void feed(Level level) {
+			for (int i = 0; i < size; i++)
+				level.addData(start[i], end[i], data[i], name[i]);
+			if (close)
+				level.close();
+		}
+	}
+
+	/* Marks the end of the data */
+	private static final Batch END = new Batch(new Level[0], 0);
+
+	private class Worker extends Thread {
+		private final int index;
+		private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_SIZE);
+
+		Worker(int index) {
+			super("TDF level " + index);
+			this.index = index;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				Batch b;
+				while ((b = queue.take()) != END) {
+					/* Keep draining after a failure, so the parser never blocks */
+					if (failure != null || index >= b.levels.length)
+						continue;
+					try {
+						b.feed(b.levels[index]);
+					} catch (Throwable t) {
+						failure = t;
+					}
+				}
+			} catch (InterruptedException e) {
+				failure = e;
+			}
+		}
+	}
+
+	private final Worker[] workers;
+	private Level[] levels = null;
+	private Batch batch = null;
+	private boolean finished = false;
+	private volatile Throwable failure = null;
+
+	/**
+	 * @param maxLevels
+	 *            the largest number of levels a chromosome will have
+	 * @param parallel
+	 *            feed the levels on separate threads, otherwise everything
+	 *            is done on the calling thread
+	 */
+	public LevelPipeline(int maxLevels, boolean parallel) {
+		if (parallel) {
+			workers = new Worker[maxLevels];
+			for (int i = 0; i < maxLevels; i++) {
+				workers[i] = new Worker(i);
+				workers[i].start();
+			}
+		} else {
+			workers = null;
+		}
+	}
+
+	/**
+	 * Closes the current levels and sends all following data to the given
+	 * ones.
+	 */
+	public void setLevels(Level[] next) {
+		if (workers != null && next.length > workers.length)
+			throw new IllegalArgumentException("Pipeline has " + workers.length + " workers, not " + next.length);
+		closeLevels();
+		levels = next;
+		batch = null;
+	}
+
+	public void addData(int start, int end, float[] data, String name) {
+		if (workers == null) {
+			for (Level l : levels)
+				l.addData(start, end, data, name);
+			return;
+		}
+		if (batch == null)
+			batch = new Batch(levels, BATCH_SIZE);
+		batch.add(start, end, data.clone(), name);
+		if (batch.isFull()) {
+			dispatch(batch);
+			batch = null;
+		}
+	}
+
+	private void closeLevels() {
+		if (levels == null)
+			return;
+		if (workers == null) {
+			for (Level l : levels)
+				l.close();
+		} else {
+			if (batch == null)
+				batch = new Batch(levels, 0);
+			batch.close = true;
+			dispatch(batch);
+			batch = null;
+		}
+		levels = null;
+	}
+
+	private void dispatch(Batch b) {
+		check();
+		try {
+			for (Worker w : workers)
+				w.queue.put(b);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void check() {
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (failure != null)
+			throw new RuntimeException(failure);
+	}
+
+	/**
+	 * Closes the current levels and waits until all data has been processed.
+	 */
+	public void finish() {
+		if (finished)
+			return;
+		try {
+			closeLevels();
+		} finally {
+			stop();
+		}
+		check();
+	}
+
+	/**
+	 * Stops the workers without closing the levels, for when the conversion
+	 * is abandoned. Does nothing when the pipeline is already finished.
+	 */
+	public void cancel() {
+		if (finished)
+			return;
+		levels = null;
+		batch = null;
+		stop();
+	}
+
+	private void stop() {
+		finished = true;
+		if (workers == null)
+			return;
+		for (Worker w : workers) {
+			try {
+				w.queue.put(END);
+				w.join();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+}
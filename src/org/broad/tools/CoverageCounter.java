@@ -25,17 +25,27 @@ package org.broad.tools;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-
-import net.sf.samtools.AlignmentBlock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.CigarOperator;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMRecord;
 import net.sf.samtools.SAMRecordIterator;
 import net.sf.samtools.SAMSequenceDictionary;
 import net.sf.samtools.SAMSequenceRecord;
+import be.abeel.concurrency.DaemonThreadFactory;
 
 /**
  *   TODO -- normalize option
@@ -47,11 +57,23 @@ import net.sf.samtools.SAMSequenceRecord;
  */
 
 /**
+ * Computes the forward and reverse coverage of a BAM file.
+ *
+ * Every sequence is split in regions that are counted in parallel, each
+ * worker thread has its own {@link SAMFileReader}. A region counts the
+ * alignment blocks that overlap it in two difference arrays, one increment at
+ * the start and one decrement at the end of a block, and sums them in a
+ * single pass afterwards. The regions are handed to the consumer in order, so
+ * it receives the buckets sorted by position as before.
+ *
  * @author jrobinso
  * @author Thomas Abeel
  */
 class CoverageCounter {
 
+	/* Approximate number of bases in a region */
+	private static final int REGION = 1 << 20;
+
 	private String alignmentFile;
 	private Preprocessor consumer;
 	private float[] buffer;
@@ -61,10 +83,24 @@ class CoverageCounter {
 	// FIXME What's this supposed to do?
 	// private int strandOption = -1;
 	private int extFactor;
-	private int totalCount = 0;
+	private AtomicInteger totalCount = new AtomicInteger(0);
+	private int threads = Runtime.getRuntime().availableProcessors();
 
 	private SAMSequenceDictionary genome;
 
+	/* Count arrays of regions that have been passed on */
+	private ConcurrentLinkedQueue<int[][]> free = new ConcurrentLinkedQueue<int[][]>();
+	/* Every worker thread opens its own reader */
+	private List<SAMFileReader> readers = Collections.synchronizedList(new ArrayList<SAMFileReader>());
+	private ThreadLocal<SAMFileReader> reader = new ThreadLocal<SAMFileReader>() {
+		@Override
+		protected SAMFileReader initialValue() {
+			SAMFileReader sfr = new SAMFileReader(new File(alignmentFile));
+			readers.add(sfr);
+			return sfr;
+		}
+	};
+
 	CoverageCounter(String alignmentFile, Preprocessor consumer, int windowSize, int extFactor, File wigFile,
 			SAMSequenceDictionary genome2) {
 		/* This should be a BAM file */
@@ -78,6 +114,10 @@ class CoverageCounter {
 		buffer = new float[2];// strandOption < 0 ? new float[1] : new float[2];
 	}
 
+	void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
 	private boolean passFilter(SAMRecord alignment) {
 
 		return !alignment.getReadUnmappedFlag() && !alignment.getDuplicateReadFlag()
@@ -86,180 +126,167 @@ class CoverageCounter {
 
 	void parse() throws IOException, URISyntaxException {
 
-		int tolerance = (int) (windowSize * (Math.floor(extFactor / windowSize) + 2));
-
-		SAMFileReader sfr = new SAMFileReader(new File(alignmentFile));
-
-		// DataSourceFactory.createFile(new File(alignmentFile +
-		// ".bai")).read(genome);
-
-		String lastChr = "";
-		ReadCounter counter = null;
-
-		for (SAMSequenceRecord e : genome.getSequences()) {
-			SAMRecordIterator it = sfr.queryOverlapping(e.getSequenceName(), 1, e.getSequenceLength());
-			// for (DataKey dk : e) {
-			// Data<?> data = e.get(dk);
-			// if (data instanceof ReadGroup) {
-			// for (SAMRecord alignment : ) {
-			while (it.hasNext()) {
-				SAMRecord alignment = it.next();
-				if (passFilter(alignment)) {
-
-					totalCount++;
-
-					String alignmentChr = e.getSequenceName();
-
-					if (alignmentChr.equals(lastChr)) {
-						if (counter != null) {
-							counter.closeBucketsBefore(alignment.getAlignmentStart() - tolerance);
-						}
-					} else {
-						if (counter != null) {
-							counter.closeBucketsBefore(Integer.MAX_VALUE);
-						}
-						counter = new ReadCounter(alignmentChr);
-						lastChr = alignmentChr;
-					}
-
-					AlignmentBlock[] blocks = alignment.getAlignmentBlocks().toArray(new AlignmentBlock[0]);
-					if (blocks != null) {
-						for (AlignmentBlock block : blocks) {
-
-							int adjustedStart = block.getReferenceStart();// block.getStart();
-							// FIXME Is this the correct coordinate?
-							int adjustedEnd = block.getReferenceStart() + block.getLength();// block.getEnd();
-							if (alignment.getReadNegativeStrandFlag()) {
-								adjustedStart = Math.max(0, adjustedStart - extFactor);
-							} else {
-								adjustedEnd += extFactor;
-							}
-
-							for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-
-								if (!alignment.getReadNegativeStrandFlag())
-									counter.incrementCount(pos);
-								else
-									counter.incrementNegCount(pos);
-							}
-						}
-					} else {
-						int adjustedStart = alignment.getAlignmentStart();
-						// FIXME is this correct?
-						int adjustedEnd = alignment.getAlignmentEnd();
-						if (alignment.getReadNegativeStrandFlag()) {
-							adjustedStart = Math.max(0, adjustedStart - extFactor);
-						} else {
-							adjustedEnd += extFactor;
-						}
-
-						for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-							if (!alignment.getReadNegativeStrandFlag())
-								counter.incrementCount(pos);
-							else
-								counter.incrementNegCount(pos);
+		/* Regions never split a bucket */
+		int regionSize = (REGION + windowSize - 1) / windowSize * windowSize;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+		ArrayDeque<Future<Region>> pending = new ArrayDeque<Future<Region>>();
+		try {
+			for (SAMSequenceRecord e : genome.getSequences()) {
+				String chr = e.getSequenceName();
+				/* Positions of extended reads may go past the end */
+				int last = e.getSequenceLength() + extFactor + 1;
+				for (int start = 0; start < last; start += regionSize) {
+					/* Limit the number of regions that are kept in memory */
+					if (pending.size() >= 2 * threads)
+						emit(pending.poll());
+					final Region r = new Region(chr, start, Math.min(last, start + regionSize));
+					pending.add(pool.submit(new Callable<Region>() {
+
+						@Override
+						public Region call() throws Exception {
+							r.count();
+							return r;
 						}
-					}
+					}));
 				}
-
-				// }
-				// }
-
 			}
-			it.close();
-		}
-
-		if (counter != null) {
-			counter.closeBucketsBefore(Integer.MAX_VALUE);
+			while (!pending.isEmpty())
+				emit(pending.poll());
+		} finally {
+			for (Future<Region> f : pending)
+				f.cancel(true);
+			pool.shutdown();
+			for (SAMFileReader sfr : readers)
+				sfr.close();
+			readers.clear();
 		}
 
-		consumer.setAttribute("totalCount", String.valueOf(totalCount));
+		consumer.setAttribute("totalCount", String.valueOf(totalCount.get()));
 		// FIXME??consumer.parsingComplete();
 		// FIXME?? consumer.finish();//
 
 	}
 
-	class ReadCounter {
-
-		String chr;
-		TreeMap<Integer, Counter> counts = new TreeMap<Integer, Counter>();
-
-		ReadCounter(String chr) {
-			this.chr = chr;
-		}
-
-		void incrementCount(int position) {
-			Integer bucket = position / windowSize;
-			if (!counts.containsKey(bucket)) {
-				counts.put(bucket, new Counter());
-			}
-			counts.get(bucket).increment();
+	private void emit(Future<Region> f) throws IOException {
+		try {
+			f.get().emit();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
 		}
+	}
 
-		void incrementNegCount(int position) {
-			Integer bucket = position / windowSize;
-			if (!counts.containsKey(bucket)) {
-				counts.put(bucket, new Counter());
-			}
-			counts.get(bucket).incrementNeg();
+	/**
+	 * Coverage of positions [start,end[ of a sequence.
+	 */
+	private class Region {
+		private final String chr;
+		private final int start;
+		private final int end;
+		/* Forward and reverse, one extra for the decrement at the end */
+		private int[][] counts;
+
+		Region(String chr, int start, int end) {
+			this.chr = chr;
+			this.start = start;
+			this.end = end;
 		}
 
-		void closeBucketsBefore(int position) {
-			List<Integer> bucketsToClose = new ArrayList<Integer>();
-
-			Integer bucket = position / windowSize;
-			for (Map.Entry<Integer, Counter> entry : counts.entrySet()) {
-				if (entry.getKey() < bucket) {
-
-					// Divide total count by window size. This is the average
-					// count per
-					// base over the window, so 30x coverage remains 30x
-					// irrespective of window size.
-					int bucketStartPosition = entry.getKey() * windowSize;
-					int bucketEndPosition = bucketStartPosition + windowSize;
-					if (genome != null) {
-						SAMSequenceRecord chromosome = genome.getSequence(chr);
-						if (chromosome != null) {
-							bucketEndPosition = Math.min(bucketEndPosition, chromosome.getSequenceLength());
+		void count() {
+			counts = free.poll();
+			int len = end - start + 1;
+			if (counts == null || counts[0].length < len)
+				counts = new int[2][len];
+			int[] f = counts[0];
+			int[] r = counts[1];
+
+			SAMRecordIterator it = reader.get().queryOverlapping(chr, Math.max(1, start - extFactor),
+					Math.max(1, end - 1 + extFactor));
+			try {
+				while (it.hasNext()) {
+					SAMRecord alignment = it.next();
+					if (!passFilter(alignment))
+						continue;
+					/* Reads are counted in the region where they start */
+					int as = alignment.getAlignmentStart();
+					if (as >= start && as < end)
+						totalCount.incrementAndGet();
+
+					boolean negative = alignment.getReadNegativeStrandFlag();
+					int[] diff = negative ? r : f;
+					/* Walk the cigar, M, = and X are the alignment blocks */
+					int refPos = as;
+					for (CigarElement ce : alignment.getCigar().getCigarElements()) {
+						CigarOperator op = ce.getOperator();
+						if (op.consumesReadBases() && op.consumesReferenceBases()) {
+							int adjustedStart = refPos;
+							int adjustedEnd = refPos + ce.getLength();
+							if (negative) {
+								adjustedStart = Math.max(0, adjustedStart - extFactor);
+							} else {
+								adjustedEnd += extFactor;
+							}
+							adjustedStart = Math.max(start, adjustedStart);
+							adjustedEnd = Math.min(end, adjustedEnd);
+							if (adjustedStart < adjustedEnd) {
+								diff[adjustedStart - start]++;
+								diff[adjustedEnd - start]--;
+							}
 						}
+						if (op.consumesReferenceBases())
+							refPos += ce.getLength();
 					}
-					int bucketSize = bucketEndPosition - bucketStartPosition;
-
-					buffer[0] = ((float) entry.getValue().getCount()) / bucketSize;
-					buffer[1] = ((float) entry.getValue().getNegCount()) / bucketSize;
-
-					consumer.addData(chr, bucketStartPosition, bucketEndPosition, buffer, null);
-
-					bucketsToClose.add(entry.getKey());
 				}
+			} finally {
+				it.close();
 			}
-
-			for (Integer key : bucketsToClose) {
-				counts.remove(key);
-			}
-
 		}
-	}
-
-	private class Counter {
-
-		int count = 0;
-		int negCount = 0;
 
-		void increment() {
-			count++;
-		}
-
-		void incrementNeg() {
-			negCount++;
-		}
-
-		int getCount() {
-			return count;
-		}
-
-		int getNegCount() {
-			return negCount;
+		/**
+		 * Passes the non-empty buckets to the consumer and recycles the count
+		 * arrays.
+		 */
+		void emit() {
+			int[] f = counts[0];
+			int[] r = counts[1];
+			int chrLength = Integer.MAX_VALUE;
+			SAMSequenceRecord chromosome = genome.getSequence(chr);
+			if (chromosome != null)
+				chrLength = chromosome.getSequenceLength();
+
+			int fcov = 0;
+			int rcov = 0;
+			for (int bucketStartPosition = start; bucketStartPosition < end; bucketStartPosition += windowSize) {
+				long fsum = 0;
+				long rsum = 0;
+				int bucketEnd = Math.min(end, bucketStartPosition + windowSize);
+				for (int pos = bucketStartPosition; pos < bucketEnd; pos++) {
+					fcov += f[pos - start];
+					rcov += r[pos - start];
+					fsum += fcov;
+					rsum += rcov;
+				}
+				if (fsum == 0 && rsum == 0)
+					continue;
+				// Divide total count by window size. This is the average
+				// count per base over the window, so 30x coverage remains 30x
+				// irrespective of window size.
+				int bucketEndPosition = Math.min(bucketStartPosition + windowSize, chrLength);
+				int bucketSize = bucketEndPosition - bucketStartPosition;
+
+				buffer[0] = ((float) fsum) / bucketSize;
+				buffer[1] = ((float) rsum) / bucketSize;
+
+				consumer.addData(chr, bucketStartPosition, bucketEndPosition, buffer, null);
+			}
+			Arrays.fill(f, 0, end - start + 1, 0);
+			Arrays.fill(r, 0, end - start + 1, 0);
+			free.add(counts);
+			counts = null;
 		}
 	}
 
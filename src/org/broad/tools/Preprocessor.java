@@ -46,6 +46,7 @@ import org.broad.igv.tdf.TDFTile;
 import org.broad.igv.tdf.TDFVaryTile;
 import org.broad.igv.tdf.TDFWriter;
 import org.broad.igv.tools.Accumulator;
+import org.broad.igv.tools.LevelPipeline;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.collections.FloatArrayList;
 import org.broad.igv.util.collections.IntArrayList;
@@ -76,6 +77,8 @@ class Preprocessor {
 	private HashSet<String> skippedChromosomes = new HashSet<String>();
 	private TDFWriter writer;
 	private Raw rawData;
+	private LevelPipeline pipeline;
+	private boolean parallel = true;
 //	private Zoom genomeZoom;
 	private File outputFile;
 	private Accumulator allDataStats;
@@ -116,6 +119,7 @@ class Preprocessor {
 		if (outputFile != null && writer == null) {
 			writer = new TDFWriter(outputFile, genomeID, trackType, trackLine, trackNames, windowFunctions, compressed);
 			nTracks = trackNames.length;
+			pipeline = new LevelPipeline(nZoom + 2, parallel);
 
 			// Convert genome coordinates from bp to kbp
 //			int genomeLength = (int) (getLength(genome.getSequences()) / 1000);
@@ -194,13 +198,8 @@ class Preprocessor {
 			return;
 		}
 
-		// Add to raw data
-		rawData.addData(start, end, data, name);
-
-		// Zoom levels
-		for (Zoom zl : zoomLevels) {
-			zl.addData(start, end, data);
-		}
+		// Raw data and zoom levels
+		pipeline.addData(start, end, data, name);
 
 //		// Whole genome
 //		long offset = getCumulativeOffset(genome,chr);
@@ -256,14 +255,6 @@ class Preprocessor {
 
 			out.println();
 			out.println("Processing chromosome " + chr);
-			if (zoomLevels != null) {
-				for (Zoom zl : zoomLevels) {
-					zl.close();
-				}
-			}
-			if (rawData != null) {
-				rawData.close();
-			}
 
 			currentChr = chr;
 			currentChrLength = c.getSequenceLength();
@@ -273,6 +264,10 @@ class Preprocessor {
 			}
 
 			rawData = new Raw(chr, currentChrLength, 100000);
+			LevelPipeline.Level[] levels = new LevelPipeline.Level[zoomLevels.length + 1];
+			levels[0] = rawData;
+			System.arraycopy(zoomLevels, 0, levels, 1, zoomLevels.length);
+			pipeline.setLevels(levels);
 		}
 		lastStartPosition = 0;
 
@@ -285,7 +280,7 @@ class Preprocessor {
 	//
 	// }
 
-	void finish() {
+	void finish() throws IOException {
 		if (writer == null) {
 			return;
 		}
@@ -304,11 +299,7 @@ class Preprocessor {
 			writer.getRootGroup().setAttribute(entry.getKey(), entry.getValue());
 		}
 
-		if (zoomLevels != null) {
-			for (Zoom zl : zoomLevels) {
-				zl.close();
-			}
-		}
+		pipeline.finish();
 //		genomeZoom.close();
 
 		if (rawData == null) {
@@ -316,8 +307,6 @@ class Preprocessor {
 			out.println("No features were found that matched chromosomes in genome: " + genome);
 
 		} else {
-			rawData.close();
-
 			// Record max/min
 			allDataStats.finish();
 			TDFGroup group = writer.getGroup("/");
@@ -436,7 +425,7 @@ class Preprocessor {
 
 					String[] n = nameList == null ? null : nameList.toArray(new String[] {});
 					TDFBedTile tile = new TDFBedTile(tileStart, s, e, d, n);
-					writer.writeTile(dsName, tileNumber, tile);
+					writer.submitTile(dsName, tileNumber, tile);
 					startArray.clear();
 					endArray.clear();
 					for (int i = 0; i < dataArray.length; i++) {
@@ -452,7 +441,7 @@ class Preprocessor {
 	/**
 	 * Class representing the raw dataset
 	 */
-	private class Raw {
+	private class Raw implements LevelPipeline.Level {
 
 		//private String chr;
 		private String dsName;
@@ -474,7 +463,8 @@ class Preprocessor {
 		 * @param end
 		 * @param data
 		 */
-		private void addData(int start, int end, float[] data, String name) {
+		@Override
+		public void addData(int start, int end, float[] data, String name) {
 
 			int startTileNumber = (int) (start / tileWidth);
 			int endTileNumber = (int) (end / tileWidth);
@@ -516,7 +506,8 @@ class Preprocessor {
 			nPtsProcessed++;
 		}
 
-		void close() {
+		@Override
+		public void close() {
 			for (RawTile t : activeTiles.values()) {
 				t.close();
 			}
@@ -528,7 +519,7 @@ class Preprocessor {
 	/**
 	 * Class representing all the data for a particular zoom level.
 	 */
-	private class Zoom {
+	private class Zoom implements LevelPipeline.Level {
 
 		int level;
 		int tileWidth;
@@ -547,7 +538,8 @@ class Preprocessor {
 			}
 		}
 
-		private void addData(int start, int end, float[] data) {
+		@Override
+		public void addData(int start, int end, float[] data, String name) {
 
 			int startTile = start / tileWidth;
 			int endTile = end / tileWidth;
@@ -577,7 +569,8 @@ class Preprocessor {
 
 		// Close all active tiles
 
-		private void close() {
+		@Override
+		public void close() {
 			for (Tile t : activeTiles.values()) {
 				t.close();
 			}
@@ -699,7 +692,7 @@ class Preprocessor {
 
 				String dsName = datasets.get(wf).getName();
 				try {
-					writer.writeTile(dsName, tileNumber, tile);
+					writer.submitTile(dsName, tileNumber, tile);
 				} catch (IOException iOException) {
 					log.log(Level.SEVERE, "Error writing tile: " + dsName + " [" + tileNumber + "]", iOException);
 					// TODO -- replace with PreprocessorException
@@ -723,7 +716,15 @@ class Preprocessor {
 		this.setSkipZeroes(true);
 		CoverageCounter aParser = new CoverageCounter(iFile, this, 1, 0, null, genome	);
 //		setSizeEstimate((int) (getLength(genome.getSequences())));
-		aParser.parse();
+		boolean parsed = false;
+		try {
+			aParser.parse();
+			parsed = true;
+		} finally {
+			/* finish() is not called when parsing fails */
+			if (!parsed)
+				pipeline.cancel();
+		}
 	}
 
 //	private HashMap<String,Sting>attributes=new HashMap<String, String>();